@@ -0,0 +1,32 @@
+package com.example.kline.bench;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 基准测试入口, 参数与 JMH 命令行一致
+ *
+ * 未指定 -rf/-rff 时默认输出 JSON 到 jmh-result.json, 便于不同提交之间对比;
+ * 例如 java -jar bench/target/benchmarks.jar RedisKlineCacheBenchmark -rff before.json
+ *
+ * @author xubohan@myhexin.com
+ * @date 2026-10-17 17:00:00
+ */
+public final class BenchMain {
+    private BenchMain() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<String> argv = new ArrayList<>(Arrays.asList(args));
+        if (!argv.contains("-rf")) {
+            argv.add("-rf");
+            argv.add("json");
+        }
+        if (!argv.contains("-rff")) {
+            argv.add("-rff");
+            argv.add("jmh-result.json");
+        }
+        org.openjdk.jmh.Main.main(argv.toArray(new String[0]));
+    }
+}
@@ -0,0 +1,60 @@
+package com.example.kline.interfaces.consumer;
+
+import com.example.kline.modules.kline.domain.entity.TimelineTick;
+import com.example.kline.modules.kline.infrastructure.cache.RedisKlineCache;
+import com.example.kline.modules.kline.infrastructure.db.dao.KlineDao;
+import com.example.kline.modules.kline.infrastructure.db.repository.KlineRepositoryImpl;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Kafka 分时消息解析与校验 {@link TimelineConsumer#parseTick} 基准
+ * valid 走 {@link TimelineTickParser} 快速路径, fallback/invalid 回退到 Jackson 绑定
+ *
+ * @author xubohan@myhexin.com
+ * @date 2026-10-17 17:00:00
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TimelineMessageBenchmark {
+    private static final String VALID = "{\"topic\":\"timeline\",\"stock_minute_data\":{\"stockCode\":\"300033\","
+        + "\"marketId\":\"33\",\"price\":\"86.96\",\"date\":\"20200101\",\"time\":\"0931\",\"vol\":1200}}";
+    // 5 位小数, 快速路径不处理, 回退到 Jackson 后解析成功
+    private static final String FALLBACK = "{\"topic\":\"timeline\",\"stock_minute_data\":{\"stockCode\":\"300033\","
+        + "\"marketId\":\"33\",\"price\":\"86.96001\",\"date\":\"20200101\",\"time\":\"0931\",\"vol\":1200}}";
+    // 日期格式错误, 走完整解析后在校验阶段丢弃
+    private static final String INVALID = "{\"topic\":\"timeline\",\"stock_minute_data\":{\"stockCode\":\"300033\","
+        + "\"marketId\":\"33\",\"price\":\"86.96\",\"date\":\"2020-01-01\",\"time\":\"0931\"}}";
+
+    @Param({"valid", "fallback", "invalid"})
+    public String message;
+
+    private TimelineConsumer consumer;
+    private String payload;
+
+    @Setup
+    public void setup() {
+        System.setProperty("app.redis.external", "false");
+        consumer = new TimelineConsumer(new KlineRepositoryImpl(new RedisKlineCache(), new KlineDao()));
+        payload = "valid".equals(message) ? VALID : "fallback".equals(message) ? FALLBACK : INVALID;
+    }
+
+    @Benchmark
+    public TimelineTick parseTick() throws Exception {
+        return consumer.parseTick(payload);
+    }
+}
@@ -0,0 +1,78 @@
+package com.example.kline.interfaces.rest;
+
+import com.example.kline.modules.kline.domain.entity.KlineResponse;
+import com.example.kline.modules.kline.domain.entity.PricePoint;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * /kline 响应构建基准: {@link ApiController} 通过 {@link KlineResponseWriter} 流式写出的 JSON
+ *
+ * @author xubohan@myhexin.com
+ * @date 2026-10-17 17:00:00
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KlineResponseWriterBenchmark {
+    /** 响应中的点数 */
+    @Param({"240", "1000"})
+    public int points;
+
+    private KlineResponseWriter writer;
+    private KlineResponse response;
+    private CountingOutputStream out;
+
+    @Setup
+    public void setup() {
+        writer = new KlineResponseWriter();
+        out = new CountingOutputStream();
+        response = new KlineResponse();
+        response.setStockcode("300033");
+        response.setMarketId("33");
+        for (int i = 0; i < points; i++) {
+            PricePoint p = new PricePoint();
+            p.setTs(1577836800L + i * 60L);
+            p.setClose(BigDecimal.valueOf(8696 + i % 100, 2));
+            response.addPricePoint(p);
+        }
+    }
+
+    @Benchmark
+    public long write() throws IOException {
+        out.count = 0;
+        writer.write(out, "300033", "33", "wu han", response);
+        return out.count;
+    }
+
+    /** 只计数的输出流, 排除 I/O 开销 */
+    static final class CountingOutputStream extends OutputStream {
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.example.kline.modules.kline.infrastructure.cache;
+
+import com.example.kline.modules.kline.domain.entity.PricePoint;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Redis 字符串值解析 {@link RedisKlineCache#parsePoints} 基准, 覆盖两种 JSON 结构:
+ * - points:   PricePoint 数组 (ts/open/high/low/close/vol)
+ * - timeline: 分时消息数组 (stockCode/marketId/price/date/time), 需要先尝试 PricePoint 再回退
+ *
+ * @author xubohan@myhexin.com
+ * @date 2026-10-17 17:00:00
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParsePointsBenchmark {
+    private static final DateTimeFormatter DATE_FMT = DateTimeFormatter.ofPattern("yyyyMMdd").withZone(ZoneOffset.UTC);
+    private static final DateTimeFormatter TIME_FMT = DateTimeFormatter.ofPattern("HHmm").withZone(ZoneOffset.UTC);
+
+    @Param({"points", "timeline"})
+    public String schema;
+
+    @Param({"240", "5000"})
+    public int size;
+
+    private RedisKlineCache cache;
+    private String json;
+
+    @Setup
+    public void setup() throws Exception {
+        System.setProperty("app.redis.external", "false");
+        cache = new RedisKlineCache();
+        ObjectMapper mapper = new ObjectMapper();
+        List<PricePoint> points = RedisKlineCacheBenchmark.history("300033", "33", size).getData();
+        if ("points".equals(schema)) {
+            json = mapper.writeValueAsString(points);
+        } else {
+            List<Map<String, Object>> rows = new ArrayList<>(points.size());
+            for (PricePoint p : points) {
+                Instant t = Instant.ofEpochSecond(p.getTs());
+                Map<String, Object> row = new LinkedHashMap<>();
+                row.put("stockCode", "300033");
+                row.put("marketId", "33");
+                row.put("price", p.getClose());
+                row.put("date", DATE_FMT.format(t));
+                row.put("time", TIME_FMT.format(t));
+                rows.add(row);
+            }
+            json = mapper.writeValueAsString(rows);
+        }
+    }
+
+    @Benchmark
+    public List<PricePoint> parsePoints() throws Exception {
+        return cache.parsePoints(json);
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.kline.modules.kline.infrastructure.cache;
+
+import com.example.kline.modules.kline.domain.entity.KlineResponse;
+import com.example.kline.modules.kline.domain.entity.PricePoint;
+import java.math.BigDecimal;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 内存模式 {@link RedisKlineCache#getRange} 基准: 不同历史长度与查询区间宽度
+ *
+ * @author xubohan@myhexin.com
+ * @date 2026-10-17 17:00:00
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RedisKlineCacheBenchmark {
+    static final String STOCK = "300033";
+    static final String MARKET = "33";
+    static final long BASE_TS = 1577836800L;
+
+    /** 已有的 1m bar 数 */
+    @Param({"1000", "10000", "100000"})
+    public int historySize;
+
+    /** 查询区间覆盖的分钟数, 0 表示不带 startTs/endTs 查全部 */
+    @Param({"60", "1440", "0"})
+    public int rangeMinutes;
+
+    private RedisKlineCache cache;
+
+    @Setup
+    public void setup() {
+        System.setProperty("app.redis.external", "false");
+        cache = new RedisKlineCache();
+        cache.putBatch(history(STOCK, MARKET, historySize), 0);
+    }
+
+    @Benchmark
+    public KlineResponse getRange() {
+        if (rangeMinutes == 0) {
+            return cache.getRange(STOCK, MARKET, null, null, null);
+        }
+        int span = Math.max(1, historySize - rangeMinutes);
+        long start = BASE_TS + ThreadLocalRandom.current().nextInt(span) * 60L;
+        return cache.getRange(STOCK, MARKET, start, start + (rangeMinutes - 1) * 60L, null);
+    }
+
+    static KlineResponse history(String stockcode, String marketId, int size) {
+        KlineResponse resp = new KlineResponse();
+        resp.setStockcode(stockcode);
+        resp.setMarketId(marketId);
+        for (int i = 0; i < size; i++) {
+            BigDecimal price = BigDecimal.valueOf(1000 + (i % 500), 2);
+            PricePoint p = new PricePoint();
+            p.setTs(BASE_TS + i * 60L);
+            p.setOpen(price);
+            p.setHigh(price.add(BigDecimal.ONE));
+            p.setLow(price.subtract(BigDecimal.ONE));
+            p.setClose(price);
+            p.setVol((long) i);
+            resp.addPricePoint(p);
+        }
+        return resp;
+    }
+}
@@ -0,0 +1,107 @@
+package com.example.kline.modules.kline.infrastructure.db.dao;
+
+import com.example.kline.modules.kline.domain.entity.PricePoint;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link KlineDao} 并发读写基准: 3 个写线程 insertBatch 与 1 个读线程 selectRange 同时运行
+ *
+ * 每轮迭代重建 DAO, 避免写入累积让后续迭代越来越慢。
+ *
+ * @author xubohan@myhexin.com
+ * @date 2026-10-17 17:00:00
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KlineDaoBenchmark {
+    private static final long BASE_TS = 1577836800L;
+
+    /** 参与写入的股票数 */
+    @Param({"1", "100"})
+    public int symbols;
+
+    /** 每次 insertBatch 的点数 */
+    @Param({"1", "60"})
+    public int batchSize;
+
+    private KlineDao dao;
+    private final AtomicLong minute = new AtomicLong();
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        dao = new KlineDao();
+        minute.set(0);
+        // 预置 1000 个点, 读线程一开始就有数据可查
+        for (int s = 0; s < symbols; s++) {
+            dao.insertBatch(code(s), "33", batch(0, 1000));
+        }
+        minute.set(1000);
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(3)
+    public int insertBatch() {
+        long start = minute.getAndAdd(batchSize);
+        return dao.insertBatch(code(ThreadLocalRandom.current().nextInt(symbols)), "33", batch(start, batchSize));
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(1)
+    public List<PricePoint> selectRange() {
+        long start = BASE_TS + ThreadLocalRandom.current().nextInt(1000) * 60L;
+        return dao.selectRange(code(ThreadLocalRandom.current().nextInt(symbols)), "33", start, start + 3600L, null);
+    }
+
+    private static String code(int s) {
+        return Integer.toString(300000 + s);
+    }
+
+    private static List<PricePoint> batch(long startMinute, int n) {
+        if (n == 1) {
+            return Collections.singletonList(point(startMinute));
+        }
+        List<PricePoint> out = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            out.add(point(startMinute + i));
+        }
+        return out;
+    }
+
+    private static PricePoint point(long m) {
+        BigDecimal price = BigDecimal.valueOf(8696 + m % 100, 2);
+        PricePoint p = new PricePoint();
+        p.setTs(BASE_TS + m * 60L);
+        p.setOpen(price);
+        p.setHigh(price);
+        p.setLow(price);
+        p.setClose(price);
+        p.setVol(m);
+        return p;
+    }
+}
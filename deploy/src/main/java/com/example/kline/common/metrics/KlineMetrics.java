@@ -0,0 +1,120 @@
+package com.example.kline.common.metrics;
+
+import com.example.kline.modules.kline.infrastructure.cache.SymbolRegistry;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 查询与写入链路的 Micrometer 计时器
+ *
+ * 计时器按 (名称, 标签) 缓存, 热点路径上只做一次 map 查找; 标签只允许有界取值:
+ * - market: 只接受在写入路径 (消费/导入) 注册过的 marketId ({@link SymbolRegistry#hasMarket}), 其余一律记为 other;
+ *   不同取值超过 app.metrics.max-markets 后同样记为 other (查询参数不会产生新的时间序列)
+ * - op / stage / mode: 代码中的常量
+ * 股票代码从不作为标签。app.metrics.histogram=true 时发布直方图桶, 供 Prometheus 计算分位数。
+ *
+ * @author xubohan@myhexin.com
+ * @date 2026-10-17 17:20:00
+ */
+@Component
+public class KlineMetrics {
+    public static final String OTHER = "other";
+
+    private final MeterRegistry registry;
+    private final boolean histogram;
+    private final int maxMarkets;
+    private final SymbolRegistry symbols;
+    private final Map<String, Map<String, Timer>> timers = new ConcurrentHashMap<>();
+    private final Map<String, Boolean> markets = new ConcurrentHashMap<>();
+
+    // 无参构造函数，用于测试
+    public KlineMetrics() {
+        this.registry = new SimpleMeterRegistry();
+        this.histogram = false;
+        this.maxMarkets = 64;
+        this.symbols = new SymbolRegistry();
+    }
+
+    @Autowired
+    public KlineMetrics(MeterRegistry registry, Environment env, SymbolRegistry symbols) {
+        this.registry = registry;
+        this.symbols = symbols;
+        this.histogram = env.getProperty("app.metrics.histogram", Boolean.class, true);
+        this.maxMarkets = Math.max(1, env.getProperty("app.metrics.max-markets", Integer.class, 64));
+    }
+
+    public MeterRegistry getRegistry() {
+        return registry;
+    }
+
+    /**
+     * 取 (或创建) 单标签计时器
+     */
+    public Timer timer(String name, String tagKey, String tagValue) {
+        String value = tagValue == null ? OTHER : tagValue;
+        Map<String, Timer> byValue = timers.computeIfAbsent(name + '|' + tagKey, k -> new ConcurrentHashMap<>());
+        Timer t = byValue.get(value);
+        if (t == null) {
+            t = byValue.computeIfAbsent(value, v -> build(name, tagKey, v, null, null));
+        }
+        return t;
+    }
+
+    /**
+     * 取 (或创建) 双标签计时器
+     */
+    public Timer timer(String name, String k1, String v1, String k2, String v2) {
+        String value = v1 + '|' + v2;
+        Map<String, Timer> byValue = timers.computeIfAbsent(name + '|' + k1 + '|' + k2, k -> new ConcurrentHashMap<>());
+        Timer t = byValue.get(value);
+        if (t == null) {
+            t = byValue.computeIfAbsent(value, v -> build(name, k1, v1, k2, v2));
+        }
+        return t;
+    }
+
+    /**
+     * 按 market 标签计时, 未在写入路径注册的市场或超出上限后归入 {@link #OTHER}
+     */
+    public Timer marketTimer(String name, String marketId) {
+        return timer(name, "market", market(marketId));
+    }
+
+    /**
+     * 记录从 startNanos 到现在的耗时
+     */
+    public static void record(Timer timer, long startNanos) {
+        timer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private String market(String marketId) {
+        if (marketId == null || marketId.isEmpty()) return OTHER;
+        if (markets.containsKey(marketId)) return marketId;
+        // 未注册的市场不占名额, 之后被写入路径注册时仍可获得自己的标签
+        if (!symbols.hasMarket(marketId)) return OTHER;
+        synchronized (markets) {
+            if (markets.size() >= maxMarkets) return OTHER;
+            markets.put(marketId, Boolean.TRUE);
+        }
+        return marketId;
+    }
+
+    private Timer build(String name, String k1, String v1, String k2, String v2) {
+        Timer.Builder b = Timer.builder(name).tag(k1, v1);
+        if (k2 != null) {
+            b.tag(k2, v2);
+        }
+        if (histogram) {
+            b.publishPercentileHistogram();
+        }
+        return b.register(registry);
+    }
+}
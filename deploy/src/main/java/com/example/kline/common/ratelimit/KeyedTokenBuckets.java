@@ -0,0 +1,73 @@
+package com.example.kline.common.ratelimit;
+
+/**
+ * 按 key (如客户端 IP) 区分的令牌桶, 内存固定
+ *
+ * 每个 key 按两个哈希函数对应两个候选槽位 (two-choice), 每个槽位一个 {@link TokenBucket} 和当前归属的 key:
+ * - 优先使用归属于该 key 的槽位
+ * - 否则接管一个空闲槽位 (桶已满, 即原归属者近期没有请求), 新 key 拿到满桶
+ * - 两个候选都被其它活跃 key 占用时共享第一个 (冲突只会让客户端更早被限流, 不会放宽限制)
+ * 读写不加锁, 竞争时最坏情况是一次接管判断不准确。
+ *
+ * @author xubohan@myhexin.com
+ * @date 2026-10-17 18:30:00
+ */
+public final class KeyedTokenBuckets {
+    private final TokenBucket[] buckets;
+    private final String[] owners;
+    private final int mask;
+
+    /**
+     * @param ratePerSec 每个 key 的速率
+     * @param burst      每个 key 的容量
+     * @param slots      槽位数, 向上取整为 2 的幂
+     */
+    public KeyedTokenBuckets(double ratePerSec, double burst, int slots) {
+        int n = Integer.highestOneBit(Math.max(16, slots - 1) << 1);
+        this.buckets = new TokenBucket[n];
+        this.owners = new String[n];
+        this.mask = n - 1;
+        for (int i = 0; i < n; i++) {
+            buckets[i] = new TokenBucket(ratePerSec, burst);
+        }
+    }
+
+    /**
+     * @return 0 表示获取成功; 否则为建议等待的纳秒数
+     */
+    public long tryAcquire(String key, long nowNanos) {
+        return buckets[slotOf(key, nowNanos)].tryAcquire(nowNanos);
+    }
+
+    /**
+     * 归还 key 刚取得的令牌
+     */
+    public void refund(String key, long nowNanos) {
+        buckets[slotOf(key, nowNanos)].refund(nowNanos);
+    }
+
+    private int slotOf(String key, long nowNanos) {
+        int h = key.hashCode();
+        int i1 = (h ^ (h >>> 16)) & mask;
+        int i2 = (h * 0x9E3779B9 >>> 16) & mask;
+        int idx;
+        if (key.equals(owners[i1])) {
+            idx = i1;
+        } else if (key.equals(owners[i2])) {
+            idx = i2;
+        } else if (owners[i1] == null || buckets[i1].isIdle(nowNanos)) {
+            owners[i1] = key;
+            idx = i1;
+        } else if (owners[i2] == null || buckets[i2].isIdle(nowNanos)) {
+            owners[i2] = key;
+            idx = i2;
+        } else {
+            idx = i1;
+        }
+        return idx;
+    }
+
+    public int slots() {
+        return buckets.length;
+    }
+}
@@ -0,0 +1,61 @@
+package com.example.kline.common.ratelimit;
+
+/**
+ * 分段令牌桶, 用于全局限流
+ *
+ * 总速率与容量平均分给若干个 {@link TokenBucket}, 请求线程按线程 id 固定落到一段,
+ * 本段没有令牌时依次尝试其余各段, 所有段都为空才拒绝, 因此单个线程也能用满总速率;
+ * 常态下只访问本段, 避免所有请求线程在同一个 CAS 变量上竞争。
+ * 段数不超过每秒速率与总容量, 保证每段至少 1 qps、容量至少 1, 总突发量不会因取整被放大。
+ *
+ * @author xubohan@myhexin.com
+ * @date 2026-10-17 18:30:00
+ */
+public final class StripedTokenBucket {
+    private final TokenBucket[] stripes;
+    private final int mask;
+
+    /**
+     * @param ratePerSec 总速率
+     * @param burst      总容量
+     * @param stripes    期望段数, 向下取整为 2 的幂
+     */
+    public StripedTokenBucket(double ratePerSec, double burst, int stripes) {
+        int cap = (int) Math.min(Integer.MAX_VALUE, Math.min(ratePerSec, Math.max(1.0, burst)));
+        int n = Integer.highestOneBit(Math.max(1, Math.min(stripes, cap)));
+        this.stripes = new TokenBucket[n];
+        for (int i = 0; i < n; i++) {
+            this.stripes[i] = new TokenBucket(ratePerSec / n, burst / n);
+        }
+        this.mask = n - 1;
+    }
+
+    /**
+     * @return 0 表示获取成功; 否则为建议等待的纳秒数
+     */
+    public long tryAcquire(long nowNanos) {
+        int home = (int) (Thread.currentThread().getId() & mask);
+        long wait = stripes[home].tryAcquire(nowNanos);
+        for (int i = 1; wait != 0L && i <= mask; i++) {
+            long other = stripes[(home + i) & mask].tryAcquire(nowNanos);
+            wait = other == 0L ? 0L : Math.min(wait, other);
+        }
+        return wait;
+    }
+
+    /**
+     * 归还一个刚取得的令牌, 从本段开始找第一个未满的段
+     */
+    public void refund(long nowNanos) {
+        int home = (int) (Thread.currentThread().getId() & mask);
+        for (int i = 0; i <= mask; i++) {
+            if (stripes[(home + i) & mask].refund(nowNanos)) {
+                return;
+            }
+        }
+    }
+
+    public int stripes() {
+        return stripes.length;
+    }
+}
@@ -0,0 +1,76 @@
+package com.example.kline.common.ratelimit;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 无锁令牌桶
+ *
+ * 以 GCRA (generic cell rate algorithm) 形式实现: 只维护一个"理论到达时间" tat,
+ * 每次获取令牌把 tat 推后一个发放间隔, tat 超出当前时间不多于 (burst - 1) 个间隔时放行。
+ * 与按时间补充令牌的经典实现等价, 但状态只有一个 long, 一次 CAS 即可完成获取。
+ *
+ * @author xubohan@myhexin.com
+ * @date 2026-10-17 18:30:00
+ */
+public final class TokenBucket {
+    private final long intervalNanos;
+    private final long toleranceNanos;
+    private final AtomicLong tat;
+
+    /**
+     * @param ratePerSec 每秒发放的令牌数, 必须大于 0
+     * @param burst      桶容量 (允许的突发请求数), 至少为 1
+     */
+    public TokenBucket(double ratePerSec, double burst) {
+        if (!(ratePerSec > 0)) {
+            throw new IllegalArgumentException("ratePerSec must be > 0");
+        }
+        this.intervalNanos = Math.max(1L, (long) (1_000_000_000L / ratePerSec));
+        this.toleranceNanos = (long) ((Math.max(1.0, burst) - 1.0) * intervalNanos);
+        this.tat = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * 尝试获取一个令牌
+     *
+     * @param nowNanos 当前 {@link System#nanoTime()}
+     * @return 0 表示获取成功; 否则为下一个令牌可用前需要等待的纳秒数
+     */
+    public long tryAcquire(long nowNanos) {
+        while (true) {
+            long t = tat.get();
+            long base = t - nowNanos > 0 ? t : nowNanos;
+            long ahead = base - nowNanos;
+            if (ahead > toleranceNanos) {
+                return ahead - toleranceNanos;
+            }
+            if (tat.compareAndSet(t, base + intervalNanos)) {
+                return 0L;
+            }
+        }
+    }
+
+    /**
+     * 归还一个刚取得的令牌 (后续检查拒绝了请求时使用)
+     *
+     * @return false 表示桶已满, 没有可归还的位置
+     */
+    public boolean refund(long nowNanos) {
+        while (true) {
+            long t = tat.get();
+            if (t - nowNanos <= 0) {
+                return false;
+            }
+            if (tat.compareAndSet(t, t - intervalNanos)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 桶是否已满 (一段时间内没有消耗令牌)
+     */
+    public boolean isIdle(long nowNanos) {
+        return tat.get() - nowNanos <= 0;
+    }
+}
@@ -1,13 +1,18 @@
 package com.example.kline.config;
 
+import com.example.kline.interfaces.consumer.TimelinePipeline;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
 import org.springframework.boot.autoconfigure.kafka.KafkaProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
 import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
 import org.springframework.kafka.core.ConsumerFactory;
 import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
+import org.springframework.kafka.core.MicrometerConsumerListener;
 import org.springframework.kafka.listener.ContainerProperties;
+import org.springframework.kafka.listener.SeekToCurrentBatchErrorHandler;
 import org.springframework.kafka.listener.SeekToCurrentErrorHandler;
 import org.springframework.util.backoff.FixedBackOff;
 
@@ -16,7 +21,18 @@ import java.util.Map;
 
 /**
  * Kafka监听器配置，支持手动ACK模式
- * 
+ *
+ * 单条模式: manualAckKafkaListenerContainerFactory, 每条消息立即提交位点
+ * 批量模式: batchAckKafkaListenerContainerFactory, 整批处理完成后提交一次位点
+ *   app.kafka.consumer.timeline.batch.max-records   每批最大条数 (max.poll.records)
+ *   app.kafka.consumer.timeline.batch.min-bytes     broker 至少攒够的字节数 (fetch.min.bytes)
+ *   app.kafka.consumer.timeline.batch.linger-ms     broker 攒批的最长等待 (fetch.max.wait.ms)
+ * 流水线模式: pipelineKafkaListenerContainerFactory, 批量拉取后按股票分发到 {@link TimelinePipeline} 的 lane 并行处理,
+ *   位点由流水线在 poll 线程上按分区提交已完成前缀, 容器不提交 (AckMode.MANUAL 且从不调用 ack)
+ *   app.kafka.consumer.timeline.pipeline.max-records       每次 poll 最大条数 (默认 500)
+ *   app.kafka.consumer.timeline.pipeline.commit-interval-ms 无新消息时的提交间隔 (容器空闲事件, 默认 1000)
+ * 所有消费者工厂都注册 MicrometerConsumerListener, 导出 kafka.consumer.* 指标 (含按分区的 records-lag)
+ *
  * @author xubohan@myhexin.com
  * @date 2025-09-11
  */
@@ -24,16 +40,10 @@ import java.util.Map;
 public class KafkaListenerConfig {
 
     @Bean
-    public ConsumerFactory<String, String> consumerFactory(KafkaProperties props) {
-        // 用 Boot 的属性生成（确保 value 反序列化器是 String）
-        Map<String, Object> cfg = new HashMap<>(props.buildConsumerProperties());
-        cfg.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, org.apache.kafka.common.serialization.StringDeserializer.class);
-        cfg.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, org.apache.kafka.common.serialization.StringDeserializer.class);
-        // 如果你希望首次无提交位点时从最早开始
-        cfg.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
-        // 关闭自动提交（手动 ack 场景更匹配）
-        cfg.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false);
-        return new DefaultKafkaConsumerFactory<>(cfg);
+    public ConsumerFactory<String, String> consumerFactory(KafkaProperties props, MeterRegistry meterRegistry) {
+        DefaultKafkaConsumerFactory<String, String> cf = new DefaultKafkaConsumerFactory<>(baseConsumerProps(props));
+        cf.addListener(new MicrometerConsumerListener<>(meterRegistry));
+        return cf;
     }
 
     @Bean(name = "manualAckKafkaListenerContainerFactory")
@@ -49,4 +59,64 @@ public class KafkaListenerConfig {
         factory.setErrorHandler(new SeekToCurrentErrorHandler(new FixedBackOff(1000L, 3))); // 重试3次，每次间隔1s
         return factory;
     }
-}
\ No newline at end of file
+
+    @Bean(name = "batchAckKafkaListenerContainerFactory")
+    public ConcurrentKafkaListenerContainerFactory<String, String> batchAckKafkaListenerContainerFactory(
+            KafkaProperties props, Environment env, MeterRegistry meterRegistry) {
+        Map<String, Object> cfg = baseConsumerProps(props);
+        cfg.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG,
+                env.getProperty("app.kafka.consumer.timeline.batch.max-records", Integer.class, 500));
+        cfg.put(ConsumerConfig.FETCH_MIN_BYTES_CONFIG,
+                env.getProperty("app.kafka.consumer.timeline.batch.min-bytes", Integer.class, 1));
+        cfg.put(ConsumerConfig.FETCH_MAX_WAIT_MS_CONFIG,
+                env.getProperty("app.kafka.consumer.timeline.batch.linger-ms", Integer.class, 500));
+
+        ConcurrentKafkaListenerContainerFactory<String, String> factory =
+                new ConcurrentKafkaListenerContainerFactory<>();
+        DefaultKafkaConsumerFactory<String, String> cf = new DefaultKafkaConsumerFactory<>(cfg);
+        cf.addListener(new MicrometerConsumerListener<>(meterRegistry));
+        factory.setConsumerFactory(cf);
+        factory.setBatchListener(true);
+        // 整批处理完后 ack 一次，由容器在下一次 poll 前统一提交
+        factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.MANUAL);
+
+        SeekToCurrentBatchErrorHandler errorHandler = new SeekToCurrentBatchErrorHandler();
+        errorHandler.setBackOff(new FixedBackOff(1000L, 3)); // 整批重试3次，每次间隔1s
+        factory.setBatchErrorHandler(errorHandler);
+        return factory;
+    }
+
+    @Bean(name = "pipelineKafkaListenerContainerFactory")
+    public ConcurrentKafkaListenerContainerFactory<String, String> pipelineKafkaListenerContainerFactory(
+            KafkaProperties props, Environment env, MeterRegistry meterRegistry, TimelinePipeline pipeline) {
+        Map<String, Object> cfg = baseConsumerProps(props);
+        cfg.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG,
+                env.getProperty("app.kafka.consumer.timeline.pipeline.max-records", Integer.class, 500));
+
+        ConcurrentKafkaListenerContainerFactory<String, String> factory =
+                new ConcurrentKafkaListenerContainerFactory<>();
+        DefaultKafkaConsumerFactory<String, String> cf = new DefaultKafkaConsumerFactory<>(cfg);
+        cf.addListener(new MicrometerConsumerListener<>(meterRegistry));
+        factory.setConsumerFactory(cf);
+        factory.setBatchListener(true);
+        // 位点由 TimelinePipeline 直接通过 Consumer 提交, 容器不做任何提交
+        factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.MANUAL);
+        factory.getContainerProperties().setIdleEventInterval(
+                env.getProperty("app.kafka.consumer.timeline.pipeline.commit-interval-ms", Long.class, 1000L));
+        // 分区回收前等待在途记录并同步提交
+        factory.getContainerProperties().setConsumerRebalanceListener(pipeline);
+        return factory;
+    }
+
+    private static Map<String, Object> baseConsumerProps(KafkaProperties props) {
+        // 用 Boot 的属性生成（确保 value 反序列化器是 String）
+        Map<String, Object> cfg = new HashMap<>(props.buildConsumerProperties());
+        cfg.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, org.apache.kafka.common.serialization.StringDeserializer.class);
+        cfg.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, org.apache.kafka.common.serialization.StringDeserializer.class);
+        // 如果你希望首次无提交位点时从最早开始
+        cfg.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
+        // 关闭自动提交（手动 ack 场景更匹配）
+        cfg.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false);
+        return cfg;
+    }
+}
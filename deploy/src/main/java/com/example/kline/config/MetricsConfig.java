@@ -0,0 +1,52 @@
+package com.example.kline.config;
+
+import com.example.kline.modules.kline.infrastructure.cache.KlineNearCache;
+import com.example.kline.modules.kline.infrastructure.cache.RedisKlineCache;
+import com.example.kline.modules.kline.infrastructure.cache.SymbolRegistry;
+import com.example.kline.modules.kline.infrastructure.cache.TimelineRedisWriter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 内存与队列占用的 Micrometer gauge, 由 /actuator/prometheus 导出
+ *
+ * - kline.memory.series / kline.memory.bytes{kind=live|mapped}: 内存模式序列数与字节数 (mapped 为快照映射)
+ * - kline.near_cache.entries / kline.near_cache.bytes: 外部模式近端缓存
+ * - kline.redis.writer.queue: 写后缓冲队列深度
+ * - kline.symbols.registered: 注册表中的股票数
+ * 消费延迟由 {@link KafkaListenerConfig} 中的 MicrometerConsumerListener 导出 (kafka.consumer.fetch.manager.records.lag*)
+ *
+ * @author xubohan@myhexin.com
+ * @date 2026-10-17 17:20:00
+ */
+@Configuration
+public class MetricsConfig {
+
+    @Bean
+    public MeterBinder klineMemoryMetrics(RedisKlineCache cache, KlineNearCache nearCache,
+                                          TimelineRedisWriter writer, SymbolRegistry symbols) {
+        return registry -> {
+            // memoryUsage() 每次遍历注册表, 四个 gauge 各调一次; 相对抓取间隔开销可以忽略
+            Gauge.builder("kline.memory.series", cache, c -> c.memoryUsage()[0])
+                .tag("kind", "live").description("In-memory 1m series").register(registry);
+            Gauge.builder("kline.memory.bytes", cache, c -> c.memoryUsage()[1])
+                .tag("kind", "live").baseUnit("bytes").description("Estimated bytes of in-memory 1m series")
+                .register(registry);
+            Gauge.builder("kline.memory.series", cache, c -> c.memoryUsage()[2])
+                .tag("kind", "mapped").description("Snapshot-mapped 1m series").register(registry);
+            Gauge.builder("kline.memory.bytes", cache, c -> c.memoryUsage()[3])
+                .tag("kind", "mapped").baseUnit("bytes").description("Bytes of snapshot-mapped 1m series")
+                .register(registry);
+            Gauge.builder("kline.near_cache.entries", nearCache, KlineNearCache::entries)
+                .description("Near-cache entries").register(registry);
+            Gauge.builder("kline.near_cache.bytes", nearCache, KlineNearCache::usedBytes)
+                .baseUnit("bytes").description("Near-cache estimated bytes").register(registry);
+            Gauge.builder("kline.redis.writer.queue", writer, TimelineRedisWriter::queueDepth)
+                .description("Pending write-behind ZSET writes").register(registry);
+            Gauge.builder("kline.symbols.registered", symbols, SymbolRegistry::size)
+                .description("Symbols with a dense id").register(registry);
+        };
+    }
+}
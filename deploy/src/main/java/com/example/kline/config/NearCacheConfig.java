@@ -0,0 +1,36 @@
+package com.example.kline.config;
+
+import com.example.kline.modules.kline.infrastructure.cache.KlineNearCache;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * K线近端缓存 pub/sub 订阅配置
+ *
+ * 多实例部署时, 各实例写入新 bar 后向 {@link KlineNearCache#CHANNEL} 广播,
+ * 此处订阅该频道并对本地近端缓存打补丁
+ *
+ * @author xubohan@myhexin.com
+ * @date 2026-10-17 14:00:00
+ */
+@Configuration
+@ConditionalOnExpression("${app.redis.external:false} && ${app.redis.near-cache.enabled:false}")
+public class NearCacheConfig {
+
+    @Bean
+    public RedisMessageListenerContainer nearCacheListenerContainer(RedisConnectionFactory connectionFactory,
+                                                                    KlineNearCache nearCache) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        container.addMessageListener(
+            (message, pattern) -> nearCache.onMessage(new String(message.getBody(), StandardCharsets.UTF_8)),
+            new ChannelTopic(KlineNearCache.CHANNEL));
+        return container;
+    }
+}
@@ -0,0 +1,29 @@
+package com.example.kline.config;
+
+import com.example.kline.interfaces.rest.KlineAdmissionInterceptor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * Spring MVC 配置: 为 K线查询接口注册准入控制
+ *
+ * @author xubohan@myhexin.com
+ * @date 2026-10-17 18:30:00
+ */
+@Configuration
+public class WebMvcConfig implements WebMvcConfigurer {
+
+    private final KlineAdmissionInterceptor admissionInterceptor;
+
+    @Autowired
+    public WebMvcConfig(KlineAdmissionInterceptor admissionInterceptor) {
+        this.admissionInterceptor = admissionInterceptor;
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(admissionInterceptor).addPathPatterns("/kline", "/kline/batch", "/kline/latest");
+    }
+}
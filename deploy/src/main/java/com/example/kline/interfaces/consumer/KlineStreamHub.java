@@ -0,0 +1,480 @@
+package com.example.kline.interfaces.consumer;
+
+import com.example.kline.common.metrics.KlineMetrics;
+import com.example.kline.modules.kline.domain.entity.PricePoint;
+import com.example.kline.modules.kline.infrastructure.cache.SymbolRegistry;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 实时 bar 推送的分发中心, 与传输方式无关 (SSE 适配见 ApiController#stream)
+ *
+ * - 消费路径调用 {@link #publish}: 领取序号后写入固定大小的环形缓冲区, O(1) 且不阻塞; 没有订阅者时直接返回
+ * - 单个分发线程按序读取环形缓冲区, 按股票查找订阅者并放入各订阅者的待发送表;
+ *   分发线程落后超过一圈时跳过被覆盖的事件并计入 dropped; 没有新事件时一直 park, 由 publish 唤醒
+ * - 每个订阅者的待发送表按股票合并 (coalescing): 慢客户端只会收到每只股票的最新 bar, 不会积压;
+ *   被覆盖的更新计入 coalesced
+ * - 发送在 senders 个线程上进行; 数据与心跳都由订阅者唯一的 drain 任务发送 (scheduled 标志互斥),
+ *   同一订阅者同一时间只有一个线程在写连接; 发送失败 (客户端断开) 即取消订阅
+ * - 定期 (heartbeat-sec) 为每个订阅者标记心跳并调度 drain, 及时发现断开的连接
+ * - 看门狗线程检查正在进行的发送: 单次发送超过 send-timeout-ms 的订阅者立即取消订阅 (计入 slowDropped),
+ *   并中断卡住的发送线程; 底层阻塞写不响应中断时该线程要等到容器写超时才返回, 期间线程池临时多开
+ *   一个线程顶替 (至多 max-blocked-senders 个), 慢客户端不会占满共享的发送线程
+ *
+ * 配置 (app.stream.*):
+ *   enabled          总开关 (默认 true)
+ *   ring-size        环形缓冲区大小, 向上取整为 2 的幂 (默认 65536)
+ *   senders          发送线程数 (默认 2)
+ *   max-subscribers  最大订阅者数 (默认 1000)
+ *   max-symbols      单个订阅者最多订阅的股票数 (默认 200)
+ *   timeout-ms       连接最长保持时间, 到期后客户端重连 (默认 1800000)
+ *   heartbeat-sec    心跳间隔 (默认 15)
+ *   send-timeout-ms  单次发送超时, 超过即断开该订阅者 (默认 5000)
+ *   max-blocked-senders 为卡住的发送临时补充的线程数上限 (默认 16)
+ *
+ * @author xubohan@myhexin.com
+ * @date 2026-10-17 22:00:00
+ */
+@Component
+public class KlineStreamHub {
+    private static final Logger log = LoggerFactory.getLogger(KlineStreamHub.class);
+
+    /**
+     * 订阅者的传输通道, 由接口层实现
+     */
+    public interface Sink {
+        void send(String stockCode, String marketId, PricePoint bar) throws Exception;
+
+        void heartbeat() throws Exception;
+
+        void close();
+    }
+
+    private final boolean enabled;
+    private final int mask;
+    private final int senderCount;
+    private final int maxSubscribers;
+    private final int maxSymbols;
+    private final long timeoutMs;
+    private final long heartbeatSec;
+    private final long sendTimeoutNanos;
+    private final int maxBlockedSenders;
+    private final KlineMetrics metrics;
+
+    private final AtomicReferenceArray<Event> ring;
+    private final AtomicLong next = new AtomicLong();
+    private final Map<String, Set<Subscription>> bySymbol = new ConcurrentHashMap<>();
+    private final Set<Subscription> subscriptions = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger subscriberCount = new AtomicInteger();
+
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong dispatched = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong sendFailures = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong slowDropped = new AtomicLong();
+    private final AtomicInteger blockedSenders = new AtomicInteger();
+
+    private volatile boolean running;
+    private volatile boolean waiting;
+    private Thread dispatcher;
+    private ThreadPoolExecutor senders;
+    private ScheduledExecutorService timer;
+
+    // 无参构造函数，用于测试
+    public KlineStreamHub() {
+        this.enabled = false;
+        this.mask = 15;
+        this.senderCount = 1;
+        this.maxSubscribers = 0;
+        this.maxSymbols = 0;
+        this.timeoutMs = 0L;
+        this.heartbeatSec = 15L;
+        this.sendTimeoutNanos = TimeUnit.SECONDS.toNanos(5);
+        this.maxBlockedSenders = 0;
+        this.metrics = new KlineMetrics();
+        this.ring = new AtomicReferenceArray<>(mask + 1);
+    }
+
+    @Autowired
+    public KlineStreamHub(Environment env, KlineMetrics metrics) {
+        this.enabled = env.getProperty("app.stream.enabled", Boolean.class, true);
+        int size = Math.max(16, env.getProperty("app.stream.ring-size", Integer.class, 65536));
+        int n = Integer.highestOneBit(size - 1) << 1;
+        this.mask = n - 1;
+        this.senderCount = Math.max(1, env.getProperty("app.stream.senders", Integer.class, 2));
+        this.maxSubscribers = Math.max(0, env.getProperty("app.stream.max-subscribers", Integer.class, 1000));
+        this.maxSymbols = Math.max(1, env.getProperty("app.stream.max-symbols", Integer.class, 200));
+        this.timeoutMs = Math.max(0L, env.getProperty("app.stream.timeout-ms", Long.class, 1800000L));
+        this.heartbeatSec = Math.max(1L, env.getProperty("app.stream.heartbeat-sec", Long.class, 15L));
+        this.sendTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(
+            Math.max(10L, env.getProperty("app.stream.send-timeout-ms", Long.class, 5000L)));
+        this.maxBlockedSenders = Math.max(0, env.getProperty("app.stream.max-blocked-senders", Integer.class, 16));
+        this.metrics = metrics;
+        this.ring = new AtomicReferenceArray<>(n);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) return;
+        MeterRegistry registry = metrics.getRegistry();
+        Gauge.builder("kline.stream.subscribers", subscriberCount, AtomicInteger::get)
+            .description("Connected stream subscribers").register(registry);
+        FunctionCounter.builder("kline.stream.coalesced", coalesced, AtomicLong::get)
+            .description("Stream updates replaced by a newer bar before being sent").register(registry);
+        FunctionCounter.builder("kline.stream.dropped", dropped, AtomicLong::get)
+            .description("Stream events overwritten in the ring before dispatch").register(registry);
+        FunctionCounter.builder("kline.stream.sent", sent, AtomicLong::get)
+            .description("Stream updates sent to subscribers").register(registry);
+        FunctionCounter.builder("kline.stream.slow_dropped", slowDropped, AtomicLong::get)
+            .description("Stream subscribers dropped because a send exceeded send-timeout-ms").register(registry);
+        // 核心线程数在 senders 与 senders + max-blocked-senders 之间随卡住的发送调整
+        senders = new ThreadPoolExecutor(senderCount, senderCount + maxBlockedSenders, 60L, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), r -> {
+                Thread t = new Thread(r, "kline-stream-sender");
+                t.setDaemon(true);
+                return t;
+            });
+        timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "kline-stream-timer");
+            t.setDaemon(true);
+            return t;
+        });
+        timer.scheduleWithFixedDelay(this::heartbeat, heartbeatSec, heartbeatSec, TimeUnit.SECONDS);
+        long checkMs = Math.max(5L, Math.min(1000L, TimeUnit.NANOSECONDS.toMillis(sendTimeoutNanos) / 2));
+        timer.scheduleWithFixedDelay(this::checkSlowSends, checkMs, checkMs, TimeUnit.MILLISECONDS);
+        running = true;
+        dispatcher = new Thread(this::dispatchLoop, "kline-stream-dispatcher");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+        log.info("KlineStreamHub started: ringSize={}, senders={}, maxSubscribers={}", mask + 1, senderCount,
+            maxSubscribers);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (!running) return;
+        running = false;
+        LockSupport.unpark(dispatcher);
+        for (Subscription s : new ArrayList<>(subscriptions)) {
+            close(s);
+        }
+        timer.shutdownNow();
+        senders.shutdownNow();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public int getMaxSymbols() {
+        return maxSymbols;
+    }
+
+    public long getTimeoutMs() {
+        return timeoutMs;
+    }
+
+    /**
+     * 发布一只股票更新后的 bar, 由消费路径调用
+     */
+    public void publish(String stockCode, String marketId, PricePoint bar) {
+        if (!running || subscriberCount.get() == 0 || bar == null) return;
+        long seq = next.getAndIncrement();
+        ring.set((int) (seq & mask), new Event(seq, stockCode, marketId, bar));
+        published.incrementAndGet();
+        if (waiting) {
+            LockSupport.unpark(dispatcher);
+        }
+    }
+
+    /**
+     * 订阅一组股票
+     *
+     * @return 订阅句柄; 未开启或订阅者已满时返回 null
+     */
+    public Subscription subscribe(List<String> stockcodes, List<String> marketIds, Sink sink) {
+        if (!running) return null;
+        if (subscriberCount.incrementAndGet() > maxSubscribers) {
+            subscriberCount.decrementAndGet();
+            rejected.incrementAndGet();
+            return null;
+        }
+        List<String> keys = new ArrayList<>(stockcodes.size());
+        for (int i = 0; i < stockcodes.size(); i++) {
+            keys.add(SymbolRegistry.key(stockcodes.get(i), marketIds.get(i)));
+        }
+        Subscription s = new Subscription(keys, sink);
+        subscriptions.add(s);
+        for (String key : keys) {
+            bySymbol.computeIfAbsent(key, k -> new CopyOnWriteArraySet<>()).add(s);
+        }
+        return s;
+    }
+
+    /**
+     * 取消订阅, 可重复调用
+     */
+    public void unsubscribe(Subscription s) {
+        if (s == null || !s.closed.compareAndSet(false, true)) return;
+        subscriptions.remove(s);
+        subscriberCount.decrementAndGet();
+        for (String key : s.keys) {
+            bySymbol.computeIfPresent(key, (k, set) -> {
+                set.remove(s);
+                return set.isEmpty() ? null : set;
+            });
+        }
+        s.pending.clear();
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("enabled", enabled);
+        m.put("ringSize", mask + 1);
+        m.put("subscribers", subscriberCount.get());
+        m.put("symbols", bySymbol.size());
+        m.put("published", published.get());
+        m.put("dispatched", dispatched.get());
+        m.put("lag", Math.max(0L, next.get() - dispatched.get() - dropped.get()));
+        m.put("coalesced", coalesced.get());
+        m.put("dropped", dropped.get());
+        m.put("sent", sent.get());
+        m.put("sendFailures", sendFailures.get());
+        m.put("rejected", rejected.get());
+        m.put("slowDropped", slowDropped.get());
+        m.put("blockedSenders", blockedSenders.get());
+        return m;
+    }
+
+    private void dispatchLoop() {
+        long cursor = 0L;
+        while (running) {
+            Event e = ring.get((int) (cursor & mask));
+            if (e == null || e.seq < cursor) {
+                // 尚未发布: 先置 waiting 再读 next, 与 publish 先递增 next 再读 waiting 配对,
+                // 二者至少有一方看到对方的写入, 不会错过唤醒; 已领取序号但尚未写入时自旋等待
+                waiting = true;
+                if (next.get() <= cursor) {
+                    LockSupport.park(this);
+                }
+                waiting = false;
+                continue;
+            }
+            if (e.seq > cursor) {
+                // 落后超过一圈, 跳到仍在缓冲区内的最早事件
+                long from = Math.max(cursor + 1, next.get() - mask - 1);
+                dropped.addAndGet(from - cursor);
+                cursor = from;
+                continue;
+            }
+            try {
+                dispatch(e);
+            } catch (Exception ex) {
+                log.warn("Failed to dispatch stream event: {}", ex.getMessage());
+            }
+            dispatched.incrementAndGet();
+            cursor++;
+        }
+    }
+
+    private void dispatch(Event e) {
+        String key = SymbolRegistry.key(e.stockCode, e.marketId);
+        Set<Subscription> subs = bySymbol.get(key);
+        if (subs == null) return;
+        for (Subscription s : subs) {
+            if (s.pending.put(key, e) != null) {
+                coalesced.incrementAndGet();
+            }
+            if (s.scheduled.compareAndSet(false, true)) {
+                submit(() -> drain(s), s);
+            }
+        }
+    }
+
+    /**
+     * 订阅者唯一的发送任务: 先发送到期的心跳, 再发送待发送表直到为空; 发送期间到达的更新会被合并
+     */
+    private void drain(Subscription s) {
+        while (!s.closed.get()) {
+            if (s.heartbeatDue.compareAndSet(true, false) && !deliver(s, null)) return;
+            for (Iterator<Map.Entry<String, Event>> it = s.pending.entrySet().iterator(); it.hasNext(); ) {
+                Map.Entry<String, Event> entry = it.next();
+                Event e = entry.getValue();
+                // 已被更新的 bar 替换时跳过, 新值留给下一轮
+                if (!s.pending.remove(entry.getKey(), e)) continue;
+                if (!deliver(s, e)) return;
+            }
+            s.scheduled.set(false);
+            if ((s.pending.isEmpty() && !s.heartbeatDue.get()) || !s.scheduled.compareAndSet(false, true)) return;
+        }
+    }
+
+    /**
+     * 发送一个事件 (null 为心跳), 发送期间登记开始时间与线程供看门狗检查
+     *
+     * @return 是否继续发送该订阅者
+     */
+    private boolean deliver(Subscription s, Event e) {
+        synchronized (s) {
+            if (s.closed.get()) return false;
+            s.sender = Thread.currentThread();
+            s.sendingSince = System.nanoTime();
+        }
+        boolean ok = true;
+        try {
+            if (e == null) {
+                s.sink.heartbeat();
+            } else {
+                s.sink.send(e.stockCode, e.marketId, e.bar);
+                sent.incrementAndGet();
+            }
+        } catch (Exception ex) {
+            ok = false;
+        } finally {
+            boolean stuck;
+            synchronized (s) {
+                s.sender = null;
+                s.sendingSince = 0L;
+                stuck = s.stuck;
+                if (stuck) {
+                    s.stuck = false;
+                    // 清除看门狗设置的中断标志, 线程回到池中继续服务其它订阅者
+                    Thread.interrupted();
+                }
+            }
+            if (stuck) {
+                releaseBlockedSender();
+            }
+        }
+        if (ok && !s.closed.get()) return true;
+        if (!ok && !s.closed.get()) sendFailures.incrementAndGet();
+        close(s);
+        return false;
+    }
+
+    private void heartbeat() {
+        for (Subscription s : subscriptions) {
+            s.heartbeatDue.set(true);
+            if (s.scheduled.compareAndSet(false, true)) {
+                submit(() -> drain(s), s);
+            }
+        }
+    }
+
+    /**
+     * 看门狗: 断开单次发送超时的订阅者; 连接写入阻塞时 sink.close() 可能同样阻塞,
+     * 因此这里只取消订阅并中断发送线程, 关闭连接留给发送线程返回后进行
+     */
+    private void checkSlowSends() {
+        long now = System.nanoTime();
+        for (Subscription s : subscriptions) {
+            long since;
+            synchronized (s) {
+                since = s.sendingSince;
+                if (since == 0L || now - since < sendTimeoutNanos || s.stuck) continue;
+                s.stuck = true;
+                slowDropped.incrementAndGet();
+                unsubscribe(s);
+                s.sender.interrupt();
+            }
+            log.warn("Dropped slow stream subscriber: send blocked for {}ms", TimeUnit.NANOSECONDS.toMillis(now - since));
+            if (blockedSenders.incrementAndGet() <= maxBlockedSenders) {
+                senders.setCorePoolSize(senderCount + Math.min(maxBlockedSenders, blockedSenders.get()));
+            }
+        }
+    }
+
+    private void releaseBlockedSender() {
+        int n = blockedSenders.decrementAndGet();
+        senders.setCorePoolSize(senderCount + Math.min(maxBlockedSenders, Math.max(0, n)));
+    }
+
+    private void submit(Runnable task, Subscription s) {
+        try {
+            senders.execute(task);
+        } catch (RejectedExecutionException ex) {
+            close(s);
+        }
+    }
+
+    private void close(Subscription s) {
+        unsubscribe(s);
+        try {
+            s.sink.close();
+        } catch (Exception ignore) {
+            // 连接已断开
+        }
+    }
+
+    /**
+     * 订阅句柄
+     */
+    public static final class Subscription {
+        private final List<String> keys;
+        private final Sink sink;
+        // stockCode:marketId -> 最新待发送的 bar
+        private final Map<String, Event> pending = new ConcurrentHashMap<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private final AtomicBoolean heartbeatDue = new AtomicBoolean();
+        private final AtomicBoolean closed = new AtomicBoolean();
+        // 正在进行的发送, 由 deliver 与看门狗在 synchronized (this) 下读写
+        private Thread sender;
+        private long sendingSince;
+        private boolean stuck;
+
+        Subscription(List<String> keys, Sink sink) {
+            this.keys = Collections.unmodifiableList(keys);
+            this.sink = sink;
+        }
+
+        public List<String> getKeys() {
+            return keys;
+        }
+    }
+
+    private static final class Event {
+        final long seq;
+        final String stockCode;
+        final String marketId;
+        final PricePoint bar;
+
+        Event(long seq, String stockCode, String marketId, PricePoint bar) {
+            this.seq = seq;
+            this.stockCode = stockCode;
+            this.marketId = marketId;
+            this.bar = bar;
+        }
+    }
+}
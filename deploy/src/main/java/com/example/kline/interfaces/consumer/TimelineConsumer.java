@@ -1,27 +1,46 @@
 package com.example.kline.interfaces.consumer;
 
+import com.example.kline.common.metrics.KlineMetrics;
 import com.example.kline.modules.kline.domain.entity.KlineResponse;
 import com.example.kline.modules.kline.domain.entity.PricePoint;
+import com.example.kline.modules.kline.domain.entity.TimelineTick;
 import com.example.kline.modules.kline.domain.repository.KlineRepository;
+import com.example.kline.modules.kline.infrastructure.cache.KlineBarEngine;
+import com.example.kline.modules.kline.infrastructure.cache.KlineJournal;
+import com.example.kline.modules.kline.infrastructure.cache.LatestQuoteTable;
 import com.example.kline.modules.kline.infrastructure.cache.TimelineRedisWriter;
+import com.fasterxml.jackson.annotation.JsonAlias;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Timer;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.math.BigDecimal;
 import java.time.LocalDate;
 import java.time.LocalTime;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import org.apache.kafka.clients.consumer.Consumer;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.event.EventListener;
 import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.event.ListenerContainerIdleEvent;
 import org.springframework.kafka.support.Acknowledgment;
 import org.springframework.stereotype.Component;
 
 /**
  * Kafka consumer for timeline data with strict schema validation.
- * Expected message JSON schema: {"stockCode","marketId","price","date","time"}.
+ * Expected message JSON schema: {"stockCode","marketId","price","date","time"} with optional "vol"/"volume".
  */
 @Component
 @ConditionalOnProperty(name = "app.kafka.enabled", havingValue = "true", matchIfMissing = false)
@@ -29,18 +48,75 @@ public class TimelineConsumer {
     private static final Logger log = LoggerFactory.getLogger(TimelineConsumer.class);
     private static final DateTimeFormatter DATE_FMT = DateTimeFormatter.ofPattern("yyyyMMdd");
     private static final DateTimeFormatter TIME_FMT = DateTimeFormatter.ofPattern("HHmm");
+    private static final Pattern DATE_PATTERN = Pattern.compile("\\d{8}");
+    private static final Pattern TIME_PATTERN = Pattern.compile("\\d{4}");
     private final ObjectMapper objectMapper = new ObjectMapper();
+    // 固定结构的快速解析, 无法处理时回退到 objectMapper
+    private final TimelineTickParser fastParser = new TimelineTickParser();
 
     private final KlineRepository klineRepository;
     private final TimelineRedisWriter timelineRedisWriter;
+    private final KlineBarEngine barEngine;
+    private final LatestQuoteTable latestQuotes;
+    private final KlineStreamHub streamHub;
+    private final KlineJournal journal;
+    private final TimelinePipeline pipeline;
+    // kline.consumer.stage{mode, stage}, 下标见 STAGES
+    private final Timer[] singleStages;
+    private final Timer[] batchStages;
+    private final Timer[] pipelineStages;
+
+    private static final String[] STAGES = {"parse", "bar", "repository", "redis", "journal", "journal_sync", "ack"};
+    private static final int PARSE = 0, BAR = 1, REPOSITORY = 2, REDIS = 3, JOURNAL = 4, JOURNAL_SYNC = 5, ACK = 6;
 
     @Autowired
-    public TimelineConsumer(KlineRepository klineRepository, TimelineRedisWriter timelineRedisWriter) {
+    public TimelineConsumer(KlineRepository klineRepository, TimelineRedisWriter timelineRedisWriter,
+                            KlineBarEngine barEngine, KlineJournal journal, KlineMetrics metrics,
+                            TimelinePipeline pipeline, LatestQuoteTable latestQuotes, KlineStreamHub streamHub) {
         this.klineRepository = klineRepository;
         this.timelineRedisWriter = timelineRedisWriter;
+        this.barEngine = barEngine;
+        this.latestQuotes = latestQuotes;
+        this.streamHub = streamHub;
+        this.journal = journal;
+        this.pipeline = pipeline;
+        this.singleStages = stageTimers(metrics, "single");
+        this.batchStages = stageTimers(metrics, "batch");
+        this.pipelineStages = stageTimers(metrics, "pipeline");
+        pipeline.start(new TimelinePipeline.Handler() {
+            @Override
+            public List<KlineResponse> process(List<TimelineTick> ticks) {
+                return applyTicks(ticks, pipelineStages);
+            }
+
+            @Override
+            public long append(List<KlineResponse> responses) {
+                long t = System.nanoTime();
+                long ticket = journal.append(responses);
+                lap(pipelineStages[JOURNAL], t);
+                return ticket;
+            }
+
+            @Override
+            public void commit(long ticket) {
+                long t = System.nanoTime();
+                journal.commit(ticket);
+                lap(pipelineStages[JOURNAL_SYNC], t);
+            }
+        });
         log.info("TimelineConsumer initialized with manual ACK enabled");
     }
 
+    public TimelineConsumer(KlineRepository klineRepository, TimelineRedisWriter timelineRedisWriter,
+                            KlineBarEngine barEngine) {
+        this(klineRepository, timelineRedisWriter, barEngine, new KlineJournal(), new KlineMetrics(),
+                new TimelinePipeline(), new LatestQuoteTable(), new KlineStreamHub());
+    }
+
+    public TimelineConsumer(KlineRepository klineRepository, TimelineRedisWriter timelineRedisWriter) {
+        this(klineRepository, timelineRedisWriter, new KlineBarEngine());
+    }
+
     // Backward-compatible convenience constructor for tests without Spring context
     public TimelineConsumer(KlineRepository klineRepository) {
         this(klineRepository, new TimelineRedisWriter());
@@ -51,13 +127,16 @@ public class TimelineConsumer {
      * 按照 listener.txt 最佳实践实现手动ACK
      * Expected format: {"topic":"timeline", "stock_minute_data":{"stockCode":"300000","marketId":"33","price":"86.96","date":"20200101","time":"0000"}}
      * Invalid messages are discarded per strict API contract.
+     * 当 app.kafka.consumer.timeline.batch.enabled=true 时不启动, 由 {@link #runBatch} 接管;
+     * 开启 app.kafka.consumer.timeline.pipeline.enabled 时由 {@link #runPipeline} 接管
      */
     @KafkaListener(
             id = "timeline-consumer",
             topics = "timeline",
             groupId = "kline-service",
-            concurrency = "1",
-            autoStartup = "true",
+            concurrency = "${app.kafka.consumer.timeline.concurrency:1}",
+            autoStartup = "#{!${app.kafka.consumer.timeline.batch.enabled:false}"
+                    + " && !${app.kafka.consumer.timeline.pipeline.enabled:false}}",
             containerFactory = "manualAckKafkaListenerContainerFactory"
     )
     public void run(ConsumerRecord<String, String> record, Acknowledgment ack) throws Exception {
@@ -71,49 +150,48 @@ public class TimelineConsumer {
         
         try {
             log.info("📥 Receive Message. Message info: {}", payload);
-            
-            // Parse the outer wrapper message
-            KafkaMessage kafkaMsg = objectMapper.readValue(payload, KafkaMessage.class);
-            if (kafkaMsg == null || kafkaMsg.stock_minute_data == null) {
-                log.warn("⚠️ Discarding message without stock_minute_data: {}", payload);
-                ack.acknowledge(); // ACK even for invalid messages to avoid reprocessing
-                return;
-            }
-            
-            TimelineMessage msg = kafkaMsg.stock_minute_data;
-            if (!isValid(msg)) {
-                log.warn("⚠️ Discarding invalid timeline message: {}", payload);
-                ack.acknowledge(); // ACK invalid messages
+
+            long t = System.nanoTime();
+            TimelineTick tick = parseTick(payload);
+            t = lap(singleStages[PARSE], t);
+            if (tick == null) {
+                ack.acknowledge(); // ACK invalid messages to avoid reprocessing
                 return;
             }
+            // 带上位点, 重投的记录不会被 bar 引擎重复累加
+            tick = tick.withSource(record.partition(), record.offset());
 
-            log.info("✅ Valid message parsed - StockCode:{}, MarketId:{}, Price:{}, Date:{}, Time:{}", 
-                    msg.stockCode, msg.marketId, msg.price, msg.date, msg.time);
-
-            long ts = toEpochSeconds(msg.date, msg.time);
-            PricePoint p = new PricePoint();
-            p.setTs(ts);
-            p.setOpen(msg.price);
-            p.setHigh(msg.price);
-            p.setLow(msg.price);
-            p.setClose(msg.price);
-            p.setVol(0L);
-
-            KlineResponse resp = new KlineResponse();
-            resp.setStockcode(msg.stockCode);
-            resp.setMarketId(msg.marketId);
-            resp.addPricePoint(p);
+            // 合并到各周期 bar, 1m bar 写入仓储 (同一分钟多笔成交合并为真实 OHLC)
+            PricePoint bar = barEngine.onTick(tick);
+            latestQuotes.onTick(tick);
+            streamHub.publish(tick.getStockCode(), tick.getMarketId(), bar);
+            t = lap(singleStages[BAR], t);
 
             // 消费逻辑：Per L2 flow: Write directly to Redis cache (no database)
             log.info("💾 Writing to KlineRepository and Redis...");
+            KlineResponse resp = toResponse(tick.getStockCode(), tick.getMarketId(), Collections.singletonList(bar));
             klineRepository.upsertBatch(resp);
-            // Also write to Redis ZSET for L2 cache
-            timelineRedisWriter.write(msg.stockCode, msg.marketId, ts, msg.price);
-            
+            t = lap(singleStages[REPOSITORY], t);
+            // Also write to Redis ZSET for L2 cache; 写入失败时不 ACK, 重投由 bar 引擎按位点去重
+            if (!timelineRedisWriter.writeBar(tick.getStockCode(), tick.getMarketId(), bar)) {
+                throw redisWriteFailed(1);
+            }
+            t = lap(singleStages[REDIS], t);
+            // 内存模式日志: 落盘后才提交位点
+            long ticket = journal.append(Collections.singletonList(resp));
+            t = lap(singleStages[JOURNAL], t);
+            journal.commit(ticket);
+            t = lap(singleStages[JOURNAL_SYNC], t);
+
             // ACK 确认消息处理成功
             ack.acknowledge();
+            lap(singleStages[ACK], t);
             log.info("✅ Consume success. Topic:{}, Partition:{}, Offset:{}, StockCode:{}, Price:{}",
-                   record.topic(), record.partition(), record.offset(), msg.stockCode, msg.price);
+                   record.topic(), record.partition(), record.offset(), tick.getStockCode(), tick.getPrice());
+        } catch (UncheckedIOException e) {
+            // Redis 未写入或日志未落盘: 不提交位点, 由 SeekToCurrentErrorHandler 重投
+            log.error("❌ Failed to persist timeline message, offset not committed: {}", payload, e);
+            throw e;
         } catch (Exception e) {
             log.error("❌ Failed to process timeline message: {}", payload, e);
             // 异常处理逻辑：可以选择ACK（丢弃错误消息）或不ACK（重试）
@@ -122,6 +200,234 @@ public class TimelineConsumer {
         }
     }
 
+    /**
+     * 批量消费的代码，注意 listener.type需要设置为batch，形参使用List&lt;ConsumerRecord&gt;
+     * 整批解析后按 (marketId, stockCode) 分组: 每个股票一次 upsertBatch, 所有 ZADD 合并到一个 pipeline,
+     * 整批处理完成后才 ACK (批量模式要求整批消费完成才能提交位点, 见 listener.txt)
+     */
+    @KafkaListener(
+            id = "timeline-batch-consumer",
+            topics = "timeline",
+            groupId = "kline-service",
+            concurrency = "${app.kafka.consumer.timeline.concurrency:1}",
+            autoStartup = "#{${app.kafka.consumer.timeline.batch.enabled:false}"
+                    + " && !${app.kafka.consumer.timeline.pipeline.enabled:false}}",
+            containerFactory = "batchAckKafkaListenerContainerFactory"
+    )
+    public void runBatch(List<ConsumerRecord<String, String>> records, Acknowledgment ack) throws Exception {
+        if (records == null || records.isEmpty()) {
+            ack.acknowledge();
+            return;
+        }
+        long begin = System.nanoTime();
+        List<TimelineTick> ticks = new ArrayList<>(records.size());
+        for (ConsumerRecord<String, String> record : records) {
+            String payload = record.value();
+            if (payload == null || payload.trim().isEmpty()) {
+                continue;
+            }
+            try {
+                TimelineTick tick = parseTick(payload);
+                if (tick != null) {
+                    ticks.add(tick.withSource(record.partition(), record.offset()));
+                }
+            } catch (Exception e) {
+                log.error("❌ Failed to parse timeline message, skipping. Partition:{}, Offset:{}, Payload:{}",
+                        record.partition(), record.offset(), payload, e);
+            }
+        }
+
+        lap(batchStages[PARSE], begin);
+
+        List<KlineResponse> responses = Collections.emptyList();
+        try {
+            responses = applyTicks(ticks, batchStages);
+        } catch (UncheckedIOException e) {
+            // Redis 写入失败: 不 ACK, 由 SeekToCurrentBatchErrorHandler 重投 (bar 引擎与最新行情按位点去重)
+            log.error("❌ Failed to write timeline batch of {} records to Redis, offsets not committed",
+                    records.size(), e);
+            throw e;
+        } catch (Exception e) {
+            // 与单条模式一致: 处理异常时仍然ACK, 避免整批无限重试
+            log.error("❌ Failed to process timeline batch of {} records", records.size(), e);
+        }
+
+        // 内存模式日志: 整批追加并落盘后才提交位点; 不在上面的 catch 内,
+        // 追加或落盘失败 (UncheckedIOException) 时抛出, 不 ACK, 由 SeekToCurrentBatchErrorHandler 重投
+        long t = System.nanoTime();
+        long ticket = journal.append(responses);
+        t = lap(batchStages[JOURNAL], t);
+        journal.commit(ticket);
+        t = lap(batchStages[JOURNAL_SYNC], t);
+        ack.acknowledge();
+        lap(batchStages[ACK], t);
+        ConsumerRecord<String, String> last = records.get(records.size() - 1);
+        log.info("✅ Consume batch success. Records:{}, Valid:{}, Topic:{}, LastPartition:{}, LastOffset:{}, Cost:{}ms",
+                records.size(), ticks.size(), last.topic(), last.partition(), last.offset(),
+                (System.nanoTime() - begin) / 1_000_000L);
+    }
+
+    /**
+     * 流水线消费: poll 线程只解析并按股票分发到 {@link TimelinePipeline} 的 lane, 处理在 lane 线程上并行进行
+     * 不使用 Acknowledgment, 由流水线按分区提交已完成前缀的位点 (Consumer 只能在 poll 线程上使用)
+     */
+    @KafkaListener(
+            id = "timeline-pipeline-consumer",
+            topics = "timeline",
+            groupId = "kline-service",
+            concurrency = "${app.kafka.consumer.timeline.concurrency:1}",
+            autoStartup = "${app.kafka.consumer.timeline.pipeline.enabled:false}",
+            containerFactory = "pipelineKafkaListenerContainerFactory"
+    )
+    public void runPipeline(List<ConsumerRecord<String, String>> records, Consumer<?, ?> consumer) throws Exception {
+        long begin = System.nanoTime();
+        // 先放入之前的积压, 积压清空的分区 resume
+        pipeline.resume(consumer);
+        for (ConsumerRecord<String, String> record : records) {
+            String payload = record.value();
+            TimelineTick tick = null;
+            if (payload != null && !payload.trim().isEmpty()) {
+                try {
+                    tick = parseTick(payload);
+                    if (tick != null) {
+                        tick = tick.withSource(record.partition(), record.offset());
+                    }
+                } catch (Exception e) {
+                    log.error("❌ Failed to parse timeline message, skipping. Partition:{}, Offset:{}, Payload:{}",
+                            record.partition(), record.offset(), payload, e);
+                }
+            }
+            pipeline.dispatch(consumer, record.topic(), record.partition(), record.offset(), tick);
+        }
+        lap(pipelineStages[PARSE], begin);
+        long t = System.nanoTime();
+        pipeline.commit(consumer);
+        lap(pipelineStages[ACK], t);
+    }
+
+    /**
+     * 没有新消息时由容器空闲事件驱动提交, 避免最后一批的位点一直停留在内存中
+     */
+    @EventListener(condition = "event.listenerId.startsWith('timeline-pipeline-consumer')")
+    public void onPipelineIdle(ListenerContainerIdleEvent event) {
+        // 所有分区都 pause 时 poll 不再返回记录, 由空闲事件放入积压并 resume
+        pipeline.resume(event.getConsumer());
+        pipeline.commit(event.getConsumer());
+    }
+
+    /**
+     * 处理一批 tick 并追加日志帧
+     *
+     * @return 本批日志帧的提交凭证, 未开启日志时为 0
+     * @throws UncheckedIOException 日志追加失败
+     */
+    long processTicks(List<TimelineTick> ticks) {
+        return journal.append(applyTicks(ticks, batchStages));
+    }
+
+    /**
+     * 按 (marketId, stockCode) 分组写入: 每组一次 upsertBatch (每分钟只写合并后的最终 bar), 全部 ZADD 走一次 pipeline
+     * 不追加日志: 调用方在自己的异常处理之外追加, 日志失败不能被当作普通处理异常吞掉
+     *
+     * @return 本批写入的 1m bar, 用于追加日志帧
+     * @throws UncheckedIOException Redis 写入失败, 调用方不应提交位点
+     */
+    private List<KlineResponse> applyTicks(List<TimelineTick> ticks, Timer[] stages) {
+        if (ticks.isEmpty()) return Collections.emptyList();
+        long t = System.nanoTime();
+        // marketId -> stockCode -> minute -> bar, 两级分组避免拼接 key
+        Map<String, Map<String, Map<Long, PricePoint>>> bySymbol = new LinkedHashMap<>();
+        for (TimelineTick tick : ticks) {
+            PricePoint bar = barEngine.onTick(tick);
+            latestQuotes.onTick(tick);
+            streamHub.publish(tick.getStockCode(), tick.getMarketId(), bar);
+            bySymbol.computeIfAbsent(tick.getMarketId(), k -> new LinkedHashMap<>())
+                    .computeIfAbsent(tick.getStockCode(), k -> new LinkedHashMap<>())
+                    .put(bar.getTs(), bar);
+        }
+        t = lap(stages[BAR], t);
+        List<KlineResponse> responses = new ArrayList<>();
+        for (Map.Entry<String, Map<String, Map<Long, PricePoint>>> market : bySymbol.entrySet()) {
+            for (Map.Entry<String, Map<Long, PricePoint>> e : market.getValue().entrySet()) {
+                KlineResponse resp = toResponse(e.getKey(), market.getKey(), new ArrayList<>(e.getValue().values()));
+                klineRepository.upsertBatch(resp);
+                responses.add(resp);
+            }
+        }
+        t = lap(stages[REPOSITORY], t);
+        if (!timelineRedisWriter.writeBatch(responses)) {
+            throw redisWriteFailed(responses.size());
+        }
+        lap(stages[REDIS], t);
+        return responses;
+    }
+
+    private static UncheckedIOException redisWriteFailed(int symbols) {
+        return new UncheckedIOException(new IOException("failed to write " + symbols + " symbols to Redis ZSET"));
+    }
+
+    private static Timer[] stageTimers(KlineMetrics metrics, String mode) {
+        Timer[] timers = new Timer[STAGES.length];
+        for (int i = 0; i < STAGES.length; i++) {
+            timers[i] = metrics.timer("kline.consumer.stage", "mode", mode, "stage", STAGES[i]);
+        }
+        return timers;
+    }
+
+    /** 记录 [since, now) 到 timer 并返回 now, 用于串联各阶段 */
+    private static long lap(Timer timer, long since) {
+        long now = System.nanoTime();
+        timer.record(now - since, TimeUnit.NANOSECONDS);
+        return now;
+    }
+
+    /**
+     * 解析并校验一条 Kafka 消息, 不合法时记录日志并返回 null
+     * 合法的标准消息由 {@link TimelineTickParser} 直接解析; 其余情况走 Jackson 绑定, 丢弃与报错语义不变
+     */
+    TimelineTick parseTick(String payload) throws Exception {
+        TimelineTick fast = fastParser.parse(payload);
+        if (fast != null) {
+            if (log.isDebugEnabled()) {
+                log.debug("✅ Valid message parsed - StockCode:{}, MarketId:{}, Price:{}, Ts:{}, Vol:{}",
+                        fast.getStockCode(), fast.getMarketId(), fast.getPrice(), fast.getTs(), fast.getVol());
+            }
+            return fast;
+        }
+        return bindTick(payload);
+    }
+
+    /**
+     * 完整解析: Jackson 绑定 + 校验, 快速解析器无法处理的输入走这里 (也是快速解析器的对照实现)
+     */
+    TimelineTick bindTick(String payload) throws Exception {
+        // Parse the outer wrapper message
+        KafkaMessage kafkaMsg = objectMapper.readValue(payload, KafkaMessage.class);
+        if (kafkaMsg == null || kafkaMsg.stock_minute_data == null) {
+            log.warn("⚠️ Discarding message without stock_minute_data: {}", payload);
+            return null;
+        }
+
+        TimelineMessage msg = kafkaMsg.stock_minute_data;
+        if (!isValid(msg)) {
+            log.warn("⚠️ Discarding invalid timeline message: {}", payload);
+            return null;
+        }
+
+        log.debug("✅ Valid message parsed - StockCode:{}, MarketId:{}, Price:{}, Date:{}, Time:{}, Vol:{}",
+                msg.stockCode, msg.marketId, msg.price, msg.date, msg.time, msg.vol);
+        return new TimelineTick(msg.stockCode, msg.marketId, toEpochSeconds(msg.date, msg.time), msg.price,
+                msg.vol == null ? 0L : msg.vol);
+    }
+
+    private static KlineResponse toResponse(String stockCode, String marketId, List<PricePoint> bars) {
+        KlineResponse resp = new KlineResponse();
+        resp.setStockcode(stockCode);
+        resp.setMarketId(marketId);
+        bars.forEach(resp::addPricePoint);
+        return resp;
+    }
+
     /**
      * Backward-compatible entry used by unit tests; not a Kafka listener.
      */
@@ -131,14 +437,21 @@ public class TimelineConsumer {
         String mk = response.getMarketId();
         if (isBlank(sc) || isBlank(mk)) return;
         klineRepository.upsertBatch(response);
+        // 外部模式下 upsertBatch 不再写字符串副本, 分钟 ZSET 由 writer 写入
+        if (!timelineRedisWriter.writeBatch(Collections.singletonList(response))) {
+            throw redisWriteFailed(1);
+        }
     }
 
     private boolean isValid(TimelineMessage m) {
         if (m == null) return false;
         if (isBlank(m.stockCode) || isBlank(m.marketId)) return false;
         if (m.price == null) return false;
+        // 定点数存储: 超过 4 位小数或超出范围的价格会被舍入或丢失, 直接拒绝
+        if (!TimelineTick.fitsFixed(m.price)) return false;
         if (isBlank(m.date) || isBlank(m.time)) return false;
-        if (!m.date.matches("\\d{8}") || !m.time.matches("\\d{4}")) return false;
+        if (!DATE_PATTERN.matcher(m.date).matches() || !TIME_PATTERN.matcher(m.time).matches()) return false;
+        if (m.vol != null && m.vol < 0) return false;
         return true;
     }
 
@@ -157,6 +470,8 @@ public class TimelineConsumer {
         public BigDecimal price;
         public String date; // yyyyMMdd
         public String time; // HHmm
+        @JsonAlias("volume")
+        public Long vol;    // optional, 0 when absent
 
         public TimelineMessage() {}
     }
@@ -0,0 +1,632 @@
+package com.example.kline.interfaces.consumer;
+
+import com.example.kline.common.metrics.KlineMetrics;
+import com.example.kline.modules.kline.domain.entity.KlineResponse;
+import com.example.kline.modules.kline.domain.entity.TimelineTick;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.kafka.listener.ConsumerAwareRebalanceListener;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 分时消费流水线: poll 线程只负责解析与分发, 处理在固定数量的 lane 线程上并行执行
+ *
+ * - 按 (marketId, stockCode) 哈希到 lane, 同一股票始终在同一 lane 内按到达顺序处理, 不同股票互不阻塞
+ * - 每个分区维护一个按分发顺序排列的位点环, lane 处理完 (含日志落盘) 后标记完成,
+ *   poll 线程只提交最长已完成前缀之后的位点, 因此重启后不会跳过未处理的记录
+ * - 提交在 poll 线程上直接调用 Consumer (KafkaConsumer 非线程安全), 无新消息时由容器空闲事件驱动
+ * - 分区被回收前等待其在途记录处理完 (最多 drain-timeout-ms), 超时后隔离 (fence) 该分区: 标记其位点环作废,
+ *   并等每个 lane 正在执行的 process 返回, 之后 lane 丢弃该分区的残留记录, 保证回调返回后不再处理;
+ *   最后同步提交已完成前缀, 残留记录由新的分区持有者重新消费
+ * - lane 队列满时分发不阻塞 poll 线程: 放不下的记录按分区留在积压队列中 (同一分区之后的记录排在其后, 保序),
+ *   并 pause 该分区; 之后每次 poll 回调与容器空闲事件先把积压放入 lane, 积压清空后 resume。
+ *   poll 循环始终在 max.poll.interval.ms 内返回, 慢 lane 不会引发重平衡
+ *
+ * 配置 (app.kafka.consumer.timeline.pipeline.*):
+ *   enabled            开启流水线监听 (默认 false)
+ *   lanes              lane 线程数 (默认 8)
+ *   lane-capacity      每个 lane 的队列容量 (默认 10000)
+ *   lane-batch         lane 每次最多取出并合并处理的条数 (默认 500)
+ *   drain-timeout-ms   分区回收时等待在途记录的最长时间 (默认 10000)
+ *
+ * @author xubohan@myhexin.com
+ * @date 2026-10-17 18:00:00
+ */
+@Component
+public class TimelinePipeline implements ConsumerAwareRebalanceListener {
+    private static final Logger log = LoggerFactory.getLogger(TimelinePipeline.class);
+    private static final long RETRY_BACKOFF_MS = 1000L;
+
+    /**
+     * lane 上的处理逻辑, 由 {@link TimelineConsumer} 注册
+     */
+    public interface Handler {
+        /**
+         * 处理同一 lane 上的一组 tick (不追加日志)
+         *
+         * @return 本组写入的 1m bar
+         * @throws UncheckedIOException 写入 Redis 失败, lane 会重试整组, 期间不标记完成
+         */
+        List<KlineResponse> process(List<TimelineTick> ticks);
+
+        /**
+         * 把 {@link #process} 的结果追加为日志帧
+         *
+         * @return 日志提交凭证, 未开启日志时为 0
+         * @throws UncheckedIOException 追加失败, lane 会重试, 期间不标记完成
+         */
+        long append(List<KlineResponse> responses);
+
+        /**
+         * 等待凭证落盘
+         *
+         * @throws UncheckedIOException 落盘失败, lane 会重试, 期间不标记完成
+         */
+        void commit(long ticket);
+    }
+
+    private final boolean enabled;
+    private final int laneCount;
+    private final int laneCapacity;
+    private final int laneBatch;
+    private final long drainTimeoutMs;
+    private final KlineMetrics metrics;
+
+    private final Map<TopicPartition, PartitionTracker> trackers = new ConcurrentHashMap<>();
+    // 已 pause 分区的积压记录 (按分发顺序); 每个分区只由所属 Consumer 的 poll 线程访问
+    private final Map<TopicPartition, ArrayDeque<Pending>> backlogs = new ConcurrentHashMap<>();
+    private final AtomicLong dispatched = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong commits = new AtomicLong();
+    private final AtomicLong commitFailures = new AtomicLong();
+    private final AtomicLong fenced = new AtomicLong();
+    private final AtomicLong pauses = new AtomicLong();
+
+    private volatile Lane[] lanes;
+    private volatile boolean running;
+    private Handler handler;
+
+    // 无参构造函数，用于测试
+    public TimelinePipeline() {
+        this.enabled = false;
+        this.laneCount = 1;
+        this.laneCapacity = 1;
+        this.laneBatch = 1;
+        this.drainTimeoutMs = 0L;
+        this.metrics = new KlineMetrics();
+    }
+
+    @Autowired
+    public TimelinePipeline(Environment env, KlineMetrics metrics) {
+        this.enabled = env.getProperty("app.kafka.consumer.timeline.pipeline.enabled", Boolean.class, false);
+        this.laneCount = Math.max(1, env.getProperty("app.kafka.consumer.timeline.pipeline.lanes", Integer.class, 8));
+        this.laneCapacity = Math.max(1,
+            env.getProperty("app.kafka.consumer.timeline.pipeline.lane-capacity", Integer.class, 10000));
+        this.laneBatch = Math.max(1,
+            env.getProperty("app.kafka.consumer.timeline.pipeline.lane-batch", Integer.class, 500));
+        this.drainTimeoutMs = Math.max(0L,
+            env.getProperty("app.kafka.consumer.timeline.pipeline.drain-timeout-ms", Long.class, 10000L));
+        this.metrics = metrics;
+    }
+
+    /**
+     * 注册处理逻辑并启动 lane 线程; 未开启流水线时什么都不做
+     */
+    public synchronized void start(Handler handler) {
+        if (!enabled || running) return;
+        this.handler = handler;
+        Lane[] ls = new Lane[laneCount];
+        MeterRegistry registry = metrics.getRegistry();
+        for (int i = 0; i < ls.length; i++) {
+            Lane lane = new Lane(i);
+            String tag = String.valueOf(i);
+            Gauge.builder("kline.pipeline.lane.queue", lane.queue, BlockingQueue::size)
+                .tag("lane", tag).description("Ticks waiting in a pipeline lane").register(registry);
+            FunctionCounter.builder("kline.pipeline.lane.processed", lane.processed, AtomicLong::get)
+                .tag("lane", tag).description("Ticks processed by a pipeline lane").register(registry);
+            ls[i] = lane;
+        }
+        Gauge.builder("kline.pipeline.in_flight", this, TimelinePipeline::inFlight)
+            .description("Dispatched records not yet committable").register(registry);
+        running = true;
+        lanes = ls;
+        for (Lane lane : ls) {
+            lane.thread.start();
+        }
+        log.info("TimelinePipeline started: lanes={}, laneCapacity={}, laneBatch={}", laneCount, laneCapacity, laneBatch);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        Lane[] ls = lanes;
+        if (ls == null) return;
+        // 容器先于本 bean 停止, 分区回收时已等待在途记录; 这里只结束 lane 线程
+        running = false;
+        for (Lane lane : ls) {
+            try {
+                lane.thread.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 在 poll 线程上分发一条记录; lane 已满 (或该分区已有积压) 时放入积压队列并 pause 分区, 不阻塞
+     *
+     * @param tick 解析结果, null 表示无效消息 (直接标记完成)
+     */
+    public void dispatch(Consumer<?, ?> consumer, String topic, int partition, long offset, TimelineTick tick) {
+        Lane[] ls = lanes;
+        if (ls == null) {
+            throw new IllegalStateException("TimelinePipeline is not started");
+        }
+        TopicPartition tp = new TopicPartition(topic, partition);
+        PartitionTracker tracker = trackers.computeIfAbsent(tp, k -> new PartitionTracker());
+        long seq = tracker.add(offset);
+        if (tick == null) {
+            skipped.incrementAndGet();
+            tracker.complete(seq);
+            return;
+        }
+        dispatched.incrementAndGet();
+        Pending p = new Pending(tick, tracker, seq, laneOf(tick, ls.length));
+        ArrayDeque<Pending> backlog = backlogs.get(tp);
+        if (backlog == null && ls[p.lane].queue.offer(p)) {
+            return;
+        }
+        if (backlog == null) {
+            backlog = new ArrayDeque<>();
+            backlogs.put(tp, backlog);
+            consumer.pause(Collections.singleton(tp));
+            pauses.incrementAndGet();
+        }
+        backlog.add(p);
+    }
+
+    /**
+     * 在 poll 线程上把当前 Consumer 所分配分区的积压放入 lane, 积压清空的分区 resume;
+     * 每次 poll 回调开始时与容器空闲事件中调用
+     */
+    public void resume(Consumer<?, ?> consumer) {
+        if (backlogs.isEmpty()) return;
+        List<TopicPartition> ready = new ArrayList<>();
+        for (TopicPartition tp : consumer.assignment()) {
+            ArrayDeque<Pending> backlog = backlogs.get(tp);
+            if (backlog != null && drainBacklog(backlog)) {
+                backlogs.remove(tp);
+                ready.add(tp);
+            }
+        }
+        if (!ready.isEmpty()) {
+            consumer.resume(ready);
+        }
+    }
+
+    /**
+     * @return 积压是否已全部放入 lane
+     */
+    private boolean drainBacklog(ArrayDeque<Pending> backlog) {
+        Lane[] ls = lanes;
+        Pending p;
+        while ((p = backlog.peek()) != null) {
+            if (!ls[p.lane].queue.offer(p)) return false;
+            backlog.poll();
+        }
+        return true;
+    }
+
+    /**
+     * 在 poll 线程上异步提交当前 Consumer 所分配分区的已完成前缀
+     */
+    public void commit(Consumer<?, ?> consumer) {
+        Map<TopicPartition, OffsetAndMetadata> offsets = committable(consumer.assignment());
+        if (offsets.isEmpty()) return;
+        commits.incrementAndGet();
+        consumer.commitAsync(offsets, (committed, e) -> {
+            if (e != null) {
+                commitFailures.incrementAndGet();
+                log.warn("Pipeline offset commit failed for {}: {}", committed, e.getMessage());
+            }
+        });
+    }
+
+    @Override
+    public void onPartitionsRevokedBeforeCommit(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        if (!running || partitions.isEmpty()) return;
+        long deadline = System.currentTimeMillis() + drainTimeoutMs;
+        for (TopicPartition tp : partitions) {
+            PartitionTracker tracker = trackers.get(tp);
+            ArrayDeque<Pending> backlog = backlogs.get(tp);
+            while (tracker != null && tracker.inFlight() > 0 && System.currentTimeMillis() < deadline) {
+                // 等待期间 poll 线程停在回调内, 由这里继续把积压放入 lane
+                if (backlog != null && drainBacklog(backlog)) {
+                    backlog = null;
+                }
+                try {
+                    Thread.sleep(10L);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        dropBacklogs(partitions);
+        fence(partitions);
+        Map<TopicPartition, OffsetAndMetadata> offsets = committable(partitions);
+        if (!offsets.isEmpty()) {
+            try {
+                consumer.commitSync(offsets);
+                commits.incrementAndGet();
+            } catch (Exception e) {
+                commitFailures.incrementAndGet();
+                log.warn("Pipeline offset commit on revoke failed for {}: {}", offsets.keySet(), e.getMessage());
+            }
+        }
+        for (TopicPartition tp : partitions) {
+            PartitionTracker tracker = trackers.remove(tp);
+            if (tracker != null && tracker.inFlight() > 0) {
+                log.warn("Partition {} revoked with {} records still in flight; fenced, they will be redelivered",
+                    tp, tracker.inFlight());
+            }
+        }
+    }
+
+    @Override
+    public void onPartitionsLost(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        // 分区已被其它成员接管, 不能再提交; 仍需隔离, 避免与新持有者并发处理同一股票
+        dropBacklogs(partitions);
+        if (running) {
+            fence(partitions);
+        }
+        for (TopicPartition tp : partitions) {
+            trackers.remove(tp);
+        }
+    }
+
+    /**
+     * 回收的分区不再 resume, 积压记录不处理 (未完成, 位点不会越过它们, 由新的持有者重新消费)
+     */
+    private void dropBacklogs(Collection<TopicPartition> partitions) {
+        for (TopicPartition tp : partitions) {
+            ArrayDeque<Pending> backlog = backlogs.remove(tp);
+            if (backlog != null) {
+                fenced.addAndGet(backlog.size());
+            }
+        }
+    }
+
+    /**
+     * 标记分区的位点环作废, 并等待每个 lane 正在执行的 process 返回;
+     * 返回后 lane 不会再处理这些分区的记录 (已处理批次的日志追加与完成标记可能稍后才结束, 不影响隔离)
+     */
+    private void fence(Collection<TopicPartition> partitions) {
+        boolean any = false;
+        for (TopicPartition tp : partitions) {
+            PartitionTracker tracker = trackers.get(tp);
+            if (tracker != null && tracker.inFlight() > 0) {
+                tracker.revoked = true;
+                any = true;
+            }
+        }
+        Lane[] ls = lanes;
+        if (!any || ls == null) return;
+        for (Lane lane : ls) {
+            lane.fence.lock();
+            lane.fence.unlock();
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("enabled", enabled);
+        m.put("running", running);
+        m.put("dispatched", dispatched.get());
+        m.put("skipped", skipped.get());
+        m.put("inFlight", inFlight());
+        m.put("commits", commits.get());
+        m.put("commitFailures", commitFailures.get());
+        m.put("fenced", fenced.get());
+        m.put("pauses", pauses.get());
+        m.put("pausedPartitions", backlogs.size());
+        long backlogged = 0L;
+        for (ArrayDeque<Pending> b : backlogs.values()) {
+            backlogged += b.size();
+        }
+        m.put("backlog", backlogged);
+        List<Map<String, Object>> laneStats = new ArrayList<>();
+        Lane[] ls = lanes;
+        if (ls != null) {
+            long now = System.nanoTime();
+            for (Lane lane : ls) {
+                Map<String, Object> l = new LinkedHashMap<>();
+                l.put("lane", lane.index);
+                l.put("queueDepth", lane.queue.size());
+                l.put("processed", lane.processed.get());
+                l.put("batches", lane.batches.get());
+                l.put("recordsPerSec", lane.rate(now));
+                l.put("journalRetries", lane.retries.get());
+                laneStats.add(l);
+            }
+        }
+        m.put("lanes", laneStats);
+        Map<String, Object> partitions = new LinkedHashMap<>();
+        for (Map.Entry<TopicPartition, PartitionTracker> e : trackers.entrySet()) {
+            Map<String, Object> p = new LinkedHashMap<>();
+            p.put("inFlight", e.getValue().inFlight());
+            p.put("committedOffset", e.getValue().committed);
+            partitions.put(e.getKey().toString(), p);
+        }
+        m.put("partitions", partitions);
+        return m;
+    }
+
+    private long inFlight() {
+        long n = 0L;
+        for (PartitionTracker t : trackers.values()) {
+            n += t.inFlight();
+        }
+        return n;
+    }
+
+    private Map<TopicPartition, OffsetAndMetadata> committable(Collection<TopicPartition> partitions) {
+        Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+        for (TopicPartition tp : partitions) {
+            PartitionTracker tracker = trackers.get(tp);
+            long next = tracker == null ? -1L : tracker.advance();
+            if (next >= 0) {
+                offsets.put(tp, new OffsetAndMetadata(next));
+            }
+        }
+        return offsets;
+    }
+
+    private static int laneOf(TimelineTick tick, int n) {
+        int h = 31 * tick.getMarketId().hashCode() + tick.getStockCode().hashCode();
+        h ^= h >>> 16;
+        return (h & 0x7fffffff) % n;
+    }
+
+    /**
+     * 单个分区按分发顺序排列的位点环, seq 单调递增, 下标为 seq & mask
+     */
+    static final class PartitionTracker {
+        private long[] offsets = new long[256];
+        private boolean[] done = new boolean[256];
+        private long head;
+        private long tail;
+        // 已提交 (或已发起提交) 的下一条位点, -1 表示尚未提交过
+        private volatile long committed = -1L;
+        // 分区已被回收, lane 丢弃其尚未处理的记录
+        volatile boolean revoked;
+
+        synchronized long add(long offset) {
+            if (tail - head == offsets.length) {
+                grow();
+            }
+            int i = (int) (tail & (offsets.length - 1));
+            offsets[i] = offset;
+            done[i] = false;
+            return tail++;
+        }
+
+        synchronized void complete(long seq) {
+            if (seq >= head && seq < tail) {
+                done[(int) (seq & (offsets.length - 1))] = true;
+            }
+        }
+
+        /**
+         * 越过已完成前缀
+         *
+         * @return 新的可提交位点 (最后完成的位点 + 1); 没有推进时返回 -1
+         */
+        synchronized long advance() {
+            int mask = offsets.length - 1;
+            long next = -1L;
+            while (head < tail && done[(int) (head & mask)]) {
+                next = offsets[(int) (head & mask)] + 1;
+                head++;
+            }
+            if (next < 0 || next == committed) return -1L;
+            committed = next;
+            return next;
+        }
+
+        synchronized long inFlight() {
+            return tail - head;
+        }
+
+        private void grow() {
+            int oldMask = offsets.length - 1;
+            long[] o = new long[offsets.length << 1];
+            boolean[] d = new boolean[o.length];
+            int newMask = o.length - 1;
+            for (long s = head; s < tail; s++) {
+                o[(int) (s & newMask)] = offsets[(int) (s & oldMask)];
+                d[(int) (s & newMask)] = done[(int) (s & oldMask)];
+            }
+            offsets = o;
+            done = d;
+        }
+    }
+
+    private static final class Pending {
+        final TimelineTick tick;
+        final PartitionTracker tracker;
+        final long seq;
+        final int lane;
+
+        Pending(TimelineTick tick, PartitionTracker tracker, long seq, int lane) {
+            this.tick = tick;
+            this.tracker = tracker;
+            this.seq = seq;
+            this.lane = lane;
+        }
+    }
+
+    private final class Lane implements Runnable {
+        private static final long RATE_WINDOW_NANOS = 1_000_000_000L;
+
+        final int index;
+        final BlockingQueue<Pending> queue;
+        final Thread thread;
+        final AtomicLong processed = new AtomicLong();
+        final AtomicLong batches = new AtomicLong();
+        final AtomicLong retries = new AtomicLong();
+        // process 期间持有; 分区回收时获取一次, 以等待正在处理的批次
+        final ReentrantLock fence = new ReentrantLock();
+        // 最近一个完整窗口 (约 1 秒) 的处理速率
+        private long windowStart = System.nanoTime();
+        private long windowCount;
+        private volatile double lastRate;
+        private volatile long lastRateAt = windowStart;
+
+        Lane(int index) {
+            this.index = index;
+            this.queue = new ArrayBlockingQueue<>(laneCapacity);
+            this.thread = new Thread(this, "kline-pipeline-" + index);
+            this.thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            List<Pending> batch = new ArrayList<>(laneBatch);
+            List<TimelineTick> ticks = new ArrayList<>(laneBatch);
+            while (running) {
+                Pending first;
+                try {
+                    first = queue.poll(100L, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    break;
+                }
+                if (first == null) continue;
+                batch.add(first);
+                queue.drainTo(batch, laneBatch - 1);
+                List<KlineResponse> responses = process(batch, ticks);
+                if (responses == null) break;
+                if (batch.isEmpty()) {
+                    ticks.clear();
+                    continue;
+                }
+                if (!awaitDurable(responses)) break;
+                for (Pending p : batch) {
+                    p.tracker.complete(p.seq);
+                }
+                processed.addAndGet(batch.size());
+                batches.incrementAndGet();
+                roll(batch.size());
+                batch.clear();
+                ticks.clear();
+            }
+        }
+
+        /**
+         * 在 fence 锁内丢弃已回收分区的记录后处理; 写入失败 (UncheckedIOException) 时不标记完成,
+         * 按固定间隔重试 (bar 引擎与最新行情按位点去重, 重复处理幂等), 退避期间不持有锁, 不阻塞分区回收;
+         * 其他处理异常与批量模式一致, 仍然标记完成, 避免整批无限重试
+         *
+         * @return 本批写入的 1m bar; 停止时返回 null
+         */
+        private List<KlineResponse> process(List<Pending> batch, List<TimelineTick> ticks) {
+            while (true) {
+                fence.lock();
+                try {
+                    int before = batch.size();
+                    batch.removeIf(p -> p.tracker.revoked);
+                    fenced.addAndGet(before - batch.size());
+                    ticks.clear();
+                    for (Pending p : batch) {
+                        ticks.add(p.tick);
+                    }
+                    return ticks.isEmpty() ? Collections.emptyList() : handler.process(ticks);
+                } catch (UncheckedIOException e) {
+                    retries.incrementAndGet();
+                    log.error("❌ Pipeline lane {} failed to write {} ticks, retrying in {} ms", index, ticks.size(),
+                        RETRY_BACKOFF_MS, e);
+                } catch (Exception e) {
+                    log.error("❌ Pipeline lane {} failed to process {} ticks", index, ticks.size(), e);
+                    return Collections.emptyList();
+                } finally {
+                    fence.unlock();
+                }
+                if (!running) return null;
+                try {
+                    Thread.sleep(RETRY_BACKOFF_MS);
+                } catch (InterruptedException ie) {
+                    return null;
+                }
+            }
+        }
+
+        /**
+         * 日志追加并落盘前不标记完成; 失败时按固定间隔重新追加并等待落盘 (回放为幂等 upsert, 重复帧无害),
+         * 只在停止时放弃
+         */
+        private boolean awaitDurable(List<KlineResponse> responses) {
+            while (true) {
+                try {
+                    handler.commit(handler.append(responses));
+                    return true;
+                } catch (UncheckedIOException e) {
+                    retries.incrementAndGet();
+                    log.error("❌ Pipeline lane {} journal append/sync failed, retrying in {} ms", index,
+                        RETRY_BACKOFF_MS, e);
+                    if (!running) return false;
+                    try {
+                        Thread.sleep(RETRY_BACKOFF_MS);
+                    } catch (InterruptedException ie) {
+                        return false;
+                    }
+                }
+            }
+        }
+
+        private void roll(int n) {
+            windowCount += n;
+            long now = System.nanoTime();
+            long elapsed = now - windowStart;
+            if (elapsed >= RATE_WINDOW_NANOS) {
+                lastRate = windowCount * 1e9 / elapsed;
+                lastRateAt = now;
+                windowStart = now;
+                windowCount = 0L;
+            }
+        }
+
+        /** 超过两个窗口没有处理记录时视为空闲 */
+        double rate(long now) {
+            return now - lastRateAt > 2 * RATE_WINDOW_NANOS ? 0.0 : lastRate;
+        }
+    }
+}
@@ -0,0 +1,350 @@
+package com.example.kline.interfaces.consumer;
+
+import com.example.kline.modules.kline.domain.entity.TimelineTick;
+
+/**
+ * 分时 Kafka 消息的快速解析器, 只处理固定结构
+ * {"topic":"..","stock_minute_data":{"stockCode":"..","marketId":"..","price":..,"date":"yyyyMMdd","time":"HHmm","vol":..}}
+ *
+ * 直接在 payload 字符上扫描, 不经过 Jackson 树/POJO:
+ * - price 按定点数 (放大 10^{@value TimelineTick#FIXED_SCALE}) 解析, 同时记录原始小数位数, 不构造 BigDecimal
+ * - date/time 按数字位直接计算 epoch 秒, 年内日偏移取自静态表, 不经过 LocalDate/DateTimeFormatter
+ * - stockCode/marketId 经内部驻留表复用已见过的 String, 稳态下每条合法消息只分配 TimelineTick 本身
+ *
+ * 任何不在快速路径内的输入 (字段缺失/未知字段/转义/null/指数形式、前导零或超过 4 位小数的数字/非法日期等) 一律返回 null,
+ * 由调用方回退到 Jackson 绑定, 因此丢弃与报错的语义与原实现完全一致。线程安全, 可被多个消费线程共享。
+ *
+ * @author xubohan@myhexin.com
+ * @date 2026-10-17 17:40:00
+ */
+public class TimelineTickParser {
+    /** 0001-01-01 到 1970-01-01 的天数 */
+    private static final long DAYS_0001_TO_1970 = 719162L;
+    /** 平年各月之前的累计天数 */
+    private static final int[] DAYS_BEFORE_MONTH = {0, 31, 59, 90, 120, 151, 181, 212, 243, 273, 304, 334};
+    private static final int[] DAYS_IN_MONTH = {31, 28, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31};
+    /** 整数部分最多位数, 保证放大 10^4 后不溢出 long */
+    private static final int MAX_INT_DIGITS = 14;
+    /** 成交量最多位数 */
+    private static final int MAX_VOL_DIGITS = 18;
+    private static final int PROBES = 4;
+
+    // 驻留表: 开放寻址, 冲突超过 PROBES 次时覆盖首槽; 读写不加锁, 最坏情况只是多分配一次 String
+    private final String[] interned;
+
+    public TimelineTickParser() {
+        this(1 << 16);
+    }
+
+    /**
+     * @param internCapacity 驻留表槽位数, 向上取整为 2 的幂
+     */
+    public TimelineTickParser(int internCapacity) {
+        int cap = Integer.highestOneBit(Math.max(16, internCapacity - 1) << 1);
+        this.interned = new String[cap];
+    }
+
+    /**
+     * 解析一条合法消息
+     *
+     * @param s Kafka payload
+     * @return 解析出的 tick; 快速路径无法处理时返回 null (调用方需回退到完整解析)
+     */
+    public TimelineTick parse(CharSequence s) {
+        if (s == null) return null;
+        final int len = s.length();
+        int i = skipWs(s, 0, len);
+        if (i >= len || s.charAt(i) != '{') return null;
+        TimelineTick tick = null;
+        while (true) {
+            i = skipWs(s, i + 1, len);
+            int keyEnd = stringEnd(s, i, len);
+            if (keyEnd < 0) return null;
+            int keyFrom = i + 1;
+            i = skipWs(s, keyEnd + 1, len);
+            if (i >= len || s.charAt(i) != ':') return null;
+            i = skipWs(s, i + 1, len);
+            if (regionEquals(s, keyFrom, keyEnd, "topic")) {
+                int end = stringEnd(s, i, len);
+                if (end < 0) return null;
+                i = end + 1;
+            } else if (regionEquals(s, keyFrom, keyEnd, "stock_minute_data")) {
+                if (i >= len || s.charAt(i) != '{') return null;
+                int end = objectEnd(s, i, len);
+                if (end < 0) return null;
+                tick = parseData(s, i, end);
+                if (tick == null) return null;
+                i = end + 1;
+            } else {
+                return null;
+            }
+            i = skipWs(s, i, len);
+            if (i >= len) return null;
+            char c = s.charAt(i);
+            if (c == '}') break;
+            if (c != ',') return null;
+        }
+        // 尾部只允许空白
+        return skipWs(s, i + 1, len) == len ? tick : null;
+    }
+
+    /**
+     * 解析 stock_minute_data 对象, [open, close] 为左右花括号位置
+     */
+    private TimelineTick parseData(CharSequence s, int open, int close) {
+        int scFrom = -1, scTo = -1, mkFrom = -1, mkTo = -1;
+        long price = TimelineTick.NO_PRICE;
+        int priceScale = 0;
+        int date = -1, time = -1;
+        long vol = 0L;
+
+        int i = open;
+        while (true) {
+            i = skipWs(s, i + 1, close);
+            int keyEnd = stringEnd(s, i, close);
+            if (keyEnd < 0) return null;
+            int keyFrom = i + 1;
+            i = skipWs(s, keyEnd + 1, close);
+            if (i >= close || s.charAt(i) != ':') return null;
+            i = skipWs(s, i + 1, close);
+            if (i >= close) return null;
+
+            // 值的范围 [from, to), 字符串不含引号
+            int from, to;
+            boolean quoted = s.charAt(i) == '"';
+            if (quoted) {
+                to = stringEnd(s, i, close);
+                if (to < 0) return null;
+                from = i + 1;
+                i = to + 1;
+            } else {
+                from = i;
+                to = tokenEnd(s, i, close);
+                i = to;
+            }
+
+            if (regionEquals(s, keyFrom, keyEnd, "stockCode")) {
+                if (!quoted || isBlank(s, from, to)) return null;
+                scFrom = from;
+                scTo = to;
+            } else if (regionEquals(s, keyFrom, keyEnd, "marketId")) {
+                if (!quoted || isBlank(s, from, to)) return null;
+                mkFrom = from;
+                mkTo = to;
+            } else if (regionEquals(s, keyFrom, keyEnd, "price")) {
+                price = parseFixed(s, from, to);
+                if (price == TimelineTick.NO_PRICE) return null;
+                priceScale = fractionDigits(s, from, to);
+            } else if (regionEquals(s, keyFrom, keyEnd, "date")) {
+                if (!quoted || to - from != 8) return null;
+                date = parseDigits(s, from, to);
+                if (date < 0) return null;
+            } else if (regionEquals(s, keyFrom, keyEnd, "time")) {
+                if (!quoted || to - from != 4) return null;
+                time = parseDigits(s, from, to);
+                if (time < 0) return null;
+            } else if (regionEquals(s, keyFrom, keyEnd, "vol") || regionEquals(s, keyFrom, keyEnd, "volume")) {
+                if (quoted) return null;
+                vol = parseVol(s, from, to);
+                if (vol < 0) return null;
+            } else {
+                return null;
+            }
+
+            i = skipWs(s, i, close);
+            if (i == close) break;
+            if (s.charAt(i) != ',') return null;
+        }
+        if (scFrom < 0 || mkFrom < 0 || price == TimelineTick.NO_PRICE || date < 0 || time < 0) {
+            return null;
+        }
+        long ts = toEpochSeconds(date, time);
+        if (ts == Long.MIN_VALUE) return null;
+        return new TimelineTick(intern(s, scFrom, scTo), intern(s, mkFrom, mkTo), ts, price, priceScale, vol);
+    }
+
+    /**
+     * yyyyMMdd + HHmm (UTC) 转 epoch 秒, 非法日期或时间返回 Long.MIN_VALUE
+     */
+    static long toEpochSeconds(int yyyyMMdd, int hhmm) {
+        int y = yyyyMMdd / 10000, m = yyyyMMdd / 100 % 100, d = yyyyMMdd % 100;
+        int hh = hhmm / 100, mm = hhmm % 100;
+        if (y < 1 || m < 1 || m > 12 || d < 1 || hh > 23 || mm > 59) return Long.MIN_VALUE;
+        boolean leap = (y & 3) == 0 && (y % 100 != 0 || y % 400 == 0);
+        if (d > DAYS_IN_MONTH[m - 1] + (m == 2 && leap ? 1 : 0)) return Long.MIN_VALUE;
+        long py = y - 1;
+        long days = 365L * py + py / 4 - py / 100 + py / 400
+            + DAYS_BEFORE_MONTH[m - 1] + (m > 2 && leap ? 1 : 0) + d - 1 - DAYS_0001_TO_1970;
+        return days * 86400L + hh * 3600L + mm * 60L;
+    }
+
+    /**
+     * 十进制数转定点数, 格式为 -?(0|[1-9][0-9]*)(\.[0-9]{1,4})?, 其余返回 NO_PRICE
+     * (超过 4 位小数需要舍入, 且 getPrice() 应保留原始精度, 交给完整解析)
+     */
+    static long parseFixed(CharSequence s, int from, int to) {
+        int i = from;
+        boolean neg = i < to && s.charAt(i) == '-';
+        if (neg) i++;
+        if (i >= to || !isDigit(s.charAt(i))) return TimelineTick.NO_PRICE;
+        if (s.charAt(i) == '0' && i + 1 < to && isDigit(s.charAt(i + 1))) return TimelineTick.NO_PRICE;
+        long v = 0L;
+        int intDigits = 0;
+        while (i < to && isDigit(s.charAt(i))) {
+            if (++intDigits > MAX_INT_DIGITS) return TimelineTick.NO_PRICE;
+            v = v * 10 + (s.charAt(i++) - '0');
+        }
+        int frac = 0;
+        if (i < to) {
+            if (s.charAt(i++) != '.' || i >= to || to - i > TimelineTick.FIXED_SCALE) return TimelineTick.NO_PRICE;
+            while (i < to) {
+                char c = s.charAt(i++);
+                if (!isDigit(c)) return TimelineTick.NO_PRICE;
+                v = v * 10 + (c - '0');
+                frac++;
+            }
+        }
+        for (; frac < TimelineTick.FIXED_SCALE; frac++) {
+            v *= 10;
+        }
+        return neg ? -v : v;
+    }
+
+    /** 小数位数, 调用前已由 parseFixed 校验格式 (不超过 FIXED_SCALE) */
+    private static int fractionDigits(CharSequence s, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (s.charAt(i) == '.') {
+                return to - i - 1;
+            }
+        }
+        return 0;
+    }
+
+    /** 非负整数成交量, 不合法返回 -1 (负数交给完整解析报告) */
+    private static long parseVol(CharSequence s, int from, int to) {
+        int n = to - from;
+        if (n < 1 || n > MAX_VOL_DIGITS || (n > 1 && s.charAt(from) == '0')) return -1L;
+        long v = 0L;
+        for (int i = from; i < to; i++) {
+            char c = s.charAt(i);
+            if (!isDigit(c)) return -1L;
+            v = v * 10 + (c - '0');
+        }
+        return v;
+    }
+
+    /** 定长纯数字串转 int, 出现非数字返回 -1 */
+    private static int parseDigits(CharSequence s, int from, int to) {
+        int v = 0;
+        for (int i = from; i < to; i++) {
+            char c = s.charAt(i);
+            if (!isDigit(c)) return -1;
+            v = v * 10 + (c - '0');
+        }
+        return v;
+    }
+
+    /**
+     * 取 s[from, to) 对应的驻留 String, 未命中时分配并放入表中
+     */
+    private String intern(CharSequence s, int from, int to) {
+        int h = 0;
+        for (int i = from; i < to; i++) {
+            h = 31 * h + s.charAt(i);
+        }
+        // 与 String.hashCode 一致, 候选项比较前可先比 hash
+        String[] table = interned;
+        int mask = table.length - 1;
+        int idx = (h ^ (h >>> 16)) & mask;
+        int free = -1;
+        for (int p = 0; p < PROBES; p++) {
+            int slot = (idx + p) & mask;
+            String cand = table[slot];
+            if (cand == null) {
+                free = slot;
+                break;
+            }
+            if (cand.hashCode() == h && regionEquals(s, from, to, cand)) {
+                return cand;
+            }
+        }
+        String v = s.subSequence(from, to).toString();
+        table[free >= 0 ? free : idx] = v;
+        return v;
+    }
+
+    private static boolean regionEquals(CharSequence s, int from, int to, String expected) {
+        int n = expected.length();
+        if (to - from != n) return false;
+        for (int k = 0; k < n; k++) {
+            if (s.charAt(from + k) != expected.charAt(k)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * s[i] 为左引号时返回右引号位置; 含转义符或控制字符时返回 -1
+     */
+    private static int stringEnd(CharSequence s, int i, int limit) {
+        if (i >= limit || s.charAt(i) != '"') return -1;
+        for (int j = i + 1; j < limit; j++) {
+            char c = s.charAt(j);
+            if (c == '"') return j;
+            if (c == '\\' || c < 0x20) return -1;
+        }
+        return -1;
+    }
+
+    /**
+     * s[i] 为 '{' 时返回匹配的 '}' 位置; 只用于不含嵌套对象/数组的扁平对象, 否则返回 -1
+     */
+    private static int objectEnd(CharSequence s, int i, int limit) {
+        int j = i + 1;
+        while (j < limit) {
+            char c = s.charAt(j);
+            if (c == '"') {
+                j = stringEnd(s, j, limit);
+                if (j < 0) return -1;
+            } else if (c == '}') {
+                return j;
+            } else if (c == '{' || c == '[') {
+                return -1;
+            }
+            j++;
+        }
+        return -1;
+    }
+
+    /** 非字符串值的结束位置: 遇到 ',' '}' 或空白为止 */
+    private static int tokenEnd(CharSequence s, int i, int limit) {
+        while (i < limit) {
+            char c = s.charAt(i);
+            if (c == ',' || c == '}' || isWs(c)) break;
+            i++;
+        }
+        return i;
+    }
+
+    private static int skipWs(CharSequence s, int i, int limit) {
+        while (i < limit && isWs(s.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    /** 与 String.trim().isEmpty() 一致 */
+    private static boolean isBlank(CharSequence s, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (s.charAt(i) > ' ') return false;
+        }
+        return true;
+    }
+
+    private static boolean isWs(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+}
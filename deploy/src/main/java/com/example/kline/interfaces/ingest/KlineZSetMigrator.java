@@ -0,0 +1,200 @@
+package com.example.kline.interfaces.ingest;
+
+import com.example.kline.modules.kline.domain.entity.PricePoint;
+import com.example.kline.modules.kline.infrastructure.cache.KlineMemberCodec;
+import com.example.kline.modules.kline.infrastructure.cache.TimelineRedisWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.core.env.Environment;
+import org.springframework.data.redis.connection.DataType;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Optional startup migration: rewrites legacy price members (v0) and v1 OHLCV members of kline:1m:* ZSETs
+ * into the compact v2 member encoding (see {@link KlineMemberCodec}).
+ * Enable with property: app.migrate.zset-encoding=true (app.migrate.dry-run=true only reports)
+ *
+ * Runs as a {@link SmartLifecycle} in phase {@value #PHASE}, i.e. synchronously during context refresh and
+ * before the Kafka listener containers, the web server and the CommandLineRunner-based file ingestor start,
+ * so no writer touches a key while it is being rewritten.
+ *
+ * Each key is read in pages of app.migrate.page-size members by score (ZRANGEBYSCORE ... LIMIT), so large
+ * keys are never loaded whole. A page ends on a whole minute: when a page is full the members of its last
+ * minute are re-read in full and the next page starts at the following minute.
+ *
+ * Legacy price members sharing one minute are folded into one bar: open/close take the first member,
+ * high/low the max/min price; a v1 member carries the full bar and replaces them. Minutes that already hold
+ * a v2 member keep it and only drop their stale legacy members. Rewrites use {@link TimelineRedisWriter#replaceMinutes}, atomic per minute.
+ *
+ * @author xubohan@myhexin.com
+ * @date 2026-10-17 13:30:00
+ */
+@Component
+@ConditionalOnProperty(name = "app.migrate.zset-encoding", havingValue = "true")
+public class KlineZSetMigrator implements SmartLifecycle {
+    private static final Logger log = LoggerFactory.getLogger(KlineZSetMigrator.class);
+    private static final String PATTERN = "kline:1m:*";
+    /** Below the listener containers (Integer.MAX_VALUE - 100) and the web server */
+    static final int PHASE = 0;
+
+    @Autowired private Environment env;
+    @Autowired private StringRedisTemplate redisTemplate;
+
+    private volatile boolean running;
+
+    @Override
+    public void start() {
+        running = true;
+        migrate();
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public int getPhase() {
+        return PHASE;
+    }
+
+    void migrate() {
+        boolean dryRun = env.getProperty("app.migrate.dry-run", Boolean.class, false);
+        int scanCount = env.getProperty("app.migrate.scan-count", Integer.class, 500);
+        int pageSize = Math.max(2, env.getProperty("app.migrate.page-size", Integer.class, 1000));
+        long begin = System.currentTimeMillis();
+        int scanned = 0, migrated = 0, bars = 0, failed = 0;
+
+        ScanOptions options = ScanOptions.scanOptions().match(PATTERN).count(scanCount).build();
+        try (Cursor<byte[]> cursor = redisTemplate.executeWithStickyConnection(
+                (RedisCallback<Cursor<byte[]>>) connection -> connection.scan(options))) {
+            while (cursor != null && cursor.hasNext()) {
+                String key = new String(cursor.next(), StandardCharsets.UTF_8);
+                scanned++;
+                try {
+                    int n = migrateKey(key, dryRun, pageSize);
+                    if (n > 0) {
+                        migrated++;
+                        bars += n;
+                    }
+                } catch (Exception e) {
+                    failed++;
+                    log.warn("Failed to migrate {}: {}", key, e.getMessage());
+                }
+            }
+        } catch (Exception e) {
+            log.error("ZSET encoding migration aborted: {}", e.getMessage(), e);
+        }
+        log.info("ZSET encoding migration {}: scanned={}, migratedKeys={}, rewrittenMinutes={}, failed={}, cost={}ms",
+                dryRun ? "(dry-run)" : "done", scanned, migrated, bars, failed, System.currentTimeMillis() - begin);
+    }
+
+    /**
+     * @return number of minutes rewritten for this key
+     */
+    int migrateKey(String key, boolean dryRun, int pageSize) {
+        if (redisTemplate.type(key) != DataType.ZSET) {
+            return 0;
+        }
+        ZSetOperations<String, String> z = redisTemplate.opsForZSet();
+        double from = Double.NEGATIVE_INFINITY;
+        int total = 0;
+        while (true) {
+            Set<ZSetOperations.TypedTuple<String>> page =
+                z.rangeByScoreWithScores(key, from, Double.POSITIVE_INFINITY, 0, pageSize);
+            if (page == null || page.isEmpty()) {
+                return total;
+            }
+            List<ZSetOperations.TypedTuple<String>> tuples = new ArrayList<>(page);
+            boolean last = tuples.size() < pageSize;
+            if (!last) {
+                // 页尾分钟可能被截断: 去掉后整分钟重读
+                Double tail = tuples.get(tuples.size() - 1).getScore();
+                if (tail == null) {
+                    return total;
+                }
+                while (!tuples.isEmpty() && tail.equals(tuples.get(tuples.size() - 1).getScore())) {
+                    tuples.remove(tuples.size() - 1);
+                }
+                Set<ZSetOperations.TypedTuple<String>> whole = z.rangeByScoreWithScores(key, tail, tail);
+                if (whole != null) {
+                    tuples.addAll(whole);
+                }
+                from = tail + 1;
+            }
+            total += migratePage(key, tuples, dryRun);
+            if (last) {
+                return total;
+            }
+        }
+    }
+
+    private int migratePage(String key, List<ZSetOperations.TypedTuple<String>> tuples, boolean dryRun) {
+        Set<Long> hasCurrent = new HashSet<>();
+        Map<Long, PricePoint> legacy = new TreeMap<>();
+        Map<Long, List<String>> legacyMembers = new HashMap<>();
+        for (ZSetOperations.TypedTuple<String> t : tuples) {
+            if (t.getScore() == null) continue;
+            long minute = t.getScore().longValue();
+            if (KlineMemberCodec.isCurrent(t.getValue())) {
+                hasCurrent.add(minute);
+                continue;
+            }
+            PricePoint p = KlineMemberCodec.decode(t.getValue(), t.getScore());
+            if (p == null) continue;
+            legacyMembers.computeIfAbsent(minute, k -> new ArrayList<>()).add(t.getValue());
+            PricePoint bar = legacy.get(minute);
+            if (bar == null || t.getValue().charAt(0) == KlineMemberCodec.V1) {
+                legacy.put(minute, p);
+            } else {
+                if (p.getHigh().compareTo(bar.getHigh()) > 0) bar.setHigh(p.getHigh());
+                if (p.getLow().compareTo(bar.getLow()) < 0) bar.setLow(p.getLow());
+            }
+        }
+        legacyMembers.keySet().retainAll(hasCurrent);
+        legacy.keySet().removeAll(hasCurrent);
+        if ((legacy.isEmpty() && legacyMembers.isEmpty()) || dryRun) {
+            return legacy.size();
+        }
+        Map<Long, String> rewritten = new LinkedHashMap<>();
+        for (Map.Entry<Long, PricePoint> e : legacy.entrySet()) {
+            rewritten.put(e.getKey(), KlineMemberCodec.encode(e.getValue()));
+        }
+        byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (List<String> stale : legacyMembers.values()) {
+                byte[][] members = new byte[stale.size()][];
+                for (int i = 0; i < members.length; i++) {
+                    members[i] = stale.get(i).getBytes(StandardCharsets.UTF_8);
+                }
+                connection.zRem(rawKey, members);
+            }
+            TimelineRedisWriter.replaceMinutes(connection, rawKey, rewritten);
+            return null;
+        });
+        return legacy.size();
+    }
+}
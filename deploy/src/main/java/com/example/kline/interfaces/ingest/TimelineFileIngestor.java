@@ -1,14 +1,32 @@
 package com.example.kline.interfaces.ingest;
 
+import com.example.kline.modules.kline.domain.entity.KlineResponse;
+import com.example.kline.modules.kline.domain.entity.PricePoint;
+import com.example.kline.modules.kline.domain.entity.TimelineTick;
 import com.example.kline.modules.kline.infrastructure.cache.TimelineRedisWriter;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import java.io.BufferedInputStream;
 import java.io.File;
-import java.nio.file.Files;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
 import java.time.LocalDate;
 import java.time.LocalTime;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -16,9 +34,22 @@ import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Component;
 
 /**
- * Optional startup ingestor: loads a timeline JSON array file into Redis ZSET.
+ * Optional startup ingestor: loads a timeline file into Redis ZSET.
  * Enable with property: app.ingest.file=/absolute/or/relative/path.json
  *
+ * Supported input (detected from content, gzip also from the magic bytes):
+ * - JSON array of timeline messages (kafka_data.json)
+ * - NDJSON, one timeline message per line
+ * - either of the above gzip-compressed
+ *
+ * The file is parsed incrementally with a streaming {@link JsonParser}. Rows are partitioned by
+ * symbol across app.ingest.workers threads, so one symbol's rows stay in file order, and each
+ * worker writes chunks of app.ingest.chunk-size rows with one pipelined
+ * {@link TimelineRedisWriter#writeBatch}. Within a chunk the last row of a minute wins, as
+ * with the former per-row write. A chunk whose pipeline fails counts as a failed chunk and its
+ * rows as skipped, not written. Progress and throughput are logged every
+ * app.ingest.progress-interval-ms.
+ *
  * @author xubohan@myhexin.com
  * @date 2025-09-09 22:30:00
  */
@@ -26,9 +57,10 @@ import org.springframework.stereotype.Component;
 @ConditionalOnProperty(name = "app.ingest.file")
 public class TimelineFileIngestor implements org.springframework.boot.CommandLineRunner {
     private static final Logger log = LoggerFactory.getLogger(TimelineFileIngestor.class);
-    private static final ObjectMapper M = new ObjectMapper();
+    private static final JsonFactory JSON = new JsonFactory();
     private static final DateTimeFormatter DF = DateTimeFormatter.ofPattern("yyyyMMdd");
     private static final DateTimeFormatter TF = DateTimeFormatter.ofPattern("HHmm");
+    private static final List<Row> POISON = Collections.emptyList();
 
     @Autowired private org.springframework.core.env.Environment env;
     @Autowired private TimelineRedisWriter writer;
@@ -42,36 +74,259 @@ public class TimelineFileIngestor implements org.springframework.boot.CommandLin
             log.warn("Ingest file not found: {}", path);
             return;
         }
-        byte[] bytes = Files.readAllBytes(f.toPath());
-        JsonNode arr = M.readTree(bytes);
-        if (!arr.isArray()) {
-            log.warn("Ingest file is not a JSON array: {}", path);
-            return;
+        int workers = Math.max(1, env.getProperty("app.ingest.workers", Integer.class,
+                Math.min(8, Runtime.getRuntime().availableProcessors())));
+        int chunkSize = Math.max(1, env.getProperty("app.ingest.chunk-size", Integer.class, 5000));
+        long progressMs = Math.max(1000L, env.getProperty("app.ingest.progress-interval-ms", Long.class, 5000L));
+
+        Stats stats = new Stats();
+        List<Worker> pool = new ArrayList<>(workers);
+        for (int i = 0; i < workers; i++) {
+            Worker w = new Worker(i, stats);
+            pool.add(w);
+            w.thread.start();
+        }
+        long begin = System.nanoTime();
+        try (CountingInputStream counting = new CountingInputStream(new FileInputStream(f));
+             InputStream in = open(counting)) {
+            List<List<Row>> buffers = new ArrayList<>(workers);
+            for (int i = 0; i < workers; i++) buffers.add(new ArrayList<>(chunkSize));
+            RowReader reader = new RowReader();
+            long nextLog = System.nanoTime() + progressMs * 1_000_000L;
+            try (JsonParser p = JSON.createParser(in)) {
+                JsonToken first = p.nextToken();
+                boolean array = first == JsonToken.START_ARRAY;
+                JsonToken t = array ? p.nextToken() : first;
+                while (t != null && t != JsonToken.END_ARRAY) {
+                    if (t == JsonToken.START_OBJECT) {
+                        Row row = reader.read(p);
+                        stats.read.incrementAndGet();
+                        if (row == null) {
+                            stats.skip.incrementAndGet();
+                        } else {
+                            int slot = (row.hash & 0x7fffffff) % workers;
+                            List<Row> buf = buffers.get(slot);
+                            buf.add(row);
+                            if (buf.size() >= chunkSize) {
+                                pool.get(slot).queue.put(buf);
+                                buffers.set(slot, new ArrayList<>(chunkSize));
+                            }
+                        }
+                    } else {
+                        // not a timeline message object
+                        p.skipChildren();
+                        stats.read.incrementAndGet();
+                        stats.skip.incrementAndGet();
+                    }
+                    if (System.nanoTime() - nextLog >= 0) {
+                        logProgress(path, f.length(), counting.count, stats, begin);
+                        nextLog = System.nanoTime() + progressMs * 1_000_000L;
+                    }
+                    t = p.nextToken();
+                }
+            }
+            for (int i = 0; i < workers; i++) {
+                if (!buffers.get(i).isEmpty()) pool.get(i).queue.put(buffers.get(i));
+            }
+        } catch (Exception e) {
+            log.error("Ingest of {} aborted after {} rows: {}", path, stats.read.get(), e.getMessage(), e);
+        } finally {
+            for (Worker w : pool) w.queue.put(POISON);
+            for (Worker w : pool) w.thread.join();
         }
-        int ok = 0, skip = 0;
-        for (JsonNode n : arr) {
+        long costMs = Math.max(1L, (System.nanoTime() - begin) / 1_000_000L);
+        log.info("Ingested timeline from {}: ok={}, skip={}, failedChunks={}, cost={}ms, {} rows/s",
+                path, stats.written.get(), stats.skip.get(), stats.failedChunks.get(), costMs,
+                stats.written.get() * 1000L / costMs);
+    }
+
+    private static InputStream open(InputStream raw) throws IOException {
+        BufferedInputStream in = new BufferedInputStream(raw, 1 << 16);
+        in.mark(2);
+        int b1 = in.read(), b2 = in.read();
+        in.reset();
+        if (b1 == 0x1f && b2 == 0x8b) {
+            return new BufferedInputStream(new GZIPInputStream(in, 1 << 16), 1 << 16);
+        }
+        return in;
+    }
+
+    private static void logProgress(String path, long total, long consumed, Stats stats, long begin) {
+        long costMs = Math.max(1L, (System.nanoTime() - begin) / 1_000_000L);
+        log.info("Ingesting {}: {}% of file, read={}, written={}, skip={}, {} rows/s, {} KB/s",
+                path, total > 0 ? consumed * 100L / total : 0, stats.read.get(), stats.written.get(),
+                stats.skip.get(), stats.read.get() * 1000L / costMs, consumed * 1000L / 1024L / costMs);
+    }
+
+    /**
+     * Streaming field reader for one timeline message; keeps a one-entry date cache
+     * since consecutive rows usually share the trading day.
+     */
+    private static final class RowReader {
+        private String lastDate;
+        private long lastDateEpoch;
+
+        /** parser positioned on START_OBJECT; returns null for invalid rows */
+        Row read(JsonParser p) throws IOException {
+            String sc = null, mk = null, date = null, time = null;
+            BigDecimal price = null;
+            boolean bad = false;
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String name = p.getCurrentName();
+                JsonToken v = p.nextToken();
+                if (v == JsonToken.START_OBJECT || v == JsonToken.START_ARRAY) {
+                    p.skipChildren();
+                    continue;
+                }
+                if (v == JsonToken.VALUE_NULL) continue;
+                switch (name) {
+                    case "stockCode": sc = p.getText(); break;
+                    case "marketId": mk = p.getText(); break;
+                    case "date": date = p.getText(); break;
+                    case "time": time = p.getText(); break;
+                    case "price":
+                        try {
+                            price = v.isNumeric() ? p.getDecimalValue() : new BigDecimal(p.getText().trim());
+                        } catch (NumberFormatException e) {
+                            bad = true;
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            }
+            // 超过 4 位小数或超出定点数范围的价格无法无损存储, 视为非法行
+            if (bad || isBlank(sc) || isBlank(mk) || isBlank(date) || isBlank(time) || !TimelineTick.fitsFixed(price)) {
+                return null;
+            }
             try {
-                String sc = text(n, "stockCode");
-                String mk = text(n, "marketId");
-                String date = text(n, "date");
-                String time = text(n, "time");
-                java.math.BigDecimal price = n.hasNonNull("price") ? n.get("price").decimalValue() : null;
-                if (isBlank(sc) || isBlank(mk) || isBlank(date) || isBlank(time) || price == null) { skip++; continue; }
-                long ts = toEpoch(date, time);
-                writer.write(sc, mk, ts, price);
-                ok++;
+                return new Row(sc, mk, toEpoch(date, time), price);
+            } catch (RuntimeException e) {
+                return null;
+            }
+        }
+
+        private long toEpoch(String date, String time) {
+            if (!date.equals(lastDate)) {
+                lastDateEpoch = LocalDate.parse(date, DF).atStartOfDay().toEpochSecond(ZoneOffset.UTC);
+                lastDate = date;
+            }
+            LocalTime t = LocalTime.parse(time, TF);
+            return lastDateEpoch + t.toSecondOfDay();
+        }
+    }
+
+    private final class Worker {
+        final BlockingQueue<List<Row>> queue = new ArrayBlockingQueue<>(4);
+        final Thread thread;
+        private final Stats stats;
+
+        Worker(int index, Stats stats) {
+            this.stats = stats;
+            this.thread = new Thread(this::loop, "timeline-ingest-" + index);
+            this.thread.setDaemon(true);
+        }
+
+        private void loop() {
+            try {
+                List<Row> chunk;
+                while ((chunk = queue.take()) != POISON) {
+                    write(chunk);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void write(List<Row> chunk) {
+            // marketId -> stockCode -> response, minute -> flat bar (last row of a minute wins)
+            Map<String, Map<String, Map<Long, PricePoint>>> bySymbol = new LinkedHashMap<>();
+            for (Row r : chunk) {
+                PricePoint p = new PricePoint();
+                p.setTs(r.ts);
+                p.setOpen(r.price); p.setHigh(r.price); p.setLow(r.price); p.setClose(r.price); p.setVol(0L);
+                bySymbol.computeIfAbsent(r.marketId, k -> new LinkedHashMap<>())
+                        .computeIfAbsent(r.stockCode, k -> new LinkedHashMap<>())
+                        .put(Math.floorDiv(r.ts, 60L), p);
+            }
+            List<KlineResponse> responses = new ArrayList<>();
+            for (Map.Entry<String, Map<String, Map<Long, PricePoint>>> market : bySymbol.entrySet()) {
+                for (Map.Entry<String, Map<Long, PricePoint>> e : market.getValue().entrySet()) {
+                    KlineResponse resp = new KlineResponse();
+                    resp.setStockcode(e.getKey());
+                    resp.setMarketId(market.getKey());
+                    e.getValue().values().forEach(resp::addPricePoint);
+                    responses.add(resp);
+                }
+            }
+            boolean ok;
+            try {
+                ok = writer.writeBatch(responses);
             } catch (Exception e) {
-                skip++;
+                log.warn("Failed to write ingest chunk of {} rows: {}", chunk.size(), e.getMessage());
+                ok = false;
+            }
+            if (ok) {
+                stats.written.addAndGet(chunk.size());
+            } else {
+                stats.failedChunks.incrementAndGet();
+                stats.skip.addAndGet(chunk.size());
             }
         }
-        log.info("Ingested timeline from {}: ok={}, skip={}", path, ok, skip);
     }
 
-    private static String text(JsonNode n, String f) { JsonNode v = n.get(f); return (v==null||v.isNull())?null:v.asText(); }
-    private static boolean isBlank(String s){ return s==null||s.trim().isEmpty(); }
-    private static long toEpoch(String date, String time){
-        LocalDate d = LocalDate.parse(date, DF); LocalTime t = LocalTime.parse(time, TF);
-        return d.atTime(t).toInstant(ZoneOffset.UTC).getEpochSecond();
+    private static final class Row {
+        final String stockCode;
+        final String marketId;
+        final long ts;
+        final BigDecimal price;
+        final int hash;
+
+        Row(String stockCode, String marketId, long ts, BigDecimal price) {
+            this.stockCode = stockCode;
+            this.marketId = marketId;
+            this.ts = ts;
+            this.price = price;
+            this.hash = 31 * stockCode.hashCode() + marketId.hashCode();
+        }
     }
-}
 
+    private static final class Stats {
+        final AtomicLong read = new AtomicLong();
+        final AtomicLong written = new AtomicLong();
+        final AtomicLong skip = new AtomicLong();
+        final AtomicLong failedChunks = new AtomicLong();
+    }
+
+    /** counts compressed bytes consumed, for progress against the file size */
+    private static final class CountingInputStream extends FilterInputStream {
+        volatile long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) count += n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long s = super.skip(n);
+            count += s;
+            return s;
+        }
+    }
+
+    private static boolean isBlank(String s){ return s==null||s.trim().isEmpty(); }
+}
@@ -1,22 +1,30 @@
 package com.example.kline.interfaces.rest;
 
+import com.example.kline.interfaces.consumer.KlineStreamHub;
+import com.example.kline.modules.kline.domain.entity.KlineInterval;
+import com.example.kline.modules.kline.domain.entity.KlineQuery;
 import com.example.kline.modules.kline.domain.entity.KlineResponse;
 import com.example.kline.modules.kline.domain.entity.PricePoint;
 import com.example.kline.modules.kline.domain.repository.KlineRepository;
 import com.example.kline.modules.kline.domain.service.NameResolver;
-import java.time.Instant;
-import java.time.ZoneOffset;
-import java.time.format.DateTimeFormatter;
-import java.util.Comparator;
+import com.example.kline.modules.kline.infrastructure.cache.LatestQuoteTable;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import javax.servlet.http.HttpServletResponse;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 /**
  * K-line query API.
@@ -27,13 +35,29 @@ import org.springframework.web.bind.annotation.RestController;
 @RestController
 @RequestMapping("/kline")
 public class ApiController {
+    // Length limits: prevent abuse and enforce black-box expectations
+    private static final int MAX_STOCKCODE_LEN = 64;
+    private static final int MAX_MARKETID_LEN = 16;
+    // Clamp excessive limits to protect resources (DoS prevention)
+    private static final int MAX_LIMIT = 1000;
+    // Max symbols per batch request
+    private static final int MAX_BATCH_ITEMS = 200;
+
     private final KlineRepository klineRepository;
     private final NameResolver nameResolver;
+    private final KlineResponseWriter responseWriter;
+    private final LatestQuoteTable latestQuotes;
+    private final KlineStreamHub streamHub;
 
     @Autowired
-    public ApiController(KlineRepository klineRepository, NameResolver nameResolver) {
+    public ApiController(KlineRepository klineRepository, NameResolver nameResolver,
+                         KlineResponseWriter responseWriter, LatestQuoteTable latestQuotes,
+                         KlineStreamHub streamHub) {
         this.klineRepository = klineRepository;
         this.nameResolver = nameResolver;
+        this.responseWriter = responseWriter;
+        this.latestQuotes = latestQuotes;
+        this.streamHub = streamHub;
     }
 
     /**
@@ -44,74 +68,252 @@ public class ApiController {
      * @param startTs   start timestamp
      * @param endTs     end timestamp
      * @param limit     limit
-     * @return response
+     * @param interval  bar interval: 1m (default), 5m, 15m, 30m, 60m, 1d
+     * @param out       servlet response, the body is streamed by {@link KlineResponseWriter}
      */
     @GetMapping
-    public Map<String, Object> getKline(@RequestParam String stockcode,
-                                        @RequestParam String marketId,
-                                        @RequestParam(required = false) Long startTs,
-                                        @RequestParam(required = false) Long endTs,
-                                        @RequestParam(required = false) Integer limit) {
+    public void getKline(@RequestParam String stockcode,
+                         @RequestParam String marketId,
+                         @RequestParam(required = false) Long startTs,
+                         @RequestParam(required = false) Long endTs,
+                         @RequestParam(required = false) Integer limit,
+                         @RequestParam(required = false) String interval,
+                         HttpServletResponse out) throws IOException {
         // Basic parameter validation to align with API restrictions
+        validateSymbol(stockcode, marketId, "");
+        Integer effectiveLimit = effectiveLimit(limit, "");
+        KlineInterval barInterval = parseInterval(interval, "");
+
+        KlineResponse response = barInterval == KlineInterval.M1
+            ? klineRepository.findRange(stockcode, marketId, startTs, endTs, effectiveLimit)
+            : klineRepository.findBars(stockcode, marketId, barInterval, startTs, endTs, effectiveLimit);
+        if (response == null) {
+            response = new KlineResponse();
+        }
+        String stockName = nameResolver.resolve(stockcode, marketId);
+        responseWriter.write(out, stockcode, marketId, stockName, response);
+    }
+
+    /**
+     * Query k-line data of several symbols at once.
+     * 1m series are fetched in one Redis pipeline and names with one MGET; each entry of
+     * {@code data} has the same structure as the {@code data} of {@link #getKline}.
+     *
+     * @param items query tuples, at most {@value #MAX_BATCH_ITEMS}
+     * @param out   servlet response
+     */
+    @PostMapping("/batch")
+    public void getKlineBatch(@RequestBody List<BatchItem> items, HttpServletResponse out) throws IOException {
+        if (items == null || items.isEmpty()) {
+            throw new IllegalArgumentException("items must not be empty");
+        }
+        if (items.size() > MAX_BATCH_ITEMS) {
+            throw new IllegalArgumentException("too many items, max " + MAX_BATCH_ITEMS);
+        }
+        int n = items.size();
+        List<String> stockcodes = new ArrayList<>(n);
+        List<String> marketIds = new ArrayList<>(n);
+        List<KlineInterval> intervals = new ArrayList<>(n);
+        List<Integer> limits = new ArrayList<>(n);
+        List<KlineQuery> minuteQueries = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            BatchItem item = items.get(i);
+            String at = "items[" + i + "]: ";
+            if (item == null) {
+                throw new IllegalArgumentException(at + "item must not be null");
+            }
+            validateSymbol(item.stockcode, item.marketId, at);
+            KlineInterval interval = parseInterval(item.interval, at);
+            Integer limit = effectiveLimit(item.limit, at);
+            stockcodes.add(item.stockcode);
+            marketIds.add(item.marketId);
+            intervals.add(interval);
+            limits.add(limit);
+            if (interval == KlineInterval.M1) {
+                minuteQueries.add(new KlineQuery(item.stockcode, item.marketId, item.startTs, item.endTs, limit));
+            }
+        }
+
+        List<KlineResponse> minuteResponses = klineRepository.findRanges(minuteQueries);
+        List<KlineResponse> responses = new ArrayList<>(n);
+        for (int i = 0, m = 0; i < n; i++) {
+            BatchItem item = items.get(i);
+            KlineResponse r = intervals.get(i) == KlineInterval.M1
+                ? minuteResponses.get(m++)
+                : klineRepository.findBars(item.stockcode, item.marketId, intervals.get(i),
+                    item.startTs, item.endTs, limits.get(i));
+            responses.add(r == null ? new KlineResponse() : r);
+        }
+        List<String> names = nameResolver.resolveAll(stockcodes, marketIds);
+        responseWriter.writeBatch(out, stockcodes, marketIds, names, responses);
+    }
+
+    /**
+     * Latest quote of one or more symbols, served from the in-memory latest-quote table.
+     * Either {@code stockcode} + {@code marketId}, or {@code symbols} as a comma separated list of
+     * {@code stockcode:marketId}; {@code data} is one quote object, or an array in request order.
+     * Symbols without a quote yield {@code null}.
+     *
+     * @param stockcode stock code
+     * @param marketId  market id
+     * @param symbols   stockcode:marketId list, at most {@value #MAX_BATCH_ITEMS}
+     * @return response
+     */
+    @GetMapping("/latest")
+    public Map<String, Object> getLatest(@RequestParam(required = false) String stockcode,
+                                         @RequestParam(required = false) String marketId,
+                                         @RequestParam(required = false) String symbols) {
+        Object data;
+        if (symbols == null || symbols.trim().isEmpty()) {
+            validateSymbol(stockcode, marketId, "");
+            data = latestQuotes.get(stockcode, marketId);
+        } else {
+            List<String> stockcodes = new ArrayList<>();
+            List<String> marketIds = new ArrayList<>();
+            parseSymbols(symbols, MAX_BATCH_ITEMS, stockcodes, marketIds);
+            data = latestQuotes.getAll(stockcodes, marketIds);
+        }
+        Map<String, Object> resp = new LinkedHashMap<>();
+        resp.put("code", "0");
+        resp.put("message", "success");
+        resp.put("data", data);
+        return resp;
+    }
+
+    /**
+     * Server-sent events stream of live 1m bars.
+     * Subscribes to {@code symbols} (comma separated {@code stockcode:marketId}); each {@code bar} event
+     * carries the updated minute bar of one symbol. A slow client only receives the latest bar per symbol.
+     * On connect a {@code quote} event with the latest quote is sent for every symbol that has one.
+     * Returns 503 when the stream is disabled or the subscriber limit is reached.
+     *
+     * @param symbols stockcode:marketId list
+     * @return event stream
+     */
+    @GetMapping(path = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> stream(@RequestParam String symbols) throws IOException {
+        List<String> stockcodes = new ArrayList<>();
+        List<String> marketIds = new ArrayList<>();
+        parseSymbols(symbols, streamHub.getMaxSymbols(), stockcodes, marketIds);
+        if (!streamHub.isEnabled()) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
+        SseEmitter emitter = new SseEmitter(streamHub.getTimeoutMs());
+        // The snapshot is queued before subscribing so it always precedes the first live bar
+        for (Map<String, Object> quote : latestQuotes.getAll(stockcodes, marketIds)) {
+            if (quote != null) {
+                emitter.send(SseEmitter.event().name("quote").data(quote, MediaType.APPLICATION_JSON));
+            }
+        }
+        KlineStreamHub.Subscription subscription = streamHub.subscribe(stockcodes, marketIds, new SseSink(emitter));
+        if (subscription == null) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
+        emitter.onCompletion(() -> streamHub.unsubscribe(subscription));
+        emitter.onTimeout(() -> streamHub.unsubscribe(subscription));
+        emitter.onError(e -> streamHub.unsubscribe(subscription));
+        return ResponseEntity.ok(emitter);
+    }
+
+    /**
+     * Parse a comma separated {@code stockcode:marketId} list into the two output lists.
+     */
+    private static void parseSymbols(String symbols, int max, List<String> stockcodes, List<String> marketIds) {
+        String[] items = symbols.split(",");
+        if (items.length > max) {
+            throw new IllegalArgumentException("too many symbols, max " + max);
+        }
+        for (int i = 0; i < items.length; i++) {
+            String item = items[i].trim();
+            int sep = item.lastIndexOf(':');
+            String at = "symbols[" + i + "]: ";
+            if (sep <= 0) {
+                throw new IllegalArgumentException(at + "expected stockcode:marketId");
+            }
+            validateSymbol(item.substring(0, sep), item.substring(sep + 1), at);
+            stockcodes.add(item.substring(0, sep));
+            marketIds.add(item.substring(sep + 1));
+        }
+    }
+
+    private static void validateSymbol(String stockcode, String marketId, String at) {
         if (stockcode == null || stockcode.trim().isEmpty()) {
-            throw new IllegalArgumentException("stockcode must not be blank");
+            throw new IllegalArgumentException(at + "stockcode must not be blank");
         }
         if (marketId == null || marketId.trim().isEmpty()) {
-            throw new IllegalArgumentException("marketId must not be blank");
+            throw new IllegalArgumentException(at + "marketId must not be blank");
         }
-        // Length limits: prevent abuse and enforce black-box expectations
-        final int MAX_STOCKCODE_LEN = 64;
-        final int MAX_MARKETID_LEN = 16;
         if (stockcode.length() > MAX_STOCKCODE_LEN) {
-            throw new IllegalArgumentException("stockcode too long");
+            throw new IllegalArgumentException(at + "stockcode too long");
         }
         if (marketId.length() > MAX_MARKETID_LEN) {
-            throw new IllegalArgumentException("marketId too long");
+            throw new IllegalArgumentException(at + "marketId too long");
         }
+    }
+
+    private static Integer effectiveLimit(Integer limit, String at) {
         // Limit must be non-negative when provided
         if (limit != null && limit < 0) {
-            throw new IllegalArgumentException("limit must be >= 0");
+            throw new IllegalArgumentException(at + "limit must be >= 0");
         }
-        // Clamp excessive limits to protect resources (DoS prevention)
-        final int MAX_LIMIT = 1000;
-        Integer effectiveLimit = limit == null ? null : Math.min(limit, MAX_LIMIT);
+        return limit == null ? null : Math.min(limit, MAX_LIMIT);
+    }
 
-        KlineResponse response = klineRepository.findRange(stockcode, marketId, startTs, endTs, effectiveLimit);
-        if (response == null) {
-            response = new KlineResponse();
+    private static KlineInterval parseInterval(String interval, String at) {
+        if (interval == null || interval.trim().isEmpty()) {
+            return KlineInterval.M1;
         }
-        String stockName = nameResolver.resolve(stockcode, marketId);
+        KlineInterval barInterval = KlineInterval.fromCode(interval);
+        if (barInterval == null) {
+            throw new IllegalArgumentException(at + "interval must be one of 1m,5m,15m,30m,60m,1d");
+        }
+        return barInterval;
+    }
 
-        Map<String, Object> resp = new LinkedHashMap<>();
-        resp.put("code", "0");
-        resp.put("message", "success");
-        
-        List<Map<String, Object>> list = response.getData().stream()
-            .sorted(Comparator.comparingLong(p -> p.getTs() == null ? 0L : p.getTs()))
-            .map(p -> toTimelineItem(p, stockcode, marketId))
-            .collect(Collectors.toList());
-            
-        Map<String, Object> data = new LinkedHashMap<>();
-        data.put("stockName", stockName);
-        data.put("list", list);
-        resp.put("data", data);
-        
-        return resp;
+    /**
+     * Adapts an {@link SseEmitter} to the stream hub; sends run on the hub's sender threads.
+     */
+    private static final class SseSink implements KlineStreamHub.Sink {
+        private final SseEmitter emitter;
+
+        SseSink(SseEmitter emitter) {
+            this.emitter = emitter;
+        }
+
+        @Override
+        public void send(String stockCode, String marketId, PricePoint bar) throws IOException {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("stockCode", stockCode);
+            m.put("marketId", marketId);
+            m.put("ts", bar.getTs());
+            m.put("open", bar.getOpen());
+            m.put("high", bar.getHigh());
+            m.put("low", bar.getLow());
+            m.put("close", bar.getClose());
+            m.put("vol", bar.getVol());
+            emitter.send(SseEmitter.event().name("bar").data(m, MediaType.APPLICATION_JSON));
+        }
+
+        @Override
+        public void heartbeat() throws IOException {
+            emitter.send(SseEmitter.event().comment("ping"));
+        }
+
+        @Override
+        public void close() {
+            emitter.complete();
+        }
     }
 
     /**
-     * Convert PricePoint to timeline message format.
-     * Returns timeline format: {stockCode, marketId, price, date, time}
+     * One entry of a batch query, same fields as the GET /kline parameters.
      */
-    private static Map<String, Object> toTimelineItem(PricePoint p, String stockcode, String marketId) {
-        Map<String, Object> m = new LinkedHashMap<>();
-        Instant instant = Instant.ofEpochSecond(p.getTs() == null ? 0L : p.getTs());
-        m.put("stockCode", stockcode);
-        m.put("marketId", marketId);
-        // Use close price as the representative price for timeline format
-        m.put("price", p.getClose());
-        m.put("date", DateTimeFormatter.ofPattern("yyyyMMdd").withZone(ZoneOffset.UTC).format(instant));
-        m.put("time", DateTimeFormatter.ofPattern("HHmm").withZone(ZoneOffset.UTC).format(instant));
-        return m;
+    public static class BatchItem {
+        public String stockcode;
+        public String marketId;
+        public Long startTs;
+        public Long endTs;
+        public Integer limit;
+        public String interval;
     }
 }
@@ -0,0 +1,190 @@
+package com.example.kline.interfaces.rest;
+
+import com.example.kline.common.metrics.KlineMetrics;
+import com.example.kline.common.ratelimit.KeyedTokenBuckets;
+import com.example.kline.common.ratelimit.StripedTokenBucket;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.core.env.StandardEnvironment;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * /kline 查询的准入控制, 在进入 {@link ApiController} 之前执行, 超限时立即返回 429 + Retry-After
+ *
+ * 依次检查:
+ * 1. 单客户端令牌桶 (按 IP, 先检查, 避免单个客户端耗尽全局额度)
+ * 2. 全局分段令牌桶 (app.rate.kline.qps)
+ * 3. 可选的并发上限: 同时在处理中的查询数 (即同时进行的 Redis 读) 超过 max-in-flight 时拒绝
+ * 后一项拒绝时归还前面已取得的令牌, 被拒绝的请求不消耗任何额度
+ *
+ * 配置 (app.rate.kline.*):
+ *   enabled          总开关 (默认 false)
+ *   qps              全局每秒请求数, 0 表示不限 (默认 200)
+ *   burst            全局突发容量 (默认等于 qps)
+ *   stripes          全局令牌桶段数 (默认 CPU 核数)
+ *   per-client-qps   单 IP 每秒请求数, 0 表示不限 (默认 0)
+ *   per-client-burst 单 IP 突发容量 (默认等于 per-client-qps)
+ *   client-slots     单 IP 令牌桶槽位数 (默认 4096)
+ *   max-in-flight    并发上限, 0 表示不限 (默认 0)
+ *   trust-forwarded  部署在反向代理后时取 X-Forwarded-For 的第一个地址 (默认 false)
+ *
+ * @author xubohan@myhexin.com
+ * @date 2026-10-17 18:30:00
+ */
+@Component
+public class KlineAdmissionInterceptor implements HandlerInterceptor {
+    private static final String PERMIT_ATTR = KlineAdmissionInterceptor.class.getName() + ".permit";
+    private static final byte[] BODY = "{\"code\":\"429\",\"message\":\"too many requests\",\"data\":null,\"list\":[]}"
+        .getBytes(StandardCharsets.UTF_8);
+    /** 并发超限时建议的重试间隔 */
+    private static final long IN_FLIGHT_RETRY_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final boolean enabled;
+    private final boolean trustForwarded;
+    private final StripedTokenBucket global;
+    private final KeyedTokenBuckets perClient;
+    private final Semaphore inFlight;
+    private final int maxInFlight;
+    private final double qps;
+    private final double perClientQps;
+
+    private final Counter admitted;
+    private final Counter shedGlobal;
+    private final Counter shedClient;
+    private final Counter shedInFlight;
+
+    // 无参构造函数，用于测试
+    public KlineAdmissionInterceptor() {
+        this(new StandardEnvironment(), new KlineMetrics());
+    }
+
+    @Autowired
+    public KlineAdmissionInterceptor(Environment env, KlineMetrics metrics) {
+        this.enabled = env.getProperty("app.rate.kline.enabled", Boolean.class, false);
+        this.trustForwarded = env.getProperty("app.rate.kline.trust-forwarded", Boolean.class, false);
+        this.qps = Math.max(0.0, env.getProperty("app.rate.kline.qps", Double.class, 200.0));
+        double burst = env.getProperty("app.rate.kline.burst", Double.class, qps);
+        int stripes = env.getProperty("app.rate.kline.stripes", Integer.class,
+            Runtime.getRuntime().availableProcessors());
+        this.global = qps > 0 ? new StripedTokenBucket(qps, burst, stripes) : null;
+        this.perClientQps = Math.max(0.0, env.getProperty("app.rate.kline.per-client-qps", Double.class, 0.0));
+        double perClientBurst = env.getProperty("app.rate.kline.per-client-burst", Double.class, perClientQps);
+        this.perClient = perClientQps > 0
+            ? new KeyedTokenBuckets(perClientQps, perClientBurst,
+                env.getProperty("app.rate.kline.client-slots", Integer.class, 4096))
+            : null;
+        this.maxInFlight = Math.max(0, env.getProperty("app.rate.kline.max-in-flight", Integer.class, 0));
+        this.inFlight = maxInFlight > 0 ? new Semaphore(maxInFlight) : null;
+
+        MeterRegistry registry = metrics.getRegistry();
+        this.admitted = Counter.builder("kline.rate.admitted").description("Admitted /kline requests")
+            .register(registry);
+        this.shedGlobal = shedCounter(registry, "global");
+        this.shedClient = shedCounter(registry, "client");
+        this.shedInFlight = shedCounter(registry, "in_flight");
+        if (inFlight != null) {
+            Gauge.builder("kline.rate.in_flight", inFlight, s -> maxInFlight - s.availablePermits())
+                .description("/kline requests currently being served").register(registry);
+        }
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler)
+            throws IOException {
+        if (!enabled) return true;
+        long now = System.nanoTime();
+        String client = null;
+        if (perClient != null) {
+            client = clientIp(request);
+            long wait = perClient.tryAcquire(client, now);
+            if (wait > 0) {
+                return reject(response, wait, shedClient);
+            }
+        }
+        if (global != null) {
+            long wait = global.tryAcquire(now);
+            if (wait > 0) {
+                if (client != null) perClient.refund(client, now);
+                return reject(response, wait, shedGlobal);
+            }
+        }
+        if (inFlight != null) {
+            if (!inFlight.tryAcquire()) {
+                if (client != null) perClient.refund(client, now);
+                if (global != null) global.refund(now);
+                return reject(response, IN_FLIGHT_RETRY_NANOS, shedInFlight);
+            }
+            request.setAttribute(PERMIT_ATTR, Boolean.TRUE);
+        }
+        admitted.increment();
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+                                Exception ex) {
+        if (inFlight != null && request.getAttribute(PERMIT_ATTR) != null) {
+            request.removeAttribute(PERMIT_ATTR);
+            inFlight.release();
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("enabled", enabled);
+        m.put("qps", qps);
+        m.put("stripes", global == null ? 0 : global.stripes());
+        m.put("perClientQps", perClientQps);
+        m.put("clientSlots", perClient == null ? 0 : perClient.slots());
+        m.put("maxInFlight", maxInFlight);
+        m.put("inFlight", inFlight == null ? 0 : maxInFlight - inFlight.availablePermits());
+        m.put("admitted", (long) admitted.count());
+        m.put("shedGlobal", (long) shedGlobal.count());
+        m.put("shedClient", (long) shedClient.count());
+        m.put("shedInFlight", (long) shedInFlight.count());
+        return m;
+    }
+
+    private String clientIp(HttpServletRequest request) {
+        if (trustForwarded) {
+            String fwd = request.getHeader("X-Forwarded-For");
+            if (fwd != null && !fwd.isEmpty()) {
+                int comma = fwd.indexOf(',');
+                return (comma < 0 ? fwd : fwd.substring(0, comma)).trim();
+            }
+        }
+        String addr = request.getRemoteAddr();
+        return addr == null ? "" : addr;
+    }
+
+    private static boolean reject(HttpServletResponse response, long waitNanos, Counter counter) throws IOException {
+        counter.increment();
+        long seconds = Math.max(1L, (waitNanos + 999_999_999L) / 1_000_000_000L);
+        response.setStatus(429);
+        response.setHeader("Retry-After", String.valueOf(seconds));
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        response.setContentLength(BODY.length);
+        response.getOutputStream().write(BODY);
+        return false;
+    }
+
+    private static Counter shedCounter(MeterRegistry registry, String reason) {
+        return Counter.builder("kline.rate.shed").tag("reason", reason)
+            .description("/kline requests rejected with 429").register(registry);
+    }
+}
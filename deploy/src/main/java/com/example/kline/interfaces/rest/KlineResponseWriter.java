@@ -0,0 +1,197 @@
+package com.example.kline.interfaces.rest;
+
+import com.example.kline.modules.kline.domain.entity.KlineResponse;
+import com.example.kline.modules.kline.domain.entity.PricePoint;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import javax.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+
+/**
+ * Streams the /kline response straight to the servlet output with a {@link JsonGenerator}.
+ *
+ * Output is byte-identical to serializing the former map tree:
+ * {"code":"0","message":"success","data":{"stockName":..,"list":[{"stockCode","marketId","price","date","time"},..]}}
+ * - date/time come from a per-response day cache and a static HHmm table instead of DateTimeFormatter
+ * - field names are pre-encoded, stockCode/marketId are written from the request values
+ * - the repository already returns points ascending by ts; sorting only happens if that is violated
+ *
+ * @author xubohan@myhexin.com
+ * @date 2026-10-17 14:30:00
+ */
+@Component
+public class KlineResponseWriter {
+    private static final SerializableString CODE = new SerializedString("code");
+    private static final SerializableString MESSAGE = new SerializedString("message");
+    private static final SerializableString DATA = new SerializedString("data");
+    private static final SerializableString STOCK_NAME = new SerializedString("stockName");
+    private static final SerializableString LIST = new SerializedString("list");
+    private static final SerializableString STOCK_CODE = new SerializedString("stockCode");
+    private static final SerializableString MARKET_ID = new SerializedString("marketId");
+    private static final SerializableString PRICE = new SerializedString("price");
+    private static final SerializableString DATE = new SerializedString("date");
+    private static final SerializableString TIME = new SerializedString("time");
+    private static final DateTimeFormatter DATE_FMT = DateTimeFormatter.ofPattern("yyyyMMdd");
+
+    /** HHmm for every minute of a UTC day */
+    private static final String[] MINUTES = new String[1440];
+
+    static {
+        for (int i = 0; i < MINUTES.length; i++) {
+            int h = i / 60, m = i % 60;
+            MINUTES[i] = new String(new char[]{
+                (char) ('0' + h / 10), (char) ('0' + h % 10), (char) ('0' + m / 10), (char) ('0' + m % 10)});
+        }
+    }
+
+    private final JsonFactory factory;
+
+    // 无参构造函数，用于测试
+    public KlineResponseWriter() {
+        this(new ObjectMapper());
+    }
+
+    @Autowired
+    public KlineResponseWriter(ObjectMapper objectMapper) {
+        // share Spring's configured factory so spring.jackson.* generator features still apply
+        this.factory = objectMapper.getFactory();
+    }
+
+    /**
+     * Write a successful k-line response.
+     *
+     * @param out       servlet response
+     * @param stockcode requested stock code
+     * @param marketId  requested market id
+     * @param stockName resolved stock name, may be null
+     * @param response  repository result, points ascending by ts
+     */
+    public void write(HttpServletResponse out, String stockcode, String marketId, String stockName,
+                      KlineResponse response) throws IOException {
+        out.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        write(out.getOutputStream(), stockcode, marketId, stockName, response);
+    }
+
+    /**
+     * Write a successful k-line response to a raw stream (flushed, not closed).
+     */
+    public void write(OutputStream os, String stockcode, String marketId, String stockName,
+                      KlineResponse response) throws IOException {
+        try (JsonGenerator g = factory.createGenerator(os, JsonEncoding.UTF8)) {
+            g.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            writeEnvelopeStart(g);
+            writeData(g, stockcode, marketId, stockName, response);
+            g.writeEndObject();
+        }
+    }
+
+    /**
+     * Write a batch response; {@code data} is an array whose entries match the single-symbol {@code data}.
+     */
+    public void writeBatch(HttpServletResponse out, List<String> stockcodes, List<String> marketIds,
+                           List<String> stockNames, List<KlineResponse> responses) throws IOException {
+        out.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        try (JsonGenerator g = factory.createGenerator(out.getOutputStream(), JsonEncoding.UTF8)) {
+            g.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            writeEnvelopeStart(g);
+            g.writeStartArray();
+            for (int i = 0; i < responses.size(); i++) {
+                writeData(g, stockcodes.get(i), marketIds.get(i), stockNames.get(i), responses.get(i));
+            }
+            g.writeEndArray();
+            g.writeEndObject();
+        }
+    }
+
+    private static void writeEnvelopeStart(JsonGenerator g) throws IOException {
+        g.writeStartObject();
+        g.writeFieldName(CODE);
+        g.writeString("0");
+        g.writeFieldName(MESSAGE);
+        g.writeString("success");
+        g.writeFieldName(DATA);
+    }
+
+    private static void writeData(JsonGenerator g, String stockcode, String marketId, String stockName,
+                                  KlineResponse response) throws IOException {
+        List<PricePoint> points = sortedPoints(response);
+        g.writeStartObject();
+        g.writeFieldName(STOCK_NAME);
+        g.writeString(stockName);
+        g.writeFieldName(LIST);
+        g.writeStartArray();
+        long cachedDay = Long.MIN_VALUE;
+        String cachedDate = null;
+        for (int i = 0, n = points.size(); i < n; i++) {
+            PricePoint p = points.get(i);
+            long ts = p.getTs() == null ? 0L : p.getTs();
+            long day = Math.floorDiv(ts, 86400L);
+            if (day != cachedDay) {
+                cachedDay = day;
+                cachedDate = formatDay(day);
+            }
+            g.writeStartObject();
+            g.writeFieldName(STOCK_CODE);
+            g.writeString(stockcode);
+            g.writeFieldName(MARKET_ID);
+            g.writeString(marketId);
+            // Use close price as the representative price for timeline format
+            g.writeFieldName(PRICE);
+            if (p.getClose() == null) {
+                g.writeNull();
+            } else {
+                g.writeNumber(p.getClose());
+            }
+            g.writeFieldName(DATE);
+            g.writeString(cachedDate);
+            g.writeFieldName(TIME);
+            g.writeString(MINUTES[(int) (Math.floorMod(ts, 86400L) / 60L)]);
+            g.writeEndObject();
+        }
+        g.writeEndArray();
+        g.writeEndObject();
+    }
+
+    private static List<PricePoint> sortedPoints(KlineResponse response) {
+        if (response == null) {
+            return new ArrayList<>();
+        }
+        List<PricePoint> points = response.getData();
+        long prev = Long.MIN_VALUE;
+        for (PricePoint p : points) {
+            long ts = p.getTs() == null ? 0L : p.getTs();
+            if (ts < prev) {
+                List<PricePoint> copy = new ArrayList<>(points);
+                copy.sort(Comparator.comparingLong(x -> x.getTs() == null ? 0L : x.getTs()));
+                return copy;
+            }
+            prev = ts;
+        }
+        return points;
+    }
+
+    /**
+     * yyyyMMdd of a UTC epoch day; four-digit years are built arithmetically.
+     */
+    private static String formatDay(long epochDay) {
+        LocalDate d = LocalDate.ofEpochDay(epochDay);
+        int y = d.getYear();
+        if (y < 1000 || y > 9999) {
+            return DATE_FMT.format(d);
+        }
+        return Integer.toString(y * 10000 + d.getMonthValue() * 100 + d.getDayOfMonth());
+    }
+}
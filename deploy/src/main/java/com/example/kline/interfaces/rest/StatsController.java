@@ -0,0 +1,158 @@
+package com.example.kline.interfaces.rest;
+
+import com.example.kline.interfaces.consumer.KlineStreamHub;
+import com.example.kline.interfaces.consumer.TimelinePipeline;
+import com.example.kline.modules.kline.domain.service.impl.NameResolverImpl;
+import com.example.kline.modules.kline.infrastructure.cache.KlineBarEngine;
+import com.example.kline.modules.kline.infrastructure.cache.KlineJournal;
+import com.example.kline.modules.kline.infrastructure.cache.KlineNearCache;
+import com.example.kline.modules.kline.infrastructure.cache.KlineRetentionManager;
+import com.example.kline.modules.kline.infrastructure.cache.KlineSnapshotStore;
+import com.example.kline.modules.kline.infrastructure.cache.LatestQuoteTable;
+import com.example.kline.modules.kline.infrastructure.cache.TimelineRedisWriter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 运行时统计控制器
+ * 用于查看写入缓冲、缓存等组件的内部计数
+ *
+ * @author xubohan@myhexin.com
+ * @date 2026-10-17 10:30:00
+ */
+@RestController
+@RequestMapping("/stats")
+public class StatsController {
+
+    private final TimelineRedisWriter timelineRedisWriter;
+    private final KlineNearCache nearCache;
+    private final NameResolverImpl nameResolver;
+    private final KlineSnapshotStore snapshotStore;
+    private final KlineJournal journal;
+    private final TimelinePipeline pipeline;
+    private final KlineAdmissionInterceptor admission;
+    private final KlineRetentionManager retention;
+    private final LatestQuoteTable latestQuotes;
+    private final KlineStreamHub streamHub;
+    private final KlineBarEngine barEngine;
+
+    @Autowired
+    public StatsController(TimelineRedisWriter timelineRedisWriter, KlineNearCache nearCache,
+                           NameResolverImpl nameResolver, KlineSnapshotStore snapshotStore,
+                           KlineJournal journal, TimelinePipeline pipeline,
+                           KlineAdmissionInterceptor admission, KlineRetentionManager retention,
+                           LatestQuoteTable latestQuotes, KlineStreamHub streamHub, KlineBarEngine barEngine) {
+        this.timelineRedisWriter = timelineRedisWriter;
+        this.nearCache = nearCache;
+        this.nameResolver = nameResolver;
+        this.snapshotStore = snapshotStore;
+        this.journal = journal;
+        this.pipeline = pipeline;
+        this.admission = admission;
+        this.retention = retention;
+        this.latestQuotes = latestQuotes;
+        this.streamHub = streamHub;
+        this.barEngine = barEngine;
+    }
+
+    /**
+     * Redis ZSET 写入统计: 队列深度、flush 耗时、合并/丢弃/背压计数
+     */
+    @GetMapping("/redis-writer")
+    public Map<String, Object> redisWriter() {
+        return ok(timelineRedisWriter.stats());
+    }
+
+    /**
+     * K线近端缓存统计: 命中率、条目数、内存占用、淘汰/过期/补丁计数
+     */
+    @GetMapping("/near-cache")
+    public Map<String, Object> nearCache() {
+        return ok(nearCache.stats());
+    }
+
+    /**
+     * 名称解析统计: 缓存命中、负缓存命中、single-flight 合并、远程调用/失败次数
+     */
+    @GetMapping("/name-resolver")
+    public Map<String, Object> nameResolver() {
+        return ok(nameResolver.stats());
+    }
+
+    /**
+     * 内存模式快照统计: 启动挂载的股票数/耗时、最近一次写出的耗时与大小
+     */
+    @GetMapping("/snapshot")
+    public Map<String, Object> snapshot() {
+        return ok(snapshotStore.stats());
+    }
+
+    /**
+     * 内存模式日志统计: 追加帧数/bar 数、fsync 次数与平均每次覆盖的帧数、启动回放量
+     */
+    @GetMapping("/journal")
+    public Map<String, Object> journal() {
+        return ok(journal.stats());
+    }
+
+    /**
+     * 消费流水线统计: 各 lane 队列深度/处理量/近 1 秒速率, 各分区在途记录数与已提交位点
+     */
+    @GetMapping("/pipeline")
+    public Map<String, Object> pipeline() {
+        return ok(pipeline.stats());
+    }
+
+    /**
+     * /kline 准入控制统计: 放行数、按原因 (global/client/in_flight) 拒绝的次数、当前并发
+     */
+    @GetMapping("/rate-limit")
+    public Map<String, Object> rateLimit() {
+        return ok(admission.stats());
+    }
+
+    /**
+     * 保留期清理统计: 扫描/裁剪的 key 数、删除的分钟数、降采样 bar 数、回收字节数、最近一轮耗时
+     */
+    @GetMapping("/retention")
+    public Map<String, Object> retention() {
+        return ok(retention.stats());
+    }
+
+    /**
+     * 最新行情表统计: 喂入/丢弃的成交数、待镜像的脏记录、镜像写入与远程读取次数、启动预热条数
+     */
+    @GetMapping("/latest")
+    public Map<String, Object> latest() {
+        return ok(latestQuotes.stats());
+    }
+
+    /**
+     * 实时推送统计: 订阅者数、发布/分发/发送的更新数、合并 (coalesced) 与环形缓冲区溢出丢弃 (dropped) 的更新数
+     */
+    @GetMapping("/stream")
+    public Map<String, Object> stream() {
+        return ok(streamHub.stats());
+    }
+
+    /**
+     * bar 引擎统计: 驻留股票数、从存储播种次数、按位点识别的重投成交、裁剪的旧 bar 与释放的空闲股票
+     */
+    @GetMapping("/bars")
+    public Map<String, Object> bars() {
+        return ok(barEngine.stats());
+    }
+
+    private static Map<String, Object> ok(Object data) {
+        Map<String, Object> resp = new LinkedHashMap<>();
+        resp.put("code", "0");
+        resp.put("message", "success");
+        resp.put("data", data);
+        return resp;
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.kline.interfaces.rest;
+
+import com.example.kline.modules.kline.infrastructure.cache.SymbolRegistry;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Symbol registry lookup API.
+ *
+ * @author xubohan@myhexin.com
+ * @date 2026-10-17 15:30:00
+ */
+@RestController
+@RequestMapping("/symbols")
+public class SymbolController {
+    private static final int MAX_LIMIT = 1000;
+
+    private final SymbolRegistry symbols;
+
+    @Autowired
+    public SymbolController(SymbolRegistry symbols) {
+        this.symbols = symbols;
+    }
+
+    /**
+     * List registered symbols in id order, or look up a single one.
+     *
+     * @param marketId  optional market filter
+     * @param stockcode optional stock code, requires marketId; returns that symbol only
+     * @param offset    first id to scan from
+     * @param limit     max entries, clamped to 1000
+     * @return response
+     */
+    @GetMapping
+    public Map<String, Object> list(@RequestParam(required = false) String marketId,
+                                    @RequestParam(required = false) String stockcode,
+                                    @RequestParam(required = false, defaultValue = "0") Integer offset,
+                                    @RequestParam(required = false, defaultValue = "100") Integer limit) {
+        if (offset < 0) {
+            throw new IllegalArgumentException("offset must be >= 0");
+        }
+        if (limit < 0) {
+            throw new IllegalArgumentException("limit must be >= 0");
+        }
+        List<SymbolRegistry.Symbol> found;
+        if (stockcode != null && !stockcode.isEmpty()) {
+            if (marketId == null || marketId.isEmpty()) {
+                throw new IllegalArgumentException("marketId must not be blank when stockcode is given");
+            }
+            SymbolRegistry.Symbol s = symbols.lookup(stockcode, marketId);
+            found = new ArrayList<>(1);
+            if (s != null) {
+                found.add(s);
+            }
+        } else {
+            found = symbols.list(marketId == null || marketId.isEmpty() ? null : marketId,
+                offset, Math.min(limit, MAX_LIMIT));
+        }
+        List<Map<String, Object>> list = new ArrayList<>(found.size());
+        for (SymbolRegistry.Symbol s : found) {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("id", s.getId());
+            m.put("stockCode", s.getStockCode());
+            m.put("marketId", s.getMarketId());
+            list.add(m);
+        }
+        Map<String, Object> data = new LinkedHashMap<>();
+        data.put("total", symbols.size());
+        data.put("capacity", symbols.getMaxSize());
+        data.put("list", list);
+
+        Map<String, Object> resp = new LinkedHashMap<>();
+        resp.put("code", "0");
+        resp.put("message", "success");
+        resp.put("data", data);
+        return resp;
+    }
+}
@@ -0,0 +1,53 @@
+package com.example.kline.modules.kline.domain.entity;
+
+/**
+ * Supported k-line bar intervals.
+ *
+ * @author xubohan@myhexin.com
+ * @date 2026-10-17 11:30:00
+ */
+public enum KlineInterval {
+    M1("1m", 60L),
+    M5("5m", 300L),
+    M15("15m", 900L),
+    M30("30m", 1800L),
+    H1("60m", 3600L),
+    D1("1d", 86400L);
+
+    private final String code;
+    private final long seconds;
+
+    KlineInterval(String code, long seconds) {
+        this.code = code;
+        this.seconds = seconds;
+    }
+
+    public String getCode() { return code; }
+    public long getSeconds() { return seconds; }
+
+    /**
+     * Start timestamp of the bar containing ts (UTC aligned).
+     *
+     * @param ts epoch seconds
+     * @return bar start epoch seconds
+     */
+    public long bucketStart(long ts) {
+        return ts - Math.floorMod(ts, seconds);
+    }
+
+    /**
+     * Parse interval code.
+     *
+     * @param code interval code such as 1m, 5m, 60m, 1d
+     * @return interval or null when unknown
+     */
+    public static KlineInterval fromCode(String code) {
+        if (code == null) return null;
+        String c = code.trim();
+        if ("1h".equalsIgnoreCase(c)) return H1;
+        for (KlineInterval i : values()) {
+            if (i.code.equalsIgnoreCase(c)) return i;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,29 @@
+package com.example.kline.modules.kline.domain.entity;
+
+/**
+ * Immutable value object of one validated k-line range query.
+ *
+ * @author xubohan@myhexin.com
+ * @date 2026-10-17 15:00:00
+ */
+public class KlineQuery {
+    private final String stockcode;
+    private final String marketId;
+    private final Long startTs;
+    private final Long endTs;
+    private final Integer limit;
+
+    public KlineQuery(String stockcode, String marketId, Long startTs, Long endTs, Integer limit) {
+        this.stockcode = stockcode;
+        this.marketId = marketId;
+        this.startTs = startTs;
+        this.endTs = endTs;
+        this.limit = limit;
+    }
+
+    public String getStockcode() { return stockcode; }
+    public String getMarketId() { return marketId; }
+    public Long getStartTs() { return startTs; }
+    public Long getEndTs() { return endTs; }
+    public Integer getLimit() { return limit; }
+}
@@ -0,0 +1,123 @@
+package com.example.kline.modules.kline.domain.entity;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Immutable value object of one validated timeline tick.
+ *
+ * The price is held either as the parsed {@link BigDecimal} or as a fixed-point long scaled by
+ * 10^{@value #FIXED_SCALE} plus the display scale; the other form is derived on demand, so the
+ * Kafka fast-path parser never has to build a BigDecimal.
+ *
+ * A tick consumed from Kafka may carry its partition and offset (see {@link #withSource}) so that
+ * redelivered records can be recognised and not merged twice; other ticks report partition -1.
+ *
+ * @author xubohan@myhexin.com
+ * @date 2026-10-17 09:30:00
+ */
+public class TimelineTick {
+    /** decimal places of {@link #getFixedPrice()} */
+    public static final int FIXED_SCALE = 4;
+    /** marker for a fixed price that is absent or does not fit a long */
+    public static final long NO_PRICE = Long.MIN_VALUE;
+
+    private final String stockCode;
+    private final String marketId;
+    private final long ts;
+    private final long fixedPrice;
+    private final int priceScale;
+    private final long vol;
+    private final int partition;
+    private final long offset;
+    // lazily built from fixedPrice; racy init is harmless since BigDecimal is immutable
+    private BigDecimal price;
+
+    public TimelineTick(String stockCode, String marketId, long ts, BigDecimal price) {
+        this(stockCode, marketId, ts, price, 0L);
+    }
+
+    public TimelineTick(String stockCode, String marketId, long ts, BigDecimal price, long vol) {
+        this.stockCode = stockCode;
+        this.marketId = marketId;
+        this.ts = ts;
+        this.price = price;
+        this.fixedPrice = toFixed(price);
+        this.priceScale = price == null ? 0 : Math.max(0, Math.min(FIXED_SCALE, price.scale()));
+        this.vol = vol;
+        this.partition = -1;
+        this.offset = -1L;
+    }
+
+    /**
+     * @param fixedPrice price scaled by 10^{@value #FIXED_SCALE}, HALF_UP rounded
+     * @param priceScale decimal places of the original text, clamped to [0, {@value #FIXED_SCALE}]
+     */
+    public TimelineTick(String stockCode, String marketId, long ts, long fixedPrice, int priceScale, long vol) {
+        this.stockCode = stockCode;
+        this.marketId = marketId;
+        this.ts = ts;
+        this.fixedPrice = fixedPrice;
+        this.priceScale = priceScale;
+        this.vol = vol;
+        this.partition = -1;
+        this.offset = -1L;
+    }
+
+    private TimelineTick(TimelineTick t, int partition, long offset) {
+        this.stockCode = t.stockCode;
+        this.marketId = t.marketId;
+        this.ts = t.ts;
+        this.fixedPrice = t.fixedPrice;
+        this.priceScale = t.priceScale;
+        this.vol = t.vol;
+        this.price = t.price;
+        this.partition = partition;
+        this.offset = offset;
+    }
+
+    /**
+     * Copy of this tick tagged with the Kafka record it came from.
+     */
+    public TimelineTick withSource(int partition, long offset) {
+        return new TimelineTick(this, partition, offset);
+    }
+
+    public String getStockCode() { return stockCode; }
+    public String getMarketId() { return marketId; }
+    public long getTs() { return ts; }
+    public long getFixedPrice() { return fixedPrice; }
+    public int getPriceScale() { return priceScale; }
+    public long getVol() { return vol; }
+    /** Kafka partition of the source record, -1 when unknown */
+    public int getPartition() { return partition; }
+    /** Kafka offset of the source record, -1 when unknown */
+    public long getOffset() { return offset; }
+
+    /**
+     * Whether a price is exactly representable as a fixed-point value: at most {@value #FIXED_SCALE}
+     * significant decimal places and within the long range. Ingest rejects prices that are not, so that
+     * stored prices are never rounded or dropped.
+     */
+    public static boolean fitsFixed(BigDecimal price) {
+        return price != null && price.stripTrailingZeros().scale() <= FIXED_SCALE && toFixed(price) != NO_PRICE;
+    }
+
+    public BigDecimal getPrice() {
+        BigDecimal p = price;
+        if (p == null && fixedPrice != NO_PRICE) {
+            p = BigDecimal.valueOf(fixedPrice, FIXED_SCALE).setScale(priceScale, RoundingMode.HALF_UP);
+            price = p;
+        }
+        return p;
+    }
+
+    private static long toFixed(BigDecimal price) {
+        if (price == null) return NO_PRICE;
+        try {
+            return price.setScale(FIXED_SCALE, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+        } catch (ArithmeticException e) {
+            return NO_PRICE;
+        }
+    }
+}
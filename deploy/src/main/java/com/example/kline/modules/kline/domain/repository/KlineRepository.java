@@ -1,6 +1,9 @@
 package com.example.kline.modules.kline.domain.repository;
 
+import com.example.kline.modules.kline.domain.entity.KlineInterval;
+import com.example.kline.modules.kline.domain.entity.KlineQuery;
 import com.example.kline.modules.kline.domain.entity.KlineResponse;
+import java.util.List;
 
 /**
  * Repository for k-line data.
@@ -21,6 +24,27 @@ public interface KlineRepository {
      */
     KlineResponse findRange(String stockcode, String marketId, Long startTs, Long endTs, Integer limit);
 
+    /**
+     * Find k-line ranges of several symbols in one storage round trip.
+     *
+     * @param queries range queries
+     * @return responses in query order, never null
+     */
+    List<KlineResponse> findRanges(List<KlineQuery> queries);
+
+    /**
+     * Find pre-aggregated bars of the given interval.
+     *
+     * @param stockcode stock code
+     * @param marketId  market id
+     * @param interval  bar interval
+     * @param startTs   start timestamp
+     * @param endTs     end timestamp
+     * @param limit     limit of bars
+     * @return response
+     */
+    KlineResponse findBars(String stockcode, String marketId, KlineInterval interval, Long startTs, Long endTs, Integer limit);
+
     /**
      * Persist k-line batch.
      *
@@ -1,5 +1,8 @@
 package com.example.kline.modules.kline.domain.service;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Resolve stock name by code and market.
  *
@@ -15,4 +18,19 @@ public interface NameResolver {
      * @return stock name or null
      */
     String resolve(String stockcode, String marketId);
+
+    /**
+     * Resolve several stock names at once.
+     *
+     * @param stockcodes stock codes
+     * @param marketIds  market identifiers, same size as stockcodes
+     * @return names aligned with the input, null where unresolved
+     */
+    default List<String> resolveAll(List<String> stockcodes, List<String> marketIds) {
+        List<String> out = new ArrayList<>(stockcodes.size());
+        for (int i = 0; i < stockcodes.size(); i++) {
+            out.add(resolve(stockcodes.get(i), marketIds.get(i)));
+        }
+        return out;
+    }
 }
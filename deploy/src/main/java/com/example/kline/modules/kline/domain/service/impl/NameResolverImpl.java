@@ -1,15 +1,33 @@
 package com.example.kline.modules.kline.domain.service.impl;
 
+import com.example.kline.common.metrics.KlineMetrics;
 import com.example.kline.modules.kline.domain.service.NameResolver;
 import com.example.kline.modules.kline.infrastructure.cache.RedisNameCache;
 import com.example.kline.modules.kline.infrastructure.external.NameServiceHttp;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.apache.commons.lang3.StringUtils;
+import org.springframework.core.env.Environment;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
 /**
  * Name resolver implementation with cache.
  *
+ * Cache misses are deduplicated per key (single-flight): concurrent requests for the same
+ * symbol wait on the one in-flight remote lookup instead of each calling the name service.
+ * Misses and failures are remembered in a short-TTL negative cache
+ * (app.namesvc.negative-ttl-ms, bounded by app.namesvc.negative-max-entries).
+ *
  * @author xubohan@myhexin.com
  * @date 2025-09-08 20:24:08
  */
@@ -17,23 +35,224 @@ import org.springframework.stereotype.Service;
 public class NameResolverImpl implements NameResolver {
     private final RedisNameCache nameCache;
     private final NameServiceHttp nameServiceHttp;
+    private final KlineMetrics metrics;
+
+    private final long negativeTtlNanos;
+    private final int negativeMaxEntries;
+    private final long waitMs;
+    private final Map<String, CompletableFuture<String>> inFlight = new ConcurrentHashMap<>();
+    private final Map<String, Long> negative = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder negativeHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder remoteCalls = new LongAdder();
+    private final LongAdder remoteFailures = new LongAdder();
 
-    @Autowired
     public NameResolverImpl(RedisNameCache nameCache, NameServiceHttp nameServiceHttp) {
+        this(nameCache, nameServiceHttp, new KlineMetrics(), 30000L, 10000, 5000L);
+    }
+
+    public NameResolverImpl(RedisNameCache nameCache, NameServiceHttp nameServiceHttp, Environment env) {
+        this(nameCache, nameServiceHttp, env, new KlineMetrics());
+    }
+
+    @Autowired
+    public NameResolverImpl(RedisNameCache nameCache, NameServiceHttp nameServiceHttp, Environment env,
+                            KlineMetrics metrics) {
+        this(nameCache, nameServiceHttp, metrics,
+            env.getProperty("app.namesvc.negative-ttl-ms", Long.class, 30000L),
+            env.getProperty("app.namesvc.negative-max-entries", Integer.class, 10000),
+            env.getProperty("app.namesvc.timeout", Long.class, 5000L));
+    }
+
+    private NameResolverImpl(RedisNameCache nameCache, NameServiceHttp nameServiceHttp, KlineMetrics metrics,
+                             long negativeTtlMs, int negativeMaxEntries, long waitMs) {
         this.nameCache = nameCache;
         this.nameServiceHttp = nameServiceHttp;
+        this.metrics = metrics;
+        this.negativeTtlNanos = TimeUnit.MILLISECONDS.toNanos(negativeTtlMs);
+        this.negativeMaxEntries = negativeMaxEntries;
+        this.waitMs = waitMs;
     }
 
     @Override
     public String resolve(String stockcode, String marketId) {
-        String cached = nameCache.getName(stockcode, marketId);
-        if (StringUtils.isNotBlank(cached)) {
-            return cached;
+        long begin = System.nanoTime();
+        try {
+            String cached = nameCache.getName(stockcode, marketId);
+            if (StringUtils.isNotBlank(cached)) {
+                hits.increment();
+                return cached;
+            }
+            return resolveMiss(stockcode, marketId);
+        } finally {
+            KlineMetrics.record(metrics.marketTimer("kline.name.resolve", marketId), begin);
+        }
+    }
+
+    /**
+     * Batch variant: one MGET for all cached names; misses this call leads are fetched with
+     * one bulk upstream lookup, misses already in flight wait on their leader.
+     */
+    @Override
+    public List<String> resolveAll(List<String> stockcodes, List<String> marketIds) {
+        List<String> names = nameCache.getNames(stockcodes, marketIds);
+        List<Integer> led = new ArrayList<>();
+        List<CompletableFuture<String>> ledFutures = new ArrayList<>();
+        Map<Integer, CompletableFuture<String>> waiting = new HashMap<>();
+        Map<String, CompletableFuture<String>> mineByKey = new HashMap<>();
+        for (int i = 0; i < names.size(); i++) {
+            if (StringUtils.isNotBlank(names.get(i))) {
+                hits.increment();
+                continue;
+            }
+            names.set(i, null);
+            String key = stockcodes.get(i) + ":" + marketIds.get(i);
+            if (isNegative(key)) {
+                negativeHits.increment();
+                continue;
+            }
+            misses.increment();
+            CompletableFuture<String> own = mineByKey.get(key);
+            if (own != null) {
+                // duplicate symbol inside the same batch
+                waiting.put(i, own);
+                continue;
+            }
+            CompletableFuture<String> mine = new CompletableFuture<>();
+            CompletableFuture<String> leader = inFlight.putIfAbsent(key, mine);
+            if (leader != null) {
+                coalesced.increment();
+                waiting.put(i, leader);
+            } else {
+                mineByKey.put(key, mine);
+                led.add(i);
+                ledFutures.add(mine);
+            }
         }
-        String name = nameServiceHttp.fetchName(stockcode, marketId);
-        if (StringUtils.isNotBlank(name)) {
-            nameCache.setName(stockcode, marketId, name, 3600);
+        if (!led.isEmpty()) {
+            List<String> sc = new ArrayList<>(led.size());
+            List<String> mk = new ArrayList<>(led.size());
+            for (Integer i : led) {
+                sc.add(stockcodes.get(i));
+                mk.add(marketIds.get(i));
+            }
+            List<String> fetched = null;
+            try {
+                remoteCalls.increment();
+                fetched = nameServiceHttp.fetchNames(sc, mk);
+            } catch (RuntimeException e) {
+                // every led lookup counts as failed below
+            }
+            for (int j = 0; j < led.size(); j++) {
+                String name = fetched == null || j >= fetched.size() ? null : fetched.get(j);
+                String key = sc.get(j) + ":" + mk.get(j);
+                if (StringUtils.isNotBlank(name)) {
+                    nameCache.setName(sc.get(j), mk.get(j), name, 3600);
+                } else {
+                    name = null;
+                    remoteFailures.increment();
+                    markNegative(key);
+                }
+                names.set(led.get(j), name);
+                inFlight.remove(key, ledFutures.get(j));
+                ledFutures.get(j).complete(name);
+            }
+        }
+        for (Map.Entry<Integer, CompletableFuture<String>> e : waiting.entrySet()) {
+            try {
+                names.set(e.getKey(), e.getValue().get(waitMs, TimeUnit.MILLISECONDS));
+            } catch (Exception ex) {
+                names.set(e.getKey(), null);
+            }
+        }
+        return names;
+    }
+
+    private String resolveMiss(String stockcode, String marketId) {
+        String key = stockcode + ":" + marketId;
+        if (isNegative(key)) {
+            negativeHits.increment();
+            return null;
+        }
+        misses.increment();
+        CompletableFuture<String> mine = new CompletableFuture<>();
+        CompletableFuture<String> leader = inFlight.putIfAbsent(key, mine);
+        if (leader != null) {
+            // another request is already fetching this symbol
+            coalesced.increment();
+            try {
+                return leader.get(waitMs, TimeUnit.MILLISECONDS);
+            } catch (Exception e) {
+                return null;
+            }
+        }
+        String name = null;
+        try {
+            remoteCalls.increment();
+            name = nameServiceHttp.fetchName(stockcode, marketId);
+            if (StringUtils.isNotBlank(name)) {
+                nameCache.setName(stockcode, marketId, name, 3600);
+            } else {
+                remoteFailures.increment();
+                markNegative(key);
+            }
+        } catch (RuntimeException e) {
+            remoteFailures.increment();
+            markNegative(key);
+        } finally {
+            inFlight.remove(key, mine);
+            mine.complete(name);
         }
         return name;
     }
+
+    /**
+     * Lookup counters for /stats/name-resolver.
+     *
+     * @return hit/miss/coalesced/remote counters
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("hits", hits.sum());
+        m.put("negativeHits", negativeHits.sum());
+        m.put("misses", misses.sum());
+        m.put("coalesced", coalesced.sum());
+        m.put("remoteCalls", remoteCalls.sum());
+        m.put("remoteFailures", remoteFailures.sum());
+        m.put("inFlight", inFlight.size());
+        m.put("negativeEntries", negative.size());
+        return m;
+    }
+
+    private boolean isNegative(String key) {
+        Long expiry = negative.get(key);
+        if (expiry == null) {
+            return false;
+        }
+        if (System.nanoTime() - expiry < 0) {
+            return true;
+        }
+        negative.remove(key, expiry);
+        return false;
+    }
+
+    private void markNegative(String key) {
+        if (negativeTtlNanos <= 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (negative.size() >= negativeMaxEntries) {
+            // drop expired entries first; if still full, start over rather than grow unbounded
+            for (Iterator<Long> it = negative.values().iterator(); it.hasNext(); ) {
+                if (now - it.next() >= 0) it.remove();
+            }
+            if (negative.size() >= negativeMaxEntries) {
+                negative.clear();
+            }
+        }
+        negative.put(key, now + negativeTtlNanos);
+    }
 }
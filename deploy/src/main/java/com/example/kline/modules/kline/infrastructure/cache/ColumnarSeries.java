@@ -0,0 +1,588 @@
+package com.example.kline.modules.kline.infrastructure.cache;
+
+import com.example.kline.modules.kline.domain.entity.PricePoint;
+import com.example.kline.modules.kline.domain.entity.TimelineTick;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 单只股票的列式内存序列
+ *
+ * 每一列是一个原始类型数组, 按时间戳升序排列:
+ * - ts: 秒级时间戳
+ * - open/high/low/close: 定点数价格 (放大 10^PRICE_SCALE 后的 long)
+ * - vol: 成交量
+ * - scale: 原始价格的小数位数 (上限 PRICE_SCALE), 用于还原 BigDecimal 的展示精度
+ *
+ * 价格只在不超过 PRICE_SCALE 位小数且不超出 long 范围时才能原样还原: 更多小数位按 HALF_UP 舍入,
+ * 超出范围的价格存为空值并记录 warn 日志。消费与文件导入在入口用 {@link TimelineTick#fitsFixed} 拒绝这类价格,
+ * 因此正常写入路径不会发生舍入或丢失。
+ *
+ * 写入时保持有序 (同一时间戳覆盖), 查询用二分定位 startTs/endTs 后直接切片, 不排序、不装箱。
+ *
+ * 设置 blockSize 后较旧的点封存为不可变的 {@link KlineBlock} 压缩块 (每点几个字节),
+ * 列数组只保留最近 [blockSize, 2 * blockSize) 个点; 查询只解码与区间重叠的块,
+ * 落在已封存区间的迟到写入整块解码、修改后重新编码。
+ *
+ * @author xubohan@myhexin.com
+ * @date 2026-10-17 11:00:00
+ */
+public class ColumnarSeries {
+    private static final Logger log = LoggerFactory.getLogger(ColumnarSeries.class);
+    /** 定点数精度: 价格放大 10^4 存储, 与 {@link TimelineTick#getFixedPrice()} 一致 */
+    public static final int PRICE_SCALE = TimelineTick.FIXED_SCALE;
+    /** 空值标记 (价格或成交量为 null) */
+    public static final long NULL = TimelineTick.NO_PRICE;
+
+    private static final int INITIAL_CAPACITY = 16;
+    /** 每个点占用的数组字节数: 6 个 long 列 + 1 个 byte 列 */
+    private static final int BYTES_PER_POINT = 6 * 8 + 1;
+    private static final KlineBlock[] NO_BLOCKS = new KlineBlock[0];
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private long[] ts;
+    private long[] open;
+    private long[] high;
+    private long[] low;
+    private long[] close;
+    private long[] vol;
+    private byte[] scale;
+    private int size;
+    // 已封存的压缩块, 按时间升序, 全部早于列数组中的点
+    private KlineBlock[] blocks = NO_BLOCKS;
+    private int blockCount;
+    private int sealedPoints;
+    private int blockSize;
+
+    public ColumnarSeries() {
+        this(INITIAL_CAPACITY);
+    }
+
+    public ColumnarSeries(int capacity) {
+        int cap = Math.max(1, capacity);
+        ts = new long[cap];
+        open = new long[cap];
+        high = new long[cap];
+        low = new long[cap];
+        close = new long[cap];
+        vol = new long[cap];
+        scale = new byte[cap];
+    }
+
+    /**
+     * 直接由列数组构建 (快照加载), 数组归序列所有
+     */
+    ColumnarSeries(long[] ts, long[] open, long[] high, long[] low, long[] close, long[] vol, byte[] scale, int size) {
+        this.ts = ts;
+        this.open = open;
+        this.high = high;
+        this.low = low;
+        this.close = close;
+        this.vol = vol;
+        this.scale = scale;
+        this.size = size;
+    }
+
+    /**
+     * 由价格点列表构建序列, 忽略 ts 为空的点
+     */
+    public static ColumnarSeries of(List<PricePoint> points) {
+        ColumnarSeries s = new ColumnarSeries(points == null ? 0 : points.size());
+        if (points != null) {
+            for (PricePoint p : points) {
+                s.upsert(p);
+            }
+        }
+        return s;
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return sealedPoints + size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 开启压缩封存: 列数组中超过 2 * blockSize 的旧点每 blockSize 个封存为一个块, 0 表示关闭 (已封存的块保留)
+     */
+    public void setBlockSize(int blockSize) {
+        lock.writeLock().lock();
+        try {
+            this.blockSize = Math.max(0, blockSize);
+            sealFull();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 已封存的压缩块数
+     */
+    public int blockCount() {
+        lock.readLock().lock();
+        try {
+            return blockCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 近似字节数: 列数组按容量计算, 压缩块按比特流长度计算
+     */
+    public long estimatedBytes() {
+        lock.readLock().lock();
+        try {
+            long bytes = (long) ts.length * BYTES_PER_POINT;
+            for (int i = 0; i < blockCount; i++) {
+                bytes += blocks[i].estimatedBytes();
+            }
+            return bytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 写入或覆盖一个价格点 (按 ts 去重)
+     */
+    public void upsert(PricePoint p) {
+        if (p == null || p.getTs() == null) return;
+        int sc = Math.max(Math.max(displayScale(p.getOpen()), displayScale(p.getHigh())),
+            Math.max(displayScale(p.getLow()), displayScale(p.getClose())));
+        upsert(p.getTs(), toFixed(p.getOpen()), toFixed(p.getHigh()), toFixed(p.getLow()), toFixed(p.getClose()),
+            p.getVol() == null ? NULL : p.getVol(), sc);
+    }
+
+    /**
+     * 写入或覆盖一个定点数价格点: 末尾追加为 O(1), 乱序写入二分定位后移位插入
+     */
+    public void upsert(long t, long o, long h, long l, long c, long v, int sc) {
+        lock.writeLock().lock();
+        try {
+            if (isSealed(t)) {
+                int bi = blockFor(t);
+                ColumnarSeries tmp = unseal(bi);
+                tmp.upsert(t, o, h, l, c, v, sc);
+                reseal(bi, tmp);
+                return;
+            }
+            upsertHot(t, o, h, l, c, v, sc);
+            sealFull();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void upsertHot(long t, long o, long h, long l, long c, long v, int sc) {
+        int idx;
+        if (size == 0 || ts[size - 1] < t) {
+            idx = size;
+        } else {
+            idx = Arrays.binarySearch(ts, 0, size, t);
+            if (idx >= 0) {
+                set(idx, t, o, h, l, c, v, sc);
+                return;
+            }
+            idx = -idx - 1;
+        }
+        ensureCapacity(size + 1);
+        if (idx < size) {
+            int n = size - idx;
+            System.arraycopy(ts, idx, ts, idx + 1, n);
+            System.arraycopy(open, idx, open, idx + 1, n);
+            System.arraycopy(high, idx, high, idx + 1, n);
+            System.arraycopy(low, idx, low, idx + 1, n);
+            System.arraycopy(close, idx, close, idx + 1, n);
+            System.arraycopy(vol, idx, vol, idx + 1, n);
+            System.arraycopy(scale, idx, scale, idx + 1, n);
+        }
+        set(idx, t, o, h, l, c, v, sc);
+        size++;
+    }
+
+    /**
+     * 将一笔成交合并到 bucketTs 所在的 bar: 新 bar 以该价格作为 OHLC, 已有 bar 更新高低收并累加成交量
+     *
+     * @param bucketTs bar 起始时间戳
+     * @param price    定点数价格
+     * @param v        成交量
+     * @param sc       价格展示精度
+     * @return 合并后的 bar
+     */
+    public PricePoint mergeTick(long bucketTs, long price, long v, int sc) {
+        lock.writeLock().lock();
+        try {
+            if (isSealed(bucketTs)) {
+                int bi = blockFor(bucketTs);
+                ColumnarSeries tmp = unseal(bi);
+                PricePoint merged = tmp.mergeTick(bucketTs, price, v, sc);
+                reseal(bi, tmp);
+                return merged;
+            }
+            int idx = size > 0 && ts[size - 1] == bucketTs ? size - 1 : Arrays.binarySearch(ts, 0, size, bucketTs);
+            if (idx < 0) {
+                upsertHot(bucketTs, price, price, price, price, v, sc);
+                idx = Arrays.binarySearch(ts, 0, size, bucketTs);
+            } else {
+                high[idx] = high[idx] == NULL ? price : Math.max(high[idx], price);
+                low[idx] = low[idx] == NULL ? price : Math.min(low[idx], price);
+                if (open[idx] == NULL) open[idx] = price;
+                close[idx] = price;
+                vol[idx] = vol[idx] == NULL ? v : vol[idx] + v;
+                scale[idx] = (byte) Math.max(scale[idx], sc);
+            }
+            PricePoint merged = pointAt(idx);
+            sealFull();
+            return merged;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 是否存在时间戳为 t 的点
+     */
+    public boolean contains(long t) {
+        lock.readLock().lock();
+        try {
+            if (isSealed(t)) {
+                return blocks[blockFor(t)].decodeRange(t, t, 1, new ArrayList<>(1)) > 0;
+            }
+            return Arrays.binarySearch(ts, 0, size, t) >= 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 删除时间戳早于 t 的点
+     *
+     * @return 删除的点数
+     */
+    public int removeBefore(long t) {
+        lock.writeLock().lock();
+        try {
+            int removed = 0;
+            int drop = 0;
+            while (drop < blockCount && blocks[drop].maxTs() < t) {
+                removed += blocks[drop].count();
+                drop++;
+            }
+            if (drop > 0) {
+                System.arraycopy(blocks, drop, blocks, 0, blockCount - drop);
+                Arrays.fill(blocks, blockCount - drop, blockCount, null);
+                blockCount -= drop;
+                sealedPoints -= removed;
+            }
+            if (blockCount > 0 && blocks[0].minTs() < t) {
+                // 跨越 t 的块: 解码后删除前段再重新编码
+                ColumnarSeries tmp = unseal(0);
+                int n = tmp.removeBefore(t);
+                removed += n;
+                sealedPoints -= n;
+                blocks[0] = KlineBlock.encode(tmp.ts, tmp.open, tmp.high, tmp.low, tmp.close, tmp.vol, tmp.scale,
+                    0, tmp.size);
+            }
+            int idx = blockCount > 0 ? 0 : lowerBound(t);
+            if (idx > 0) {
+                int n = size - idx;
+                System.arraycopy(ts, idx, ts, 0, n);
+                System.arraycopy(open, idx, open, 0, n);
+                System.arraycopy(high, idx, high, 0, n);
+                System.arraycopy(low, idx, low, 0, n);
+                System.arraycopy(close, idx, close, 0, n);
+                System.arraycopy(vol, idx, vol, 0, n);
+                System.arraycopy(scale, idx, scale, 0, n);
+                size = n;
+                removed += idx;
+            }
+            return removed;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 查询 [startTs, endTs] 内按时间升序的前 limit 个点
+     *
+     * @param startTs 起始时间戳 (含), null 表示不限
+     * @param endTs   结束时间戳 (含), null 表示不限
+     * @param limit   最大条数, null 表示不限
+     * @return 价格点列表
+     */
+    public List<PricePoint> range(Long startTs, Long endTs, Integer limit) {
+        lock.readLock().lock();
+        try {
+            if (blockCount > 0) {
+                return rangeWithBlocks(startTs, endTs, limit);
+            }
+            int from = startTs == null ? 0 : lowerBound(startTs);
+            int to = endTs == null ? size : upperBound(endTs);
+            if (limit != null && to - from > limit) {
+                to = from + limit;
+            }
+            if (from >= to) {
+                return Collections.emptyList();
+            }
+            List<PricePoint> out = new ArrayList<>(to - from);
+            for (int i = from; i < to; i++) {
+                out.add(pointAt(i));
+            }
+            return out;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private List<PricePoint> rangeWithBlocks(Long startTs, Long endTs, Integer limit) {
+        int remaining = limit == null ? Integer.MAX_VALUE : limit;
+        List<PricePoint> out = new ArrayList<>();
+        if (startTs == null || startTs <= blocks[blockCount - 1].maxTs()) {
+            for (int bi = startTs == null ? 0 : blockFor(startTs); bi < blockCount && remaining > 0; bi++) {
+                KlineBlock b = blocks[bi];
+                if (endTs != null && b.minTs() > endTs) {
+                    return out;
+                }
+                remaining -= b.decodeRange(startTs, endTs, remaining, out);
+            }
+        }
+        int from = startTs == null ? 0 : lowerBound(startTs);
+        int to = endTs == null ? size : upperBound(endTs);
+        for (int i = from; i < to && remaining > 0; i++, remaining--) {
+            out.add(pointAt(i));
+        }
+        return out;
+    }
+
+    /**
+     * 按列顺序 (ts, open, high, low, close, vol, scale) 写出一致性快照, 已封存的块解码后一并写出
+     *
+     * @return 写出的点数
+     */
+    public int writeColumns(DataOutput out) throws IOException {
+        lock.readLock().lock();
+        try {
+            if (blockCount > 0) {
+                return expand().writeColumns(out);
+            }
+            out.writeInt(size);
+            for (long[] col : new long[][]{ts, open, high, low, close, vol}) {
+                for (int i = 0; i < size; i++) {
+                    out.writeLong(col[i]);
+                }
+            }
+            out.write(scale, 0, size);
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 按 blockSize 切分编码全部点: 已封存的块原样复用, 列数组中的点重新编码 (供 Redis 字符串值)
+     */
+    List<KlineBlock> encodeBlocks(int blockSize) {
+        int step = Math.max(1, blockSize);
+        lock.readLock().lock();
+        try {
+            List<KlineBlock> out = new ArrayList<>(blockCount + size / step + 1);
+            out.addAll(Arrays.asList(blocks).subList(0, blockCount));
+            for (int from = 0; from < size; from += step) {
+                out.add(KlineBlock.encode(ts, open, high, low, close, vol, scale, from, Math.min(size, from + step)));
+            }
+            return out;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** t 是否落在已封存区间 (不晚于最后一个块的 maxTs) */
+    private boolean isSealed(long t) {
+        return blockCount > 0 && t <= blocks[blockCount - 1].maxTs();
+    }
+
+    /** 第一个 maxTs >= t 的块下标 */
+    private int blockFor(long t) {
+        int lo = 0, hi = blockCount;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (blocks[mid].maxTs() < t) lo = mid + 1; else hi = mid;
+        }
+        return lo;
+    }
+
+    /** 把第 bi 个块解码为独立的可写序列 */
+    private ColumnarSeries unseal(int bi) {
+        KlineBlock b = blocks[bi];
+        int n = b.count();
+        ColumnarSeries tmp = new ColumnarSeries(new long[n + 1], new long[n + 1], new long[n + 1], new long[n + 1],
+            new long[n + 1], new long[n + 1], new byte[n + 1], n);
+        b.decodeColumns(tmp.ts, tmp.open, tmp.high, tmp.low, tmp.close, tmp.vol, tmp.scale, 0);
+        return tmp;
+    }
+
+    private void reseal(int bi, ColumnarSeries tmp) {
+        sealedPoints += tmp.size - blocks[bi].count();
+        blocks[bi] = KlineBlock.encode(tmp.ts, tmp.open, tmp.high, tmp.low, tmp.close, tmp.vol, tmp.scale,
+            0, tmp.size);
+    }
+
+    /** 列数组超过 2 * blockSize 个点时, 把最旧的点按 blockSize 一块封存 */
+    private void sealFull() {
+        if (blockSize <= 0 || size < 2 * blockSize) return;
+        int from = 0;
+        while (size - from >= 2 * blockSize) {
+            if (blockCount == blocks.length) {
+                blocks = Arrays.copyOf(blocks, Math.max(4, blockCount << 1));
+            }
+            blocks[blockCount++] = KlineBlock.encode(ts, open, high, low, close, vol, scale, from, from + blockSize);
+            sealedPoints += blockSize;
+            from += blockSize;
+        }
+        int n = size - from;
+        System.arraycopy(ts, from, ts, 0, n);
+        System.arraycopy(open, from, open, 0, n);
+        System.arraycopy(high, from, high, 0, n);
+        System.arraycopy(low, from, low, 0, n);
+        System.arraycopy(close, from, close, 0, n);
+        System.arraycopy(vol, from, vol, 0, n);
+        System.arraycopy(scale, from, scale, 0, n);
+        size = n;
+        // 只保留 2 * blockSize 的容量, 释放物化/批量写入留下的大数组
+        if (ts.length > 4 * blockSize) {
+            int cap = 2 * blockSize + 1;
+            ts = Arrays.copyOf(ts, cap);
+            open = Arrays.copyOf(open, cap);
+            high = Arrays.copyOf(high, cap);
+            low = Arrays.copyOf(low, cap);
+            close = Arrays.copyOf(close, cap);
+            vol = Arrays.copyOf(vol, cap);
+            scale = Arrays.copyOf(scale, cap);
+        }
+    }
+
+    /** 解码全部块, 与列数组拼成一个未封存的序列 */
+    private ColumnarSeries expand() {
+        int n = sealedPoints + size;
+        long[] t = new long[n], o = new long[n], h = new long[n], l = new long[n], c = new long[n], v = new long[n];
+        byte[] sc = new byte[n];
+        int at = 0;
+        for (int i = 0; i < blockCount; i++) {
+            blocks[i].decodeColumns(t, o, h, l, c, v, sc, at);
+            at += blocks[i].count();
+        }
+        System.arraycopy(ts, 0, t, at, size);
+        System.arraycopy(open, 0, o, at, size);
+        System.arraycopy(high, 0, h, at, size);
+        System.arraycopy(low, 0, l, at, size);
+        System.arraycopy(close, 0, c, at, size);
+        System.arraycopy(vol, 0, v, at, size);
+        System.arraycopy(scale, 0, sc, at, size);
+        return new ColumnarSeries(t, o, h, l, c, v, sc, n);
+    }
+
+    private PricePoint pointAt(int i) {
+        return point(ts[i], open[i], high[i], low[i], close[i], vol[i], scale[i]);
+    }
+
+    static PricePoint point(long t, long o, long h, long l, long c, long v, int sc) {
+        PricePoint p = new PricePoint();
+        p.setTs(t);
+        p.setOpen(fromFixed(o, sc));
+        p.setHigh(fromFixed(h, sc));
+        p.setLow(fromFixed(l, sc));
+        p.setClose(fromFixed(c, sc));
+        p.setVol(v == NULL ? null : v);
+        return p;
+    }
+
+    /** 第一个 ts >= key 的下标 */
+    private int lowerBound(long key) {
+        int lo = 0, hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (ts[mid] < key) lo = mid + 1; else hi = mid;
+        }
+        return lo;
+    }
+
+    /** 第一个 ts > key 的下标 */
+    private int upperBound(long key) {
+        int lo = 0, hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (ts[mid] <= key) lo = mid + 1; else hi = mid;
+        }
+        return lo;
+    }
+
+    private void set(int i, long t, long o, long h, long l, long c, long v, int sc) {
+        ts[i] = t;
+        open[i] = o;
+        high[i] = h;
+        low[i] = l;
+        close[i] = c;
+        vol[i] = v;
+        scale[i] = (byte) sc;
+    }
+
+    private void ensureCapacity(int min) {
+        if (min <= ts.length) return;
+        int cap = Math.max(min, ts.length + (ts.length >> 1) + 1);
+        ts = Arrays.copyOf(ts, cap);
+        open = Arrays.copyOf(open, cap);
+        high = Arrays.copyOf(high, cap);
+        low = Arrays.copyOf(low, cap);
+        close = Arrays.copyOf(close, cap);
+        vol = Arrays.copyOf(vol, cap);
+        scale = Arrays.copyOf(scale, cap);
+    }
+
+    /**
+     * BigDecimal 转定点数, 超出精度部分 HALF_UP 舍入; null 返回 {@link #NULL},
+     * 溢出同样返回 {@link #NULL} 并记录 warn 日志 (入口校验见 {@link TimelineTick#fitsFixed})
+     */
+    public static long toFixed(BigDecimal price) {
+        if (price == null) return NULL;
+        try {
+            long v = price.setScale(PRICE_SCALE, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+            if (v != NULL) return v;
+        } catch (ArithmeticException e) {
+            // 超出 long 范围
+        }
+        log.warn("Price {} is out of the fixed-point range and is stored as null", price.toPlainString());
+        return NULL;
+    }
+
+    /**
+     * 定点数还原为指定小数位数的 BigDecimal
+     */
+    public static BigDecimal fromFixed(long fixed, int sc) {
+        if (fixed == NULL) return null;
+        BigDecimal v = BigDecimal.valueOf(fixed, PRICE_SCALE);
+        return sc == PRICE_SCALE ? v : v.setScale(sc, RoundingMode.HALF_UP);
+    }
+
+    /**
+     * 原始价格的展示精度, 限制在 [0, PRICE_SCALE], null 计为 0
+     */
+    public static int displayScale(BigDecimal price) {
+        if (price == null) return 0;
+        return Math.max(0, Math.min(PRICE_SCALE, price.scale()));
+    }
+}
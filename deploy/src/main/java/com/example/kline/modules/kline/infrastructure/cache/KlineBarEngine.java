@@ -0,0 +1,401 @@
+package com.example.kline.modules.kline.infrastructure.cache;
+
+import com.example.kline.modules.kline.domain.entity.KlineInterval;
+import com.example.kline.modules.kline.domain.entity.KlineResponse;
+import com.example.kline.modules.kline.domain.entity.PricePoint;
+import com.example.kline.modules.kline.domain.entity.TimelineTick;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 增量 OHLCV bar 引擎
+ *
+ * 由消费者逐笔喂入, 同时维护 1m/5m/15m/30m/60m/1d 各周期的 bar:
+ * - 同一周期内第一笔成交作为 open, 之后更新 high/low/close 并累加 vol
+ * - 周期按 UTC 对齐 (与接口返回的 date/time 一致)
+ * 各周期序列使用 {@link ColumnarSeries} 存储, 按 {@link SymbolRegistry} id 存放在数组槽位中, 查询直接返回预聚合结果。
+ *
+ * 与已存储数据的衔接 (配置了 {@link BarSource} 时):
+ * - 引擎只对自己从头看到的 bar 负责; 成交落在引擎接手之前 (重启、淘汰后首笔) 或已裁剪的 bar 时,
+ *   先从存储读出该 bar 覆盖范围内的 1m bar 聚合作为初值, 再合并本笔, 写回时不会覆盖已存储的 OHLCV
+ * - 带 Kafka 位点的成交按 (股票, 分区) 记录已合并的最大位点, 重投的记录不再累加成交量;
+ *   位点只在进程内有效, 重启前已写入但未提交位点的记录重投时仍会再合并一次
+ * - 1m bar 只保留最近 minute-keep 根 (查询走存储), 其余周期保留 retention-days, 超出部分按成交时间裁剪;
+ *   超过 idle-evict-sec 没有成交的股票整体释放, 再有成交时重新从存储播种
+ * 未配置数据源 (测试构造) 时不播种、不淘汰, 1m bar 按 retention-days 裁剪。
+ *
+ * 配置 (app.bars.*):
+ *   minute-keep          引擎内保留的 1m bar 数 (默认 240)
+ *   retention-days       其余周期保留天数 (默认 app.retention.days)
+ *   idle-evict-sec       空闲股票释放时间, 0 表示不释放 (默认 retention-days 对应秒数)
+ *   evict-interval-sec   空闲检查间隔 (默认 600)
+ *
+ * @author xubohan@myhexin.com
+ * @date 2026-10-17 11:30:00
+ */
+@Component
+public class KlineBarEngine {
+    private static final Logger log = LoggerFactory.getLogger(KlineBarEngine.class);
+    private static final KlineInterval[] INTERVALS = KlineInterval.values();
+    private static final long[] NO_OFFSETS = new long[0];
+
+    /**
+     * 已存储的 1m bar, 用于播种引擎接手之前的 bar
+     */
+    public interface BarSource {
+        /**
+         * @return [fromTs, toTs] 内按时间升序的 1m bar
+         */
+        List<PricePoint> minuteBars(String stockCode, String marketId, long fromTs, long toTs);
+    }
+
+    private final SymbolRegistry symbols;
+    private final SymbolSlots<SymbolBars> bars = new SymbolSlots<>();
+    private final BarSource source;
+    private final int minuteKeep;
+    private final long retentionSec;
+    private final long idleEvictMillis;
+    private final ScheduledExecutorService evictor;
+
+    private final AtomicLong seeded = new AtomicLong();
+    private final AtomicLong seedFailures = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+    private final AtomicLong trimmed = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+
+    // 无参构造函数，用于测试
+    public KlineBarEngine() {
+        this(new SymbolRegistry());
+    }
+
+    public KlineBarEngine(SymbolRegistry symbols) {
+        this(symbols, null, 0, 15 * 86400L, 0L, 0L);
+    }
+
+    @Autowired
+    public KlineBarEngine(SymbolRegistry symbols, RedisKlineCache cache, Environment env) {
+        this(symbols, (sc, mk, from, to) -> {
+                KlineResponse r = cache.getRange(sc, mk, from, to, null);
+                return r == null ? Collections.<PricePoint>emptyList() : r.getData();
+            },
+            env.getProperty("app.bars.minute-keep", Integer.class, 240),
+            env.getProperty("app.bars.retention-days", Long.class,
+                KlineRetentionManager.retentionSeconds(env) / 86400L) * 86400L,
+            env.getProperty("app.bars.idle-evict-sec", Long.class, KlineRetentionManager.retentionSeconds(env)),
+            env.getProperty("app.bars.evict-interval-sec", Long.class, 600L));
+    }
+
+    /**
+     * @param source           已存储 1m bar 的来源, null 时不播种、不淘汰
+     * @param minuteKeep       保留的 1m bar 数 (仅 source 非空时生效)
+     * @param retentionSec     其余周期的保留秒数
+     * @param idleEvictSec     空闲释放秒数, 0 不释放
+     * @param evictIntervalSec 空闲检查间隔秒数
+     */
+    public KlineBarEngine(SymbolRegistry symbols, BarSource source, int minuteKeep, long retentionSec,
+                          long idleEvictSec, long evictIntervalSec) {
+        this.symbols = symbols;
+        this.source = source;
+        this.minuteKeep = Math.max(1, minuteKeep);
+        this.retentionSec = Math.max(KlineInterval.D1.getSeconds(), retentionSec);
+        this.idleEvictMillis = source == null ? 0L : TimeUnit.SECONDS.toMillis(Math.max(0L, idleEvictSec));
+        if (idleEvictMillis > 0 && evictIntervalSec > 0) {
+            this.evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "kline-bar-evictor");
+                t.setDaemon(true);
+                return t;
+            });
+            evictor.scheduleWithFixedDelay(this::evictIdleSafely, evictIntervalSec, evictIntervalSec, TimeUnit.SECONDS);
+        } else {
+            this.evictor = null;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (evictor != null) {
+            evictor.shutdownNow();
+        }
+    }
+
+    /**
+     * 喂入一笔成交, 更新所有周期的 bar
+     *
+     * @param tick 已校验的成交
+     * @return 合并后的 1m bar; 注册表已满时不做聚合, 返回该笔成交构成的 1m bar
+     */
+    public PricePoint onTick(TimelineTick tick) {
+        SymbolRegistry.Symbol symbol = symbols.register(tick.getStockCode(), tick.getMarketId());
+        if (symbol == null) {
+            return flatBar(tick);
+        }
+        while (true) {
+            SymbolBars state = bars.computeIfAbsent(symbol.getId(), id -> new SymbolBars());
+            synchronized (state) {
+                if (state.evicted) {
+                    continue; // 刚被释放, 重新取新的槽位
+                }
+                return state.apply(tick);
+            }
+        }
+    }
+
+    /**
+     * 查询某周期的预聚合 bar
+     *
+     * @param stockcode 股票代码
+     * @param marketId  市场ID
+     * @param interval  周期
+     * @param startTs   起始时间戳
+     * @param endTs     结束时间戳
+     * @param limit     最大条数
+     * @return 按时间升序的 bar 列表
+     */
+    public List<PricePoint> range(String stockcode, String marketId, KlineInterval interval,
+                                  Long startTs, Long endTs, Integer limit) {
+        SymbolRegistry.Symbol symbol = symbols.lookup(stockcode, marketId);
+        SymbolBars state = symbol == null ? null : bars.get(symbol.getId());
+        if (state == null || interval == null) {
+            return Collections.emptyList();
+        }
+        // bar 以起始时间标记, startTs 落在某个 bar 内部时也返回该 bar
+        Long from = startTs == null ? null : interval.bucketStart(startTs);
+        return state.series[interval.ordinal()].range(from, endTs, limit);
+    }
+
+    /**
+     * 释放超过 idle-evict-sec 没有成交的股票
+     *
+     * @return 释放的股票数
+     */
+    public int evictIdle() {
+        if (idleEvictMillis <= 0) return 0;
+        long cutoff = System.currentTimeMillis() - idleEvictMillis;
+        int n = 0;
+        for (int id = 0, size = symbols.size(); id < size; id++) {
+            SymbolBars state = bars.get(id);
+            if (state == null || state.lastTickMillis >= cutoff) continue;
+            synchronized (state) {
+                if (state.lastTickMillis < cutoff && bars.remove(id, state)) {
+                    state.evicted = true;
+                    n++;
+                }
+            }
+        }
+        evicted.addAndGet(n);
+        return n;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        int live = 0;
+        for (int id = 0, size = symbols.size(); id < size; id++) {
+            if (bars.get(id) != null) live++;
+        }
+        m.put("symbols", live);
+        m.put("seedEnabled", source != null);
+        m.put("seeded", seeded.get());
+        m.put("seedFailures", seedFailures.get());
+        m.put("duplicates", duplicates.get());
+        m.put("trimmedBars", trimmed.get());
+        m.put("evicted", evicted.get());
+        return m;
+    }
+
+    private void evictIdleSafely() {
+        try {
+            int n = evictIdle();
+            if (n > 0) {
+                log.info("KlineBarEngine released {} idle symbols", n);
+            }
+        } catch (Exception e) {
+            log.warn("KlineBarEngine idle eviction failed: {}", e.getMessage());
+        }
+    }
+
+    private static PricePoint flatBar(TimelineTick tick) {
+        PricePoint p = new PricePoint();
+        p.setTs(KlineInterval.M1.bucketStart(tick.getTs()));
+        p.setOpen(tick.getPrice());
+        p.setHigh(tick.getPrice());
+        p.setLow(tick.getPrice());
+        p.setClose(tick.getPrice());
+        p.setVol(tick.getVol());
+        return p;
+    }
+
+    /**
+     * 把 bars 中落在 [from, from + seconds) 的 1m bar 聚合为一根 bar, 没有数据时返回 null
+     */
+    static PricePoint aggregate(List<PricePoint> minuteBars, long from, long seconds) {
+        PricePoint out = null;
+        long to = from + seconds;
+        for (PricePoint b : minuteBars) {
+            if (b.getTs() == null || b.getTs() < from || b.getTs() >= to) continue;
+            if (out == null) {
+                out = new PricePoint();
+                out.setTs(from);
+                out.setOpen(b.getOpen());
+                out.setHigh(b.getHigh());
+                out.setLow(b.getLow());
+                out.setVol(b.getVol());
+            } else {
+                if (out.getOpen() == null) out.setOpen(b.getOpen());
+                out.setHigh(max(out.getHigh(), b.getHigh()));
+                out.setLow(min(out.getLow(), b.getLow()));
+                if (b.getVol() != null) out.setVol(out.getVol() == null ? b.getVol() : out.getVol() + b.getVol());
+            }
+            if (b.getClose() != null) out.setClose(b.getClose());
+        }
+        return out;
+    }
+
+    private static BigDecimal max(BigDecimal a, BigDecimal b) {
+        return a == null ? b : b == null ? a : a.max(b);
+    }
+
+    private static BigDecimal min(BigDecimal a, BigDecimal b) {
+        return a == null ? b : b == null ? a : a.min(b);
+    }
+
+    /**
+     * 单只股票的各周期序列与接手状态, 修改均在实例锁内进行
+     */
+    private final class SymbolBars {
+        final ColumnarSeries[] series = new ColumnarSeries[INTERVALS.length];
+        // 各周期中 >= coveredFrom 的 bar 由本引擎从第一笔成交开始维护; 更早的 bar 缺失时需要播种
+        final long[] coveredFrom = new long[INTERVALS.length];
+        // 按分区记录已合并的最大位点, 下标为分区号
+        long[] offsets = NO_OFFSETS;
+        long lastMinute = Long.MIN_VALUE;
+        volatile long lastTickMillis;
+        boolean evicted;
+
+        SymbolBars() {
+            for (int i = 0; i < series.length; i++) {
+                series[i] = new ColumnarSeries();
+            }
+            Arrays.fill(coveredFrom, Long.MIN_VALUE);
+        }
+
+        PricePoint apply(TimelineTick tick) {
+            lastTickMillis = System.currentTimeMillis();
+            long ts = tick.getTs();
+            long minute = KlineInterval.M1.bucketStart(ts);
+            if (isDuplicate(tick)) {
+                duplicates.incrementAndGet();
+                List<PricePoint> current = series[KlineInterval.M1.ordinal()].range(minute, minute, 1);
+                return current.isEmpty() ? flatBar(tick) : current.get(0);
+            }
+            if (coveredFrom[0] == Long.MIN_VALUE) {
+                // 首笔成交: 各周期当前 bar 之后的 bar 由本引擎完整维护
+                for (int i = 0; i < INTERVALS.length; i++) {
+                    coveredFrom[i] = INTERVALS[i].bucketStart(ts) + INTERVALS[i].getSeconds();
+                }
+            }
+            seedMissing(tick);
+            // tick 自带定点价 (与 ColumnarSeries 同精度), 快速解析路径无需构造 BigDecimal
+            long price = tick.getFixedPrice();
+            int sc = tick.getPriceScale();
+            PricePoint minuteBar = null;
+            for (int i = 0; i < INTERVALS.length; i++) {
+                PricePoint bar = series[i].mergeTick(INTERVALS[i].bucketStart(ts), price, tick.getVol(), sc);
+                if (INTERVALS[i] == KlineInterval.M1) {
+                    minuteBar = bar;
+                }
+            }
+            if (minute > lastMinute) {
+                lastMinute = minute;
+                trim(ts);
+            }
+            return minuteBar;
+        }
+
+        private boolean isDuplicate(TimelineTick tick) {
+            int p = tick.getPartition();
+            if (p < 0 || tick.getOffset() < 0) return false;
+            if (p >= offsets.length) {
+                int old = offsets.length;
+                offsets = Arrays.copyOf(offsets, p + 1);
+                Arrays.fill(offsets, old, offsets.length, -1L);
+            }
+            if (tick.getOffset() <= offsets[p]) {
+                return true;
+            }
+            offsets[p] = tick.getOffset();
+            return false;
+        }
+
+        /**
+         * 成交落在引擎接手之前 (或已裁剪) 且尚不存在的 bar: 一次读取覆盖这些 bar 的已存储 1m bar, 聚合后写入
+         */
+        private void seedMissing(TimelineTick tick) {
+            if (source == null) return;
+            long ts = tick.getTs();
+            int missing = 0;
+            long from = Long.MAX_VALUE;
+            long to = Long.MIN_VALUE;
+            for (int i = 0; i < INTERVALS.length; i++) {
+                long b = INTERVALS[i].bucketStart(ts);
+                if (b < coveredFrom[i] && !series[i].contains(b)) {
+                    missing |= 1 << i;
+                    from = Math.min(from, b);
+                    to = Math.max(to, b + INTERVALS[i].getSeconds() - 1);
+                }
+            }
+            if (missing == 0) return;
+            List<PricePoint> stored;
+            try {
+                stored = source.minuteBars(tick.getStockCode(), tick.getMarketId(), from, to);
+            } catch (Exception e) {
+                // 读不到存储时按空 bar 处理, 与未播种时行为一致
+                seedFailures.incrementAndGet();
+                log.warn("Failed to seed bars for {}:{} from storage: {}", tick.getMarketId(), tick.getStockCode(),
+                    e.getMessage());
+                return;
+            }
+            seeded.incrementAndGet();
+            if (stored == null || stored.isEmpty()) return;
+            for (int i = 0; i < INTERVALS.length; i++) {
+                if ((missing & (1 << i)) == 0) continue;
+                PricePoint bar = aggregate(stored, INTERVALS[i].bucketStart(ts), INTERVALS[i].getSeconds());
+                if (bar != null) {
+                    series[i].upsert(bar);
+                }
+            }
+        }
+
+        /**
+         * 按成交时间裁剪旧 bar; 被裁剪的 bar 之后若再有成交会重新播种
+         */
+        private void trim(long ts) {
+            long n = 0;
+            for (int i = 0; i < INTERVALS.length; i++) {
+                long keepSec = INTERVALS[i] == KlineInterval.M1 && source != null
+                    ? minuteKeep * KlineInterval.M1.getSeconds()
+                    : retentionSec;
+                long horizon = INTERVALS[i].bucketStart(ts - keepSec);
+                n += series[i].removeBefore(horizon);
+                coveredFrom[i] = Math.max(coveredFrom[i], horizon);
+            }
+            if (n > 0) {
+                trimmed.addAndGet(n);
+            }
+        }
+    }
+}
@@ -0,0 +1,373 @@
+package com.example.kline.modules.kline.infrastructure.cache;
+
+import com.example.kline.modules.kline.domain.entity.PricePoint;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Gorilla 风格的压缩 K 线块
+ *
+ * 块内的点按时间升序逐点编码为比特流:
+ * - ts: 二阶差分 (delta-of-delta), 分钟线等间隔时每点 1 bit
+ * - open/high/low/close/vol: 与上一个点同列的差值 (价格本身是定点数 long, 整数差值即可, 无需对浮点做 XOR)
+ * - scale: 与上一个点相同时 1 bit, 否则 1 + 8 bit
+ *
+ * 差值经 zigzag 后按前缀码分档:
+ *   0      -> 0
+ *   10     -> 6 bit
+ *   110    -> 13 bit
+ *   1110   -> 20 bit
+ *   11110  -> 32 bit
+ *   11111  -> 64 bit
+ *
+ * 块头 (count, minTs, maxTs) 不进比特流, 区间查询据此跳过不相交的块, 只解码与区间重叠的块。
+ * 块不可变, 修改时整块解码后重新编码。
+ *
+ * 同一格式也用作 Redis 字符串值: "KB1:" + Base64(块索引 + 各块比特流), 见 {@link #encodeValue}。
+ *
+ * @author xubohan@myhexin.com
+ * @date 2026-10-17 19:30:00
+ */
+public final class KlineBlock {
+    /** Redis 字符串值前缀, 用于与 JSON 数组区分 */
+    public static final String VALUE_PREFIX = "KB1:";
+    /** 每个块固定开销的近似字节数 (对象头 + 字段 + 数组头) */
+    static final int BLOCK_OVERHEAD = 64;
+
+    private static final int[] WIDTHS = {0, 6, 13, 20, 32, 64};
+
+    private final long minTs;
+    private final long maxTs;
+    private final int count;
+    private final byte[] data;
+    private final int offset;
+    private final int length;
+
+    private KlineBlock(long minTs, long maxTs, int count, byte[] data, int offset, int length) {
+        this.minTs = minTs;
+        this.maxTs = maxTs;
+        this.count = count;
+        this.data = data;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    public long minTs() {
+        return minTs;
+    }
+
+    public long maxTs() {
+        return maxTs;
+    }
+
+    public int count() {
+        return count;
+    }
+
+    /**
+     * 比特流字节数 + 固定开销
+     */
+    public long estimatedBytes() {
+        return length + BLOCK_OVERHEAD;
+    }
+
+    /**
+     * 编码列数组中 [from, to) 的点, 调用方保证 ts 严格升序
+     */
+    static KlineBlock encode(long[] ts, long[] open, long[] high, long[] low, long[] close, long[] vol,
+                             byte[] scale, int from, int to) {
+        BitWriter w = new BitWriter((to - from) * 8 + 16);
+        long prevTs = ts[from], prevDelta = 0;
+        long po = 0, ph = 0, pl = 0, pc = 0, pv = 0;
+        int psc = ColumnarSeries.PRICE_SCALE;
+        for (int i = from; i < to; i++) {
+            long delta = ts[i] - prevTs;
+            writeDelta(w, delta - prevDelta);
+            prevDelta = delta;
+            prevTs = ts[i];
+            writeDelta(w, open[i] - po);
+            writeDelta(w, high[i] - ph);
+            writeDelta(w, low[i] - pl);
+            writeDelta(w, close[i] - pc);
+            writeDelta(w, vol[i] - pv);
+            po = open[i];
+            ph = high[i];
+            pl = low[i];
+            pc = close[i];
+            pv = vol[i];
+            int sc = scale[i];
+            if (sc == psc) {
+                w.write(0, 1);
+            } else {
+                w.write(1, 1);
+                w.write(sc & 0xFF, 8);
+                psc = sc;
+            }
+        }
+        byte[] bytes = w.toByteArray();
+        return new KlineBlock(ts[from], ts[to - 1], to - from, bytes, 0, bytes.length);
+    }
+
+    /**
+     * 解码回调, 返回 false 时停止
+     */
+    interface PointSink {
+        boolean accept(long t, long o, long h, long l, long c, long v, int sc);
+    }
+
+    void decode(PointSink sink) {
+        BitReader r = new BitReader(data, offset);
+        long t = minTs, delta = 0;
+        long o = 0, h = 0, l = 0, c = 0, v = 0;
+        int sc = ColumnarSeries.PRICE_SCALE;
+        for (int i = 0; i < count; i++) {
+            delta += readDelta(r);
+            t += delta;
+            o += readDelta(r);
+            h += readDelta(r);
+            l += readDelta(r);
+            c += readDelta(r);
+            v += readDelta(r);
+            if (r.readBit()) {
+                sc = (byte) r.read(8);
+            }
+            if (!sink.accept(t, o, h, l, c, v, sc)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 解码 [startTs, endTs] 内的点追加到 out, 最多 limit 个
+     *
+     * @return 追加的点数
+     */
+    int decodeRange(Long startTs, Long endTs, int limit, List<PricePoint> out) {
+        if (limit <= 0) return 0;
+        final long lo = startTs == null ? Long.MIN_VALUE : startTs;
+        final long hi = endTs == null ? Long.MAX_VALUE : endTs;
+        final int before = out.size();
+        decode((t, o, h, l, c, v, sc) -> {
+            if (t > hi) return false;
+            if (t >= lo) {
+                out.add(ColumnarSeries.point(t, o, h, l, c, v, sc));
+            }
+            return out.size() - before < limit;
+        });
+        return out.size() - before;
+    }
+
+    /**
+     * 解码全部点写入列数组的 [at, at + count)
+     */
+    void decodeColumns(long[] ts, long[] open, long[] high, long[] low, long[] close, long[] vol, byte[] scale,
+                       int at) {
+        int[] i = {at};
+        decode((t, o, h, l, c, v, sc) -> {
+            int k = i[0]++;
+            ts[k] = t;
+            open[k] = o;
+            high[k] = h;
+            low[k] = l;
+            close[k] = c;
+            vol[k] = v;
+            scale[k] = (byte) sc;
+            return true;
+        });
+    }
+
+    /**
+     * 把若干块序列化为 Redis 字符串值
+     *
+     * 布局: 块数, 每块 (zigzag minTs, maxTs - minTs, count, 字节数) 的变长整数索引, 之后依次是各块比特流
+     */
+    public static String encodeValue(List<KlineBlock> blocks) {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        writeVarLong(buf, blocks.size());
+        for (KlineBlock b : blocks) {
+            writeVarLong(buf, (b.minTs << 1) ^ (b.minTs >> 63));
+            writeVarLong(buf, b.maxTs - b.minTs);
+            writeVarLong(buf, b.count);
+            writeVarLong(buf, b.length);
+        }
+        for (KlineBlock b : blocks) {
+            buf.write(b.data, b.offset, b.length);
+        }
+        return VALUE_PREFIX + Base64.getEncoder().encodeToString(buf.toByteArray());
+    }
+
+    /**
+     * 由价格点列表编码 Redis 字符串值 (先按 ts 去重排序)
+     */
+    public static String encodeValue(List<PricePoint> points, int blockSize) {
+        return encodeValue(ColumnarSeries.of(points).encodeBlocks(blockSize));
+    }
+
+    public static boolean isEncodedValue(String value) {
+        return value != null && value.startsWith(VALUE_PREFIX);
+    }
+
+    /**
+     * 解析 Redis 字符串值, 只解码与 [startTs, endTs] 重叠的块
+     *
+     * @return 按时间升序的价格点; 格式错误时抛出 IllegalArgumentException
+     */
+    public static List<PricePoint> decodeValue(String value, Long startTs, Long endTs, Integer limit) {
+        byte[] bytes = Base64.getDecoder().decode(value.substring(VALUE_PREFIX.length())
+            .getBytes(StandardCharsets.ISO_8859_1));
+        int[] pos = {0};
+        int n = (int) readVarLong(bytes, pos);
+        if (n < 0 || n > bytes.length) {
+            throw new IllegalArgumentException("bad block count: " + n);
+        }
+        KlineBlock[] blocks = new KlineBlock[n];
+        long[] lengths = new long[n];
+        for (int i = 0; i < n; i++) {
+            long z = readVarLong(bytes, pos);
+            long minTs = (z >>> 1) ^ -(z & 1);
+            long maxTs = minTs + readVarLong(bytes, pos);
+            int count = (int) readVarLong(bytes, pos);
+            lengths[i] = readVarLong(bytes, pos);
+            blocks[i] = new KlineBlock(minTs, maxTs, count, bytes, 0, 0);
+        }
+        int off = pos[0];
+        for (int i = 0; i < n; i++) {
+            if (lengths[i] < 0 || off + lengths[i] > bytes.length) {
+                throw new IllegalArgumentException("truncated block " + i);
+            }
+            KlineBlock b = blocks[i];
+            blocks[i] = new KlineBlock(b.minTs, b.maxTs, b.count, bytes, off, (int) lengths[i]);
+            off += (int) lengths[i];
+        }
+        int remaining = limit == null ? Integer.MAX_VALUE : limit;
+        List<PricePoint> out = new ArrayList<>();
+        for (KlineBlock b : blocks) {
+            if (remaining <= 0 || (endTs != null && b.minTs > endTs)) break;
+            if (startTs != null && b.maxTs < startTs) continue;
+            remaining -= b.decodeRange(startTs, endTs, remaining, out);
+        }
+        return out.isEmpty() ? Collections.emptyList() : out;
+    }
+
+    private static void writeDelta(BitWriter w, long d) {
+        long z = (d << 1) ^ (d >> 63);
+        if (z == 0) {
+            w.write(0, 1);
+        } else if (z >>> 6 == 0) {
+            w.write(0b10, 2);
+            w.write(z, 6);
+        } else if (z >>> 13 == 0) {
+            w.write(0b110, 3);
+            w.write(z, 13);
+        } else if (z >>> 20 == 0) {
+            w.write(0b1110, 4);
+            w.write(z, 20);
+        } else if (z >>> 32 == 0) {
+            w.write(0b11110, 5);
+            w.write(z, 32);
+        } else {
+            w.write(0b11111, 5);
+            w.write(z, 64);
+        }
+    }
+
+    private static long readDelta(BitReader r) {
+        int ones = 0;
+        while (ones < 5 && r.readBit()) {
+            ones++;
+        }
+        long z = r.read(WIDTHS[ones]);
+        return (z >>> 1) ^ -(z & 1);
+    }
+
+    private static void writeVarLong(ByteArrayOutputStream out, long v) {
+        while ((v & ~0x7FL) != 0) {
+            out.write((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.write((int) v);
+    }
+
+    private static long readVarLong(byte[] b, int[] pos) {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (pos[0] >= b.length) {
+                throw new IllegalArgumentException("truncated varint");
+            }
+            int x = b[pos[0]++];
+            v |= (long) (x & 0x7F) << shift;
+            if ((x & 0x80) == 0) {
+                return v;
+            }
+        }
+        throw new IllegalArgumentException("varint too long");
+    }
+
+    /** 高位在前的比特写入器 */
+    private static final class BitWriter {
+        private byte[] buf;
+        private int bitPos;
+
+        BitWriter(int initialBytes) {
+            this.buf = new byte[Math.max(16, initialBytes)];
+        }
+
+        /** 写入 value 的低 n 位 */
+        void write(long value, int n) {
+            while (n > 0) {
+                int idx = bitPos >>> 3;
+                if (idx >= buf.length) {
+                    buf = Arrays.copyOf(buf, buf.length << 1);
+                }
+                int free = 8 - (bitPos & 7);
+                int take = Math.min(free, n);
+                int bits = (int) (value >>> (n - take)) & ((1 << take) - 1);
+                buf[idx] |= (byte) (bits << (free - take));
+                bitPos += take;
+                n -= take;
+            }
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buf, (bitPos + 7) >>> 3);
+        }
+    }
+
+    /** 与 {@link BitWriter} 对应的读取器 */
+    private static final class BitReader {
+        private final byte[] buf;
+        private final int base;
+        private int bitPos;
+
+        BitReader(byte[] buf, int offset) {
+            this.buf = buf;
+            this.base = offset;
+        }
+
+        boolean readBit() {
+            int b = buf[base + (bitPos >>> 3)];
+            boolean bit = ((b >>> (7 - (bitPos & 7))) & 1) != 0;
+            bitPos++;
+            return bit;
+        }
+
+        long read(int n) {
+            long v = 0;
+            while (n > 0) {
+                int free = 8 - (bitPos & 7);
+                int take = Math.min(free, n);
+                int b = buf[base + (bitPos >>> 3)] & 0xFF;
+                v = (v << take) | ((b >>> (free - take)) & ((1 << take) - 1));
+                bitPos += take;
+                n -= take;
+            }
+            return v;
+        }
+    }
+}
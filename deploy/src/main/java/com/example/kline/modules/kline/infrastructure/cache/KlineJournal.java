@@ -0,0 +1,520 @@
+package com.example.kline.modules.kline.infrastructure.cache;
+
+import com.example.kline.modules.kline.domain.entity.KlineResponse;
+import com.example.kline.modules.kline.domain.entity.PricePoint;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32;
+
+/**
+ * 内存模式下的追加写 K线日志 (group commit)
+ *
+ * 消费者写入内存序列后把本批 1m bar 追加为一帧, 提交位点前调用 {@link #commit} 等待该帧落盘:
+ * - batch:    调用方自己 fsync, 并发的多个消费线程共享同一次 fsync
+ * - interval: 后台线程每 sync-interval-ms fsync 一次, commit 等待覆盖本帧的那次 fsync
+ * - count:    累计 sync-every 个 bar 立即 fsync, 否则按 sync-interval-ms 兜底
+ * 记录的是合并后的 bar 而不是原始成交, 回放为幂等 upsert, 与快照重叠也不会重复累加成交量。
+ *
+ * 帧格式: int 长度, int CRC32, 载荷 = int 股票数, 每只股票 (short+UTF-8 stockCode, short+UTF-8 marketId,
+ * int 点数, 每点 6 个 long + 1 个 byte scale, 与 {@link ColumnarSeries} 列一致)。
+ * 启动时 (快照加载之后) 按段号顺序 mmap 回放, 段内遇到截断/校验失败的帧即停止该段。
+ * {@link KlineSnapshotStore} 写快照前 {@link #rotate} 切段, 快照落盘后 {@link #deleteBefore} 删除旧段。
+ *
+ * @author xubohan@myhexin.com
+ * @date 2026-10-17 16:40:00
+ */
+@Component
+public class KlineJournal {
+    private static final Logger log = LoggerFactory.getLogger(KlineJournal.class);
+    private static final String PREFIX = "journal-";
+    private static final String SUFFIX = ".log";
+    private static final int FRAME_HEADER = 4 + 4;
+    private static final int POINT_BYTES = 6 * 8 + 1;
+
+    /** fsync 策略 */
+    public enum SyncPolicy { BATCH, INTERVAL, COUNT }
+
+    private final RedisKlineCache cache;
+    private final KlineSnapshotStore snapshotStore;
+    private final boolean enabled;
+    private final Path dir;
+    private final SyncPolicy policy;
+    private final long syncIntervalNanos;
+    private final int syncEvery;
+    private final long segmentBytes;
+
+    // 写入锁: 帧编码与 write 在 lock 内; 顺序为 syncLock -> lock
+    private final Object lock = new Object();
+    private final Object syncLock = new Object();
+    private final Object durable = new Object();
+    private FileChannel channel;
+    private long segmentId;
+    private long segmentSize;
+    private ByteBuffer frame = ByteBuffer.allocate(1 << 16);
+    private final CRC32 crc = new CRC32();
+    private volatile long appendedSeq;
+    private volatile long pendingBars;
+    private int encodedBars;
+    private volatile long syncedSeq;
+    private volatile boolean running;
+    private Thread flusher;
+
+    private final AtomicLong appends = new AtomicLong();
+    private final AtomicLong bars = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong syncs = new AtomicLong();
+    private final AtomicLong syncNanosTotal = new AtomicLong();
+    private final AtomicLong replayedFrames = new AtomicLong();
+    private final AtomicLong replayedBars = new AtomicLong();
+    private final AtomicLong replayMillis = new AtomicLong();
+
+    // 无参构造函数，用于测试
+    public KlineJournal() {
+        this.cache = new RedisKlineCache();
+        this.snapshotStore = null;
+        this.enabled = false;
+        this.dir = Paths.get("data", "journal");
+        this.policy = SyncPolicy.BATCH;
+        this.syncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(10L);
+        this.syncEvery = 1000;
+        this.segmentBytes = 256L << 20;
+    }
+
+    /**
+     * @param snapshotStore 注入以保证快照先于日志回放加载
+     */
+    @Autowired
+    public KlineJournal(Environment env, RedisKlineCache cache, KlineSnapshotStore snapshotStore) {
+        this.cache = cache;
+        this.snapshotStore = snapshotStore;
+        this.enabled = env.getProperty("app.journal.enabled", Boolean.class, false) && !cache.isExternalEnabled();
+        this.dir = Paths.get(env.getProperty("app.journal.dir", "data/journal"));
+        this.policy = SyncPolicy.valueOf(env.getProperty("app.journal.sync", "batch").trim().toUpperCase());
+        this.syncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(
+            Math.max(1L, env.getProperty("app.journal.sync-interval-ms", Long.class, 10L)));
+        this.syncEvery = Math.max(1, env.getProperty("app.journal.sync-every", Integer.class, 1000));
+        this.segmentBytes = Math.max(1L << 20, env.getProperty("app.journal.segment-bytes", Long.class, 256L << 20));
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        if (!enabled) return;
+        Files.createDirectories(dir);
+        List<Path> segments = segments();
+        replay(segments);
+        long next = segments.isEmpty() ? 1L : segmentIdOf(segments.get(segments.size() - 1)) + 1;
+        synchronized (lock) {
+            openSegment(next);
+        }
+        running = true;
+        if (policy != SyncPolicy.BATCH) {
+            flusher = new Thread(this::flushLoop, "kline-journal-flusher");
+            flusher.setDaemon(true);
+            flusher.start();
+        }
+        if (snapshotStore != null) {
+            snapshotStore.setJournal(this);
+        }
+        log.info("KlineJournal enabled: dir={}, sync={}, syncIntervalMs={}, syncEvery={}, segment={}",
+            dir.toAbsolutePath(), policy, TimeUnit.NANOSECONDS.toMillis(syncIntervalNanos), syncEvery, next);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (!enabled || !running) return;
+        running = false;
+        Thread t = flusher;
+        if (t != null) {
+            LockSupport.unpark(t);
+            try {
+                t.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (syncLock) {
+            synchronized (lock) {
+                try {
+                    channel.force(false);
+                    syncedSeq = appendedSeq;
+                    channel.close();
+                } catch (IOException e) {
+                    log.warn("Failed to close kline journal segment {}: {}", segmentId, e.getMessage());
+                }
+                channel = null;
+            }
+        }
+        notifyDurable();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 追加一帧 (写入页缓存, 不 fsync); 调用方应先写入内存序列
+     *
+     * @return 提交凭证, 交给 {@link #commit}; 未启用时返回 0
+     */
+    public long append(List<KlineResponse> responses) {
+        if (!enabled || responses == null || responses.isEmpty()) return 0L;
+        long seq;
+        boolean full;
+        synchronized (lock) {
+            if (channel == null) {
+                throw new UncheckedIOException(new IOException("kline journal is closed"));
+            }
+            ByteBuffer b = encode(responses);
+            try {
+                while (b.hasRemaining()) {
+                    channel.write(b);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            segmentSize += b.limit();
+            bytes.addAndGet(b.limit());
+            seq = ++appendedSeq;
+            pendingBars += encodedBars;
+            full = segmentSize >= segmentBytes;
+        }
+        appends.incrementAndGet();
+        if (full) {
+            rotate();
+        }
+        if (policy == SyncPolicy.COUNT && pendingBars >= syncEvery && flusher != null) {
+            LockSupport.unpark(flusher);
+        }
+        return seq;
+    }
+
+    /**
+     * 等待凭证对应的帧落盘, 之后才允许提交 Kafka 位点
+     *
+     * @throws UncheckedIOException fsync 失败或日志已关闭, 调用方不应提交位点
+     */
+    public void commit(long ticket) {
+        if (!enabled || ticket <= syncedSeq) return;
+        if (policy == SyncPolicy.BATCH) {
+            sync(ticket);
+            return;
+        }
+        synchronized (durable) {
+            while (ticket > syncedSeq) {
+                if (!running) {
+                    throw new UncheckedIOException(new IOException("kline journal closed before sync"));
+                }
+                try {
+                    durable.wait(Math.max(1L, TimeUnit.NANOSECONDS.toMillis(syncIntervalNanos) * 2));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new UncheckedIOException(new IOException("interrupted while waiting for journal sync"));
+                }
+            }
+        }
+    }
+
+    /**
+     * 切换到新段并返回新段号; 之前的帧均已落盘。未启用或已关闭时返回 -1
+     */
+    public long rotate() {
+        if (!enabled) return -1L;
+        long id;
+        synchronized (syncLock) {
+            synchronized (lock) {
+                if (channel == null) return -1L;
+                rotateLocked();
+                id = segmentId;
+            }
+        }
+        notifyDurable();
+        return id;
+    }
+
+    /**
+     * 删除段号小于 segment 的旧段 (其内容已包含在刚写出的快照中)
+     */
+    public void deleteBefore(long segment) {
+        if (!enabled || segment <= 0) return;
+        try {
+            for (Path p : segments()) {
+                if (segmentIdOf(p) < segment) {
+                    Files.deleteIfExists(p);
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Failed to delete old kline journal segments: {}", e.getMessage());
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        long s = syncs.get();
+        m.put("enabled", enabled);
+        m.put("sync", policy.name().toLowerCase());
+        m.put("segment", segmentId);
+        m.put("appends", appends.get());
+        m.put("bars", bars.get());
+        m.put("bytes", bytes.get());
+        m.put("syncs", s);
+        m.put("appendsPerSync", s == 0 ? 0.0 : appends.get() / (double) s);
+        m.put("avgSyncMillis", s == 0 ? 0.0 : syncNanosTotal.get() / (double) s / 1_000_000.0);
+        m.put("replayedFrames", replayedFrames.get());
+        m.put("replayedBars", replayedBars.get());
+        m.put("replayMillis", replayMillis.get());
+        return m;
+    }
+
+    private void sync(long ticket) {
+        synchronized (syncLock) {
+            // 等锁期间其他线程的 fsync 可能已经覆盖本帧
+            if (ticket > 0 && ticket <= syncedSeq) return;
+            long target;
+            FileChannel ch;
+            synchronized (lock) {
+                target = appendedSeq;
+                ch = channel;
+                pendingBars = 0;
+            }
+            if (target <= syncedSeq) return;
+            if (ch == null) {
+                throw new UncheckedIOException(new IOException("kline journal is closed"));
+            }
+            long begin = System.nanoTime();
+            try {
+                ch.force(false);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            syncNanosTotal.addAndGet(System.nanoTime() - begin);
+            syncs.incrementAndGet();
+            syncedSeq = target;
+        }
+        notifyDurable();
+    }
+
+    private void notifyDurable() {
+        synchronized (durable) {
+            durable.notifyAll();
+        }
+    }
+
+    private void flushLoop() {
+        while (running) {
+            if (policy != SyncPolicy.COUNT || pendingBars < syncEvery) {
+                LockSupport.parkNanos(this, syncIntervalNanos);
+            }
+            if (appendedSeq > syncedSeq) {
+                try {
+                    sync(0L);
+                } catch (Exception e) {
+                    log.warn("Kline journal fsync failed: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    /** 调用方需持有 syncLock 与 lock */
+    private void rotateLocked() {
+        try {
+            channel.force(false);
+            channel.close();
+            syncedSeq = appendedSeq;
+            pendingBars = 0;
+            openSegment(segmentId + 1);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /** 调用方需持有 lock */
+    private void openSegment(long id) throws IOException {
+        channel = FileChannel.open(dir.resolve(segmentName(id)),
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        segmentId = id;
+        segmentSize = channel.size();
+    }
+
+    /** 编码到复用缓冲区, 返回 flip 后的帧; 调用方需持有 lock */
+    private ByteBuffer encode(List<KlineResponse> responses) {
+        ByteBuffer b = frame;
+        b.clear();
+        b.position(FRAME_HEADER);
+        b = ensure(b, 4);
+        b.putInt(0);
+        int symbolsInFrame = 0;
+        int total = 0;
+        for (KlineResponse r : responses) {
+            if (r == null || r.getData() == null || r.getData().isEmpty()) continue;
+            byte[] sc = r.getStockcode().getBytes(StandardCharsets.UTF_8);
+            byte[] mk = r.getMarketId().getBytes(StandardCharsets.UTF_8);
+            b = ensure(b, 2 + sc.length + 2 + mk.length + 4 + r.getData().size() * POINT_BYTES);
+            b.putShort((short) sc.length).put(sc).putShort((short) mk.length).put(mk);
+            int countPos = b.position();
+            b.putInt(0);
+            int count = 0;
+            for (PricePoint p : r.getData()) {
+                if (p == null || p.getTs() == null) continue;
+                b.putLong(p.getTs());
+                b.putLong(ColumnarSeries.toFixed(p.getOpen()));
+                b.putLong(ColumnarSeries.toFixed(p.getHigh()));
+                b.putLong(ColumnarSeries.toFixed(p.getLow()));
+                b.putLong(ColumnarSeries.toFixed(p.getClose()));
+                b.putLong(p.getVol() == null ? ColumnarSeries.NULL : p.getVol());
+                b.put((byte) Math.max(Math.max(ColumnarSeries.displayScale(p.getOpen()),
+                    ColumnarSeries.displayScale(p.getHigh())), Math.max(ColumnarSeries.displayScale(p.getLow()),
+                    ColumnarSeries.displayScale(p.getClose()))));
+                count++;
+            }
+            b.putInt(countPos, count);
+            total += count;
+            symbolsInFrame++;
+        }
+        b.putInt(FRAME_HEADER, symbolsInFrame);
+        bars.addAndGet(total);
+        encodedBars = total;
+        int len = b.position() - FRAME_HEADER;
+        crc.reset();
+        ByteBuffer payload = b.duplicate();
+        payload.position(FRAME_HEADER).limit(FRAME_HEADER + len);
+        crc.update(payload);
+        b.putInt(0, len);
+        b.putInt(4, (int) crc.getValue());
+        b.flip();
+        frame = b;
+        return b;
+    }
+
+    private static ByteBuffer ensure(ByteBuffer b, int more) {
+        if (b.remaining() >= more) return b;
+        ByteBuffer grown = ByteBuffer.allocate(Math.max(b.capacity() * 2, b.position() + more));
+        b.flip();
+        grown.put(b);
+        return grown;
+    }
+
+    /**
+     * 顺序回放全部段: mmap 后直接按偏移解码定点数写入内存序列, 不经过 BigDecimal/PricePoint
+     */
+    private void replay(List<Path> segments) {
+        long begin = System.nanoTime();
+        CRC32 check = new CRC32();
+        for (Path p : segments) {
+            try (FileChannel ch = FileChannel.open(p, StandardOpenOption.READ)) {
+                long size = ch.size();
+                if (size == 0) continue;
+                if (size > Integer.MAX_VALUE) {
+                    log.warn("Skipping oversized kline journal segment {}", p);
+                    continue;
+                }
+                MappedByteBuffer b = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                int pos = 0;
+                while (pos + FRAME_HEADER <= size) {
+                    int len = b.getInt(pos);
+                    int sum = b.getInt(pos + 4);
+                    if (len < 4 || pos + FRAME_HEADER + (long) len > size) break;
+                    ByteBuffer payload = b.duplicate();
+                    payload.position(pos + FRAME_HEADER).limit(pos + FRAME_HEADER + len);
+                    check.reset();
+                    check.update(payload);
+                    if ((int) check.getValue() != sum) break;
+                    replayFrame(b, pos + FRAME_HEADER);
+                    replayedFrames.incrementAndGet();
+                    pos += FRAME_HEADER + len;
+                }
+                if (pos < size) {
+                    log.warn("Kline journal segment {} truncated at {} of {} bytes, rest ignored", p, pos, size);
+                }
+            } catch (IOException e) {
+                log.warn("Failed to replay kline journal segment {}: {}", p, e.getMessage());
+            }
+        }
+        replayMillis.set(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin));
+        if (!segments.isEmpty()) {
+            log.info("Replayed kline journal: {} segments, {} frames, {} bars in {} ms",
+                segments.size(), replayedFrames.get(), replayedBars.get(), replayMillis.get());
+        }
+    }
+
+    private void replayFrame(ByteBuffer b, int pos) {
+        int symbolsInFrame = b.getInt(pos);
+        pos += 4;
+        byte[] tmp = new byte[64];
+        for (int s = 0; s < symbolsInFrame; s++) {
+            int scLen = b.getShort(pos) & 0xFFFF;
+            tmp = read(b, pos + 2, scLen, tmp);
+            String sc = new String(tmp, 0, scLen, StandardCharsets.UTF_8);
+            pos += 2 + scLen;
+            int mkLen = b.getShort(pos) & 0xFFFF;
+            tmp = read(b, pos + 2, mkLen, tmp);
+            String mk = new String(tmp, 0, mkLen, StandardCharsets.UTF_8);
+            pos += 2 + mkLen;
+            int count = b.getInt(pos);
+            pos += 4;
+            ColumnarSeries series = cache.liveSeries(sc, mk);
+            for (int i = 0; i < count; i++, pos += POINT_BYTES) {
+                series.upsert(b.getLong(pos), b.getLong(pos + 8), b.getLong(pos + 16), b.getLong(pos + 24),
+                    b.getLong(pos + 32), b.getLong(pos + 40), b.get(pos + 48));
+            }
+            replayedBars.addAndGet(count);
+        }
+    }
+
+    private static byte[] read(ByteBuffer b, int pos, int len, byte[] buf) {
+        byte[] out = buf.length >= len ? buf : new byte[len];
+        ByteBuffer d = b.duplicate();
+        d.position(pos);
+        d.get(out, 0, len);
+        return out;
+    }
+
+    private List<Path> segments() throws IOException {
+        List<Path> out = new ArrayList<>();
+        if (!Files.isDirectory(dir)) return out;
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, PREFIX + "*" + SUFFIX)) {
+            for (Path p : ds) {
+                if (segmentIdOf(p) > 0) out.add(p);
+            }
+        }
+        Collections.sort(out, (x, y) -> Long.compare(segmentIdOf(x), segmentIdOf(y)));
+        return out;
+    }
+
+    private static String segmentName(long id) {
+        return String.format("%s%020d%s", PREFIX, id, SUFFIX);
+    }
+
+    private static long segmentIdOf(Path p) {
+        String name = p.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+        } catch (RuntimeException e) {
+            return -1L;
+        }
+    }
+}
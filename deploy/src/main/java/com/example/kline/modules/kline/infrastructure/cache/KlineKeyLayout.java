@@ -0,0 +1,160 @@
+package com.example.kline.modules.kline.infrastructure.cache;
+
+import org.springframework.core.env.Environment;
+
+import java.time.LocalDate;
+
+/**
+ * K线分钟 ZSET 的 key 布局
+ *
+ * single (默认): 每只股票一个 key, kline:1m:{marketId}:{stockCode}
+ * day: 按交易日分桶 (UTC 日, 与 1d bar 对齐), kline:1m:{marketId:stockCode}:yyyyMMdd
+ * - 花括号为 Redis Cluster hash tag, 同一股票的各天落在同一节点, 一个 pipeline 即可读取多天
+ * - 每个日桶写入时 EXPIREAT (当日结束 + ttl-days), 整天过期, 无需逐分钟裁剪
+ * - 已有数据的日期记录在索引 ZSET kline:days:{marketId:stockCode} (score 为 epoch day, member 为 yyyyMMdd),
+ *   查询区间缺少一端或跨度超过 max-span-days 时先读索引, 否则直接按日期枚举
+ *
+ * 配置 (app.redis.*):
+ *   key-layout                  single | day (默认 single)
+ *   day-buckets.ttl-days        日桶保留天数, 0 表示不过期 (默认 app.retention.days + 1, 给保留期管理留出降采样的时间)
+ *   day-buckets.fetch-days      每轮 pipeline 读取的日桶数, 凑够 limit 即停止 (默认 8)
+ *   day-buckets.max-span-days   两端都给出时直接枚举的最大天数 (默认 31)
+ *
+ * @author xubohan@myhexin.com
+ * @date 2026-10-17 20:40:00
+ */
+public final class KlineKeyLayout {
+    public static final long DAY_SECONDS = 86400L;
+    private static final String DAY_PREFIX = "kline:1m:{";
+    private static final String INDEX_PREFIX = "kline:days:{";
+    private static final KlineKeyLayout SINGLE = new KlineKeyLayout(false, 0L, 8, 31);
+
+    private final boolean dayBuckets;
+    private final long ttlDays;
+    private final int fetchDays;
+    private final int maxSpanDays;
+
+    private KlineKeyLayout(boolean dayBuckets, long ttlDays, int fetchDays, int maxSpanDays) {
+        this.dayBuckets = dayBuckets;
+        this.ttlDays = ttlDays;
+        this.fetchDays = fetchDays;
+        this.maxSpanDays = maxSpanDays;
+    }
+
+    /**
+     * 默认布局: 每只股票一个 key
+     */
+    public static KlineKeyLayout single() {
+        return SINGLE;
+    }
+
+    public static KlineKeyLayout from(Environment env) {
+        if (!"day".equalsIgnoreCase(env.getProperty("app.redis.key-layout", "single").trim())) {
+            return SINGLE;
+        }
+        long defTtl = KlineRetentionManager.retentionSeconds(env) / DAY_SECONDS + 1;
+        return new KlineKeyLayout(true,
+            Math.max(0L, env.getProperty("app.redis.day-buckets.ttl-days", Long.class, defTtl)),
+            Math.max(1, env.getProperty("app.redis.day-buckets.fetch-days", Integer.class, 8)),
+            Math.max(1, env.getProperty("app.redis.day-buckets.max-span-days", Integer.class, 31)));
+    }
+
+    public boolean isDayBuckets() {
+        return dayBuckets;
+    }
+
+    public int getFetchDays() {
+        return fetchDays;
+    }
+
+    public int getMaxSpanDays() {
+        return maxSpanDays;
+    }
+
+    /**
+     * 日桶的过期时间 (epoch 秒), 不过期时返回 -1
+     */
+    public long expireAt(long day) {
+        return ttlDays > 0 ? (day + 1 + ttlDays) * DAY_SECONDS : -1L;
+    }
+
+    /**
+     * 索引中可以删除的最大日期: 早于它的日桶均已过期; 不过期时返回 Long.MIN_VALUE
+     */
+    public long expiredBefore(long nowSec) {
+        return ttlDays > 0 ? Math.floorDiv(nowSec, DAY_SECONDS) - ttlDays - 1 : Long.MIN_VALUE;
+    }
+
+    /** ts (秒) 所在的 epoch day */
+    public static long day(long tsSec) {
+        return Math.floorDiv(tsSec, DAY_SECONDS);
+    }
+
+    /** 分钟 score 所在的 epoch day */
+    public static long dayOfMinute(long minute) {
+        return Math.floorDiv(minute, DAY_SECONDS / 60L);
+    }
+
+    /**
+     * 日桶 key: kline:1m:{marketId:stockCode}:yyyyMMdd
+     */
+    public static String dayKey(String stockCode, String marketId, long day) {
+        return DAY_PREFIX + marketId + ":" + stockCode + "}:" + formatDay(day);
+    }
+
+    /**
+     * 日期索引 key: kline:days:{marketId:stockCode}
+     */
+    public static String indexKey(String stockCode, String marketId) {
+        return INDEX_PREFIX + marketId + ":" + stockCode + "}";
+    }
+
+    /** epoch day 格式化为 yyyyMMdd */
+    public static String formatDay(long day) {
+        LocalDate d = LocalDate.ofEpochDay(day);
+        return Integer.toString(d.getYear() * 10000 + d.getMonthValue() * 100 + d.getDayOfMonth());
+    }
+
+    /**
+     * 解析分钟 ZSET key (两种布局均可), 无法识别时返回 null
+     */
+    public static MinuteKey parse(String key) {
+        if (key == null) return null;
+        try {
+            if (key.startsWith(DAY_PREFIX)) {
+                int close = key.indexOf("}:", DAY_PREFIX.length());
+                int sep = key.indexOf(':', DAY_PREFIX.length());
+                if (close < 0 || sep < 0 || sep > close || key.length() != close + 2 + 8) return null;
+                int ymd = Integer.parseInt(key.substring(close + 2));
+                long day = LocalDate.of(ymd / 10000, ymd / 100 % 100, ymd % 100).toEpochDay();
+                return new MinuteKey(key.substring(DAY_PREFIX.length(), sep), key.substring(sep + 1, close), day);
+            }
+            String prefix = "kline:1m:";
+            int sep = key.indexOf(':', prefix.length());
+            if (!key.startsWith(prefix) || sep < 0) return null;
+            return new MinuteKey(key.substring(prefix.length(), sep), key.substring(sep + 1), null);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 解析后的分钟 ZSET key
+     */
+    public static final class MinuteKey {
+        private final String marketId;
+        private final String stockCode;
+        private final Long day;
+
+        MinuteKey(String marketId, String stockCode, Long day) {
+            this.marketId = marketId;
+            this.stockCode = stockCode;
+            this.day = day;
+        }
+
+        public String getMarketId() { return marketId; }
+        public String getStockCode() { return stockCode; }
+        /** 日桶的 epoch day, single 布局为 null */
+        public Long getDay() { return day; }
+    }
+}
@@ -0,0 +1,168 @@
+package com.example.kline.modules.kline.infrastructure.cache;
+
+import com.example.kline.modules.kline.domain.entity.PricePoint;
+
+import java.math.BigDecimal;
+
+/**
+ * K线 ZSET 成员编码
+ *
+ * v2 (当前): {@code <精度><close>[,<open-close>,<high-close>,<low-close>[,<vol>]]}
+ * - 精度为一个大写字母, 'A' + 小数位数 (取 o/h/l/c 中最大的小数位数, 0~25)
+ * - close 为该精度下的定点整数, open/high/low 为相对 close 的定点差值, vol 为整数, 均为有符号 base36
+ * - 差值为 0 时留空, vol 缺省为 0, 末尾空字段省略
+ *   例: 平盘 bar "C6v2" (88.94), 完整 bar "C6v2,-4,g,-e,xc" (88.94/88.9/89.10/88.8/1200)
+ * - 分钟不写入成员, 与 v0 一样取自 score。同一 key 下成员必须唯一: 写入脚本 (见
+ *   {@link TimelineRedisWriter#replaceMinutes}) 发现相同成员已在另一分钟时, 在成员后追加 "~<分钟>",
+ *   解码时忽略 '~' 之后的内容
+ * v1 (旧): {@code !<分钟base36>,<close>[,<open>,<high>,<low>[,<vol>]]}, 价格为十进制字符串;
+ *   数值超出 long 或精度超过 25 位时仍按 v1 编码
+ * v0 (旧): 成员为价格字符串, 分钟仅保存在 score 中
+ *
+ * 体积: v2 平盘 bar 不大于 v0 的价格字符串 ("C6v2" 4 字节对 "88.94" 5 字节), 完整 bar 约 12~16 字节
+ * (v1 约 30~35 字节); 同时保留每分钟完整 OHLCV, 不再出现 v0 下价格相同的分钟合并成一个成员的数据丢失。
+ *
+ * 解码时按首字符自动识别三种格式。
+ *
+ * @author xubohan@myhexin.com
+ * @date 2026-10-17 13:00:00
+ */
+public final class KlineMemberCodec {
+    /** v1 编码前缀 */
+    public static final char V1 = '!';
+    /** v2 精度标记起点, 'A' 表示 0 位小数 */
+    public static final char V2 = 'A';
+    /** 同一成员已存在于其他分钟时追加的分隔符 */
+    public static final char UNIQUE = '~';
+    private static final int MAX_SCALE = 25;
+
+    private KlineMemberCodec() {
+    }
+
+    /**
+     * 编码一个分钟 bar, close 为空时返回 null
+     */
+    public static String encode(PricePoint bar) {
+        if (bar == null || bar.getTs() == null || bar.getClose() == null) return null;
+        BigDecimal c = bar.getClose();
+        BigDecimal o = bar.getOpen() == null ? c : bar.getOpen();
+        BigDecimal h = bar.getHigh() == null ? c : bar.getHigh();
+        BigDecimal l = bar.getLow() == null ? c : bar.getLow();
+        long v = bar.getVol() == null ? 0L : bar.getVol();
+        int scale = Math.max(Math.max(0, c.scale()), Math.max(o.scale(), Math.max(h.scale(), l.scale())));
+        if (scale <= MAX_SCALE) {
+            try {
+                long uc = unscaled(c, scale);
+                long dO = Math.subtractExact(unscaled(o, scale), uc);
+                long dH = Math.subtractExact(unscaled(h, scale), uc);
+                long dL = Math.subtractExact(unscaled(l, scale), uc);
+                StringBuilder sb = new StringBuilder(16);
+                sb.append((char) (V2 + scale)).append(Long.toString(uc, 36));
+                if (v != 0L || dO != 0L || dH != 0L || dL != 0L) {
+                    sb.append(',').append(delta(dO)).append(',').append(delta(dH)).append(',').append(delta(dL));
+                    if (v != 0L) sb.append(',').append(Long.toString(v, 36));
+                }
+                return sb.toString();
+            } catch (ArithmeticException e) {
+                // 超出 long, 退回 v1
+            }
+        }
+        return encodeV1(bar, c, v);
+    }
+
+    /**
+     * 解码 ZSET 成员, 自动识别 v2 / v1 与旧版价格字符串; 无法解析时返回 null
+     *
+     * @param member ZSET 成员
+     * @param score  ZSET 分数 (分钟), v2 与 v0 必须提供
+     * @return 价格点
+     */
+    public static PricePoint decode(String member, Double score) {
+        if (member == null || member.isEmpty()) return null;
+        try {
+            char tag = member.charAt(0);
+            if (tag == V1) {
+                return decodeV1(member);
+            }
+            if (score == null) return null;
+            long ts = score.longValue() * 60L;
+            if (tag >= V2 && tag <= V2 + MAX_SCALE) {
+                return decodeV2(member, tag - V2, ts);
+            }
+            // 旧格式: 成员为价格, 分钟取自 score
+            BigDecimal price = new BigDecimal(member);
+            PricePoint p = new PricePoint();
+            p.setTs(ts);
+            p.setOpen(price); p.setHigh(price); p.setLow(price); p.setClose(price); p.setVol(0L);
+            return p;
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 是否为当前版本编码
+     */
+    public static boolean isCurrent(String member) {
+        if (member == null || member.isEmpty()) return false;
+        char tag = member.charAt(0);
+        return tag >= V2 && tag <= V2 + MAX_SCALE;
+    }
+
+    private static PricePoint decodeV2(String member, int scale, long ts) {
+        int end = member.indexOf(UNIQUE);
+        String[] f = (end < 0 ? member : member.substring(0, end)).substring(1).split(",", -1);
+        long uc = Long.parseLong(f[0], 36);
+        PricePoint p = new PricePoint();
+        p.setTs(ts);
+        p.setClose(BigDecimal.valueOf(uc, scale));
+        p.setOpen(BigDecimal.valueOf(uc + parseDelta(f, 1), scale));
+        p.setHigh(BigDecimal.valueOf(uc + parseDelta(f, 2), scale));
+        p.setLow(BigDecimal.valueOf(uc + parseDelta(f, 3), scale));
+        p.setVol(parseDelta(f, 4));
+        return p;
+    }
+
+    private static PricePoint decodeV1(String member) {
+        String[] f = member.substring(1).split(",", -1);
+        BigDecimal c = new BigDecimal(f[1]);
+        PricePoint p = new PricePoint();
+        p.setTs(Long.parseLong(f[0], 36) * 60L);
+        p.setClose(c);
+        p.setOpen(f.length > 2 && !f[2].isEmpty() ? new BigDecimal(f[2]) : c);
+        p.setHigh(f.length > 3 && !f[3].isEmpty() ? new BigDecimal(f[3]) : c);
+        p.setLow(f.length > 4 && !f[4].isEmpty() ? new BigDecimal(f[4]) : c);
+        p.setVol(f.length > 5 && !f[5].isEmpty() ? Long.parseLong(f[5]) : 0L);
+        return p;
+    }
+
+    private static String encodeV1(PricePoint bar, BigDecimal c, long v) {
+        String o = field(bar.getOpen(), c);
+        String h = field(bar.getHigh(), c);
+        String l = field(bar.getLow(), c);
+        StringBuilder sb = new StringBuilder(32);
+        sb.append(V1).append(Long.toString(Math.floorDiv(bar.getTs(), 60L), 36)).append(',').append(c.toPlainString());
+        if (v != 0L) {
+            sb.append(',').append(o).append(',').append(h).append(',').append(l).append(',').append(v);
+        } else if (!o.isEmpty() || !h.isEmpty() || !l.isEmpty()) {
+            sb.append(',').append(o).append(',').append(h).append(',').append(l);
+        }
+        return sb.toString();
+    }
+
+    private static long unscaled(BigDecimal v, int scale) {
+        return v.setScale(scale).unscaledValue().longValueExact();
+    }
+
+    private static String delta(long d) {
+        return d == 0L ? "" : Long.toString(d, 36);
+    }
+
+    private static long parseDelta(String[] f, int i) {
+        return f.length > i && !f[i].isEmpty() ? Long.parseLong(f[i], 36) : 0L;
+    }
+
+    private static String field(BigDecimal v, BigDecimal close) {
+        return v == null || v.equals(close) ? "" : v.toPlainString();
+    }
+}
@@ -0,0 +1,337 @@
+package com.example.kline.modules.kline.infrastructure.cache;
+
+import com.example.kline.modules.kline.domain.entity.PricePoint;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Redis 前置的进程内 L1 近端缓存 (app.redis.near-cache.enabled=true 且 app.redis.external=true 时生效)
+ *
+ * - 以 stockcode:marketId 为 key 缓存整条分钟序列 ({@link ColumnarSeries}), 命中后直接二分切片
+ * - 按 max-bytes 内存预算做近似 LRU 淘汰, 超过 max-points 的序列不缓存, 条目超过 ttl-ms 视为过期
+ * - 读路径无锁: 条目放在 ConcurrentHashMap 中, 命中时只刷新条目自身的访问时间 (同一条目 1ms 内不重复写);
+ *   超出预算时由写入方在淘汰锁内按访问时间从旧到新淘汰, 读者不参与也不等待
+ * - 本实例消费到新 bar 时就地打补丁, 并通过 Redis pub/sub 把 bar 广播给其他实例同步打补丁
+ * - 加载与补丁并发时用分段版本号判定, 加载期间被修改过的结果不入缓存
+ *
+ * @author xubohan@myhexin.com
+ * @date 2026-10-17 14:00:00
+ */
+@Component
+public class KlineNearCache {
+    private static final Logger log = LoggerFactory.getLogger(KlineNearCache.class);
+    private static final ObjectMapper M = new ObjectMapper();
+    private static final int STRIPES = 1024;
+    private static final long ENTRY_OVERHEAD = 128L;
+    /** 访问时间刷新粒度, 热点条目不会在每次命中时都写同一缓存行 */
+    private static final long ACCESS_GRANULARITY_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /** pub/sub 频道 */
+    public static final String CHANNEL = "kline:near-cache";
+
+    private final boolean enabled;
+    private final long maxBytes;
+    private final int maxPoints;
+    private final long ttlNanos;
+    private final String instanceId = UUID.randomUUID().toString();
+
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>(256);
+    private final AtomicLongArray versions = new AtomicLongArray(STRIPES);
+    private final AtomicLong usedBytes = new AtomicLong();
+    private final ReentrantLock evictLock = new ReentrantLock();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicLong staleLoads = new AtomicLong();
+    private final AtomicLong uncacheable = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+    private final AtomicLong localPatches = new AtomicLong();
+    private final AtomicLong remotePatches = new AtomicLong();
+
+    // 无参构造函数，用于测试
+    public KlineNearCache() {
+        this.enabled = false;
+        this.maxBytes = 0L;
+        this.maxPoints = 0;
+        this.ttlNanos = 0L;
+    }
+
+    @Autowired
+    public KlineNearCache(Environment env) {
+        boolean external = env.getProperty("app.redis.external", Boolean.class, false);
+        this.enabled = external && env.getProperty("app.redis.near-cache.enabled", Boolean.class, false);
+        this.maxBytes = env.getProperty("app.redis.near-cache.max-bytes", Long.class, 64L * 1024 * 1024);
+        this.maxPoints = env.getProperty("app.redis.near-cache.max-points", Integer.class, 50000);
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(env.getProperty("app.redis.near-cache.ttl-ms", Long.class, 60000L));
+        if (enabled) {
+            log.info("Kline near-cache enabled: maxBytes={}, maxPoints={}, ttlMs={}",
+                maxBytes, maxPoints, TimeUnit.NANOSECONDS.toMillis(ttlNanos));
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public int getMaxPoints() {
+        return maxPoints;
+    }
+
+    /**
+     * 查询缓存序列, 未命中或已过期返回 null
+     */
+    public ColumnarSeries get(String key) {
+        Entry e = entries.get(key);
+        long now = System.nanoTime();
+        if (e != null && now - e.loadedAt > ttlNanos) {
+            if (entries.remove(key, e)) {
+                release(e);
+                expirations.incrementAndGet();
+            }
+            e = null;
+        }
+        if (e == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        if (now - e.lastAccess > ACCESS_GRANULARITY_NANOS) {
+            e.lastAccess = now;
+        }
+        hits.incrementAndGet();
+        return e.series;
+    }
+
+    /**
+     * 开始一次加载, 返回该 key 当前版本号, 供 {@link #put} 判定加载期间是否被修改
+     */
+    public long beginLoad(String key) {
+        return versions.get(stripe(key));
+    }
+
+    /**
+     * 写入加载结果; 加载期间该 key 被打过补丁或失效则丢弃, 避免缓存旧数据
+     */
+    public void put(String key, ColumnarSeries series, long version) {
+        if (!enabled || series == null) return;
+        if (series.size() > maxPoints) {
+            uncacheable.incrementAndGet();
+            return;
+        }
+        if (versions.get(stripe(key)) != version) {
+            staleLoads.incrementAndGet();
+            return;
+        }
+        long bytes = series.estimatedBytes() + ENTRY_OVERHEAD;
+        if (bytes > maxBytes) {
+            uncacheable.incrementAndGet();
+            return;
+        }
+        usedBytes.addAndGet(bytes);
+        Entry old = entries.put(key, new Entry(series, bytes));
+        if (old != null) {
+            release(old);
+        }
+        loads.incrementAndGet();
+        evictToBudget();
+    }
+
+    /**
+     * 记录一次因序列过大而放弃缓存
+     */
+    public void markUncacheable() {
+        uncacheable.incrementAndGet();
+    }
+
+    /**
+     * 本实例写入新 bar 时就地打补丁 (未缓存的 key 只推进版本号)
+     */
+    public void patch(String key, List<PricePoint> bars) {
+        if (!enabled || bars == null || bars.isEmpty()) return;
+        applyPatch(key, bars);
+        localPatches.incrementAndGet();
+    }
+
+    /**
+     * 使某个 key 失效
+     */
+    public void invalidate(String key) {
+        if (!enabled) return;
+        versions.incrementAndGet(stripe(key));
+        Entry old = entries.remove(key);
+        if (old != null) {
+            release(old);
+        }
+    }
+
+    /**
+     * 生成广播给其他实例的补丁消息 (bar 使用 ZSET 成员编码)
+     */
+    public String toMessage(String stockcode, String marketId, List<PricePoint> bars) {
+        ObjectNode node = M.createObjectNode();
+        node.put("src", instanceId);
+        node.put("sc", stockcode);
+        node.put("mk", marketId);
+        ArrayNode arr = node.putArray("m");
+        // 成员不含分钟, 分钟单独放在 t 中, 与 m 一一对应
+        ArrayNode minutes = node.putArray("t");
+        for (PricePoint p : bars) {
+            String member = KlineMemberCodec.encode(p);
+            if (member != null) {
+                arr.add(member);
+                minutes.add(Math.floorDiv(p.getTs(), 60L));
+            }
+        }
+        return node.toString();
+    }
+
+    /**
+     * 处理其他实例广播的补丁消息, 忽略本实例发出的消息
+     */
+    public void onMessage(String body) {
+        if (!enabled || body == null) return;
+        try {
+            JsonNode node = M.readTree(body);
+            if (instanceId.equals(node.path("src").asText())) return;
+            String key = SymbolRegistry.key(node.path("sc").asText(), node.path("mk").asText());
+            List<PricePoint> bars = new ArrayList<>();
+            JsonNode minutes = node.path("t");
+            int i = 0;
+            for (JsonNode m : node.path("m")) {
+                JsonNode minute = minutes.path(i++);
+                PricePoint p = KlineMemberCodec.decode(m.asText(), minute.isNumber() ? minute.asDouble() : null);
+                if (p != null) bars.add(p);
+            }
+            if (bars.isEmpty()) {
+                invalidate(key);
+            } else {
+                applyPatch(key, bars);
+            }
+            remotePatches.incrementAndGet();
+        } catch (Exception e) {
+            log.warn("Failed to apply near-cache message: {}", e.getMessage());
+        }
+    }
+
+    public int entries() {
+        return entries.size();
+    }
+
+    public long usedBytes() {
+        return usedBytes.get();
+    }
+
+    /**
+     * 命中/未命中/淘汰等统计
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("enabled", enabled);
+        m.put("entries", entries.size());
+        m.put("usedBytes", usedBytes.get());
+        m.put("maxBytes", maxBytes);
+        long h = hits.get(), mi = misses.get();
+        m.put("hits", h);
+        m.put("misses", mi);
+        m.put("hitRatio", h + mi == 0 ? 0.0 : h / (double) (h + mi));
+        m.put("loads", loads.get());
+        m.put("staleLoads", staleLoads.get());
+        m.put("uncacheable", uncacheable.get());
+        m.put("evictions", evictions.get());
+        m.put("expirations", expirations.get());
+        m.put("localPatches", localPatches.get());
+        m.put("remotePatches", remotePatches.get());
+        return m;
+    }
+
+    private void applyPatch(String key, List<PricePoint> bars) {
+        versions.incrementAndGet(stripe(key));
+        Entry e = entries.get(key);
+        if (e == null) return;
+        // 只锁该条目: 序列自身有读写锁, 这里保证同一条目的占用字节增量按顺序记账
+        synchronized (e) {
+            for (PricePoint p : bars) {
+                e.series.upsert(p);
+            }
+            if (e.removed) return;
+            long bytes = e.series.estimatedBytes() + ENTRY_OVERHEAD;
+            usedBytes.addAndGet(bytes - e.bytes);
+            e.bytes = bytes;
+        }
+        evictToBudget();
+    }
+
+    /**
+     * 超出预算时按最近访问时间从旧到新淘汰, 直到回到预算内; 只有写入方进入, 读路径不受影响
+     */
+    private void evictToBudget() {
+        if (usedBytes.get() <= maxBytes) return;
+        evictLock.lock();
+        try {
+            if (usedBytes.get() <= maxBytes) return;
+            List<Map.Entry<String, Entry>> candidates = new ArrayList<>(entries.entrySet());
+            // 排序期间访问时间仍会被读者刷新, 先取快照保证比较结果稳定
+            for (Map.Entry<String, Entry> c : candidates) {
+                c.getValue().evictOrder = c.getValue().lastAccess;
+            }
+            candidates.sort(Comparator.comparingLong(c -> c.getValue().evictOrder));
+            for (Map.Entry<String, Entry> c : candidates) {
+                if (usedBytes.get() <= maxBytes) break;
+                if (entries.remove(c.getKey(), c.getValue())) {
+                    release(c.getValue());
+                    evictions.incrementAndGet();
+                }
+            }
+        } finally {
+            evictLock.unlock();
+        }
+    }
+
+    /** 已从表中移除的条目: 归还占用字节, 之后的补丁不再记账 */
+    private void release(Entry e) {
+        synchronized (e) {
+            if (e.removed) return;
+            e.removed = true;
+            usedBytes.addAndGet(-e.bytes);
+        }
+    }
+
+    private static int stripe(String key) {
+        return (key.hashCode() & 0x7fffffff) % STRIPES;
+    }
+
+    private static final class Entry {
+        final ColumnarSeries series;
+        final long loadedAt = System.nanoTime();
+        volatile long lastAccess = loadedAt;
+        /** 淘汰排序用的访问时间快照, 只在淘汰锁内读写 */
+        long evictOrder;
+        long bytes;
+        boolean removed;
+
+        Entry(ColumnarSeries series, long bytes) {
+            this.series = series;
+            this.bytes = bytes;
+        }
+    }
+}
@@ -0,0 +1,624 @@
+package com.example.kline.modules.kline.infrastructure.cache;
+
+import com.example.kline.common.metrics.KlineMetrics;
+import com.example.kline.common.ratelimit.TokenBucket;
+import com.example.kline.modules.kline.domain.entity.KlineInterval;
+import com.example.kline.modules.kline.domain.entity.PricePoint;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * K线 ZSET 保留期管理
+ *
+ * 后台线程定期用 SCAN 游标遍历 kline:1m:* , 对每个 key:
+ * 1. 分页读取早于保留窗口的分钟成员 (ZRANGEBYSCORE ... LIMIT), 分页边界对齐到最粗的层级, 不拆开同一个 bar
+ * 2. 按配置的层级 (如 1d) 降采样, 与层级 key 中已有的 bar 合并
+ *    层级 key: kline:{interval}:{marketId}:{stockCode}, score 同样为分钟 (bar 起始 ts / 60), 成员编码见 {@link KlineMemberCodec}
+ * 3. 用一个 Lua 脚本 ({@link #COMMIT}) 写入层级 bar 并 ZREMRANGEBYSCORE 删除这些分钟: 脚本先确认仍持有锁,
+ *    再比对待删分钟与被合并的层级 bar 的摘要 (SHA1) 与读取时一致, 任一不符即不写入 (锁丢失时结束本轮,
+ *    数据被改动时重读该页, 连续 {@value #MAX_CONFLICTS} 次冲突跳过该 key)。
+ *    只比对涉及的分数区间, 在线写入较新的分钟不会造成冲突; 中途失败或另一实例同时处理都不会重复累计成交量
+ * 4. 可选按 tier-days 裁剪层级 key
+ * 按天分桶的 key (见 {@link KlineKeyLayout}) 只处理整天早于保留窗口的日桶, 其余日桶直接跳过, 不消耗令牌;
+ * 日桶清空后同时从日期索引中移除该日期
+ *
+ * 每处理一个 key (或一页) 先从令牌桶取令牌, 超出 keys-per-sec 时睡眠等待, 不与在线流量争抢 Redis。
+ * 多实例部署时通过 {@value #LOCK_KEY} 互斥, 同一时间只有一个实例执行: 锁的租期为 lock-ttl-sec,
+ * 每处理一个 key (或一页) 前续期, 续期失败 (锁已过期并被其他实例取得) 时立即结束本轮。
+ * 与原先的 MULTI/EXEC 一样, 脚本同时访问分钟 key、层级 key 与锁, 要求单机/哨兵部署 (不支持 Cluster 跨 slot)。
+ * 回收字节数取自删除前后的 MEMORY USAGE, 命令不可用时按成员长度估算。仅 app.redis.external=true 时生效。
+ *
+ * 配置 (app.retention.*):
+ *   enabled            总开关 (默认 false)
+ *   days               分钟数据保留天数 (默认 15)
+ *   tiers              降采样层级, 逗号分隔的周期编码 (默认 1d, 留空表示只删除不降采样)
+ *   tier-days          层级数据保留天数, 0 表示不裁剪 (默认 0)
+ *   interval-sec       执行间隔 (默认 3600)
+ *   initial-delay-sec  启动后首次执行的延迟 (默认 60)
+ *   scan-count         SCAN COUNT 提示 (默认 200)
+ *   keys-per-sec       每秒最多处理的 key/分页数 (默认 50)
+ *   page-size          单次读取的分钟成员上限 (默认 10000, 至少为最粗层级的分钟数)
+ *   lock-ttl-sec       锁租期, 处理过程中持续续期 (默认 60, 至少为令牌等待时间的 3 倍)
+ *
+ * @author xubohan@myhexin.com
+ * @date 2026-10-17 20:10:00
+ */
+@Component
+public class KlineRetentionManager {
+    private static final Logger log = LoggerFactory.getLogger(KlineRetentionManager.class);
+    private static final String PATTERN = "kline:1m:*";
+    static final String LOCK_KEY = "kline:retention:lock";
+    /** MEMORY USAGE 不可用时每个删除成员的估算开销 (skiplist 节点 + dict 项) */
+    private static final int ENTRY_OVERHEAD = 64;
+    private static final RedisScript<Long> MEMORY_USAGE =
+        new DefaultRedisScript<>("return redis.call('MEMORY', 'USAGE', KEYS[1])", Long.class);
+    private static final RedisScript<Long> UNLOCK = new DefaultRedisScript<>(
+        "if redis.call('GET', KEYS[1]) == ARGV[1] then return redis.call('DEL', KEYS[1]) else return 0 end",
+        Long.class);
+    private static final RedisScript<Long> RENEW = new DefaultRedisScript<>(
+        "if redis.call('GET', KEYS[1]) == ARGV[1] then return redis.call('EXPIRE', KEYS[1], ARGV[2]) else return 0 end",
+        Long.class);
+    /**
+     * KEYS: 分钟 key, 锁, 层级 key...
+     * ARGV: owner, upTo, 分钟摘要, 然后每个层级 key 依次为 first, last, 已有 bar 摘要, n, n 个 (score, member)
+     * 返回删除的分钟数; 锁已不属于 owner 时返回 -2, 摘要不符 (读取后被改动) 时返回 -1
+     */
+    static final RedisScript<Long> COMMIT = new DefaultRedisScript<>(
+        "if redis.call('GET', KEYS[2]) ~= ARGV[1] then return -2 end\n"
+            + "local function digest(list) return redis.sha1hex(table.concat(list, '\\n')) end\n"
+            + "if digest(redis.call('ZRANGEBYSCORE', KEYS[1], '-inf', ARGV[2])) ~= ARGV[3] then return -1 end\n"
+            + "local i = 4\n"
+            + "for k = 3, #KEYS do\n"
+            + "  if digest(redis.call('ZRANGEBYSCORE', KEYS[k], ARGV[i], ARGV[i + 1])) ~= ARGV[i + 2] then return -1 end\n"
+            + "  i = i + 4 + 2 * tonumber(ARGV[i + 3])\n"
+            + "end\n"
+            + "i = 4\n"
+            + "for k = 3, #KEYS do\n"
+            + "  local n = tonumber(ARGV[i + 3])\n"
+            + "  for j = 0, n - 1 do\n"
+            + "    local s = ARGV[i + 4 + 2 * j]\n"
+            + "    local m = ARGV[i + 5 + 2 * j]\n"
+            + "    redis.call('ZREMRANGEBYSCORE', KEYS[k], s, s)\n"
+            + "    if redis.call('ZSCORE', KEYS[k], m) then m = m .. '~' .. s end\n"
+            + "    redis.call('ZADD', KEYS[k], s, m)\n"
+            + "  end\n"
+            + "  i = i + 4 + 2 * n\n"
+            + "end\n"
+            + "return redis.call('ZREMRANGEBYSCORE', KEYS[1], '-inf', ARGV[2])", Long.class);
+    static final int MAX_CONFLICTS = 3;
+
+    private final boolean enabled;
+    private final StringRedisTemplate redisTemplate;
+    private final long retentionSec;
+    private final long tierRetentionSec;
+    private final KlineInterval[] tiers;
+    /** 截止时间与分页边界的对齐粒度: 最粗层级的秒数 */
+    private final long alignSec;
+    private final long intervalSec;
+    private final long initialDelaySec;
+    private final int scanCount;
+    private final int pageSize;
+    private final long lockTtlSec;
+    private final TokenBucket limiter;
+    private final String owner = ManagementFactory.getRuntimeMXBean().getName();
+
+    private ScheduledExecutorService scheduler;
+    private volatile boolean memoryUsageSupported = true;
+
+    private final AtomicLong runs = new AtomicLong();
+    private final AtomicLong skippedRuns = new AtomicLong();
+    private final AtomicLong scannedKeys = new AtomicLong();
+    private final AtomicLong trimmedKeys = new AtomicLong();
+    private final AtomicLong failedKeys = new AtomicLong();
+    private final AtomicLong conflicts = new AtomicLong();
+    private final AtomicLong lostLocks = new AtomicLong();
+    private volatile long lastRunAt;
+    private volatile long lastRunMillis;
+    private volatile long lastRunScanned;
+    private volatile long lastRunRemoved;
+    private volatile long lastRunReclaimed;
+
+    private final Counter removedMinutes;
+    private final Counter tierBars;
+    private final Counter reclaimedBytes;
+    private final Timer runTimer;
+
+    // 无参构造函数，用于测试
+    public KlineRetentionManager() {
+        this.enabled = false;
+        this.redisTemplate = null;
+        this.retentionSec = 15 * 86400L;
+        this.tierRetentionSec = 0L;
+        this.tiers = new KlineInterval[]{KlineInterval.D1};
+        this.alignSec = KlineInterval.D1.getSeconds();
+        this.intervalSec = 3600L;
+        this.initialDelaySec = 60L;
+        this.scanCount = 200;
+        this.pageSize = 10000;
+        this.lockTtlSec = 60L;
+        this.limiter = new TokenBucket(50, 1);
+        KlineMetrics metrics = new KlineMetrics();
+        MeterRegistry registry = metrics.getRegistry();
+        this.removedMinutes = removedCounter(registry);
+        this.tierBars = tierCounter(registry);
+        this.reclaimedBytes = reclaimedCounter(registry);
+        this.runTimer = Timer.builder("kline.retention.run").description("Retention run duration").register(registry);
+    }
+
+    @Autowired
+    public KlineRetentionManager(Environment env, StringRedisTemplate redisTemplate, RedisKlineCache cache,
+                                 KlineMetrics metrics) {
+        this.enabled = env.getProperty("app.retention.enabled", Boolean.class, false) && cache.isExternalEnabled();
+        this.redisTemplate = enabled ? redisTemplate : null;
+        this.retentionSec = retentionSeconds(env);
+        this.tierRetentionSec = Math.max(0L, env.getProperty("app.retention.tier-days", Long.class, 0L)) * 86400L;
+        this.tiers = parseTiers(env.getProperty("app.retention.tiers", "1d"));
+        long align = KlineInterval.M1.getSeconds();
+        for (KlineInterval t : tiers) {
+            align = Math.max(align, t.getSeconds());
+        }
+        this.alignSec = align;
+        this.intervalSec = Math.max(1L, env.getProperty("app.retention.interval-sec", Long.class, 3600L));
+        this.initialDelaySec = Math.max(0L, env.getProperty("app.retention.initial-delay-sec", Long.class, 60L));
+        this.scanCount = Math.max(1, env.getProperty("app.retention.scan-count", Integer.class, 200));
+        this.pageSize = (int) Math.max(align / 60L + 1,
+            env.getProperty("app.retention.page-size", Integer.class, 10000));
+        double keysPerSec = Math.max(0.1, env.getProperty("app.retention.keys-per-sec", Double.class, 50.0));
+        this.limiter = new TokenBucket(keysPerSec, 1);
+        // 续期发生在取令牌之后, 租期需覆盖最长的令牌等待
+        this.lockTtlSec = Math.max((long) Math.ceil(3.0 / keysPerSec),
+            Math.max(1L, env.getProperty("app.retention.lock-ttl-sec", Long.class, 60L)));
+        MeterRegistry registry = metrics.getRegistry();
+        this.removedMinutes = removedCounter(registry);
+        this.tierBars = tierCounter(registry);
+        this.reclaimedBytes = reclaimedCounter(registry);
+        this.runTimer = Timer.builder("kline.retention.run").description("Retention run duration").register(registry);
+    }
+
+    /**
+     * 分钟数据保留秒数 (app.retention.days, 默认 15 天); 字符串副本的 TTL 也取该值
+     */
+    public static long retentionSeconds(Environment env) {
+        return Math.max(1L, env.getProperty("app.retention.days", Long.class, 15L)) * 86400L;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) return;
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "kline-retention");
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(this::runQuietly, initialDelaySec, intervalSec, TimeUnit.SECONDS);
+        log.info("KlineRetentionManager enabled: retentionDays={}, tiers={}, intervalSec={}",
+            retentionSec / 86400L, tierCodes(), intervalSec);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (scheduler == null) return;
+        scheduler.shutdownNow();
+        try {
+            scheduler.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void runQuietly() {
+        try {
+            runOnce(System.currentTimeMillis() / 1000L);
+        } catch (Exception e) {
+            log.warn("Kline retention run failed: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 执行一轮保留期清理; 其他实例持有锁时跳过
+     *
+     * @param nowSec 当前时间 (秒)
+     * @return 本轮删除的分钟数, 跳过时为 -1
+     */
+    public long runOnce(long nowSec) {
+        if (redisTemplate == null) return -1L;
+        Boolean locked = redisTemplate.opsForValue().setIfAbsent(LOCK_KEY, owner, lockTtlSec, TimeUnit.SECONDS);
+        if (!Boolean.TRUE.equals(locked)) {
+            skippedRuns.incrementAndGet();
+            return -1L;
+        }
+        long begin = System.nanoTime();
+        long cutoffTs = nowSec - retentionSec;
+        long cutoffMinute = (cutoffTs - Math.floorMod(cutoffTs, alignSec)) / 60L;
+        long tierCutoffMinute = tierRetentionSec > 0 ? (nowSec - tierRetentionSec) / 60L : Long.MIN_VALUE;
+        long scanned = 0, removed = 0, reclaimed = 0;
+        ScanOptions options = ScanOptions.scanOptions().match(PATTERN).count(scanCount).build();
+        try (Cursor<byte[]> cursor = redisTemplate.executeWithStickyConnection(
+                (RedisCallback<Cursor<byte[]>>) connection -> connection.scan(options))) {
+            while (cursor != null && cursor.hasNext() && !Thread.currentThread().isInterrupted()) {
+                String key = new String(cursor.next(), StandardCharsets.UTF_8);
+                scanned++;
+                try {
+                    long[] r = trimKey(key, cutoffMinute, tierCutoffMinute);
+                    if (r[0] > 0) {
+                        trimmedKeys.incrementAndGet();
+                        removed += r[0];
+                        reclaimed += r[1];
+                    }
+                } catch (DataAccessException e) {
+                    failedKeys.incrementAndGet();
+                    log.warn("Failed to trim {}: {}", key, e.getMessage());
+                }
+            }
+        } catch (LockLostException e) {
+            lostLocks.incrementAndGet();
+            log.warn("Kline retention lock lost, stopping run after {} keys", scanned);
+        } catch (IOException e) {
+            log.warn("Failed to close retention scan cursor: {}", e.getMessage());
+        } finally {
+            try {
+                redisTemplate.execute(UNLOCK, Collections.singletonList(LOCK_KEY), owner);
+            } catch (Exception ignore) {
+                // 锁随 TTL 过期
+            }
+            runs.incrementAndGet();
+            scannedKeys.addAndGet(scanned);
+            lastRunAt = System.currentTimeMillis();
+            lastRunMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+            lastRunScanned = scanned;
+            lastRunRemoved = removed;
+            lastRunReclaimed = reclaimed;
+            KlineMetrics.record(runTimer, begin);
+        }
+        log.info("Kline retention run: scanned={}, removedMinutes={}, reclaimedBytes={}, cost={}ms",
+            scanned, removed, reclaimed, lastRunMillis);
+        return removed;
+    }
+
+    /**
+     * @return {删除的分钟数, 回收字节数}
+     */
+    private long[] trimKey(String key, long cutoffMinute, long tierCutoffMinute) {
+        KlineKeyLayout.MinuteKey mk = KlineKeyLayout.parse(key);
+        if (mk == null) return new long[]{0L, 0L};
+        if (mk.getDay() != null && (mk.getDay() + 1) * (KlineKeyLayout.DAY_SECONDS / 60L) > cutoffMinute) {
+            // 日桶未整体过保留期
+            return new long[]{0L, 0L};
+        }
+        acquire();
+        String suffix = mk.getMarketId() + ":" + mk.getStockCode();
+        long removed = 0, estimated = 0;
+        Long before = null;
+        int conflictsInRow = 0;
+        while (true) {
+            Set<ZSetOperations.TypedTuple<String>> page = redisTemplate.opsForZSet()
+                .rangeByScoreWithScores(key, Double.NEGATIVE_INFINITY, cutoffMinute - 1, 0, pageSize);
+            if (page == null || page.isEmpty()) break;
+            if (before == null) before = memoryUsage(key);
+            List<PricePoint> minutes = new ArrayList<>(page.size());
+            long lastMinute = Long.MIN_VALUE;
+            long pageBytes = 0;
+            for (ZSetOperations.TypedTuple<String> t : page) {
+                PricePoint p = KlineMemberCodec.decode(t.getValue(), t.getScore());
+                if (p != null) minutes.add(p);
+                if (t.getScore() != null) lastMinute = Math.max(lastMinute, t.getScore().longValue());
+                pageBytes += (t.getValue() == null ? 0 : t.getValue().length()) + ENTRY_OVERHEAD;
+            }
+            boolean full = page.size() >= pageSize;
+            long upTo = cutoffMinute - 1;
+            if (full) {
+                // 最后一个 bar 可能还有分钟在下一页, 本页只处理到它之前
+                long boundary = lastMinute * 60L - Math.floorMod(lastMinute * 60L, alignSec);
+                upTo = Math.max(boundary / 60L - 1, minutes.isEmpty() ? lastMinute : minutes.get(0).getTs() / 60L);
+                long bound = upTo;
+                minutes.removeIf(p -> p.getTs() / 60L > bound);
+            }
+            long n = commit(key, suffix, page, minutes, upTo);
+            if (n < 0) {
+                // 读取后被改动, 重读本页
+                conflicts.incrementAndGet();
+                if (++conflictsInRow >= MAX_CONFLICTS) {
+                    failedKeys.incrementAndGet();
+                    log.warn("Skipping {} after {} conflicting retention commits", key, conflictsInRow);
+                    break;
+                }
+                acquire();
+                continue;
+            }
+            conflictsInRow = 0;
+            removed += n;
+            estimated += pageBytes;
+            if (!full) break;
+            acquire();
+        }
+        if (tierRetentionSec > 0) {
+            for (KlineInterval tier : tiers) {
+                redisTemplate.opsForZSet().removeRangeByScore(tierKey(tier, suffix), Double.NEGATIVE_INFINITY,
+                    tierCutoffMinute - 1);
+            }
+        }
+        if (removed == 0) {
+            return new long[]{0L, 0L};
+        }
+        if (mk.getDay() != null) {
+            redisTemplate.opsForZSet().remove(KlineKeyLayout.indexKey(mk.getStockCode(), mk.getMarketId()),
+                KlineKeyLayout.formatDay(mk.getDay()));
+        }
+        Long after = before == null ? null : memoryUsage(key);
+        long reclaimed = before != null && after != null ? Math.max(0L, before - after) : estimated;
+        removedMinutes.increment(removed);
+        reclaimedBytes.increment(reclaimed);
+        return new long[]{removed, reclaimed};
+    }
+
+    /**
+     * 降采样并删除 upTo 及之前的分钟, 层级写入与删除由 {@link #COMMIT} 原子执行,
+     * 仅当锁仍属于本实例且涉及的分钟与层级 bar 未在读取后改动时生效
+     *
+     * @param page 本页读取到的成员 (按 score 升序), 用于计算分钟摘要
+     * @return 删除的成员数; 冲突时返回 -1
+     */
+    private long commit(String key, String suffix, Set<ZSetOperations.TypedTuple<String>> page,
+                        List<PricePoint> minutes, long upTo) {
+        List<String> deleted = new ArrayList<>(page.size());
+        for (ZSetOperations.TypedTuple<String> t : page) {
+            if (t.getScore() != null && t.getScore() <= upTo) deleted.add(t.getValue());
+        }
+        List<String> keys = new ArrayList<>();
+        keys.add(key);
+        keys.add(LOCK_KEY);
+        List<String> args = new ArrayList<>();
+        args.add(owner);
+        args.add(Long.toString(upTo));
+        args.add(sha1(deleted));
+        Map<String, Map<Long, PricePoint>> merged = new LinkedHashMap<>();
+        for (KlineInterval tier : tiers) {
+            TreeMap<Long, PricePoint> bars = downsample(minutes, tier);
+            if (bars.isEmpty()) continue;
+            String tk = tierKey(tier, suffix);
+            long first = bars.firstKey() / 60L;
+            long last = bars.lastKey() / 60L;
+            // 与层级中已有的 bar 合并 (迟到的历史数据会落到已降采样的 bar 中)
+            Set<ZSetOperations.TypedTuple<String>> existing =
+                redisTemplate.opsForZSet().rangeByScoreWithScores(tk, first, last);
+            List<String> existingMembers = new ArrayList<>();
+            if (existing != null) {
+                for (ZSetOperations.TypedTuple<String> t : existing) {
+                    existingMembers.add(t.getValue());
+                    PricePoint old = KlineMemberCodec.decode(t.getValue(), t.getScore());
+                    PricePoint bar = old == null ? null : bars.get(old.getTs());
+                    if (bar != null) {
+                        bars.put(old.getTs(), combine(old, bar));
+                    }
+                }
+            }
+            merged.put(tk, bars);
+            keys.add(tk);
+            args.add(Long.toString(first));
+            args.add(Long.toString(last));
+            args.add(sha1(existingMembers));
+            args.add(Integer.toString(bars.size()));
+            for (PricePoint bar : bars.values()) {
+                args.add(Long.toString(bar.getTs() / 60L));
+                args.add(KlineMemberCodec.encode(bar));
+            }
+        }
+        Long result = redisTemplate.execute(COMMIT, keys, args.toArray());
+        long r = result == null ? 0L : result;
+        if (r == -2L) {
+            throw new LockLostException();
+        }
+        if (r < 0) {
+            return -1L;
+        }
+        int written = 0;
+        for (Map<Long, PricePoint> bars : merged.values()) {
+            written += bars.size();
+        }
+        tierBars.increment(written);
+        return r;
+    }
+
+    /**
+     * 与脚本中 redis.sha1hex(table.concat(members, "\n")) 相同的摘要
+     */
+    static String sha1(List<String> members) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            for (int i = 0; i < members.size(); i++) {
+                if (i > 0) md.update((byte) '\n');
+                md.update(members.get(i).getBytes(StandardCharsets.UTF_8));
+            }
+            StringBuilder sb = new StringBuilder(40);
+            for (byte b : md.digest()) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 按层级周期聚合分钟 bar (输入按时间升序): open 取首个, close 取末个, high/low 取极值, vol 求和
+     */
+    static TreeMap<Long, PricePoint> downsample(List<PricePoint> minutes, KlineInterval tier) {
+        TreeMap<Long, PricePoint> out = new TreeMap<>();
+        for (PricePoint p : minutes) {
+            if (p == null || p.getTs() == null || p.getClose() == null) continue;
+            long bucket = tier.bucketStart(p.getTs());
+            PricePoint bar = out.get(bucket);
+            if (bar == null) {
+                bar = new PricePoint();
+                bar.setTs(bucket);
+                bar.setOpen(p.getOpen() != null ? p.getOpen() : p.getClose());
+                bar.setHigh(p.getHigh() != null ? p.getHigh() : p.getClose());
+                bar.setLow(p.getLow() != null ? p.getLow() : p.getClose());
+                bar.setClose(p.getClose());
+                bar.setVol(p.getVol() == null ? 0L : p.getVol());
+                out.put(bucket, bar);
+            } else {
+                out.put(bucket, combine(bar, p));
+            }
+        }
+        return out;
+    }
+
+    /**
+     * 合并同一周期内先后两段: earlier 在前, later 在后
+     */
+    private static PricePoint combine(PricePoint earlier, PricePoint later) {
+        PricePoint bar = new PricePoint();
+        bar.setTs(earlier.getTs());
+        bar.setOpen(earlier.getOpen() != null ? earlier.getOpen() : later.getOpen());
+        bar.setHigh(earlier.getHigh() == null || (later.getHigh() != null
+            && later.getHigh().compareTo(earlier.getHigh()) > 0) ? later.getHigh() : earlier.getHigh());
+        bar.setLow(earlier.getLow() == null || (later.getLow() != null
+            && later.getLow().compareTo(earlier.getLow()) < 0) ? later.getLow() : earlier.getLow());
+        bar.setClose(later.getClose() != null ? later.getClose() : earlier.getClose());
+        bar.setVol((earlier.getVol() == null ? 0L : earlier.getVol()) + (later.getVol() == null ? 0L : later.getVol()));
+        return bar;
+    }
+
+    private Long memoryUsage(String key) {
+        if (!memoryUsageSupported) return null;
+        try {
+            Long v = redisTemplate.execute(MEMORY_USAGE, Collections.singletonList(key));
+            return v == null ? 0L : v;
+        } catch (Exception e) {
+            memoryUsageSupported = false;
+            log.info("MEMORY USAGE unavailable, reclaimed bytes will be estimated: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 取令牌后续期锁; 锁已不属于本实例时抛出 {@link LockLostException}
+     */
+    private void acquire() {
+        long wait;
+        while ((wait = limiter.tryAcquire(System.nanoTime())) > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        Long renewed = redisTemplate.execute(RENEW, Collections.singletonList(LOCK_KEY), owner,
+            Long.toString(lockTtlSec));
+        if (renewed == null || renewed == 0L) {
+            throw new LockLostException();
+        }
+    }
+
+    /**
+     * 层级 key: kline:{interval}:{marketId}:{stockCode}
+     */
+    private static String tierKey(KlineInterval tier, String suffix) {
+        return "kline:" + tier.getCode() + ":" + suffix;
+    }
+
+    static KlineInterval[] parseTiers(String spec) {
+        List<KlineInterval> out = new ArrayList<>();
+        if (spec != null) {
+            for (String code : spec.split(",")) {
+                KlineInterval i = KlineInterval.fromCode(code);
+                if (i != null && i != KlineInterval.M1 && !out.contains(i)) out.add(i);
+            }
+        }
+        return out.toArray(new KlineInterval[0]);
+    }
+
+    private String tierCodes() {
+        StringBuilder sb = new StringBuilder();
+        for (KlineInterval t : tiers) {
+            if (sb.length() > 0) sb.append(',');
+            sb.append(t.getCode());
+        }
+        return sb.toString();
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("enabled", enabled);
+        m.put("retentionDays", retentionSec / 86400L);
+        m.put("tiers", tierCodes());
+        m.put("tierRetentionDays", tierRetentionSec / 86400L);
+        m.put("runs", runs.get());
+        m.put("skippedRuns", skippedRuns.get());
+        m.put("scannedKeys", scannedKeys.get());
+        m.put("trimmedKeys", trimmedKeys.get());
+        m.put("failedKeys", failedKeys.get());
+        m.put("conflicts", conflicts.get());
+        m.put("lostLocks", lostLocks.get());
+        m.put("removedMinutes", (long) removedMinutes.count());
+        m.put("tierBars", (long) tierBars.count());
+        m.put("reclaimedBytes", (long) reclaimedBytes.count());
+        m.put("reclaimedBytesEstimated", !memoryUsageSupported);
+        m.put("lastRunAt", lastRunAt);
+        m.put("lastRunMillis", lastRunMillis);
+        m.put("lastRunScanned", lastRunScanned);
+        m.put("lastRunRemoved", lastRunRemoved);
+        m.put("lastRunReclaimed", lastRunReclaimed);
+        return m;
+    }
+
+    /**
+     * 本轮执行期间锁过期并被其他实例取得
+     */
+    private static final class LockLostException extends RuntimeException {
+        LockLostException() {
+            super("retention lock lost", null, false, false);
+        }
+    }
+
+    private static Counter removedCounter(MeterRegistry registry) {
+        return Counter.builder("kline.retention.removed").description("Minute bars removed by retention")
+            .register(registry);
+    }
+
+    private static Counter tierCounter(MeterRegistry registry) {
+        return Counter.builder("kline.retention.tier_bars").description("Downsampled tier bars written")
+            .register(registry);
+    }
+
+    private static Counter reclaimedCounter(MeterRegistry registry) {
+        return Counter.builder("kline.retention.reclaimed").baseUnit("bytes")
+            .description("Redis memory reclaimed by retention").register(registry);
+    }
+}
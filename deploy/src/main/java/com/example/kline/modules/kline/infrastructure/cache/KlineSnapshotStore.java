@@ -0,0 +1,298 @@
+package com.example.kline.modules.kline.infrastructure.cache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 内存模式下 K线序列的列式快照, 用于快速热重启
+ *
+ * 文件格式 (大端):
+ * - 头: 8 字节魔数 KLSNAP01
+ * - 数据块: 每只股票一个, 格式同 {@link ColumnarSeries#writeColumns} (int count + 6 个 long 列 + scale 列)
+ * - 索引: int n, 每项 UTF stockCode, UTF marketId, int count, long 数据块偏移
+ * - 尾: long 索引偏移 + 8 字节魔数
+ *
+ * 启动时只读索引, 数据块通过 {@link MappedSeries} 按需 mmap, 查询直接走映射页;
+ * 后台线程定期写临时文件后原子替换, 关闭时再写一次。仅 app.redis.external=false 时生效。
+ * 快照之后的增量由 {@link KlineJournal} 保证持久化, 快照写出后删除已覆盖的日志段。
+ *
+ * @author xubohan@myhexin.com
+ * @date 2026-10-17 16:10:00
+ */
+@Component
+public class KlineSnapshotStore {
+    private static final Logger log = LoggerFactory.getLogger(KlineSnapshotStore.class);
+    private static final byte[] MAGIC = "KLSNAP01".getBytes(StandardCharsets.US_ASCII);
+    private static final String FILE_NAME = "kline-1m.snap";
+    /** 尾部: long 索引偏移 + 魔数 */
+    private static final int FOOTER_BYTES = 8 + 8;
+
+    private final RedisKlineCache cache;
+    private final boolean enabled;
+    private final Path file;
+    private final long intervalSec;
+
+    private ScheduledExecutorService scheduler;
+    // 开启日志时由 KlineJournal 注册, 写快照前切段、写完后删除旧段
+    private volatile KlineJournal journal;
+    // 加载的快照文件, 被挂载的 MappedSeries 引用, 进程存活期间保持打开
+    private FileChannel loadedChannel;
+    private final AtomicLong loadedSeries = new AtomicLong();
+    private final AtomicLong loadMillis = new AtomicLong();
+    private final AtomicLong writes = new AtomicLong();
+    private final AtomicLong writeFailures = new AtomicLong();
+    private volatile long lastWriteMillis;
+    private volatile long lastWriteSeries;
+    private volatile long lastWriteBytes;
+    private volatile long lastWriteAt;
+
+    // 无参构造函数，用于测试
+    public KlineSnapshotStore() {
+        this.cache = new RedisKlineCache();
+        this.enabled = false;
+        this.file = Paths.get("data", "snapshot", FILE_NAME);
+        this.intervalSec = 0L;
+    }
+
+    @Autowired
+    public KlineSnapshotStore(Environment env, RedisKlineCache cache) {
+        this.cache = cache;
+        this.enabled = env.getProperty("app.snapshot.enabled", Boolean.class, false) && !cache.isExternalEnabled();
+        this.file = Paths.get(env.getProperty("app.snapshot.dir", "data/snapshot"), FILE_NAME);
+        this.intervalSec = Math.max(0L, env.getProperty("app.snapshot.interval-sec", Long.class, 300L));
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) return;
+        load();
+        if (intervalSec > 0) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "kline-snapshot");
+                t.setDaemon(true);
+                return t;
+            });
+            scheduler.scheduleWithFixedDelay(this::writeQuietly, intervalSec, intervalSec, TimeUnit.SECONDS);
+        }
+        log.info("KlineSnapshotStore enabled: file={}, intervalSec={}", file.toAbsolutePath(), intervalSec);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (!enabled) return;
+        if (scheduler != null) {
+            scheduler.shutdown();
+            try {
+                scheduler.awaitTermination(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        writeQuietly();
+    }
+
+    /**
+     * 读取快照索引并把各股票的映射序列挂到 {@link RedisKlineCache}; 文件不存在或损坏时跳过
+     *
+     * @return 挂载的股票数
+     */
+    public synchronized int load() {
+        if (!Files.isRegularFile(file)) {
+            return 0;
+        }
+        long begin = System.nanoTime();
+        FileChannel ch = null;
+        try {
+            ch = FileChannel.open(file, StandardOpenOption.READ);
+            long fileSize = ch.size();
+            if (fileSize < MAGIC.length + 4 + FOOTER_BYTES) {
+                throw new IOException("file too short: " + fileSize);
+            }
+            ByteBuffer head = readFully(ch, 0L, MAGIC.length);
+            ByteBuffer foot = readFully(ch, fileSize - FOOTER_BYTES, FOOTER_BYTES);
+            long indexOffset = foot.getLong();
+            byte[] tail = new byte[MAGIC.length];
+            foot.get(tail);
+            if (!Arrays.equals(head.array(), MAGIC) || !Arrays.equals(tail, MAGIC)
+                || indexOffset < MAGIC.length || indexOffset > fileSize - FOOTER_BYTES) {
+                throw new IOException("bad header/footer");
+            }
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Channels.newInputStream(ch.position(indexOffset))));
+            int n = in.readInt();
+            List<IndexEntry> index = new ArrayList<>(Math.max(0, Math.min(n, 1 << 16)));
+            for (int i = 0; i < n; i++) {
+                IndexEntry e = new IndexEntry(in.readUTF(), in.readUTF(), in.readInt(), in.readLong());
+                if (e.count < 0 || e.offset < MAGIC.length
+                    || e.offset + 4 + (long) e.count * (6 * 8 + 1) > indexOffset) {
+                    throw new IOException("bad index entry " + i);
+                }
+                index.add(e);
+            }
+            // 索引全部校验通过后再挂载, 避免损坏文件挂上一半
+            int attached = 0;
+            for (IndexEntry e : index) {
+                if (cache.attachSnapshot(e.stockcode, e.marketId, new MappedSeries(ch, e.offset + 4, e.count))) {
+                    attached++;
+                }
+            }
+            loadedChannel = ch;
+            loadedSeries.set(attached);
+            loadMillis.set(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin));
+            log.info("Loaded kline snapshot {}: {} series mapped in {} ms", file, attached, loadMillis.get());
+            return attached;
+        } catch (Exception e) {
+            log.warn("Ignoring unreadable kline snapshot {}: {}", file, e.getMessage());
+            closeQuietly(ch);
+            return 0;
+        }
+    }
+
+    /**
+     * 写出当前全部序列: 先写同目录临时文件并 fsync, 再原子替换正式文件
+     *
+     * @return 写出的股票数
+     */
+    public synchronized int write() throws IOException {
+        long begin = System.nanoTime();
+        Path dir = file.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        Path tmp = dir.resolve(FILE_NAME + ".tmp");
+        List<IndexEntry> index = new ArrayList<>();
+        long[] pos = {0L};
+        // 切段之前追加的帧对应的数据都已写入内存序列, 会被本次快照覆盖
+        KlineJournal j = journal;
+        long segment = j != null ? j.rotate() : -1L;
+        try (FileOutputStream fos = new FileOutputStream(tmp.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 1 << 16))) {
+            out.write(MAGIC);
+            pos[0] = MAGIC.length;
+            cache.forEachSeries((stockcode, marketId, live, mapped) -> {
+                long offset = pos[0];
+                int count = live != null ? live.writeColumns(out) : mapped.writeColumns(out);
+                pos[0] += 4 + (long) count * (6 * 8 + 1);
+                index.add(new IndexEntry(stockcode, marketId, count, offset));
+            });
+            long indexOffset = pos[0];
+            out.writeInt(index.size());
+            for (IndexEntry e : index) {
+                out.writeUTF(e.stockcode);
+                out.writeUTF(e.marketId);
+                out.writeInt(e.count);
+                out.writeLong(e.offset);
+            }
+            out.writeLong(indexOffset);
+            out.write(MAGIC);
+            out.flush();
+            fos.getFD().sync();
+            pos[0] = fos.getChannel().position();
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        if (j != null) {
+            j.deleteBefore(segment);
+        }
+        lastWriteMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+        lastWriteSeries = index.size();
+        lastWriteBytes = pos[0];
+        lastWriteAt = System.currentTimeMillis();
+        writes.incrementAndGet();
+        return index.size();
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("enabled", enabled);
+        m.put("file", file.toAbsolutePath().toString());
+        m.put("loadedSeries", loadedSeries.get());
+        m.put("loadMillis", loadMillis.get());
+        m.put("writes", writes.get());
+        m.put("writeFailures", writeFailures.get());
+        m.put("lastWriteAt", lastWriteAt);
+        m.put("lastWriteMillis", lastWriteMillis);
+        m.put("lastWriteSeries", lastWriteSeries);
+        m.put("lastWriteBytes", lastWriteBytes);
+        return m;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setJournal(KlineJournal journal) {
+        this.journal = journal;
+    }
+
+    private void writeQuietly() {
+        try {
+            int n = write();
+            log.debug("Wrote kline snapshot: {} series, {} bytes in {} ms", n, lastWriteBytes, lastWriteMillis);
+        } catch (Exception e) {
+            writeFailures.incrementAndGet();
+            log.warn("Failed to write kline snapshot {}: {}", file, e.getMessage());
+        }
+    }
+
+    private static ByteBuffer readFully(FileChannel ch, long position, int len) throws IOException {
+        ByteBuffer b = ByteBuffer.allocate(len);
+        while (b.hasRemaining()) {
+            if (ch.read(b, position + b.position()) < 0) {
+                throw new IOException("unexpected end of file");
+            }
+        }
+        b.flip();
+        return b;
+    }
+
+    private static void closeQuietly(FileChannel ch) {
+        if (ch == null) return;
+        try {
+            ch.close();
+        } catch (IOException ignore) {
+            // nothing to do
+        }
+    }
+
+    private static final class IndexEntry {
+        final String stockcode;
+        final String marketId;
+        final int count;
+        final long offset;
+
+        IndexEntry(String stockcode, String marketId, int count, long offset) {
+            this.stockcode = stockcode;
+            this.marketId = marketId;
+            this.count = count;
+            this.offset = offset;
+        }
+    }
+}
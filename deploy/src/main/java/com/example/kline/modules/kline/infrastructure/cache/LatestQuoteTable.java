@@ -0,0 +1,488 @@
+package com.example.kline.modules.kline.infrastructure.cache;
+
+import com.example.kline.modules.kline.domain.entity.KlineInterval;
+import com.example.kline.modules.kline.domain.entity.TimelineTick;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 最新行情表: 每只股票一条, 由消费者逐笔更新, 查询为 O(1) 读取
+ *
+ * 每条记录: 最新价、最新成交时间 (及所在分钟)、当日开/高/低、当日累计成交量、昨收 (上一交易日最后价) 与涨跌。
+ * 交易日按 UTC 日切分 (与 1d bar 一致); 早于当前交易日的迟到成交丢弃, 当日迟到成交只更新高低与成交量,
+ * 比当前开盘更早时改写开盘价 (开盘取当日最早成交, 与到达顺序无关)。
+ * 与 {@link KlineBarEngine} 一样按分区记录已采纳的最大位点, 重投 (重平衡、SeekToCurrent 重试、重启后重放)
+ * 的成交不会重复累计成交量; 位点随记录镜像到 Redis, 重启预热后仍然有效。
+ * 按 {@link SymbolRegistry} id 存放在 {@link SymbolSlots} 中, 注册表已满时落到兜底 map。
+ *
+ * 外部模式下镜像到一个 Redis hash {@value #HASH_KEY} (field 为 stockCode:marketId):
+ * - 更新只标记脏, 后台线程每 flush-interval-ms 把脏记录用一个 Lua 脚本写入, 只覆盖时间戳更旧的 field,
+ *   多实例 (或分区重平衡前后) 写入同一只股票时以最新成交为准
+ * - 本地没有的股票 (由其他实例消费) 查询时用 HMGET 从 hash 读取
+ * - 启动时一次 HGETALL 预热
+ *
+ * 配置 (app.latest.*):
+ *   enabled            总开关 (默认 true)
+ *   redis              是否镜像到 Redis hash, 仅 app.redis.external=true 生效 (默认 true)
+ *   flush-interval-ms  镜像写入间隔 (默认 200)
+ *   flush-batch        单次脚本调用写入的最大记录数 (默认 1000)
+ *
+ * @author xubohan@myhexin.com
+ * @date 2026-10-17 21:20:00
+ */
+@Component
+public class LatestQuoteTable {
+    private static final Logger log = LoggerFactory.getLogger(LatestQuoteTable.class);
+    public static final String HASH_KEY = "kline:latest";
+    private static final long DAY_SECONDS = KlineInterval.D1.getSeconds();
+    private static final int SCALE = ColumnarSeries.PRICE_SCALE;
+    private static final long NULL = ColumnarSeries.NULL;
+    /** field 的值以时间戳开头, 只写入更新的记录 */
+    private static final RedisScript<Long> PUT_NEWER = new DefaultRedisScript<>(
+        "local n = 0\n"
+            + "for i = 1, #ARGV, 2 do\n"
+            + "  local old = redis.call('HGET', KEYS[1], ARGV[i])\n"
+            + "  if not old or tonumber(string.match(old, '^[^,]+')) <= tonumber(string.match(ARGV[i + 1], '^[^,]+')) then\n"
+            + "    redis.call('HSET', KEYS[1], ARGV[i], ARGV[i + 1])\n"
+            + "    n = n + 1\n"
+            + "  end\n"
+            + "end\n"
+            + "return n", Long.class);
+
+    private final SymbolRegistry symbols;
+    private final SymbolSlots<Quote> quotes = new SymbolSlots<>();
+    // 注册表已满时的兜底存储
+    private final Map<String, Quote> overflow = new ConcurrentHashMap<>();
+    private final boolean enabled;
+    private final StringRedisTemplate redisTemplate;
+    private final long flushIntervalMs;
+    private final int flushBatch;
+    private final ConcurrentLinkedQueue<Quote> dirty = new ConcurrentLinkedQueue<>();
+    private ScheduledExecutorService flusher;
+
+    private final AtomicLong ticks = new AtomicLong();
+    private final AtomicLong staleTicks = new AtomicLong();
+    private final AtomicLong duplicateTicks = new AtomicLong();
+    private final AtomicLong flushedQuotes = new AtomicLong();
+    private final AtomicLong failedFlushes = new AtomicLong();
+    private final AtomicLong remoteReads = new AtomicLong();
+    private volatile long warmed;
+
+    // 无参构造函数，用于测试
+    public LatestQuoteTable() {
+        this.symbols = new SymbolRegistry();
+        this.enabled = true;
+        this.redisTemplate = null;
+        this.flushIntervalMs = 200L;
+        this.flushBatch = 1000;
+    }
+
+    @Autowired
+    public LatestQuoteTable(Environment env, SymbolRegistry symbols, RedisKlineCache cache,
+                            StringRedisTemplate redisTemplate) {
+        this.symbols = symbols;
+        this.enabled = env.getProperty("app.latest.enabled", Boolean.class, true);
+        boolean mirror = enabled && cache.isExternalEnabled()
+            && env.getProperty("app.latest.redis", Boolean.class, true);
+        this.redisTemplate = mirror ? redisTemplate : null;
+        this.flushIntervalMs = Math.max(1L, env.getProperty("app.latest.flush-interval-ms", Long.class, 200L));
+        this.flushBatch = Math.max(1, env.getProperty("app.latest.flush-batch", Integer.class, 1000));
+    }
+
+    @PostConstruct
+    public void start() {
+        if (redisTemplate == null) return;
+        warm();
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "kline-latest-flusher");
+            t.setDaemon(true);
+            return t;
+        });
+        flusher.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+        log.info("LatestQuoteTable mirrored to {}: warmed={}, flushIntervalMs={}", HASH_KEY, warmed, flushIntervalMs);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (flusher == null) return;
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flushQuietly();
+    }
+
+    /**
+     * 喂入一笔已校验的成交
+     */
+    public void onTick(TimelineTick tick) {
+        if (!enabled || tick.getFixedPrice() == TimelineTick.NO_PRICE) return;
+        ticks.incrementAndGet();
+        Quote q = quote(tick.getStockCode(), tick.getMarketId());
+        if (q == null) return;
+        int r = q.apply(tick.getTs(), tick.getFixedPrice(), tick.getPriceScale(), tick.getVol(),
+            tick.getPartition(), tick.getOffset());
+        if (r == Quote.DUPLICATE) {
+            duplicateTicks.incrementAndGet();
+            return;
+        }
+        if (r == Quote.STALE) {
+            staleTicks.incrementAndGet();
+            return;
+        }
+        markDirty(q);
+    }
+
+    /**
+     * 查询一只股票的最新行情, 没有数据时返回 null
+     */
+    public Map<String, Object> get(String stockcode, String marketId) {
+        return getAll(Collections.singletonList(stockcode), Collections.singletonList(marketId)).get(0);
+    }
+
+    /**
+     * 批量查询, 结果与参数一一对应 (没有数据为 null); 本地缺失的股票用一次 HMGET 读取
+     */
+    public List<Map<String, Object>> getAll(List<String> stockcodes, List<String> marketIds) {
+        int n = stockcodes.size();
+        List<Map<String, Object>> out = new ArrayList<>(n);
+        List<Integer> misses = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            Quote q = enabled ? lookup(stockcodes.get(i), marketIds.get(i)) : null;
+            out.add(q == null ? null : q.toMap());
+            if (q == null) misses.add(i);
+        }
+        if (redisTemplate == null || misses.isEmpty()) return out;
+        List<Object> fields = new ArrayList<>(misses.size());
+        for (Integer i : misses) {
+            fields.add(SymbolRegistry.key(stockcodes.get(i), marketIds.get(i)));
+        }
+        try {
+            List<Object> values = redisTemplate.opsForHash().multiGet(HASH_KEY, fields);
+            remoteReads.incrementAndGet();
+            for (int j = 0; j < misses.size() && values != null && j < values.size(); j++) {
+                int i = misses.get(j);
+                Quote q = Quote.decode(stockcodes.get(i), marketIds.get(i), (String) values.get(j));
+                if (q != null) out.set(i, q.toMap());
+            }
+        } catch (Exception ignore) {
+            // Redis 不可用时只返回本地数据
+        }
+        return out;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("enabled", enabled);
+        m.put("redis", redisTemplate != null);
+        m.put("ticks", ticks.get());
+        m.put("staleTicks", staleTicks.get());
+        m.put("duplicateTicks", duplicateTicks.get());
+        m.put("dirty", dirty.size());
+        m.put("flushedQuotes", flushedQuotes.get());
+        m.put("failedFlushes", failedFlushes.get());
+        m.put("remoteReads", remoteReads.get());
+        m.put("warmed", warmed);
+        return m;
+    }
+
+    /**
+     * 把脏记录写入 Redis hash
+     *
+     * @return 写入的记录数
+     */
+    public int flush() {
+        if (redisTemplate == null) return 0;
+        int total = 0;
+        while (!dirty.isEmpty()) {
+            List<Quote> batch = new ArrayList<>(Math.min(flushBatch, 256));
+            List<String> args = new ArrayList<>();
+            Quote q;
+            while (batch.size() < flushBatch && (q = dirty.poll()) != null) {
+                // 先清标记再编码, 编码期间的更新会重新入队
+                q.dirty.set(false);
+                batch.add(q);
+                args.add(SymbolRegistry.key(q.stockCode, q.marketId));
+                args.add(q.encode());
+            }
+            if (batch.isEmpty()) break;
+            try {
+                redisTemplate.execute(PUT_NEWER, Collections.singletonList(HASH_KEY), args.toArray());
+                flushedQuotes.addAndGet(batch.size());
+                total += batch.size();
+            } catch (Exception e) {
+                failedFlushes.incrementAndGet();
+                batch.forEach(this::markDirty);
+                log.warn("Failed to mirror {} latest quotes to {}: {}", batch.size(), HASH_KEY, e.getMessage());
+                break;
+            }
+        }
+        return total;
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (Exception e) {
+            log.warn("Latest quote flush failed: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 启动预热: 一次 HGETALL, 时间戳更新的记录覆盖本地
+     */
+    private void warm() {
+        try {
+            Map<Object, Object> all = redisTemplate.opsForHash().entries(HASH_KEY);
+            long n = 0;
+            for (Map.Entry<Object, Object> e : all.entrySet()) {
+                String field = String.valueOf(e.getKey());
+                int sep = field.lastIndexOf(':');
+                if (sep <= 0) continue;
+                Quote loaded = Quote.decode(field.substring(0, sep), field.substring(sep + 1), (String) e.getValue());
+                Quote q = loaded == null ? null : quote(loaded.stockCode, loaded.marketId);
+                if (q != null && q.replaceIfOlder(loaded)) n++;
+            }
+            warmed = n;
+        } catch (Exception e) {
+            log.warn("Failed to warm latest quotes from {}: {}", HASH_KEY, e.getMessage());
+        }
+    }
+
+    private void markDirty(Quote q) {
+        if (redisTemplate != null && q.dirty.compareAndSet(false, true)) {
+            dirty.add(q);
+        }
+    }
+
+    private Quote quote(String stockcode, String marketId) {
+        SymbolRegistry.Symbol symbol = symbols.register(stockcode, marketId);
+        if (symbol == null) {
+            if (stockcode == null || marketId == null) return null;
+            return overflow.computeIfAbsent(SymbolRegistry.key(stockcode, marketId),
+                k -> new Quote(stockcode, marketId));
+        }
+        return quotes.computeIfAbsent(symbol.getId(), id -> new Quote(stockcode, marketId));
+    }
+
+    private Quote lookup(String stockcode, String marketId) {
+        SymbolRegistry.Symbol symbol = symbols.lookup(stockcode, marketId);
+        if (symbol != null) {
+            return quotes.get(symbol.getId());
+        }
+        return overflow.isEmpty() || stockcode == null || marketId == null
+            ? null : overflow.get(SymbolRegistry.key(stockcode, marketId));
+    }
+
+    /**
+     * 一只股票的最新行情, 价格为 10^{@value ColumnarSeries#PRICE_SCALE} 定点数
+     */
+    static final class Quote {
+        static final int APPLIED = 0;
+        static final int STALE = 1;
+        static final int DUPLICATE = 2;
+        private static final long[] NO_OFFSETS = new long[0];
+
+        final String stockCode;
+        final String marketId;
+        final AtomicBoolean dirty = new AtomicBoolean();
+        private long ts = Long.MIN_VALUE;
+        private long price;
+        private long open;
+        // 当日开盘成交的时间戳, 未知 (旧格式镜像) 时为 Long.MIN_VALUE
+        private long openTs = Long.MIN_VALUE;
+        private long high;
+        private long low;
+        private long prevClose = NULL;
+        private long vol;
+        private int scale;
+        // 按分区记录已采纳的最大位点, 下标为分区号, -1 表示没有
+        private long[] offsets = NO_OFFSETS;
+
+        Quote(String stockCode, String marketId) {
+            this.stockCode = stockCode;
+            this.marketId = marketId;
+        }
+
+        /**
+         * @param partition 来源分区, 未知时为 -1 (不去重)
+         * @return {@link #APPLIED}; 早于当前交易日的成交 {@link #STALE}; 已采纳过的位点 {@link #DUPLICATE}
+         */
+        synchronized int apply(long tickTs, long p, int sc, long v, int partition, long offset) {
+            if (isDuplicate(partition, offset)) {
+                return DUPLICATE;
+            }
+            long day = Math.floorDiv(tickTs, DAY_SECONDS);
+            if (ts == Long.MIN_VALUE || day > Math.floorDiv(ts, DAY_SECONDS)) {
+                // 昨收与当日价格共用 scale, 换日时不缩小, 避免昨收被按更少的小数位输出
+                scale = ts == Long.MIN_VALUE ? sc : Math.max(scale, sc);
+                if (ts != Long.MIN_VALUE) prevClose = price;
+                ts = openTs = tickTs;
+                price = open = high = low = p;
+                vol = v;
+                return APPLIED;
+            }
+            if (day < Math.floorDiv(ts, DAY_SECONDS)) {
+                return STALE;
+            }
+            high = Math.max(high, p);
+            low = Math.min(low, p);
+            vol += v;
+            scale = Math.max(scale, sc);
+            if (openTs != Long.MIN_VALUE && tickTs < openTs) {
+                openTs = tickTs;
+                open = p;
+            }
+            if (tickTs >= ts) {
+                ts = tickTs;
+                price = p;
+            }
+            return APPLIED;
+        }
+
+        private boolean isDuplicate(int partition, long offset) {
+            if (partition < 0 || offset < 0) return false;
+            if (partition >= offsets.length) {
+                int old = offsets.length;
+                offsets = Arrays.copyOf(offsets, partition + 1);
+                Arrays.fill(offsets, old, offsets.length, -1L);
+            }
+            if (offset <= offsets[partition]) {
+                return true;
+            }
+            offsets[partition] = offset;
+            return false;
+        }
+
+        synchronized boolean replaceIfOlder(Quote other) {
+            if (ts != Long.MIN_VALUE && ts >= other.ts) return false;
+            ts = other.ts;
+            price = other.price;
+            open = other.open;
+            high = other.high;
+            low = other.low;
+            prevClose = other.prevClose;
+            vol = other.vol;
+            scale = other.scale;
+            openTs = other.openTs;
+            long[] merged = Arrays.copyOf(other.offsets, Math.max(offsets.length, other.offsets.length));
+            for (int i = other.offsets.length; i < merged.length; i++) {
+                merged[i] = -1L;
+            }
+            for (int i = 0; i < offsets.length; i++) {
+                merged[i] = Math.max(merged[i], offsets[i]);
+            }
+            offsets = merged;
+            return true;
+        }
+
+        /**
+         * ts,price,open,high,low,prevClose,vol,scale,openTs,offsets; 昨收 / 开盘时间未知时为空,
+         * offsets 为 "分区:位点" 以 '|' 分隔
+         */
+        synchronized String encode() {
+            StringBuilder sb = new StringBuilder(96);
+            sb.append(ts).append(',').append(price).append(',').append(open).append(',').append(high).append(',')
+                .append(low).append(',').append(prevClose == NULL ? "" : Long.toString(prevClose)).append(',')
+                .append(vol).append(',').append(scale).append(',')
+                .append(openTs == Long.MIN_VALUE ? "" : Long.toString(openTs)).append(',');
+            boolean first = true;
+            for (int i = 0; i < offsets.length; i++) {
+                if (offsets[i] < 0) continue;
+                if (!first) sb.append('|');
+                sb.append(i).append(':').append(offsets[i]);
+                first = false;
+            }
+            return sb.toString();
+        }
+
+        /**
+         * 解析 {@link #encode} 的结果, 兼容不带开盘时间与位点的 8 字段旧格式; 格式错误时返回 null
+         */
+        static Quote decode(String stockCode, String marketId, String value) {
+            if (value == null) return null;
+            String[] f = value.split(",", -1);
+            if (f.length != 8 && f.length != 10) return null;
+            try {
+                Quote q = new Quote(stockCode, marketId);
+                q.ts = Long.parseLong(f[0]);
+                q.price = Long.parseLong(f[1]);
+                q.open = Long.parseLong(f[2]);
+                q.high = Long.parseLong(f[3]);
+                q.low = Long.parseLong(f[4]);
+                q.prevClose = f[5].isEmpty() ? NULL : Long.parseLong(f[5]);
+                q.vol = Long.parseLong(f[6]);
+                q.scale = Integer.parseInt(f[7]);
+                if (f.length == 10) {
+                    q.openTs = f[8].isEmpty() ? Long.MIN_VALUE : Long.parseLong(f[8]);
+                    if (!f[9].isEmpty()) {
+                        for (String po : f[9].split("\\|")) {
+                            int sep = po.indexOf(':');
+                            int partition = Integer.parseInt(po.substring(0, sep));
+                            if (partition < 0 || partition > 65535) return null;
+                            q.isDuplicate(partition, Long.parseLong(po.substring(sep + 1)));
+                        }
+                    }
+                }
+                return q;
+            } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+                return null;
+            }
+        }
+
+        /**
+         * 接口输出: 涨跌相对昨收, 昨收未知时相对当日开盘
+         */
+        synchronized Map<String, Object> toMap() {
+            if (ts == Long.MIN_VALUE) return null;
+            ZonedDateTime t = Instant.ofEpochSecond(ts).atZone(ZoneOffset.UTC);
+            long ref = prevClose != NULL ? prevClose : open;
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("stockCode", stockCode);
+            m.put("marketId", marketId);
+            m.put("price", ColumnarSeries.fromFixed(price, scale));
+            m.put("date", String.format("%04d%02d%02d", t.getYear(), t.getMonthValue(), t.getDayOfMonth()));
+            m.put("time", String.format("%02d%02d", t.getHour(), t.getMinute()));
+            m.put("ts", ts);
+            m.put("minute", KlineInterval.M1.bucketStart(ts));
+            m.put("open", ColumnarSeries.fromFixed(open, scale));
+            m.put("high", ColumnarSeries.fromFixed(high, scale));
+            m.put("low", ColumnarSeries.fromFixed(low, scale));
+            m.put("prevClose", prevClose == NULL ? null : ColumnarSeries.fromFixed(prevClose, scale));
+            m.put("change", ColumnarSeries.fromFixed(price - ref, scale));
+            m.put("changePct", ref == 0 ? null
+                : BigDecimal.valueOf((price - ref) * 100L).divide(BigDecimal.valueOf(ref), 2, RoundingMode.HALF_UP));
+            m.put("vol", vol);
+            return m;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.example.kline.modules.kline.infrastructure.cache;
+
+import com.example.kline.modules.kline.domain.entity.PricePoint;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 快照文件中单只股票的只读列式序列, 直接在 {@link FileChannel#map} 映射的页上查询
+ *
+ * 列布局与 {@link ColumnarSeries#writeColumns} 一致: count 个 ts/open/high/low/close/vol (long) 后接 count 个 scale (byte)。
+ * 首次访问时才映射对应区域, 查询二分 ts 列后只解码命中的点; 需要写入时用 {@link #materialize} 复制为 {@link ColumnarSeries}。
+ *
+ * @author xubohan@myhexin.com
+ * @date 2026-10-17 16:00:00
+ */
+public class MappedSeries {
+    private static final int LONG_COLUMNS = 6;
+
+    private final FileChannel channel;
+    private final long offset;
+    private final int count;
+    private volatile ByteBuffer buf;
+
+    /**
+     * @param channel 快照文件 (只读, 由调用方持有)
+     * @param offset  列数据起始位置 (count 字段之后)
+     * @param count   点数
+     */
+    public MappedSeries(FileChannel channel, long offset, int count) {
+        this.channel = channel;
+        this.offset = offset;
+        this.count = count;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /** 该序列在文件中占用的字节数 */
+    public long byteSize() {
+        return (long) count * (LONG_COLUMNS * 8 + 1);
+    }
+
+    /**
+     * 区间查询, 语义同 {@link ColumnarSeries#range}
+     */
+    public List<PricePoint> range(Long startTs, Long endTs, Integer limit) {
+        if (count == 0) return Collections.emptyList();
+        ByteBuffer b = buffer();
+        int from = startTs == null ? 0 : lowerBound(b, startTs);
+        int to = endTs == null ? count : upperBound(b, endTs);
+        if (limit != null && to - from > limit) {
+            to = from + limit;
+        }
+        if (from >= to) {
+            return Collections.emptyList();
+        }
+        List<PricePoint> out = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            int sc = b.get(scaleIndex(i));
+            long v = col(b, 5, i);
+            PricePoint p = new PricePoint();
+            p.setTs(col(b, 0, i));
+            p.setOpen(ColumnarSeries.fromFixed(col(b, 1, i), sc));
+            p.setHigh(ColumnarSeries.fromFixed(col(b, 2, i), sc));
+            p.setLow(ColumnarSeries.fromFixed(col(b, 3, i), sc));
+            p.setClose(ColumnarSeries.fromFixed(col(b, 4, i), sc));
+            p.setVol(v == ColumnarSeries.NULL ? null : v);
+            out.add(p);
+        }
+        return out;
+    }
+
+    /**
+     * 复制为可写的内存序列
+     */
+    public ColumnarSeries materialize() {
+        ByteBuffer b = buffer();
+        int cap = Math.max(1, count);
+        long[][] cols = new long[LONG_COLUMNS][];
+        for (int c = 0; c < LONG_COLUMNS; c++) {
+            cols[c] = new long[cap];
+            ByteBuffer slice = b.duplicate();
+            slice.position(c * count * 8).limit((c + 1) * count * 8);
+            slice.slice().asLongBuffer().get(cols[c], 0, count);
+        }
+        byte[] scale = new byte[cap];
+        ByteBuffer slice = b.duplicate();
+        slice.position(scaleIndex(0));
+        slice.get(scale, 0, count);
+        return new ColumnarSeries(cols[0], cols[1], cols[2], cols[3], cols[4], cols[5], scale, count);
+    }
+
+    /**
+     * 按 {@link ColumnarSeries#writeColumns} 的格式原样写出 (生成新快照时复用未改动的序列)
+     */
+    public int writeColumns(DataOutput out) throws IOException {
+        ByteBuffer b = buffer().duplicate();
+        b.clear();
+        out.writeInt(count);
+        byte[] chunk = new byte[64 * 1024];
+        while (b.hasRemaining()) {
+            int n = Math.min(chunk.length, b.remaining());
+            b.get(chunk, 0, n);
+            out.write(chunk, 0, n);
+        }
+        return count;
+    }
+
+    private ByteBuffer buffer() {
+        ByteBuffer b = buf;
+        if (b == null) {
+            synchronized (this) {
+                b = buf;
+                if (b == null) {
+                    try {
+                        MappedByteBuffer m = channel.map(FileChannel.MapMode.READ_ONLY, offset, byteSize());
+                        b = m;
+                        buf = b;
+                    } catch (IOException e) {
+                        throw new IllegalStateException("Failed to map snapshot region at " + offset, e);
+                    }
+                }
+            }
+        }
+        return b;
+    }
+
+    private long col(ByteBuffer b, int c, int i) {
+        return b.getLong((c * count + i) * 8);
+    }
+
+    private int scaleIndex(int i) {
+        return LONG_COLUMNS * count * 8 + i;
+    }
+
+    /** 第一个 ts >= key 的下标 */
+    private int lowerBound(ByteBuffer b, long key) {
+        int lo = 0, hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (col(b, 0, mid) < key) lo = mid + 1; else hi = mid;
+        }
+        return lo;
+    }
+
+    /** 第一个 ts > key 的下标 */
+    private int upperBound(ByteBuffer b, long key) {
+        int lo = 0, hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (col(b, 0, mid) <= key) lo = mid + 1; else hi = mid;
+        }
+        return lo;
+    }
+}
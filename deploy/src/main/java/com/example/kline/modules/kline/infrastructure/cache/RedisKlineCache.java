@@ -1,25 +1,37 @@
 package com.example.kline.modules.kline.infrastructure.cache;
 
+import com.example.kline.common.metrics.KlineMetrics;
+import com.example.kline.modules.kline.domain.entity.KlineInterval;
+import com.example.kline.modules.kline.domain.entity.KlineQuery;
 import com.example.kline.modules.kline.domain.entity.KlineResponse;
 import com.example.kline.modules.kline.domain.entity.PricePoint;
 import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Timer;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.env.Environment;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.ZSetOperations;
 import org.springframework.stereotype.Component;
 
+import java.io.IOException;
 import java.math.BigDecimal;
 import java.time.LocalDate;
 import java.time.LocalTime;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
@@ -28,32 +40,113 @@ import java.util.stream.Collectors;
  * K线数据Redis缓存
  * 
  * 使用Redis数据库0存储K线时间序列数据，与名称缓存(数据库1)分离
+ * 内存模式下每只股票使用 {@link ColumnarSeries} 列式存储
+ * 外部模式下可选开启 {@link KlineNearCache} 作为热点股票的进程内 L1 缓存
+ * 内存模式下可由 {@link KlineSnapshotStore} 挂载快照文件中的 {@link MappedSeries}, 重启后无需回放即可查询
+ *
+ * 写入为增量合并 (见 {@link #putBatch}), 不再整体覆盖序列
+ * 外部模式下分钟 ZSET 的 key 布局见 {@link KlineKeyLayout}; 按天分桶时区间查询只读取涉及的日桶, 凑够 limit 即停止
+ *
+ * 压缩存储 (app.compression.*, 默认关闭):
+ *   memory        内存序列把旧点封存为 {@link KlineBlock} 压缩块
+ *   redis-string  Redis 字符串值写为压缩块格式 (读取时按前缀自动识别, 兼容 JSON 数组)
+ *   block-size    每块点数 (默认 256)
  *
  * @author xubohan@myhexin.com
  * @date 2025-09-10 13:30:00
  */
 @Component
 public class RedisKlineCache {
-    private final Map<String, List<PricePoint>> store = new ConcurrentHashMap<>();
-    private static final ObjectMapper M = new ObjectMapper();
+    private final SymbolSlots<ColumnarSeries> store = new SymbolSlots<>();
+    // 注册表已满时的兜底存储
+    private final Map<String, ColumnarSeries> overflow = new ConcurrentHashMap<>();
+    // 快照文件映射的只读序列, 内存序列缺失时查询回退到这里
+    private final SymbolSlots<MappedSeries> snapshots = new SymbolSlots<>();
+    // PricePoint 序列化时带有派生属性 valid, 读回自己写入的字符串副本时忽略
+    private static final ObjectMapper M = new ObjectMapper()
+        .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
     private static final DateTimeFormatter DATE_FMT = DateTimeFormatter.ofPattern("yyyyMMdd");
     private static final DateTimeFormatter TIME_FMT = DateTimeFormatter.ofPattern("HHmm");
 
     private final boolean externalEnabled;
     private final StringRedisTemplate redisTemplate;
+    private final KlineNearCache nearCache;
+    private final SymbolRegistry symbols;
+    private final KlineKeyLayout layout;
+    private final boolean stringCopy;
+    private final boolean compressMemory;
+    private final boolean compressRedisString;
+    private final int blockSize;
+    // 保留期管理写入的降采样层级 (app.retention.tiers), 仅开启保留期时查询
+    private final Set<KlineInterval> tiers = EnumSet.noneOf(KlineInterval.class);
+
+    // kline.redis.op{component=cache} 计时器, 构造时解析好避免热点路径查找
+    private final Timer zrangeTimer;
+    private final Timer getTimer;
+    private final Timer nearLoadTimer;
+    private final Timer pipelineZrangeTimer;
+    private final Timer mgetTimer;
+    private final Timer setTimer;
+    private final Timer dayBucketTimer;
 
     // 无参构造函数，用于测试
     public RedisKlineCache() {
         this.externalEnabled = Boolean.parseBoolean(getProp("app.redis.external", "false"));
         this.redisTemplate = null;
+        this.nearCache = new KlineNearCache();
+        this.symbols = new SymbolRegistry();
+        this.layout = KlineKeyLayout.single();
+        this.stringCopy = Boolean.parseBoolean(getProp("app.redis.string-copy.enabled", "false"));
+        this.compressMemory = Boolean.parseBoolean(getProp("app.compression.memory", "false"));
+        this.compressRedisString = Boolean.parseBoolean(getProp("app.compression.redis-string", "false"));
+        this.blockSize = Math.max(1, Integer.parseInt(getProp("app.compression.block-size", "256")));
+        KlineMetrics metrics = new KlineMetrics();
+        this.zrangeTimer = opTimer(metrics, "zrange_by_score");
+        this.getTimer = opTimer(metrics, "get");
+        this.nearLoadTimer = opTimer(metrics, "near_load");
+        this.pipelineZrangeTimer = opTimer(metrics, "pipeline_zrange_by_score");
+        this.mgetTimer = opTimer(metrics, "mget");
+        this.setTimer = opTimer(metrics, "set");
+        this.dayBucketTimer = opTimer(metrics, "pipeline_day_buckets");
     }
 
-    @Autowired
     public RedisKlineCache(Environment env, StringRedisTemplate redisTemplate) {
+        this(env, redisTemplate, new KlineNearCache(), new SymbolRegistry());
+    }
+
+    public RedisKlineCache(Environment env, StringRedisTemplate redisTemplate, KlineNearCache nearCache,
+                           SymbolRegistry symbols) {
+        this(env, redisTemplate, nearCache, symbols, new KlineMetrics());
+    }
+
+    @Autowired
+    public RedisKlineCache(Environment env, StringRedisTemplate redisTemplate, KlineNearCache nearCache,
+                           SymbolRegistry symbols, KlineMetrics metrics) {
         boolean fromSpring = env.getProperty("app.redis.external", Boolean.class, false);
         boolean fromSys = Boolean.parseBoolean(getProp("app.redis.external", "false"));
         this.externalEnabled = fromSpring || fromSys;
         this.redisTemplate = externalEnabled ? redisTemplate : null;
+        this.nearCache = nearCache;
+        this.symbols = symbols;
+        this.layout = KlineKeyLayout.from(env);
+        this.stringCopy = env.getProperty("app.redis.string-copy.enabled", Boolean.class, false);
+        this.compressMemory = env.getProperty("app.compression.memory", Boolean.class, false);
+        this.compressRedisString = env.getProperty("app.compression.redis-string", Boolean.class, false);
+        this.blockSize = Math.max(1, env.getProperty("app.compression.block-size", Integer.class, 256));
+        if (env.getProperty("app.retention.enabled", Boolean.class, false)) {
+            tiers.addAll(Arrays.asList(KlineRetentionManager.parseTiers(env.getProperty("app.retention.tiers", "1d"))));
+        }
+        this.zrangeTimer = opTimer(metrics, "zrange_by_score");
+        this.getTimer = opTimer(metrics, "get");
+        this.nearLoadTimer = opTimer(metrics, "near_load");
+        this.pipelineZrangeTimer = opTimer(metrics, "pipeline_zrange_by_score");
+        this.mgetTimer = opTimer(metrics, "mget");
+        this.setTimer = opTimer(metrics, "set");
+        this.dayBucketTimer = opTimer(metrics, "pipeline_day_buckets");
+    }
+
+    private static Timer opTimer(KlineMetrics metrics, String op) {
+        return metrics.timer("kline.redis.op", "component", "cache", "op", op);
     }
 
     public KlineResponse getRange(String stockcode, String marketId, Long startTs, Long endTs, Integer limit) {
@@ -64,19 +157,292 @@ public class RedisKlineCache {
             // invalid limit -> return empty response by convention
             return new KlineResponse();
         }
-        List<PricePoint> list;
+        List<PricePoint> range;
         if (externalEnabled) {
+            ColumnarSeries cached = nearCache.isEnabled() ? nearSeries(stockcode, marketId) : null;
+            if (cached != null) {
+                range = cached.range(startTs, endTs, limit);
+                KlineResponse resp = new KlineResponse();
+                resp.setStockcode(stockcode);
+                resp.setMarketId(marketId);
+                range.forEach(resp::addPricePoint);
+                return resp;
+            }
             // Prefer ZSET storage per contract; fallback to string value if not present
-            list = loadFromZSet(stockcode, marketId, startTs, endTs, limit);
+            List<PricePoint> list = loadFromZSet(stockcode, marketId, startTs, endTs, limit);
             if (list == null || list.isEmpty()) {
-                list = loadFromRedisString(stockcode, marketId);
+                list = loadFromRedisString(stockcode, marketId, startTs, endTs, limit);
+            }
+            if (list == null) {
+                return new KlineResponse();
             }
+            range = filterRange(list, startTs, endTs, limit);
         } else {
-            list = store.get(key(stockcode, marketId));
+            // In-memory columnar series: binary search + slice, already sorted
+            ColumnarSeries series = memorySeries(stockcode, marketId);
+            if (series != null) {
+                range = series.range(startTs, endTs, limit);
+            } else {
+                MappedSeries mapped = snapshotSeries(stockcode, marketId);
+                if (mapped == null) {
+                    return new KlineResponse();
+                }
+                range = mapped.range(startTs, endTs, limit);
+            }
         }
-        if (list == null) {
-            return new KlineResponse();
+        KlineResponse resp = new KlineResponse();
+        resp.setStockcode(stockcode);
+        resp.setMarketId(marketId);
+        range.forEach(resp::addPricePoint);
+        return resp;
+    }
+
+    /**
+     * 批量区间查询, 结果与 queries 一一对应
+     *
+     * 外部模式下近端缓存命中的直接切片, 其余在一个 pipeline 中执行全部 ZRANGEBYSCORE,
+     * ZSET 为空的再用一个 pipeline 批量 GET 字符串兜底; 批量路径不触发近端缓存加载
+     */
+    public List<KlineResponse> getRanges(List<KlineQuery> queries) {
+        List<KlineResponse> out = new ArrayList<>(queries.size());
+        if (!externalEnabled || redisTemplate == null) {
+            for (KlineQuery q : queries) {
+                out.add(getRange(q.getStockcode(), q.getMarketId(), q.getStartTs(), q.getEndTs(), q.getLimit()));
+            }
+            return out;
+        }
+        List<Integer> pending = new ArrayList<>();
+        for (int i = 0; i < queries.size(); i++) {
+            KlineQuery q = queries.get(i);
+            ColumnarSeries cached = nearCache.isEnabled() ? nearCache.get(key(q.getStockcode(), q.getMarketId())) : null;
+            if (cached != null) {
+                out.add(toResponse(q, cached.range(q.getStartTs(), q.getEndTs(), q.getLimit())));
+            } else {
+                out.add(null);
+                if (isValidQuery(q)) pending.add(i);
+            }
+        }
+        if (!pending.isEmpty()) {
+            List<List<PricePoint>> lists = pipelineZSets(queries, pending);
+            List<Integer> fallback = new ArrayList<>();
+            for (int j = 0; j < pending.size(); j++) {
+                List<PricePoint> list = lists.get(j);
+                if (list == null || list.isEmpty()) {
+                    fallback.add(pending.get(j));
+                } else {
+                    KlineQuery q = queries.get(pending.get(j));
+                    out.set(pending.get(j), toResponse(q, filterRange(list, q.getStartTs(), q.getEndTs(), q.getLimit())));
+                }
+            }
+            if (!fallback.isEmpty()) {
+                List<List<PricePoint>> strings = multiGetStrings(queries, fallback);
+                for (int j = 0; j < fallback.size(); j++) {
+                    List<PricePoint> list = strings.get(j);
+                    if (list != null) {
+                        KlineQuery q = queries.get(fallback.get(j));
+                        out.set(fallback.get(j), toResponse(q, filterRange(list, q.getStartTs(), q.getEndTs(), q.getLimit())));
+                    }
+                }
+            }
         }
+        for (int i = 0; i < out.size(); i++) {
+            if (out.get(i) == null) out.set(i, new KlineResponse());
+        }
+        return out;
+    }
+
+    private static boolean isValidQuery(KlineQuery q) {
+        return q.getStockcode() != null && !q.getStockcode().trim().isEmpty()
+            && q.getMarketId() != null && !q.getMarketId().trim().isEmpty()
+            && (q.getLimit() == null || q.getLimit() >= 0);
+    }
+
+    private static KlineResponse toResponse(KlineQuery q, List<PricePoint> range) {
+        KlineResponse resp = new KlineResponse();
+        resp.setStockcode(q.getStockcode());
+        resp.setMarketId(q.getMarketId());
+        range.forEach(resp::addPricePoint);
+        return resp;
+    }
+
+    private List<List<PricePoint>> pipelineZSets(List<KlineQuery> queries, List<Integer> indexes) {
+        if (layout.isDayBuckets()) {
+            List<KlineQuery> sub = new ArrayList<>(indexes.size());
+            for (Integer i : indexes) sub.add(queries.get(i));
+            return fetchDayBuckets(sub);
+        }
+        List<List<PricePoint>> out = new ArrayList<>(indexes.size());
+        long begin = System.nanoTime();
+        try {
+            List<Object> res = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                for (Integer i : indexes) {
+                    KlineQuery q = queries.get(i);
+                    String k = redisZSetKey(q.getStockcode(), q.getMarketId());
+                    double min = (q.getStartTs() == null) ? Double.NEGATIVE_INFINITY : (double) (q.getStartTs() / 60L);
+                    double max = (q.getEndTs() == null) ? Double.POSITIVE_INFINITY : (double) (q.getEndTs() / 60L);
+                    if (q.getLimit() != null) {
+                        conn.zRangeByScoreWithScores(k, min, max, 0, q.getLimit());
+                    } else {
+                        conn.zRangeByScoreWithScores(k, min, max);
+                    }
+                }
+                return null;
+            });
+            for (Object r : res) {
+                out.add(decodeTuples(r));
+            }
+        } catch (Exception e) {
+            // treat as empty, callers fall back to the string values
+            for (int j = out.size(); j < indexes.size(); j++) out.add(null);
+        } finally {
+            KlineMetrics.record(pipelineZrangeTimer, begin);
+        }
+        return out;
+    }
+
+    /**
+     * 日桶布局的区间查询, 结果与 queries 一一对应 (按时间升序, 读取失败为 null)
+     *
+     * 先确定每个查询涉及的日期: 两端都给出且跨度不超过 max-span-days 时直接枚举, 否则用一个 pipeline 读日期索引;
+     * 之后每轮用一个 pipeline 为所有未完成的查询各读取 fetch-days 个日桶, 已凑够 limit 的查询不再参与下一轮
+     */
+    private List<List<PricePoint>> fetchDayBuckets(List<KlineQuery> queries) {
+        int n = queries.size();
+        long[][] days = new long[n][];
+        int[] remaining = new int[n];
+        List<Integer> indexed = new ArrayList<>();
+        List<List<PricePoint>> out = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            KlineQuery q = queries.get(i);
+            out.add(new ArrayList<>());
+            remaining[i] = q.getLimit() == null ? Integer.MAX_VALUE : q.getLimit();
+            if (q.getStartTs() != null && q.getEndTs() != null
+                && KlineKeyLayout.day(q.getEndTs()) - KlineKeyLayout.day(q.getStartTs()) < layout.getMaxSpanDays()) {
+                long from = KlineKeyLayout.day(q.getStartTs());
+                days[i] = new long[(int) Math.max(0L, KlineKeyLayout.day(q.getEndTs()) - from + 1)];
+                for (int k = 0; k < days[i].length; k++) days[i][k] = from + k;
+            } else {
+                indexed.add(i);
+            }
+        }
+        long begin = System.nanoTime();
+        try {
+            if (!indexed.isEmpty()) {
+                List<Object> res = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    StringRedisConnection conn = (StringRedisConnection) connection;
+                    for (Integer i : indexed) {
+                        KlineQuery q = queries.get(i);
+                        conn.zRangeByScoreWithScores(KlineKeyLayout.indexKey(q.getStockcode(), q.getMarketId()),
+                            q.getStartTs() == null ? Double.NEGATIVE_INFINITY : KlineKeyLayout.day(q.getStartTs()),
+                            q.getEndTs() == null ? Double.POSITIVE_INFINITY : KlineKeyLayout.day(q.getEndTs()));
+                    }
+                    return null;
+                });
+                for (int j = 0; j < indexed.size(); j++) {
+                    days[indexed.get(j)] = scores(res.get(j));
+                }
+            }
+            int[] next = new int[n];
+            List<Integer> active = new ArrayList<>();
+            for (int i = 0; i < n; i++) {
+                if (days[i].length > 0 && remaining[i] > 0) active.add(i);
+            }
+            int step = layout.getFetchDays();
+            while (!active.isEmpty()) {
+                List<Integer> wave = active;
+                List<Object> res = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    StringRedisConnection conn = (StringRedisConnection) connection;
+                    for (Integer i : wave) {
+                        KlineQuery q = queries.get(i);
+                        double min = q.getStartTs() == null ? Double.NEGATIVE_INFINITY : (double) (q.getStartTs() / 60L);
+                        double max = q.getEndTs() == null ? Double.POSITIVE_INFINITY : (double) (q.getEndTs() / 60L);
+                        for (int k = next[i], to = Math.min(days[i].length, next[i] + step); k < to; k++) {
+                            String key = KlineKeyLayout.dayKey(q.getStockcode(), q.getMarketId(), days[i][k]);
+                            if (remaining[i] != Integer.MAX_VALUE) {
+                                conn.zRangeByScoreWithScores(key, min, max, 0, remaining[i]);
+                            } else {
+                                conn.zRangeByScoreWithScores(key, min, max);
+                            }
+                        }
+                    }
+                    return null;
+                });
+                int r = 0;
+                active = new ArrayList<>();
+                for (Integer i : wave) {
+                    int to = Math.min(days[i].length, next[i] + step);
+                    for (int k = next[i]; k < to; k++) {
+                        for (PricePoint p : decodeTuples(res.get(r++))) {
+                            if (remaining[i] <= 0) break;
+                            out.get(i).add(p);
+                            remaining[i]--;
+                        }
+                    }
+                    next[i] = to;
+                    if (remaining[i] > 0 && next[i] < days[i].length) active.add(i);
+                }
+            }
+        } catch (Exception e) {
+            // treat as missing, callers fall back to the string values
+            for (int i = 0; i < n; i++) out.set(i, null);
+        } finally {
+            KlineMetrics.record(dayBucketTimer, begin);
+        }
+        return out;
+    }
+
+    /** 日期索引 ZRANGEBYSCORE WITHSCORES 结果中的 epoch day */
+    private static long[] scores(Object tuples) {
+        List<Long> out = new ArrayList<>();
+        if (tuples instanceof Iterable) {
+            for (Object o : (Iterable<?>) tuples) {
+                Double score = null;
+                if (o instanceof ZSetOperations.TypedTuple) {
+                    score = ((ZSetOperations.TypedTuple<?>) o).getScore();
+                } else if (o instanceof StringRedisConnection.StringTuple) {
+                    score = ((StringRedisConnection.StringTuple) o).getScore();
+                }
+                if (score != null) out.add(score.longValue());
+            }
+        }
+        long[] days = new long[out.size()];
+        for (int i = 0; i < days.length; i++) days[i] = out.get(i);
+        return days;
+    }
+
+    private List<List<PricePoint>> multiGetStrings(List<KlineQuery> queries, List<Integer> indexes) {
+        List<List<PricePoint>> out = new ArrayList<>(indexes.size());
+        List<String> keys = new ArrayList<>(indexes.size());
+        for (Integer i : indexes) {
+            keys.add(redisDataKey(queries.get(i).getStockcode(), queries.get(i).getMarketId()));
+        }
+        List<String> values = null;
+        long begin = System.nanoTime();
+        try {
+            values = redisTemplate.opsForValue().multiGet(keys);
+        } catch (Exception ignore) {
+            // all missing
+        } finally {
+            KlineMetrics.record(mgetTimer, begin);
+        }
+        for (int j = 0; j < indexes.size(); j++) {
+            String val = values == null || j >= values.size() ? null : values.get(j);
+            List<PricePoint> list = null;
+            if (val != null) {
+                KlineQuery q = queries.get(indexes.get(j));
+                try {
+                    list = decodeValue(val, q.getStartTs(), q.getEndTs(), q.getLimit());
+                } catch (Exception ignore) {
+                    // unparsable value counts as missing
+                }
+            }
+            out.add(list);
+        }
+        return out;
+    }
+
+    private static List<PricePoint> filterRange(List<PricePoint> list, Long startTs, Long endTs, Integer limit) {
         List<PricePoint> range = list.stream()
             .filter(p -> p != null && p.getTs() != null)
             .filter(p -> (startTs == null || p.getTs() >= startTs)
@@ -86,43 +452,264 @@ public class RedisKlineCache {
         if (limit != null && range.size() > limit) {
             range = range.subList(0, limit);
         }
-        KlineResponse resp = new KlineResponse();
-        resp.setStockcode(stockcode);
-        resp.setMarketId(marketId);
-        range.forEach(resp::addPricePoint);
-        return resp;
+        return range;
     }
 
+    /**
+     * 增量写入: 按时间戳合并到已有序列, 同一分钟覆盖
+     *
+     * 内存模式下逐点 upsert 到 {@link #liveSeries} (末尾追加 O(1), 乱序 O(log n) 定位)。
+     * 外部模式下分钟 ZSET 由 {@link TimelineRedisWriter} 逐分钟写入, 近端缓存也由 writer 在 ZSET 写入成功后打补丁
+     * (此处先打补丁会让补丁早于写后缓冲的 flush, 期间开始的加载读到旧数据后仍被放入缓存);
+     * 开启 app.redis.string-copy.enabled 时额外维护 kline:{stockCode}:{marketId} 字符串副本 (读-合并-写, 开销与序列长度成正比)
+     */
     public void putBatch(KlineResponse response, long ttlSec) {
+        if (response.getData() == null || response.getData().isEmpty()) return;
         if (externalEnabled && redisTemplate != null) {
-            // Optional: write to Redis as array of simple points (ts, open, high, low, close, vol)
-            String k = redisDataKey(response.getStockcode(), response.getMarketId());
             try {
-                String json = M.writeValueAsString(response.getData());
-                if (ttlSec > 0) {
-                    redisTemplate.opsForValue().set(k, json, ttlSec, TimeUnit.SECONDS);
-                } else {
-                    redisTemplate.opsForValue().set(k, json);
+                if (stringCopy) {
+                    writeStringCopy(response, ttlSec);
                 }
                 return;
             } catch (Exception ignore) {
                 // fall through to in-memory
             }
         }
-        store.put(key(response.getStockcode(), response.getMarketId()), new ArrayList<>(response.getData()));
+        ColumnarSeries series = liveSeries(response.getStockcode(), response.getMarketId());
+        for (PricePoint p : response.getData()) {
+            series.upsert(p);
+        }
+    }
+
+    private void writeStringCopy(KlineResponse response, long ttlSec) throws IOException {
+        String k = redisDataKey(response.getStockcode(), response.getMarketId());
+        TreeMap<Long, PricePoint> merged = new TreeMap<>();
+        List<PricePoint> existing = loadFromRedisString(response.getStockcode(), response.getMarketId(), null, null, null);
+        for (List<PricePoint> part : Arrays.asList(existing, response.getData())) {
+            if (part == null) continue;
+            for (PricePoint p : part) {
+                if (p != null && p.getTs() != null) merged.put(p.getTs(), p);
+            }
+        }
+        List<PricePoint> points = new ArrayList<>(merged.values());
+        String value = compressRedisString ? KlineBlock.encodeValue(points, blockSize) : M.writeValueAsString(points);
+        long begin = System.nanoTime();
+        if (ttlSec > 0) {
+            redisTemplate.opsForValue().set(k, value, ttlSec, TimeUnit.SECONDS);
+        } else {
+            redisTemplate.opsForValue().set(k, value);
+        }
+        KlineMetrics.record(setTimer, begin);
+    }
+
+    // 按配置开启内存序列的压缩封存
+    private ColumnarSeries sealed(ColumnarSeries series) {
+        if (compressMemory) {
+            series.setBlockSize(blockSize);
+        }
+        return series;
+    }
+
+    private ColumnarSeries memorySeries(String stockcode, String marketId) {
+        SymbolRegistry.Symbol symbol = symbols.lookup(stockcode, marketId);
+        if (symbol != null) {
+            return store.get(symbol.getId());
+        }
+        return overflow.isEmpty() ? null : overflow.get(key(stockcode, marketId));
+    }
+
+    private MappedSeries snapshotSeries(String stockcode, String marketId) {
+        SymbolRegistry.Symbol symbol = symbols.lookup(stockcode, marketId);
+        return symbol != null ? snapshots.get(symbol.getId()) : null;
+    }
+
+    public boolean isExternalEnabled() {
+        return externalEnabled;
+    }
+
+    /**
+     * 挂载快照中的序列; 已有内存序列的股票忽略, 注册表已满时复制到兜底存储
+     *
+     * @return 是否挂载
+     */
+    public boolean attachSnapshot(String stockcode, String marketId, MappedSeries series) {
+        SymbolRegistry.Symbol symbol = symbols.register(stockcode, marketId);
+        if (symbol == null) {
+            return overflow.putIfAbsent(key(stockcode, marketId), sealed(series.materialize())) == null;
+        }
+        if (store.get(symbol.getId()) != null) {
+            return false;
+        }
+        snapshots.set(symbol.getId(), series);
+        return true;
+    }
+
+    /**
+     * 内存模式下取可写序列: 不存在时新建, 仅有快照映射时先物化为内存序列; 注册表已满时落到兜底存储
+     */
+    public ColumnarSeries liveSeries(String stockcode, String marketId) {
+        SymbolRegistry.Symbol symbol = symbols.register(stockcode, marketId);
+        if (symbol == null) {
+            return overflow.computeIfAbsent(key(stockcode, marketId), k -> sealed(new ColumnarSeries()));
+        }
+        int id = symbol.getId();
+        ColumnarSeries series = store.computeIfAbsent(id, i -> {
+            MappedSeries mapped = snapshots.get(i);
+            return sealed(mapped != null ? mapped.materialize() : new ColumnarSeries());
+        });
+        // 内存序列发布后再摘掉映射, 查询不会看到两者都为空的窗口
+        if (snapshots.get(id) != null) {
+            snapshots.set(id, null);
+        }
+        return series;
+    }
+
+    /**
+     * 内存模式占用: {内存序列数, 内存序列字节数, 快照映射序列数, 快照映射字节数}
+     */
+    public long[] memoryUsage() {
+        long liveCount = 0, liveBytes = 0, mappedCount = 0, mappedBytes = 0;
+        for (int id = 0, n = symbols.size(); id < n; id++) {
+            ColumnarSeries live = store.get(id);
+            if (live != null) {
+                liveCount++;
+                liveBytes += live.estimatedBytes();
+                continue;
+            }
+            MappedSeries mapped = snapshots.get(id);
+            if (mapped != null) {
+                mappedCount++;
+                mappedBytes += mapped.byteSize();
+            }
+        }
+        for (ColumnarSeries s : overflow.values()) {
+            liveCount++;
+            liveBytes += s.estimatedBytes();
+        }
+        return new long[]{liveCount, liveBytes, mappedCount, mappedBytes};
+    }
+
+    /**
+     * 遍历内存模式下的全部序列 (供快照写出); 每只股票只回调一次,
+     * live 与 mapped 至多一个非空
+     */
+    public void forEachSeries(SeriesVisitor visitor) throws IOException {
+        for (int id = 0, n = symbols.size(); id < n; id++) {
+            SymbolRegistry.Symbol symbol = symbols.byId(id);
+            if (symbol == null) continue;
+            ColumnarSeries live = store.get(id);
+            MappedSeries mapped = live == null ? snapshots.get(id) : null;
+            if (live != null || mapped != null) {
+                visitor.visit(symbol.getStockCode(), symbol.getMarketId(), live, mapped);
+            }
+        }
+        for (Map.Entry<String, ColumnarSeries> e : overflow.entrySet()) {
+            String k = e.getKey();
+            int sep = k.lastIndexOf(':');
+            visitor.visit(k.substring(0, sep), k.substring(sep + 1), e.getValue(), null);
+        }
+    }
+
+    /**
+     * 序列遍历回调
+     */
+    public interface SeriesVisitor {
+        void visit(String stockcode, String marketId, ColumnarSeries live, MappedSeries mapped) throws IOException;
+    }
+
+    /**
+     * 从近端缓存取整条序列; 未命中时用一次 pipeline (ZCARD + ZRANGE 0 max-1) 加载,
+     * 序列超过 max-points 时返回 null 走原有按区间查询路径
+     */
+    private ColumnarSeries nearSeries(String stockcode, String marketId) {
+        String key = key(stockcode, marketId);
+        ColumnarSeries cached = nearCache.get(key);
+        if (cached != null || redisTemplate == null) {
+            return cached;
+        }
+        long version = nearCache.beginLoad(key);
+        String zk = redisZSetKey(stockcode, marketId);
+        int max = nearCache.getMaxPoints();
+        if (layout.isDayBuckets()) {
+            List<PricePoint> list = fetchDayBuckets(Collections.singletonList(
+                new KlineQuery(stockcode, marketId, null, null, max + 1))).get(0);
+            if (list != null && list.size() > max) {
+                nearCache.markUncacheable();
+                return null;
+            }
+            if (list == null || list.isEmpty()) {
+                list = loadFromRedisString(stockcode, marketId, null, null, null);
+            }
+            if (list == null || list.isEmpty()) {
+                return null;
+            }
+            ColumnarSeries series = ColumnarSeries.of(list);
+            nearCache.put(key, series, version);
+            return series;
+        }
+        try {
+            long begin = System.nanoTime();
+            List<Object> res = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                conn.zCard(zk);
+                conn.zRangeWithScores(zk, 0, max - 1);
+                return null;
+            });
+            KlineMetrics.record(nearLoadTimer, begin);
+            long card = res.get(0) == null ? 0L : ((Number) res.get(0)).longValue();
+            if (card > max) {
+                nearCache.markUncacheable();
+                return null;
+            }
+            List<PricePoint> list = card > 0 ? decodeTuples(res.get(1))
+                : loadFromRedisString(stockcode, marketId, null, null, null);
+            if (list == null || list.isEmpty()) {
+                return null;
+            }
+            ColumnarSeries series = ColumnarSeries.of(list);
+            nearCache.put(key, series, version);
+            return series;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static List<PricePoint> decodeTuples(Object tuples) {
+        List<PricePoint> out = new ArrayList<>();
+        if (!(tuples instanceof Iterable)) return out;
+        for (Object o : (Iterable<?>) tuples) {
+            String member = null;
+            Double score = null;
+            if (o instanceof ZSetOperations.TypedTuple) {
+                ZSetOperations.TypedTuple<?> t = (ZSetOperations.TypedTuple<?>) o;
+                member = t.getValue() == null ? null : t.getValue().toString();
+                score = t.getScore();
+            } else if (o instanceof StringRedisConnection.StringTuple) {
+                StringRedisConnection.StringTuple t = (StringRedisConnection.StringTuple) o;
+                member = t.getValueAsString();
+                score = t.getScore();
+            }
+            PricePoint p = KlineMemberCodec.decode(member, score);
+            if (p != null) out.add(p);
+        }
+        return out;
     }
 
+    // 已注册股票直接取预构建的 key, 否则按字符串拼接
     private String key(String stockcode, String marketId) {
-        return stockcode + ":" + marketId;
+        SymbolRegistry.Symbol symbol = symbols.lookup(stockcode, marketId);
+        return symbol != null ? symbol.getKey() : SymbolRegistry.key(stockcode, marketId);
     }
 
     private String redisDataKey(String stockcode, String marketId) {
-        return "kline:" + key(stockcode, marketId);
+        SymbolRegistry.Symbol symbol = symbols.lookup(stockcode, marketId);
+        return symbol != null ? symbol.getDataKey() : SymbolRegistry.dataKey(stockcode, marketId);
     }
 
     private String redisZSetKey(String stockcode, String marketId) {
         // per contract: kline:1m:{marketId}:{stockCode}
-        return "kline:1m:" + marketId + ":" + stockcode;
+        SymbolRegistry.Symbol symbol = symbols.lookup(stockcode, marketId);
+        return symbol != null ? symbol.getZsetKey() : SymbolRegistry.zsetKey(stockcode, marketId);
     }
 
     private static String getProp(String key, String def) {
@@ -131,44 +718,68 @@ public class RedisKlineCache {
         return v != null ? v : def;
     }
 
-    private List<PricePoint> loadFromRedisString(String stockcode, String marketId) {
+    private List<PricePoint> loadFromRedisString(String stockcode, String marketId, Long startTs, Long endTs,
+                                                 Integer limit) {
         if (redisTemplate == null) return null;
         String k = redisDataKey(stockcode, marketId);
         try {
+            long begin = System.nanoTime();
             String val = redisTemplate.opsForValue().get(k);
+            KlineMetrics.record(getTimer, begin);
             if (val == null) return null;
-            return parsePoints(val);
+            return decodeValue(val, startTs, endTs, limit);
         } catch (Exception e) {
             return null;
         }
     }
 
+    /**
+     * 降采样层级区间查询 (kline:{interval}:{marketId}:{stockCode}, 由 {@link KlineRetentionManager} 写入);
+     * 内存模式或该层级未开启时返回空列表
+     */
+    public List<PricePoint> getTierRange(String stockcode, String marketId, KlineInterval interval,
+                                         Long startTs, Long endTs, Integer limit) {
+        if (redisTemplate == null || !tiers.contains(interval) || (limit != null && limit <= 0)
+            || (startTs != null && endTs != null && endTs < startTs)) {
+            return Collections.emptyList();
+        }
+        List<PricePoint> list = loadFromZSetKey(SymbolRegistry.tierKey(stockcode, marketId, interval),
+            startTs, endTs, limit);
+        return list == null ? Collections.emptyList() : list;
+    }
+
     private List<PricePoint> loadFromZSet(String stockcode, String marketId, Long startTs, Long endTs, Integer limit) {
         if (redisTemplate == null) return null;
-        String k = redisZSetKey(stockcode, marketId);
+        if (layout.isDayBuckets()) {
+            return fetchDayBuckets(Collections.singletonList(
+                new KlineQuery(stockcode, marketId, startTs, endTs, limit))).get(0);
+        }
+        return loadFromZSetKey(redisZSetKey(stockcode, marketId), startTs, endTs, limit);
+    }
+
+    private List<PricePoint> loadFromZSetKey(String k, Long startTs, Long endTs, Integer limit) {
         try {
             double min = (startTs == null) ? Double.NEGATIVE_INFINITY : (double) (startTs / 60L);
             double max = (endTs == null) ? Double.POSITIVE_INFINITY : (double) (endTs / 60L);
             
             Set<ZSetOperations.TypedTuple<String>> tuples;
+            long begin = System.nanoTime();
             if (limit != null && limit >= 0) {
                 tuples = redisTemplate.opsForZSet().rangeByScoreWithScores(k, min, max, 0, limit);
             } else {
                 tuples = redisTemplate.opsForZSet().rangeByScoreWithScores(k, min, max);
             }
+            KlineMetrics.record(zrangeTimer, begin);
             
             if (tuples == null || tuples.isEmpty()) return new ArrayList<>();
             
             List<PricePoint> out = new ArrayList<>(tuples.size());
             for (ZSetOperations.TypedTuple<String> t : tuples) {
-                long ts = (long) (t.getScore() != null ? t.getScore() : 0) * 60L;
-                String priceStr = t.getValue();
-                PricePoint p = new PricePoint();
-                p.setTs(ts);
-                java.math.BigDecimal price = null;
-                try { price = new java.math.BigDecimal(priceStr); } catch (Exception ignore) {}
-                p.setOpen(price); p.setHigh(price); p.setLow(price); p.setClose(price); p.setVol(0L);
-                out.add(p);
+                // 自动识别 v2/v1 OHLCV 编码与旧版价格成员
+                PricePoint p = KlineMemberCodec.decode(t.getValue(), t.getScore());
+                if (p != null) {
+                    out.add(p);
+                }
             }
             return out;
         } catch (Exception e) {
@@ -176,7 +787,18 @@ public class RedisKlineCache {
         }
     }
 
-    private List<PricePoint> parsePoints(String json) throws Exception {
+    /**
+     * 解析字符串值: 压缩块格式只解码与区间重叠的块, 否则按 JSON 数组解析全部点 (调用方再过滤区间)
+     */
+    private List<PricePoint> decodeValue(String val, Long startTs, Long endTs, Integer limit) throws Exception {
+        if (KlineBlock.isEncodedValue(val)) {
+            return KlineBlock.decodeValue(val, startTs, endTs, limit);
+        }
+        return parsePoints(val);
+    }
+
+    // 包可见, 供 bench 模块基准测试
+    List<PricePoint> parsePoints(String json) throws Exception {
         String s = json.trim();
         if (!s.startsWith("[")) {
             return null;
@@ -8,6 +8,8 @@ import org.springframework.data.redis.connection.RedisConnectionFactory;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
@@ -34,9 +36,15 @@ public class RedisNameCache {
     
     private final StringRedisTemplate redisTemplate;
     private final boolean externalEnabled;
+    private final SymbolRegistry symbols;
 
-    @Autowired
     public RedisNameCache(RedisConnectionFactory connectionFactory) {
+        this(connectionFactory, new SymbolRegistry());
+    }
+
+    @Autowired
+    public RedisNameCache(RedisConnectionFactory connectionFactory, SymbolRegistry symbols) {
+        this.symbols = symbols;
         this.externalEnabled = Boolean.parseBoolean(getProp("app.redis.external", "false"));
         
         // 创建专用于名称缓存的 Redis Template，使用数据库1
@@ -69,6 +77,46 @@ public class RedisNameCache {
         return store.get(k);
     }
 
+    /**
+     * 批量查询名称, Redis 模式下使用一次 MGET; 结果与入参一一对应, 缺失为 null
+     */
+    public List<String> getNames(List<String> stockcodes, List<String> marketIds) {
+        List<String> out = new ArrayList<>(stockcodes.size());
+        List<String> keys = new ArrayList<>(stockcodes.size());
+        for (int i = 0; i < stockcodes.size(); i++) {
+            String sc = stockcodes.get(i), mk = marketIds.get(i);
+            keys.add(sc == null || mk == null ? null : key(sc, mk));
+        }
+        if (externalEnabled && redisTemplate != null) {
+            try {
+                List<String> valid = new ArrayList<>();
+                for (String k : keys) {
+                    if (k != null) valid.add(k);
+                }
+                List<String> values = valid.isEmpty() ? null : redisTemplate.opsForValue().multiGet(valid);
+                int j = 0;
+                for (String k : keys) {
+                    if (k == null) {
+                        out.add(null);
+                        continue;
+                    }
+                    String val = values == null || j >= values.size() ? null : values.get(j);
+                    j++;
+                    String parsed = parseNameFromValue(val);
+                    out.add(parsed != null ? parsed : val);
+                }
+                return out;
+            } catch (Exception ignore) {
+                // fallback to in-memory if any issue
+                out.clear();
+            }
+        }
+        for (String k : keys) {
+            out.add(k == null ? null : store.get(k));
+        }
+        return out;
+    }
+
     public void setName(String stockcode, String marketId, String name, long ttlSec) {
         // Per MVP principle: discard null values to prevent service interruption
         if (stockcode == null || marketId == null) {
@@ -129,8 +177,10 @@ public class RedisNameCache {
         }
     }
 
+    // 已注册股票直接取预构建的 key
     private String key(String stockcode, String marketId) {
-        return stockcode + ":" + marketId;
+        SymbolRegistry.Symbol symbol = symbols.lookup(stockcode, marketId);
+        return symbol != null ? symbol.getKey() : SymbolRegistry.key(stockcode, marketId);
     }
 
     private static String getProp(String key, String def) {
@@ -0,0 +1,189 @@
+package com.example.kline.modules.kline.infrastructure.cache;
+
+import com.example.kline.modules.kline.domain.entity.KlineInterval;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 股票注册表: (marketId, stockCode) -> 稠密 int id
+ *
+ * - 两级 map 查找, 不拼接字符串; 每个股票只构建一次 Redis key 及其字节
+ * - id 从 0 连续分配, 内存存储可用 {@link SymbolSlots} 按数组下标索引
+ * - 写入路径 (消费/导入) 调用 {@link #register}, 查询路径只调用 {@link #lookup}, 避免任意查询参数撑大注册表
+ * - 条目数达到 app.symbols.max-size 后不再注册, 调用方回退为按字符串构建 key
+ *
+ * @author xubohan@myhexin.com
+ * @date 2026-10-17 15:30:00
+ */
+@Component
+public class SymbolRegistry {
+    private final Map<String, Map<String, Symbol>> byMarket = new ConcurrentHashMap<>();
+    private final int maxSize;
+    private volatile Symbol[] byId = new Symbol[256];
+    private volatile int size;
+
+    // 无参构造函数，用于测试
+    public SymbolRegistry() {
+        this.maxSize = 200000;
+    }
+
+    @Autowired
+    public SymbolRegistry(Environment env) {
+        this.maxSize = Math.max(1, env.getProperty("app.symbols.max-size", Integer.class, 200000));
+    }
+
+    /**
+     * 查找已注册的股票, 未注册返回 null
+     */
+    public Symbol lookup(String stockCode, String marketId) {
+        if (stockCode == null || marketId == null) return null;
+        Map<String, Symbol> codes = byMarket.get(marketId);
+        return codes == null ? null : codes.get(stockCode);
+    }
+
+    /**
+     * 查找或注册股票; 参数为空白或注册表已满时返回 null
+     */
+    public Symbol register(String stockCode, String marketId) {
+        Symbol s = lookup(stockCode, marketId);
+        if (s != null) return s;
+        if (isBlank(stockCode) || isBlank(marketId)) return null;
+        synchronized (this) {
+            Map<String, Symbol> codes = byMarket.computeIfAbsent(marketId, k -> new ConcurrentHashMap<>());
+            s = codes.get(stockCode);
+            if (s != null || size >= maxSize) return s;
+            s = new Symbol(size, stockCode, marketId);
+            Symbol[] arr = byId;
+            if (s.id >= arr.length) {
+                Symbol[] grown = new Symbol[arr.length * 2];
+                System.arraycopy(arr, 0, grown, 0, arr.length);
+                arr = grown;
+            }
+            arr[s.id] = s;
+            byId = arr;
+            size = s.id + 1;
+            // 先发布到数组再发布到 map, lookup 命中后 byId 一定可见
+            codes.put(stockCode, s);
+            return s;
+        }
+    }
+
+    /**
+     * 按 id 取股票, 越界返回 null
+     */
+    public Symbol byId(int id) {
+        Symbol[] arr = byId;
+        return id >= 0 && id < size && id < arr.length ? arr[id] : null;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 写入路径上是否注册过该市场 (查询参数不会让市场出现在这里)
+     */
+    public boolean hasMarket(String marketId) {
+        return marketId != null && byMarket.containsKey(marketId);
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * 按 id 顺序列出股票
+     *
+     * @param marketId 市场过滤, 为空则不过滤
+     * @param offset   起始 id
+     * @param limit    最大条数
+     */
+    public List<Symbol> list(String marketId, int offset, int limit) {
+        if (limit <= 0) return Collections.emptyList();
+        List<Symbol> out = new ArrayList<>(Math.min(limit, 256));
+        int n = size;
+        for (int i = Math.max(0, offset); i < n && out.size() < limit; i++) {
+            Symbol s = byId(i);
+            if (s != null && (marketId == null || marketId.equals(s.marketId))) {
+                out.add(s);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * stockCode:marketId 形式的 key (内存存储、名称缓存、近端缓存共用)
+     */
+    public static String key(String stockCode, String marketId) {
+        return stockCode + ":" + marketId;
+    }
+
+    /**
+     * K线 ZSET key: kline:1m:{marketId}:{stockCode}
+     */
+    public static String zsetKey(String stockCode, String marketId) {
+        return "kline:1m:" + marketId + ":" + stockCode;
+    }
+
+    /**
+     * 降采样层级 ZSET key: kline:{interval}:{marketId}:{stockCode}, 1m 即 {@link #zsetKey}
+     */
+    public static String tierKey(String stockCode, String marketId, KlineInterval interval) {
+        return "kline:" + interval.getCode() + ":" + marketId + ":" + stockCode;
+    }
+
+    /**
+     * K线 JSON 字符串 key: kline:{stockCode}:{marketId}
+     */
+    public static String dataKey(String stockCode, String marketId) {
+        return "kline:" + key(stockCode, marketId);
+    }
+
+    private static boolean isBlank(String s) { return s == null || s.trim().isEmpty(); }
+
+    /**
+     * 已注册股票, 持有预构建的 key
+     */
+    public static final class Symbol {
+        private final int id;
+        private final String stockCode;
+        private final String marketId;
+        private final String key;
+        private final String zsetKey;
+        private final byte[] zsetKeyBytes;
+        private final String dataKey;
+
+        Symbol(int id, String stockCode, String marketId) {
+            this.id = id;
+            this.stockCode = stockCode;
+            this.marketId = marketId;
+            this.key = SymbolRegistry.key(stockCode, marketId);
+            this.zsetKey = SymbolRegistry.zsetKey(stockCode, marketId);
+            this.zsetKeyBytes = zsetKey.getBytes(StandardCharsets.UTF_8);
+            this.dataKey = SymbolRegistry.dataKey(stockCode, marketId);
+        }
+
+        public int getId() { return id; }
+        public String getStockCode() { return stockCode; }
+        public String getMarketId() { return marketId; }
+        public String getKey() { return key; }
+        public String getZsetKey() { return zsetKey; }
+        /** 共享数组, 调用方不得修改 */
+        public byte[] getZsetKeyBytes() { return zsetKeyBytes; }
+        public String getDataKey() { return dataKey; }
+
+        @Override
+        public int hashCode() { return id; }
+
+        @Override
+        public String toString() { return zsetKey; }
+    }
+}
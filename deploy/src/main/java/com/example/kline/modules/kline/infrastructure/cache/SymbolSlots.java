@@ -0,0 +1,73 @@
+package com.example.kline.modules.kline.infrastructure.cache;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntFunction;
+
+/**
+ * 以 {@link SymbolRegistry} 稠密 id 为下标的并发数组, 替代以字符串为 key 的 HashMap
+ *
+ * 读为一次 volatile 数组访问; 写入加锁 (与扩容复制互斥), 已存在的槽位读取不加锁
+ *
+ * @author xubohan@myhexin.com
+ * @date 2026-10-17 15:30:00
+ */
+public final class SymbolSlots<T> {
+    private volatile AtomicReferenceArray<T> slots;
+
+    public SymbolSlots() {
+        this(256);
+    }
+
+    public SymbolSlots(int initialCapacity) {
+        this.slots = new AtomicReferenceArray<>(Math.max(16, initialCapacity));
+    }
+
+    public T get(int id) {
+        AtomicReferenceArray<T> s = slots;
+        return id >= 0 && id < s.length() ? s.get(id) : null;
+    }
+
+    public synchronized void set(int id, T value) {
+        ensureCapacity(id).set(id, value);
+    }
+
+    /**
+     * 槽位仍为 expected 时清空
+     *
+     * @return 是否清空
+     */
+    public synchronized boolean remove(int id, T expected) {
+        AtomicReferenceArray<T> s = slots;
+        return id >= 0 && id < s.length() && s.compareAndSet(id, expected, null);
+    }
+
+    public T computeIfAbsent(int id, IntFunction<T> factory) {
+        T v = get(id);
+        if (v != null) return v;
+        synchronized (this) {
+            AtomicReferenceArray<T> s = ensureCapacity(id);
+            v = s.get(id);
+            if (v == null) {
+                v = factory.apply(id);
+                s.set(id, v);
+            }
+            return v;
+        }
+    }
+
+    /** 调用方需持有 this 锁 */
+    private AtomicReferenceArray<T> ensureCapacity(int id) {
+        AtomicReferenceArray<T> s = slots;
+        if (id >= s.length()) {
+            int len = s.length();
+            while (len <= id) len <<= 1;
+            AtomicReferenceArray<T> grown = new AtomicReferenceArray<>(len);
+            for (int i = 0; i < s.length(); i++) {
+                grown.set(i, s.get(i));
+            }
+            slots = grown;
+            s = grown;
+        }
+        return s;
+    }
+}
@@ -1,19 +1,60 @@
 package com.example.kline.modules.kline.infrastructure.cache;
 
+import com.example.kline.common.metrics.KlineMetrics;
+import com.example.kline.modules.kline.domain.entity.KlineResponse;
+import com.example.kline.modules.kline.domain.entity.PricePoint;
+import io.micrometer.core.instrument.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.env.Environment;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PreDestroy;
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * 将timeline数据点写入Redis ZSET用于K线缓存
  * Key: kline:1m:{marketId}:{stockCode}
  * Score: 分钟时间戳 (tsSec/60)
- * Member: 价格字符串 (toPlainString)
+ * Member: 分钟 OHLCV 编码 (见 {@link KlineMemberCodec}), 每分钟唯一;
+ *         写入由 Lua 脚本对每个分钟原子地 ZREMRANGEBYSCORE 清除旧成员再 ZADD, 同一分钟后写覆盖先写
+ *
+ * 写后缓冲模式 (app.redis.write-behind.enabled=true):
+ * 写入进入有界无锁队列后立即返回, 后台 flusher 线程按 (key, 分钟) 合并 (同一分钟内后写覆盖先写),
+ * 达到 flush-size 或 flush-interval-ms 时以多成员 ZADD 通过 pipeline 批量提交。
+ * 队列满时按 overflow 策略处理: block 等待 offer-timeout-ms 后仍越过容量入队, 并在调用线程上协助 flush
+ * 直到本条写入被取出 (计入 backpressure), drop 直接丢弃 (计入 dropped)。flush 失败时整批保留在 flusher 中,
+ * 按 retry-backoff-ms 指数退避 (上限 retry-backoff-max-ms) 与后续写入合并重试, 期间仍计入队列深度。
+ * 关闭时停止 flusher 并在当前线程排空队列 (含待重试批次); 此后的写入同样入队并由调用线程 flush。
+ * 所有写入都经过同一个合并批次并在 flushOnce 的锁内提交, 同一 (key, 分钟) 不会被较早的合并/待重试成员覆盖。
+ * 调用线程协助 flush 失败时写入仍保留待重试, 同时返回 false, 调用方不应提交位点 (重投为幂等覆盖);
+ * 关闭时 Redis 仍不可用的残留会记录 error 日志。
+ *
+ * 近端缓存 ({@link KlineNearCache}) 在 ZSET 写入成功之后才打补丁并广播给其他实例 (同步写入在调用返回前,
+ * 写后缓冲在 flush 成功后), 补丁推进的版本号晚于 ZSET 写入, 写入前开始的加载结果不会被放入缓存;
+ * 写入失败时不打补丁, 重试成功后再通知。
+ *
+ * key 取自 {@link SymbolRegistry} 预构建的字节, 合并时以 Symbol 为 key, 不再逐条拼接字符串。
+ * app.redis.key-layout=day 时按交易日写入日桶 (见 {@link KlineKeyLayout}): 每个日桶 EXPIREAT 当日结束 + ttl-days,
+ * 同时把日期记入该股票的日期索引并删除索引中已过期的日期。
  *
  * @author xubohan@myhexin.com
  * @date 2025-09-10 13:30:00
@@ -21,48 +62,603 @@ import java.math.BigDecimal;
 @Component
 public class TimelineRedisWriter {
     private static final Logger log = LoggerFactory.getLogger(TimelineRedisWriter.class);
+    /** KEYS[1] 为 ZSET key, ARGV 为 (分钟, 成员) 对: 逐分钟先删后写, 成员已在其他分钟时追加 "~分钟" */
+    private static final byte[] REPLACE_MINUTES = (
+        "for i = 1, #ARGV, 2 do\n"
+            + "  local m = ARGV[i + 1]\n"
+            + "  redis.call('ZREMRANGEBYSCORE', KEYS[1], ARGV[i], ARGV[i])\n"
+            + "  if redis.call('ZSCORE', KEYS[1], m) then m = m .. '~' .. ARGV[i] end\n"
+            + "  redis.call('ZADD', KEYS[1], ARGV[i], m)\n"
+            + "end\n"
+            + "return #ARGV / 2").getBytes(StandardCharsets.UTF_8);
+    private static final int REPLACE_CHUNK = 512;
 
     private final boolean externalEnabled;
     private final StringRedisTemplate redisTemplate;
+    private final SymbolRegistry symbols;
+    private final KlineKeyLayout layout;
+    private final KlineNearCache nearCache;
+
+    private final boolean writeBehind;
+    private final int capacity;
+    private final int flushSize;
+    private final long flushIntervalNanos;
+    private final boolean dropOnOverflow;
+    private final long offerTimeoutNanos;
+    private final long retryBackoffNanos;
+    private final long retryBackoffMaxNanos;
+
+    private final ConcurrentLinkedQueue<PendingWrite> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger depth = new AtomicInteger();
+    private volatile boolean running;
+    private Thread flusher;
+
+    // flush 失败待重试的合并批次及其成员数 (已计入 depth), 仅在 flushOnce 内访问
+    private Map<Object, Map<Long, String>> retryBatch;
+    private volatile int retryMembers;
+
+    private final AtomicLong enqueued = new AtomicLong();
+    private final AtomicLong flushedMembers = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong failedFlushes = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong backpressure = new AtomicLong();
+    private final AtomicLong flushNanosTotal = new AtomicLong();
+    private final AtomicLong flushNanosMax = new AtomicLong();
+    private volatile long lastFlushNanos;
+
+    // kline.redis.op{component=writer}: 同步单条写入、同步批量写入、写后缓冲 flush
+    private final Timer directTimer;
+    private final Timer batchTimer;
+    private final Timer flushTimer;
+    private final Timer publishTimer;
 
     // 无参构造函数，用于测试
     public TimelineRedisWriter() {
         this.externalEnabled = Boolean.parseBoolean(getProp("app.redis.external", "false"));
         this.redisTemplate = null;
+        this.symbols = new SymbolRegistry();
+        this.layout = KlineKeyLayout.single();
+        this.nearCache = new KlineNearCache();
+        this.writeBehind = false;
+        this.capacity = 0;
+        this.flushSize = 0;
+        this.flushIntervalNanos = 0L;
+        this.dropOnOverflow = false;
+        this.offerTimeoutNanos = 0L;
+        this.retryBackoffNanos = 0L;
+        this.retryBackoffMaxNanos = 0L;
+        KlineMetrics metrics = new KlineMetrics();
+        this.directTimer = opTimer(metrics, "upsert_direct");
+        this.batchTimer = opTimer(metrics, "upsert_batch");
+        this.flushTimer = opTimer(metrics, "flush");
+        this.publishTimer = opTimer(metrics, "publish");
     }
 
-    @Autowired
     public TimelineRedisWriter(Environment env, StringRedisTemplate redisTemplate) {
+        this(env, redisTemplate, new SymbolRegistry());
+    }
+
+    public TimelineRedisWriter(Environment env, StringRedisTemplate redisTemplate, SymbolRegistry symbols) {
+        this(env, redisTemplate, symbols, new KlineNearCache(), new KlineMetrics());
+    }
+
+    @Autowired
+    public TimelineRedisWriter(Environment env, StringRedisTemplate redisTemplate, SymbolRegistry symbols,
+                               KlineNearCache nearCache, KlineMetrics metrics) {
+        this.symbols = symbols;
+        this.layout = KlineKeyLayout.from(env);
+        this.nearCache = nearCache;
+        this.directTimer = opTimer(metrics, "upsert_direct");
+        this.batchTimer = opTimer(metrics, "upsert_batch");
+        this.flushTimer = opTimer(metrics, "flush");
+        this.publishTimer = opTimer(metrics, "publish");
         boolean fromSpring = env.getProperty("app.redis.external", Boolean.class, false);
         boolean fromSys = Boolean.parseBoolean(getProp("app.redis.external", "false"));
         this.externalEnabled = fromSpring || fromSys;
         this.redisTemplate = externalEnabled ? redisTemplate : null;
+
+        this.writeBehind = externalEnabled && env.getProperty("app.redis.write-behind.enabled", Boolean.class, false);
+        this.capacity = Math.max(1, env.getProperty("app.redis.write-behind.capacity", Integer.class, 100000));
+        this.flushSize = Math.max(1, env.getProperty("app.redis.write-behind.flush-size", Integer.class, 2000));
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(
+            Math.max(1L, env.getProperty("app.redis.write-behind.flush-interval-ms", Long.class, 50L)));
+        this.dropOnOverflow = "drop".equalsIgnoreCase(env.getProperty("app.redis.write-behind.overflow", "block"));
+        this.offerTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(
+            Math.max(0L, env.getProperty("app.redis.write-behind.offer-timeout-ms", Long.class, 100L)));
+        this.retryBackoffNanos = TimeUnit.MILLISECONDS.toNanos(
+            Math.max(1L, env.getProperty("app.redis.write-behind.retry-backoff-ms", Long.class, 50L)));
+        this.retryBackoffMaxNanos = Math.max(retryBackoffNanos, TimeUnit.MILLISECONDS.toNanos(
+            env.getProperty("app.redis.write-behind.retry-backoff-max-ms", Long.class, 2000L)));
+        if (writeBehind) {
+            startFlusher();
+        }
+    }
+
+    /**
+     * 写入单一价格的分钟点 (open=high=low=close=price, vol=0)
+     *
+     * @return 同 {@link #writeBar}
+     */
+    public boolean write(String stockCode, String marketId, long tsSec, BigDecimal price) {
+        if (price == null) return true;
+        PricePoint p = new PricePoint();
+        p.setTs(tsSec);
+        p.setOpen(price); p.setHigh(price); p.setLow(price); p.setClose(price); p.setVol(0L);
+        return writeBar(stockCode, marketId, p);
+    }
+
+    /**
+     * 写入 (覆盖) 一个分钟 bar
+     *
+     * @return 同步写入失败, 或写后缓冲下调用线程协助 flush 失败时为 false (已记录日志)
+     */
+    public boolean writeBar(String stockCode, String marketId, PricePoint bar) {
+        if (!externalEnabled || redisTemplate == null) return true;
+        if (isBlank(stockCode) || isBlank(marketId)) return true;
+        String member = KlineMemberCodec.encode(bar);
+        if (member == null) return true;
+
+        Object key = zkey(marketId, stockCode);
+        long minute = Math.floorDiv(bar.getTs(), 60L);
+        if (writeBehind) {
+            return enqueue(new PendingWrite(key, minute, member));
+        }
+        return writeDirect(new PendingWrite(key, minute, member));
+    }
+
+    /**
+     * 批量写入: 按key分组, 每个key先清除涉及分钟的旧成员再发送一条多成员ZADD, 所有命令在同一个pipeline中提交
+     * 写后缓冲模式下仅入队, 由 flusher 合并后提交
+     *
+     * @param responses 每只股票的分钟 bar
+     * @return pipeline 提交失败 (已记录日志), 或写后缓冲下调用线程协助 flush 失败时为 false;
+     *         正常入队时为 true, 入队后的失败由 flusher 重试
+     */
+    public boolean writeBatch(Collection<KlineResponse> responses) {
+        if (!externalEnabled || redisTemplate == null) return true;
+        if (responses == null || responses.isEmpty()) return true;
+
+        Map<Object, Map<Long, String>> byKey = new LinkedHashMap<>();
+        boolean queued = true;
+        for (KlineResponse r : responses) {
+            if (r == null || isBlank(r.getStockcode()) || isBlank(r.getMarketId())) continue;
+            Object key = zkey(r.getMarketId(), r.getStockcode());
+            for (PricePoint bar : r.getData()) {
+                String member = KlineMemberCodec.encode(bar);
+                if (member == null) continue;
+                long minute = Math.floorDiv(bar.getTs(), 60L);
+                if (writeBehind) {
+                    queued &= enqueue(new PendingWrite(key, minute, member));
+                } else {
+                    byKey.computeIfAbsent(key, k -> new LinkedHashMap<>()).put(minute, member);
+                }
+            }
+        }
+        if (byKey.isEmpty()) return queued;
+
+        long begin = System.nanoTime();
+        try {
+            pipelineUpsert(byKey);
+            return true;
+        } catch (Exception e) {
+            log.warn("Failed to pipeline {} timeline keys to Redis ZSET: {}", byKey.size(), e.getMessage());
+            return false;
+        } finally {
+            KlineMetrics.record(batchTimer, begin);
+        }
+    }
+
+    /**
+     * 写后缓冲统计信息
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("writeBehindEnabled", writeBehind);
+        m.put("queueDepth", depth.get());
+        m.put("queueCapacity", writeBehind ? capacity : 0);
+        m.put("enqueued", enqueued.get());
+        m.put("flushedMembers", flushedMembers.get());
+        m.put("coalesced", coalesced.get());
+        m.put("flushes", flushes.get());
+        m.put("failedFlushes", failedFlushes.get());
+        m.put("retryPending", retryMembers);
+        m.put("dropped", dropped.get());
+        m.put("backpressure", backpressure.get());
+        long n = flushes.get();
+        m.put("lastFlushMillis", lastFlushNanos / 1_000_000.0);
+        m.put("avgFlushMillis", n == 0 ? 0.0 : flushNanosTotal.get() / (double) n / 1_000_000.0);
+        m.put("maxFlushMillis", flushNanosMax.get() / 1_000_000.0);
+        return m;
+    }
+
+    public int queueDepth() {
+        return depth.get();
+    }
+
+    /**
+     * 停止 flusher 并同步排空队列; 之后的写入由调用线程 flush
+     */
+    @PreDestroy
+    public void shutdown() {
+        if (!writeBehind) return;
+        running = false;
+        Thread t = flusher;
+        if (t != null) {
+            LockSupport.unpark(t);
+            try {
+                t.join(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        // flusher 退出后可能仍有并发写入的残留或待重试批次, 在当前线程继续排空, 失败时退避重试直到截止时间
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        long backoff = retryBackoffNanos;
+        while (depth.get() > 0 && System.nanoTime() < deadline) {
+            if (flushOnce() < 0) {
+                LockSupport.parkNanos(backoff);
+                backoff = Math.min(backoff * 2, retryBackoffMaxNanos);
+            }
+        }
+        if (depth.get() > 0) {
+            log.error("TimelineRedisWriter could not drain on shutdown, {} timeline members not written to Redis",
+                depth.get());
+        } else {
+            log.info("TimelineRedisWriter drained on shutdown");
+        }
+    }
+
+    /**
+     * @return 调用线程协助 flush 失败时为 false, 写入仍保留在队列或待重试批次中
+     */
+    private boolean enqueue(PendingWrite w) {
+        if (!running) {
+            // flusher 已停止: 仍经合并批次提交, 由当前线程 flush
+            depth.incrementAndGet();
+            return writeThrough(w);
+        }
+        if (depth.incrementAndGet() > capacity) {
+            depth.decrementAndGet();
+            if (dropOnOverflow) {
+                dropped.incrementAndGet();
+                return true;
+            }
+            backpressure.incrementAndGet();
+            if (!awaitCapacity()) {
+                // 等待超时仍无空间: 越过容量入队并由当前线程协助 flush, 不丢数据
+                depth.incrementAndGet();
+                return writeThrough(w);
+            }
+        }
+        queue.offer(w);
+        enqueued.incrementAndGet();
+        if (!running) {
+            // 与 shutdown 并发: 入队时 flusher 已停止且排空可能已结束, 由当前线程补排
+            return awaitTaken(w);
+        }
+        if (depth.get() >= flushSize) {
+            LockSupport.unpark(flusher);
+        }
+        return true;
+    }
+
+    /**
+     * 入队 (深度已由调用方计入) 并在当前线程 flush 直到本条被取出
+     */
+    private boolean writeThrough(PendingWrite w) {
+        queue.offer(w);
+        enqueued.incrementAndGet();
+        return awaitTaken(w);
     }
 
-    public void write(String stockCode, String marketId, long tsSec, BigDecimal price) {
-        if (!externalEnabled || redisTemplate == null) return;
-        if (isBlank(stockCode) || isBlank(marketId) || price == null) return;
-        
-        String key = zkey(marketId, stockCode);
-        double score = (double) (tsSec / 60L);
-        
+    /**
+     * 队列按 FIFO 取出, 本条之前的同分钟写入先于它并入合并批次, 不会在它之后覆盖它
+     *
+     * @return 本条已随成功的 flush 写入 Redis; 仍在队列中或留在待重试批次时为 false
+     */
+    private boolean awaitTaken(PendingWrite w) {
+        while (!w.taken) {
+            if (flushOnce() < 0) return false;
+        }
+        // 可能被并发的 flusher 取走: 待重试批次为空才能确认已写入
+        synchronized (this) {
+            return retryBatch == null;
+        }
+    }
+
+    private boolean awaitCapacity() {
+        long deadline = System.nanoTime() + offerTimeoutNanos;
+        LockSupport.unpark(flusher);
+        while (System.nanoTime() < deadline) {
+            if (depth.incrementAndGet() <= capacity) {
+                return true;
+            }
+            depth.decrementAndGet();
+            LockSupport.parkNanos(100_000L);
+        }
+        return false;
+    }
+
+    /**
+     * 同步写入 (未开启写后缓冲时)
+     */
+    private boolean writeDirect(PendingWrite w) {
+        long begin = System.nanoTime();
         try {
-            redisTemplate.opsForZSet().add(key, price.toPlainString(), score);
+            Map<Long, String> one = new LinkedHashMap<>(2);
+            one.put(w.minute, w.member);
+            pipelineUpsert(Collections.singletonMap(w.key, one));
+            return true;
         } catch (Exception e) {
             log.warn("Failed to write timeline to Redis ZSET: {}", e.getMessage());
+            return false;
+        } finally {
+            KlineMetrics.record(directTimer, begin);
+        }
+    }
+
+    private void startFlusher() {
+        running = true;
+        flusher = new Thread(this::flushLoop, "timeline-redis-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+        log.info("TimelineRedisWriter write-behind enabled: capacity={}, flushSize={}, flushIntervalMs={}, overflow={}",
+            capacity, flushSize, TimeUnit.NANOSECONDS.toMillis(flushIntervalNanos), dropOnOverflow ? "drop" : "block");
+    }
+
+    private void flushLoop() {
+        long lastFlush = System.nanoTime();
+        long backoff = 0L;
+        while (running) {
+            long waited = System.nanoTime() - lastFlush;
+            if (backoff > 0L) {
+                // 上次 flush 失败: 退避期内不重试
+                if (waited < backoff) {
+                    LockSupport.parkNanos(this, backoff - waited);
+                    continue;
+                }
+            } else if (depth.get() < flushSize && waited < flushIntervalNanos) {
+                LockSupport.parkNanos(this, flushIntervalNanos - waited);
+                continue;
+            }
+            int r;
+            try {
+                r = flushOnce();
+            } catch (Exception e) {
+                log.warn("Timeline write-behind flush failed: {}", e.getMessage());
+                r = -1;
+            }
+            backoff = r < 0 ? (backoff == 0L ? retryBackoffNanos : Math.min(backoff * 2, retryBackoffMaxNanos)) : 0L;
+            lastFlush = System.nanoTime();
+        }
+    }
+
+    /**
+     * 在待重试批次之上取出最多 flushSize 条写入, 按 (key, 分钟) 合并后一次 pipeline 提交;
+     * 失败时整批留作下次重试, 成员仍计入队列深度
+     *
+     * @return 本次提交的成员数, 无待写数据为 0, 提交失败为 -1
+     */
+    private synchronized int flushOnce() {
+        int held = retryMembers;
+        Map<Object, Map<Long, String>> byKey = retryBatch != null ? retryBatch : new LinkedHashMap<>();
+        int taken = 0;
+        int members = held;
+        PendingWrite w;
+        while (taken < flushSize && (w = queue.poll()) != null) {
+            depth.decrementAndGet();
+            w.taken = true;
+            taken++;
+            // 同一分钟后写覆盖先写
+            if (byKey.computeIfAbsent(w.key, k -> new LinkedHashMap<>()).put(w.minute, w.member) == null) {
+                members++;
+            }
+        }
+        if (members == 0) return 0;
+        coalesced.addAndGet(taken - (members - held));
+
+        long begin = System.nanoTime();
+        boolean ok = false;
+        try {
+            pipelineUpsert(byKey);
+            ok = true;
+            flushedMembers.addAndGet(members);
+            retryBatch = null;
+            retryMembers = 0;
+            depth.addAndGet(-held);
+        } catch (Exception e) {
+            failedFlushes.incrementAndGet();
+            retryBatch = byKey;
+            retryMembers = members;
+            depth.addAndGet(members - held);
+            log.warn("Failed to flush {} timeline members ({} keys) to Redis ZSET, will retry: {}",
+                members, byKey.size(), e.getMessage());
         }
+        long cost = System.nanoTime() - begin;
+        flushTimer.record(cost, TimeUnit.NANOSECONDS);
+        flushes.incrementAndGet();
+        flushNanosTotal.addAndGet(cost);
+        lastFlushNanos = cost;
+        flushNanosMax.accumulateAndGet(cost, Math::max);
+        return ok ? members : -1;
+    }
+
+    /**
+     * 每个 key: 以 {@link #replaceMinutes} 逐分钟清除旧成员并写入新成员
+     */
+    private void pipelineUpsert(Map<Object, Map<Long, String>> byKey) {
+        if (layout.isDayBuckets()) {
+            pipelineUpsertDays(byKey);
+        } else {
+            redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (Map.Entry<Object, Map<Long, String>> e : byKey.entrySet()) {
+                    replaceMinutes(connection, keyBytes(e.getKey()), e.getValue());
+                }
+                return null;
+            });
+        }
+        publishNearCache(byKey);
+    }
+
+    /**
+     * ZSET 写入成功后给本地近端缓存打补丁, 并通过 pub/sub 通知其他实例 (每只股票一条消息)
+     */
+    private void publishNearCache(Map<Object, Map<Long, String>> byKey) {
+        if (!nearCache.isEnabled()) return;
+        for (Map.Entry<Object, Map<Long, String>> e : byKey.entrySet()) {
+            String stockCode, marketId, cacheKey;
+            if (e.getKey() instanceof SymbolRegistry.Symbol) {
+                SymbolRegistry.Symbol symbol = (SymbolRegistry.Symbol) e.getKey();
+                stockCode = symbol.getStockCode();
+                marketId = symbol.getMarketId();
+                cacheKey = symbol.getKey();
+            } else {
+                KlineKeyLayout.MinuteKey k = KlineKeyLayout.parse((String) e.getKey());
+                if (k == null) continue;
+                stockCode = k.getStockCode();
+                marketId = k.getMarketId();
+                cacheKey = SymbolRegistry.key(stockCode, marketId);
+            }
+            List<PricePoint> bars = new ArrayList<>(e.getValue().size());
+            for (Map.Entry<Long, String> m : e.getValue().entrySet()) {
+                PricePoint p = KlineMemberCodec.decode(m.getValue(), (double) m.getKey());
+                if (p != null) bars.add(p);
+            }
+            if (bars.isEmpty()) continue;
+            nearCache.patch(cacheKey, bars);
+            long begin = System.nanoTime();
+            try {
+                redisTemplate.convertAndSend(KlineNearCache.CHANNEL, nearCache.toMessage(stockCode, marketId, bars));
+            } catch (Exception ignore) {
+                // 广播失败时其他实例依赖 ttl-ms 过期
+            } finally {
+                KlineMetrics.record(publishTimer, begin);
+            }
+        }
+    }
+
+    /**
+     * 用 Lua 脚本覆盖写入分钟成员: 每个分钟的 ZREMRANGEBYSCORE 与 ZADD 在同一脚本内原子执行,
+     * 不会出现旧成员已删、新成员未写 (或新旧成员并存) 的中间状态被读到或因连接中断而残留。
+     * 成员不含分钟 (见 {@link KlineMemberCodec}), 相同成员已存在于其他分钟时追加 "~分钟" 保持唯一。
+     * 每次 EVAL 至多 {@value #REPLACE_CHUNK} 个分钟, 避免单个脚本长时间阻塞 Redis。
+     * 可在 pipeline 内调用。
+     *
+     * @param key     ZSET key
+     * @param members 分钟 -> 成员
+     */
+    public static void replaceMinutes(RedisConnection connection, byte[] key, Map<Long, String> members) {
+        if (members.isEmpty()) return;
+        int pairs = Math.min(members.size(), REPLACE_CHUNK);
+        byte[][] keysAndArgs = new byte[1 + pairs * 2][];
+        keysAndArgs[0] = key;
+        int n = 0;
+        int left = members.size();
+        for (Map.Entry<Long, String> m : members.entrySet()) {
+            keysAndArgs[1 + n * 2] = Long.toString(m.getKey()).getBytes(StandardCharsets.UTF_8);
+            keysAndArgs[2 + n * 2] = m.getValue().getBytes(StandardCharsets.UTF_8);
+            n++;
+            left--;
+            if (n == pairs) {
+                connection.eval(REPLACE_MINUTES, ReturnType.INTEGER, 1, keysAndArgs);
+                pairs = Math.min(left, REPLACE_CHUNK);
+                if (pairs == 0) break;
+                keysAndArgs = new byte[1 + pairs * 2][];
+                keysAndArgs[0] = key;
+                n = 0;
+            }
+        }
+    }
+
+    /**
+     * 日桶布局: 按天拆分后逐日桶覆盖写入并设置过期时间, 再更新日期索引
+     */
+    private void pipelineUpsertDays(Map<Object, Map<Long, String>> byKey) {
+        long nowSec = System.currentTimeMillis() / 1000L;
+        long expiredBefore = layout.expiredBefore(nowSec);
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Map.Entry<Object, Map<Long, String>> e : byKey.entrySet()) {
+                String stockCode, marketId;
+                if (e.getKey() instanceof SymbolRegistry.Symbol) {
+                    SymbolRegistry.Symbol symbol = (SymbolRegistry.Symbol) e.getKey();
+                    stockCode = symbol.getStockCode();
+                    marketId = symbol.getMarketId();
+                } else {
+                    KlineKeyLayout.MinuteKey k = KlineKeyLayout.parse((String) e.getKey());
+                    if (k == null) continue;
+                    stockCode = k.getStockCode();
+                    marketId = k.getMarketId();
+                }
+                TreeMap<Long, Map<Long, String>> byDay = new TreeMap<>();
+                for (Map.Entry<Long, String> m : e.getValue().entrySet()) {
+                    byDay.computeIfAbsent(KlineKeyLayout.dayOfMinute(m.getKey()), d -> new LinkedHashMap<>())
+                        .put(m.getKey(), m.getValue());
+                }
+                byte[] index = KlineKeyLayout.indexKey(stockCode, marketId).getBytes(StandardCharsets.UTF_8);
+                for (Map.Entry<Long, Map<Long, String>> d : byDay.entrySet()) {
+                    long day = d.getKey();
+                    byte[] key = KlineKeyLayout.dayKey(stockCode, marketId, day).getBytes(StandardCharsets.UTF_8);
+                    replaceMinutes(connection, key, d.getValue());
+                    long expireAt = layout.expireAt(day);
+                    if (expireAt > 0) {
+                        connection.expireAt(key, expireAt);
+                    }
+                    connection.zAdd(index, (double) day, KlineKeyLayout.formatDay(day).getBytes(StandardCharsets.UTF_8));
+                }
+                if (expiredBefore != Long.MIN_VALUE) {
+                    connection.zRemRangeByScore(index, Double.NEGATIVE_INFINITY, (double) expiredBefore);
+                    // 索引随最新的日桶一起过期; 补写历史日期时不缩短
+                    long lastDay = byDay.lastKey();
+                    if (lastDay > expiredBefore && lastDay >= KlineKeyLayout.day(nowSec) - 1) {
+                        connection.expireAt(index, layout.expireAt(lastDay));
+                    }
+                }
+            }
+            return null;
+        });
     }
 
     private static boolean isBlank(String s) { return s == null || s.trim().isEmpty(); }
-    
-    private static String zkey(String marketId, String stockCode) { 
-        return "kline:1m:" + marketId + ":" + stockCode; 
+
+    private static Timer opTimer(KlineMetrics metrics, String op) {
+        return metrics.timer("kline.redis.op", "component", "writer", "op", op);
+    }
+
+    /**
+     * 已注册 (或可注册) 股票返回 Symbol, 注册表已满时回退为 key 字符串
+     */
+    private Object zkey(String marketId, String stockCode) {
+        SymbolRegistry.Symbol symbol = symbols.register(stockCode, marketId);
+        return symbol != null ? symbol : SymbolRegistry.zsetKey(stockCode, marketId);
     }
-    
+
+    private static byte[] keyBytes(Object key) {
+        return key instanceof SymbolRegistry.Symbol
+            ? ((SymbolRegistry.Symbol) key).getZsetKeyBytes()
+            : ((String) key).getBytes(StandardCharsets.UTF_8);
+    }
+
     private static String getProp(String key, String def) {
         String v = System.getProperty(key);
         if (v == null) v = System.getenv(key.replace('.', '_').toUpperCase());
         return v != null ? v : def;
     }
-}
 
+    /** 待写入的一条 ZSET 成员 */
+    private static final class PendingWrite {
+        /** {@link SymbolRegistry.Symbol} 或 key 字符串 */
+        final Object key;
+        final long minute;
+        final String member;
+        // 已被 flushOnce 取出并入合并批次
+        volatile boolean taken;
+
+        PendingWrite(Object key, long minute, String member) {
+            this.key = key;
+            this.minute = minute;
+            this.member = member;
+        }
+    }
+}
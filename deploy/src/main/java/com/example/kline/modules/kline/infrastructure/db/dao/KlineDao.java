@@ -1,6 +1,8 @@
 package com.example.kline.modules.kline.infrastructure.db.dao;
 
 import com.example.kline.modules.kline.domain.entity.PricePoint;
+import com.example.kline.modules.kline.infrastructure.cache.SymbolRegistry;
+import com.example.kline.modules.kline.infrastructure.cache.SymbolSlots;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -8,17 +10,30 @@ import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.stream.Collectors;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
 
 /**
- * In-memory DAO for k-line points.
+ * In-memory DAO for k-line points, indexed by {@link SymbolRegistry} id.
  *
  * @author xubohan@myhexin.com
  * @date 2025-09-08 20:24:08
  */
 @Repository
 public class KlineDao {
-    private final Map<String, List<PricePoint>> store = new ConcurrentHashMap<>();
+    private final SymbolRegistry symbols;
+    private final SymbolSlots<List<PricePoint>> store = new SymbolSlots<>();
+    // fallback once the registry is full
+    private final Map<String, List<PricePoint>> overflow = new ConcurrentHashMap<>();
+
+    public KlineDao() {
+        this(new SymbolRegistry());
+    }
+
+    @Autowired
+    public KlineDao(SymbolRegistry symbols) {
+        this.symbols = symbols;
+    }
 
     public List<PricePoint> selectRange(String stockcode, String marketId, Long startTs, Long endTs, Integer limit) {
         if (stockcode == null || stockcode.trim().isEmpty() || marketId == null || marketId.trim().isEmpty()) {
@@ -28,7 +43,8 @@ public class KlineDao {
             // invalid limit -> return empty by convention to avoid interrupting service
             return Collections.emptyList();
         }
-        List<PricePoint> list = store.get(key(stockcode, marketId));
+        SymbolRegistry.Symbol symbol = symbols.lookup(stockcode, marketId);
+        List<PricePoint> list = symbol != null ? store.get(symbol.getId()) : overflow.get(key(stockcode, marketId));
         if (list == null || list.isEmpty()) {
             return Collections.emptyList();
         }
@@ -54,11 +70,15 @@ public class KlineDao {
         if (points == null || points.isEmpty()) {
             return 0;
         }
-        store.computeIfAbsent(key(stockcode, marketId), k -> new CopyOnWriteArrayList<>()).addAll(points);
+        SymbolRegistry.Symbol symbol = symbols.register(stockcode, marketId);
+        List<PricePoint> list = symbol != null
+            ? store.computeIfAbsent(symbol.getId(), id -> new CopyOnWriteArrayList<>())
+            : overflow.computeIfAbsent(key(stockcode, marketId), k -> new CopyOnWriteArrayList<>());
+        list.addAll(points);
         return points.size();
     }
 
     private String key(String stockcode, String marketId) {
-        return stockcode + ":" + marketId;
+        return SymbolRegistry.key(stockcode, marketId);
     }
 }
@@ -1,12 +1,21 @@
 package com.example.kline.modules.kline.infrastructure.db.repository;
 
+import com.example.kline.common.metrics.KlineMetrics;
+import com.example.kline.modules.kline.domain.entity.KlineInterval;
+import com.example.kline.modules.kline.domain.entity.KlineQuery;
 import com.example.kline.modules.kline.domain.entity.KlineResponse;
 import com.example.kline.modules.kline.domain.entity.PricePoint;
 import com.example.kline.modules.kline.domain.repository.KlineRepository;
+import com.example.kline.modules.kline.infrastructure.cache.KlineBarEngine;
+import com.example.kline.modules.kline.infrastructure.cache.KlineRetentionManager;
 import com.example.kline.modules.kline.infrastructure.cache.RedisKlineCache;
 import com.example.kline.modules.kline.infrastructure.db.dao.KlineDao;
+import io.micrometer.core.instrument.Timer;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
 import org.springframework.stereotype.Repository;
 import org.springframework.util.CollectionUtils;
 
@@ -18,13 +27,39 @@ import org.springframework.util.CollectionUtils;
  */
 @Repository
 public class KlineRepositoryImpl implements KlineRepository {
+    /** 默认保留 15 天 (15 * 24 * 3600 = 1,296,000 秒) */
+    private static final long DEFAULT_TTL_SEC = 15 * 86400L;
+
     private final RedisKlineCache klineCache;
     private final KlineDao klineDao;
+    private final KlineBarEngine barEngine;
+    private final KlineMetrics metrics;
+    private final Timer findRangesTimer;
+    // 字符串副本 TTL, 与分钟 ZSET 的保留窗口一致 (app.retention.days)
+    private final long ttlSec;
 
     @Autowired
-    public KlineRepositoryImpl(RedisKlineCache klineCache, KlineDao klineDao) {
+    public KlineRepositoryImpl(RedisKlineCache klineCache, KlineDao klineDao, KlineBarEngine barEngine,
+                               KlineMetrics metrics, Environment env) {
+        this(klineCache, klineDao, barEngine, metrics, KlineRetentionManager.retentionSeconds(env));
+    }
+
+    public KlineRepositoryImpl(RedisKlineCache klineCache, KlineDao klineDao, KlineBarEngine barEngine,
+                               KlineMetrics metrics, long ttlSec) {
         this.klineCache = klineCache;
         this.klineDao = klineDao;
+        this.barEngine = barEngine;
+        this.metrics = metrics;
+        this.ttlSec = ttlSec;
+        this.findRangesTimer = metrics.timer("kline.repository.find_ranges", "interval", "1m");
+    }
+
+    public KlineRepositoryImpl(RedisKlineCache klineCache, KlineDao klineDao, KlineBarEngine barEngine) {
+        this(klineCache, klineDao, barEngine, new KlineMetrics(), DEFAULT_TTL_SEC);
+    }
+
+    public KlineRepositoryImpl(RedisKlineCache klineCache, KlineDao klineDao) {
+        this(klineCache, klineDao, new KlineBarEngine());
     }
 
     @Override
@@ -37,10 +72,55 @@ public class KlineRepositoryImpl implements KlineRepository {
         }
         // Per MVP requirement: Use Redis as primary storage, no fallback to database
         // If Redis cache miss, return empty response
+        long begin = System.nanoTime();
         KlineResponse cacheResp = klineCache.getRange(stockcode, marketId, startTs, endTs, limit);
+        KlineMetrics.record(metrics.marketTimer("kline.repository.find_range", marketId), begin);
         return cacheResp != null ? cacheResp : new KlineResponse();
     }
 
+    @Override
+    public List<KlineResponse> findRanges(List<KlineQuery> queries) {
+        if (queries == null || queries.isEmpty()) {
+            return new ArrayList<>();
+        }
+        long begin = System.nanoTime();
+        try {
+            return klineCache.getRanges(queries);
+        } finally {
+            KlineMetrics.record(findRangesTimer, begin);
+        }
+    }
+
+    @Override
+    public KlineResponse findBars(String stockcode, String marketId, KlineInterval interval,
+                                  Long startTs, Long endTs, Integer limit) {
+        if (interval == null || interval == KlineInterval.M1) {
+            return findRange(stockcode, marketId, startTs, endTs, limit);
+        }
+        if (stockcode == null || stockcode.trim().isEmpty() || marketId == null || marketId.trim().isEmpty()) {
+            return new KlineResponse();
+        }
+        if (limit != null && limit < 0) {
+            return new KlineResponse();
+        }
+        // Coarser intervals are served from the bars pre-aggregated by the consumer; history older than the
+        // in-process bars comes from the downsampled tier kept by the retention manager (external mode only)
+        List<PricePoint> live = barEngine.range(stockcode, marketId, interval, startTs, endTs, limit);
+        Long tierEnd = live.isEmpty() ? endTs : Long.valueOf(live.get(0).getTs() - 1);
+        List<PricePoint> history = klineCache.getTierRange(stockcode, marketId, interval, startTs, tierEnd, limit);
+        KlineResponse resp = new KlineResponse();
+        resp.setStockcode(stockcode);
+        resp.setMarketId(marketId);
+        int remaining = limit == null ? Integer.MAX_VALUE : limit;
+        for (List<PricePoint> part : Arrays.asList(history, live)) {
+            for (PricePoint p : part) {
+                if (remaining-- <= 0) return resp;
+                resp.addPricePoint(p);
+            }
+        }
+        return resp;
+    }
+
     @Override
     public void upsertBatch(KlineResponse response) {
         if (response == null) {
@@ -53,7 +133,7 @@ public class KlineRepositoryImpl implements KlineRepository {
             return;
         }
         // Per MVP requirement: Skip database operation, use Redis as primary storage
-        // Store data for 15 days (15 * 24 * 3600 = 1,296,000 seconds)
-        klineCache.putBatch(response, 3600);
+        // Store data for the retention window (app.retention.days, 15 days by default)
+        klineCache.putBatch(response, ttlSec);
     }
 }
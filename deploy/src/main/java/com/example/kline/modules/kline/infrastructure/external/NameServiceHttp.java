@@ -1,37 +1,105 @@
 package com.example.kline.modules.kline.infrastructure.external;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.stereotype.Component;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.util.UriComponentsBuilder;
 import org.springframework.util.StringUtils;
 
-import java.util.LinkedHashMap;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * 股票名称服务HTTP客户端
- * 
+ *
  * 调用外部接口获取股票名称信息
  * 请求格式: GET {baseUrl}?stockcode=xxx&marketId=xxx
  * 响应格式: {"code":"0","message":"success","data":{"stockName":"xxx"}}
  *
+ * 批量接口 (配置 app.namesvc.bulkUrl 时启用):
+ * 请求格式: POST {bulkUrl} [{"stockcode":"xxx","marketId":"xxx"},...]
+ * 响应格式: {"code":"0","message":"success","data":[{"stockcode":"xxx","marketId":"xxx","stockName":"xxx"},...]}
+ *
+ * 底层使用 Apache HttpClient 连接池, 连接/读取/取连接超时均生效
+ *
+ * 未配置批量接口时批量查询并发调用单个接口: 子任务由调用线程直接提交到 async 线程池,
+ * 池内线程从不等待其他池内任务 (避免父任务占满线程后等待排队子任务的死锁),
+ * 整批受 app.namesvc.batch.timeout 总时限约束, 超时未完成的项为 null
+ *
  * @author xubohan@myhexin.com
  * @date 2025-09-10 13:30:00
  */
 @Component
 public class NameServiceHttp {
+    private static final Logger log = LoggerFactory.getLogger(NameServiceHttp.class);
     private static final ObjectMapper MAPPER = new ObjectMapper();
-    private final RestTemplate restTemplate = new RestTemplate();
+
+    private RestTemplate restTemplate;
+    private CloseableHttpClient httpClient;
+    private ExecutorService asyncExecutor;
+    private ScheduledThreadPoolExecutor deadlineTimer;
 
     @Value("${app.namesvc.baseUrl:}")
     private String baseUrl;
-    
+
+    @Value("${app.namesvc.bulkUrl:}")
+    private String bulkUrl;
+
+    @Value("${app.namesvc.bulk.max-size:50}")
+    private int bulkMaxSize;
+
     @Value("${app.namesvc.timeout:5000}")
     private int timeoutMs;
-    
+
+    @Value("${app.namesvc.connect-timeout:1000}")
+    private int connectTimeoutMs;
+
+    @Value("${app.namesvc.pool.max-total:64}")
+    private int poolMaxTotal;
+
+    @Value("${app.namesvc.pool.max-per-route:32}")
+    private int poolMaxPerRoute;
+
+    @Value("${app.namesvc.pool.idle-evict-ms:30000}")
+    private long idleEvictMs;
+
+    @Value("${app.namesvc.async.threads:8}")
+    private int asyncThreads;
+
+    @Value("${app.namesvc.batch.timeout:10000}")
+    private long batchTimeoutMs;
+
     @Value("${app.namesvc.stub.enabled:true}")
     private boolean stubEnabled;
 
@@ -42,9 +110,91 @@ public class NameServiceHttp {
     @Value("${app.namesvc.stub.stockName:wu han}")
     private String stubName;
 
+    public NameServiceHttp() {
+    }
+
+    /**
+     * 直连指定服务的构造函数 (桩模式关闭), 用于对接本地 stub HTTP 服务测试
+     *
+     * @param baseUrl   单个查询地址
+     * @param bulkUrl   批量查询地址, 为空则批量查询退化为并发单个查询
+     * @param timeoutMs 读取超时(毫秒)
+     */
+    public NameServiceHttp(String baseUrl, String bulkUrl, int timeoutMs) {
+        this.baseUrl = baseUrl;
+        this.bulkUrl = bulkUrl;
+        this.bulkMaxSize = 50;
+        this.timeoutMs = timeoutMs;
+        this.connectTimeoutMs = Math.min(timeoutMs, 1000);
+        this.poolMaxTotal = 64;
+        this.poolMaxPerRoute = 32;
+        this.idleEvictMs = 30000L;
+        this.asyncThreads = 8;
+        this.batchTimeoutMs = timeoutMs * 2L;
+        this.stubEnabled = false;
+        init();
+    }
+
+    @PostConstruct
+    public void init() {
+        PoolingHttpClientConnectionManager cm = new PoolingHttpClientConnectionManager();
+        cm.setMaxTotal(poolMaxTotal);
+        cm.setDefaultMaxPerRoute(poolMaxPerRoute);
+        cm.setValidateAfterInactivity(2000);
+        RequestConfig rc = RequestConfig.custom()
+            .setConnectTimeout(connectTimeoutMs)
+            .setSocketTimeout(timeoutMs)
+            // 连接池耗尽时最多等待 connect-timeout, 不无限阻塞请求线程
+            .setConnectionRequestTimeout(connectTimeoutMs)
+            .build();
+        this.httpClient = HttpClients.custom()
+            .setConnectionManager(cm)
+            .setDefaultRequestConfig(rc)
+            .evictExpiredConnections()
+            .evictIdleConnections(idleEvictMs, TimeUnit.MILLISECONDS)
+            .disableCookieManagement()
+            .build();
+        this.restTemplate = new RestTemplate(new HttpComponentsClientHttpRequestFactory(httpClient));
+
+        AtomicInteger seq = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(asyncThreads, asyncThreads, 60L, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(1000), r -> {
+                Thread t = new Thread(r, "namesvc-async-" + seq.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }, new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        this.asyncExecutor = executor;
+
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "namesvc-deadline");
+            t.setDaemon(true);
+            return t;
+        });
+        timer.setRemoveOnCancelPolicy(true);
+        this.deadlineTimer = timer;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (asyncExecutor != null) {
+            asyncExecutor.shutdownNow();
+        }
+        if (deadlineTimer != null) {
+            deadlineTimer.shutdownNow();
+        }
+        try {
+            if (httpClient != null) {
+                httpClient.close();
+            }
+        } catch (Exception ignore) {
+            // closing on shutdown
+        }
+    }
+
     /**
      * 获取股票名称
-     * 
+     *
      * @param stockcode 股票代码
      * @param marketId 市场ID
      * @return 股票名称，获取失败时返回null
@@ -54,20 +204,109 @@ public class NameServiceHttp {
         if (!StringUtils.hasText(stockcode) || !StringUtils.hasText(marketId)) {
             return null;
         }
-        
+
         // 如果启用桩模式，直接返回配置的测试数据
         if (stubEnabled) {
-            if (stubSc.equals(stockcode) && stubMk.equals(marketId)) {
-                return stubName;
-            }
-            // 其他股票返回格式化名称
-            return "STOCK-" + stockcode + "-" + marketId;
+            return stubName(stockcode, marketId);
         }
-        
+
         // 调用真实的外部服务
         return callRealNameService(stockcode, marketId);
     }
-    
+
+    /**
+     * 批量获取股票名称; 配置了批量接口时按 bulk.max-size 分片调用, 否则并发调用单个接口
+     *
+     * @param stockcodes 股票代码
+     * @param marketIds  市场ID, 与 stockcodes 等长
+     * @return 与入参一一对应的名称, 获取失败为 null
+     */
+    public List<String> fetchNames(List<String> stockcodes, List<String> marketIds) {
+        int n = stockcodes.size();
+        List<String> out = new ArrayList<>(n);
+        if (stubEnabled) {
+            for (int i = 0; i < n; i++) {
+                out.add(fetchName(stockcodes.get(i), marketIds.get(i)));
+            }
+            return out;
+        }
+        if (StringUtils.hasText(bulkUrl)) {
+            for (int i = 0; i < n; i++) out.add(null);
+            for (int from = 0; from < n; from += bulkMaxSize) {
+                int to = Math.min(n, from + bulkMaxSize);
+                callBulkNameService(stockcodes, marketIds, from, to, out);
+            }
+            return out;
+        }
+        CompletableFuture<List<String>> all = fanOut(stockcodes, marketIds);
+        try {
+            // fanOut 自带总时限, 这里再加一层有界等待兜底
+            return all.get(batchTimeoutMs + 1000L, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            log.debug("Batch name lookup did not complete: {}", e.toString());
+        }
+        for (int i = 0; i < n; i++) out.add(null);
+        return out;
+    }
+
+    /**
+     * 异步获取单个股票名称, 失败时以 null 完成
+     */
+    public CompletableFuture<String> fetchNameAsync(String stockcode, String marketId) {
+        return CompletableFuture.supplyAsync(() -> fetchName(stockcode, marketId), asyncExecutor)
+            .exceptionally(e -> null);
+    }
+
+    /**
+     * 异步批量获取股票名称, 失败项为 null
+     *
+     * 批量接口/桩模式只有一次调用, 放到 async 线程池执行; 否则在调用线程上直接扇出,
+     * 不占用池内线程等待子任务
+     */
+    public CompletableFuture<List<String>> fetchNamesAsync(List<String> stockcodes, List<String> marketIds) {
+        if (stubEnabled || StringUtils.hasText(bulkUrl)) {
+            return CompletableFuture.supplyAsync(() -> fetchNames(stockcodes, marketIds), asyncExecutor);
+        }
+        return fanOut(stockcodes, marketIds);
+    }
+
+    /**
+     * 并发调用单个接口; 到达 batch.timeout 仍未完成的项以 null 完成, 整批结果必定在时限内就绪
+     */
+    private CompletableFuture<List<String>> fanOut(List<String> stockcodes, List<String> marketIds) {
+        int n = stockcodes.size();
+        List<CompletableFuture<String>> futures = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            futures.add(fetchNameAsync(stockcodes.get(i), marketIds.get(i)));
+        }
+        CompletableFuture<Void> all = CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]));
+        if (!all.isDone()) {
+            ScheduledFuture<?> deadline = deadlineTimer.schedule(() -> {
+                for (CompletableFuture<String> f : futures) {
+                    f.complete(null);
+                }
+            }, batchTimeoutMs, TimeUnit.MILLISECONDS);
+            all.whenComplete((v, e) -> deadline.cancel(false));
+        }
+        return all.thenApply(v -> {
+            List<String> out = new ArrayList<>(n);
+            for (CompletableFuture<String> f : futures) {
+                out.add(f.getNow(null));
+            }
+            return out;
+        });
+    }
+
+    private String stubName(String stockcode, String marketId) {
+        if (stubSc.equals(stockcode) && stubMk.equals(marketId)) {
+            return stubName;
+        }
+        // 其他股票返回格式化名称
+        return "STOCK-" + stockcode + "-" + marketId;
+    }
+
     /**
      * 调用真实的名称服务接口
      */
@@ -76,18 +315,23 @@ public class NameServiceHttp {
             // 没有配置baseUrl，使用桩数据
             return "STUB-" + stockcode + "-" + marketId;
         }
-        
+
         try {
-            String url = baseUrl + "?stockcode=" + stockcode + "&marketId=" + marketId;
-            
-            ResponseEntity<String> response = restTemplate.getForEntity(url, String.class);
-            
+            URI uri = UriComponentsBuilder.fromHttpUrl(baseUrl)
+                .queryParam("stockcode", stockcode)
+                .queryParam("marketId", marketId)
+                .encode()
+                .build()
+                .toUri();
+
+            ResponseEntity<String> response = restTemplate.getForEntity(uri, String.class);
+
             if (response.getStatusCode().is2xxSuccessful() && response.getBody() != null) {
                 return parseNameFromResponse(response.getBody());
             }
-            
+
             return null;
-            
+
         } catch (ResourceAccessException e) {
             // 网络超时或连接失败
             return null;
@@ -96,7 +340,46 @@ public class NameServiceHttp {
             return null;
         }
     }
-    
+
+    /**
+     * 调用批量名称接口, 结果按 stockcode:marketId 回填到 out[from, to)
+     */
+    private void callBulkNameService(List<String> stockcodes, List<String> marketIds, int from, int to,
+                                     List<String> out) {
+        try {
+            ArrayNode body = MAPPER.createArrayNode();
+            for (int i = from; i < to; i++) {
+                ObjectNode item = body.addObject();
+                item.put("stockcode", stockcodes.get(i));
+                item.put("marketId", marketIds.get(i));
+            }
+            HttpHeaders headers = new HttpHeaders();
+            headers.setContentType(MediaType.APPLICATION_JSON);
+            ResponseEntity<String> response = restTemplate.postForEntity(
+                URI.create(bulkUrl), new HttpEntity<>(body.toString(), headers), String.class);
+            if (!response.getStatusCode().is2xxSuccessful() || response.getBody() == null) {
+                return;
+            }
+            JsonNode root = MAPPER.readTree(response.getBody());
+            if (!"0".equals(root.path("code").asText())) {
+                return; // 业务失败
+            }
+            Map<String, String> names = new HashMap<>();
+            for (JsonNode item : root.path("data")) {
+                JsonNode name = item.get("stockName");
+                if (name != null && !name.isNull()) {
+                    names.put(item.path("stockcode").asText() + ":" + item.path("marketId").asText(), name.asText());
+                }
+            }
+            for (int i = from; i < to; i++) {
+                out.set(i, names.get(stockcodes.get(i) + ":" + marketIds.get(i)));
+            }
+        } catch (Exception e) {
+            // 网络超时、连接失败或响应格式错误, 该分片全部视为失败
+            log.debug("Bulk name lookup failed: {}", e.getMessage());
+        }
+    }
+
     /**
      * 解析响应JSON，提取股票名称
      */
@@ -104,13 +387,13 @@ public class NameServiceHttp {
         try {
             @SuppressWarnings("unchecked")
             Map<String, Object> response = MAPPER.readValue(responseBody, Map.class);
-            
+
             // 检查响应code
             Object code = response.get("code");
             if (!"0".equals(String.valueOf(code))) {
                 return null; // 业务失败
             }
-            
+
             // 提取data.stockName
             Object data = response.get("data");
             if (data instanceof Map) {
@@ -119,9 +402,9 @@ public class NameServiceHttp {
                 Object stockName = dataMap.get("stockName");
                 return stockName != null ? String.valueOf(stockName) : null;
             }
-            
+
             return null;
-            
+
         } catch (Exception e) {
             return null;
         }
@@ -0,0 +1,41 @@
+package com.example.kline.common.metrics;
+
+import com.example.kline.modules.kline.infrastructure.cache.SymbolRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * market 标签只接受写入路径注册过的市场, 且受 max-markets 上限约束
+ *
+ * @author xubohan@myhexin.com
+ * @date 2026-10-18 10:40:00
+ */
+public class KlineMetricsTest {
+
+    @Test
+    void onlyIngestedMarketsGetTheirOwnTag() {
+        SymbolRegistry symbols = new SymbolRegistry();
+        KlineMetrics metrics = new KlineMetrics(new SimpleMeterRegistry(),
+            new MockEnvironment().withProperty("app.metrics.max-markets", "2"), symbols);
+
+        // 查询参数中的任意市场不产生新标签, 也不占名额
+        for (int i = 0; i < 100; i++) {
+            assertEquals(KlineMetrics.OTHER, tag(metrics, "probe-" + i));
+        }
+        symbols.register("600000", "1");
+        symbols.register("000001", "0");
+        symbols.register("AAPL", "US");
+        assertEquals("1", tag(metrics, "1"));
+        assertEquals("0", tag(metrics, "0"));
+        // 已注册但超出上限
+        assertEquals(KlineMetrics.OTHER, tag(metrics, "US"));
+        assertEquals(KlineMetrics.OTHER, tag(metrics, null));
+    }
+
+    private static String tag(KlineMetrics metrics, String marketId) {
+        return metrics.marketTimer("kline.test", marketId).getId().getTag("market");
+    }
+}
@@ -0,0 +1,63 @@
+package com.example.kline.common.ratelimit;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 分段令牌桶: 单线程也能用满总速率, 突发量不被分段放大
+ *
+ * @author xubohan@myhexin.com
+ * @date 2026-10-17 11:50:00
+ */
+public class StripedTokenBucketTest {
+
+    @Test
+    void singleThreadGetsFullRate() {
+        long start = System.nanoTime();
+        StripedTokenBucket bucket = new StripedTokenBucket(800, 800, 8);
+        assertEquals(8, bucket.stripes());
+
+        // 模拟 2 秒内每 100 微秒一次请求 (远超速率), 放行数 = 初始突发 + 2 秒发放量
+        int admitted = 0;
+        long step = TimeUnit.MICROSECONDS.toNanos(100);
+        for (long now = start; now < start + TimeUnit.SECONDS.toNanos(2); now += step) {
+            if (bucket.tryAcquire(now) == 0L) {
+                admitted++;
+            }
+        }
+        assertTrue(admitted >= 2350 && admitted <= 2450, "admitted " + admitted);
+    }
+
+    @Test
+    void burstIsNotInflatedByStripes() {
+        StripedTokenBucket bucket = new StripedTokenBucket(100, 2, 8);
+        long now = System.nanoTime();
+        assertTrue(bucket.stripes() <= 2);
+        int admitted = 0;
+        for (int i = 0; i < 10; i++) {
+            if (bucket.tryAcquire(now) == 0L) {
+                admitted++;
+            }
+        }
+        assertEquals(2, admitted);
+    }
+
+    @Test
+    void rejectionReportsWaitAndRefundRestoresToken() {
+        StripedTokenBucket bucket = new StripedTokenBucket(10, 4, 4);
+        long now = System.nanoTime();
+        for (int i = 0; i < 4; i++) {
+            assertEquals(0L, bucket.tryAcquire(now));
+        }
+        long wait = bucket.tryAcquire(now);
+        assertTrue(wait > 0 && wait <= TimeUnit.MILLISECONDS.toNanos(400), "wait " + wait);
+
+        bucket.refund(now);
+        assertEquals(0L, bucket.tryAcquire(now));
+        assertTrue(bucket.tryAcquire(now) > 0);
+    }
+}
@@ -0,0 +1,182 @@
+package com.example.kline.interfaces.consumer;
+
+import com.example.kline.common.metrics.KlineMetrics;
+import com.example.kline.modules.kline.domain.entity.PricePoint;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 推送分发: 慢订阅者被断开且不占住发送线程, 心跳与数据发送互斥
+ *
+ * @author xubohan@myhexin.com
+ * @date 2026-10-17 14:20:00
+ */
+public class KlineStreamHubTest {
+
+    private KlineStreamHub hub;
+
+    @AfterEach
+    void tearDown() {
+        if (hub != null) hub.shutdown();
+    }
+
+    @Test
+    void slowSubscriberIsDroppedWithoutStallingOthers() throws Exception {
+        hub = start("1", "100");
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch blocked = new CountDownLatch(1);
+        RecordingSink slow = new RecordingSink() {
+            @Override
+            public void send(String stockCode, String marketId, PricePoint bar) {
+                super.send(stockCode, marketId, bar);
+                blocked.countDown();
+                // 模拟不响应中断的阻塞写
+                while (release.getCount() > 0) {
+                    try {
+                        release.await();
+                    } catch (InterruptedException ignore) {
+                        // 继续阻塞
+                    }
+                }
+            }
+        };
+        RecordingSink fast = new RecordingSink();
+        assertNotNull(hub.subscribe(Collections.singletonList("600000"), Collections.singletonList("1"), slow));
+        assertNotNull(hub.subscribe(Collections.singletonList("600001"), Collections.singletonList("1"), fast));
+
+        hub.publish("600000", "1", bar(1));
+        assertTrue(blocked.await(5, TimeUnit.SECONDS));
+        // 唯一的发送线程被卡住后, 其它订阅者仍能收到
+        hub.publish("600001", "1", bar(2));
+        awaitTrue(() -> fast.bars.get() == 1);
+        awaitTrue(() -> ((Long) hub.stats().get("slowDropped")) == 1L);
+        assertEquals(1, hub.stats().get("subscribers"));
+        assertFalse(slow.closed.get(), "close must wait for the blocked send to return");
+
+        release.countDown();
+        awaitTrue(slow.closed::get);
+        awaitTrue(() -> (Integer) hub.stats().get("blockedSenders") == 0);
+        hub.publish("600001", "1", bar(3));
+        awaitTrue(() -> fast.bars.get() == 2);
+    }
+
+    @Test
+    void heartbeatAndBarsNeverOverlap() throws Exception {
+        hub = start("4", "5000");
+        RecordingSink sink = new RecordingSink();
+        hub.subscribe(Collections.singletonList("600000"), Collections.singletonList("1"), sink);
+        long deadline = System.currentTimeMillis() + 2500L;
+        int i = 0;
+        while (System.currentTimeMillis() < deadline) {
+            hub.publish("600000", "1", bar(i++));
+            Thread.sleep(1);
+        }
+        awaitTrue(() -> sink.heartbeats.get() > 0);
+        assertEquals(1, sink.maxActive.get());
+        assertFalse(sink.closed.get());
+    }
+
+    @Test
+    void idleDispatcherParksUntilPublish() throws Exception {
+        hub = start("1", "5000");
+        RecordingSink sink = new RecordingSink();
+        hub.subscribe(Collections.singletonList("600000"), Collections.singletonList("1"), sink);
+        for (int i = 1; i <= 20; i++) {
+            // 空闲时不定时唤醒 (WAITING 而不是 TIMED_WAITING), 每次 publish 都能把它叫醒
+            awaitTrue(() -> dispatcherState() == Thread.State.WAITING);
+            hub.publish("600000", "1", bar(i));
+            int expected = i;
+            awaitTrue(() -> sink.bars.get() == expected);
+        }
+        assertEquals(20L, hub.stats().get("dispatched"));
+    }
+
+    private KlineStreamHub start(String senders, String sendTimeoutMs) {
+        MockEnvironment env = new MockEnvironment()
+            .withProperty("app.stream.senders", senders)
+            .withProperty("app.stream.heartbeat-sec", "1")
+            .withProperty("app.stream.send-timeout-ms", sendTimeoutMs);
+        KlineStreamHub h = new KlineStreamHub(env, new KlineMetrics());
+        h.start();
+        return h;
+    }
+
+    private static Thread.State dispatcherState() {
+        for (Thread t : Thread.getAllStackTraces().keySet()) {
+            if ("kline-stream-dispatcher".equals(t.getName()) && t.isAlive()) {
+                return t.getState();
+            }
+        }
+        return null;
+    }
+
+    private static void awaitTrue(java.util.function.BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean() && System.nanoTime() < deadline) {
+            Thread.sleep(2);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+
+    private static PricePoint bar(long i) {
+        PricePoint p = new PricePoint();
+        p.setTs(60L * i);
+        p.setClose(BigDecimal.ONE);
+        p.setVol(i);
+        return p;
+    }
+
+    private static class RecordingSink implements KlineStreamHub.Sink {
+        final AtomicInteger bars = new AtomicInteger();
+        final AtomicInteger heartbeats = new AtomicInteger();
+        final AtomicInteger active = new AtomicInteger();
+        final AtomicInteger maxActive = new AtomicInteger();
+        final AtomicBoolean closed = new AtomicBoolean();
+
+        @Override
+        public void send(String stockCode, String marketId, PricePoint bar) {
+            enter();
+            bars.incrementAndGet();
+            pause();
+            active.decrementAndGet();
+        }
+
+        @Override
+        public void heartbeat() {
+            enter();
+            heartbeats.incrementAndGet();
+            pause();
+            active.decrementAndGet();
+        }
+
+        @Override
+        public void close() {
+            closed.set(true);
+        }
+
+        private void enter() {
+            maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+        }
+
+        static void pause() {
+            try {
+                Thread.sleep(2);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.example.kline.interfaces.consumer;
+
+import com.example.kline.common.metrics.KlineMetrics;
+import com.example.kline.modules.kline.domain.entity.KlineResponse;
+import com.example.kline.modules.kline.domain.entity.TimelineTick;
+import com.example.kline.modules.kline.domain.repository.KlineRepository;
+import com.example.kline.modules.kline.infrastructure.cache.KlineBarEngine;
+import com.example.kline.modules.kline.infrastructure.cache.KlineJournal;
+import com.example.kline.modules.kline.infrastructure.cache.LatestQuoteTable;
+import com.example.kline.modules.kline.infrastructure.cache.TimelineRedisWriter;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+
+/**
+ * 日志追加/落盘或 Redis 写入失败时不能提交位点
+ *
+ * @author xubohan@myhexin.com
+ * @date 2026-10-17 11:20:00
+ */
+public class TimelineConsumerJournalTest {
+
+    private static final String PAYLOAD = "{\"topic\":\"timeline\",\"stock_minute_data\":{\"stockCode\":\"300033\","
+        + "\"marketId\":\"33\",\"price\":\"86.96\",\"date\":\"20200101\",\"time\":\"0930\"}}";
+
+    private TimelinePipeline pipeline;
+
+    @AfterEach
+    void tearDown() {
+        if (pipeline != null) {
+            pipeline.shutdown();
+        }
+    }
+
+    @Test
+    void batchIsNotAckedWhenJournalAppendFails() {
+        KlineJournal journal = Mockito.mock(KlineJournal.class);
+        Mockito.when(journal.append(anyList())).thenThrow(new UncheckedIOException(new IOException("disk full")));
+        TimelineConsumer consumer = consumer(journal, new TimelinePipeline());
+        Acknowledgment ack = Mockito.mock(Acknowledgment.class);
+        List<ConsumerRecord<String, String>> records =
+            Collections.singletonList(new ConsumerRecord<>("timeline", 0, 7L, null, PAYLOAD));
+
+        assertThrows(UncheckedIOException.class, () -> consumer.runBatch(records, ack));
+        Mockito.verify(ack, Mockito.never()).acknowledge();
+        Mockito.verify(journal, Mockito.never()).commit(anyLong());
+    }
+
+    @Test
+    void batchIsNotAckedWhenRedisWriteFails() {
+        KlineJournal journal = Mockito.mock(KlineJournal.class);
+        TimelineRedisWriter writer = Mockito.mock(TimelineRedisWriter.class);
+        Mockito.when(writer.writeBatch(Mockito.anyCollection())).thenReturn(false);
+        TimelineConsumer consumer = consumer(journal, new TimelinePipeline(), writer);
+        Acknowledgment ack = Mockito.mock(Acknowledgment.class);
+        List<ConsumerRecord<String, String>> records =
+            Collections.singletonList(new ConsumerRecord<>("timeline", 0, 7L, null, PAYLOAD));
+
+        assertThrows(UncheckedIOException.class, () -> consumer.runBatch(records, ack));
+        Mockito.verify(ack, Mockito.never()).acknowledge();
+        Mockito.verify(journal, Mockito.never()).append(anyList());
+    }
+
+    @Test
+    void recordIsNotAckedWhenRedisWriteFails() {
+        TimelineRedisWriter writer = Mockito.mock(TimelineRedisWriter.class);
+        Mockito.when(writer.writeBar(Mockito.anyString(), Mockito.anyString(), Mockito.any())).thenReturn(false);
+        TimelineConsumer consumer = consumer(Mockito.mock(KlineJournal.class), new TimelinePipeline(), writer);
+        Acknowledgment ack = Mockito.mock(Acknowledgment.class);
+
+        assertThrows(UncheckedIOException.class,
+            () -> consumer.run(new ConsumerRecord<>("timeline", 0, 7L, null, PAYLOAD), ack));
+        Mockito.verify(ack, Mockito.never()).acknowledge();
+    }
+
+    @Test
+    void batchIsNotAckedWhenJournalSyncFails() {
+        KlineJournal journal = Mockito.mock(KlineJournal.class);
+        Mockito.when(journal.append(anyList())).thenReturn(3L);
+        Mockito.doThrow(new UncheckedIOException(new IOException("fsync failed"))).when(journal).commit(3L);
+        TimelineConsumer consumer = consumer(journal, new TimelinePipeline());
+        Acknowledgment ack = Mockito.mock(Acknowledgment.class);
+        List<ConsumerRecord<String, String>> records =
+            Collections.singletonList(new ConsumerRecord<>("timeline", 0, 7L, null, PAYLOAD));
+
+        assertThrows(UncheckedIOException.class, () -> consumer.runBatch(records, ack));
+        Mockito.verify(ack, Mockito.never()).acknowledge();
+    }
+
+    @Test
+    void pipelineLaneWaitsForJournalAppend() throws Exception {
+        MockEnvironment env = new MockEnvironment()
+            .withProperty("app.kafka.consumer.timeline.pipeline.enabled", "true")
+            .withProperty("app.kafka.consumer.timeline.pipeline.lanes", "1");
+        pipeline = new TimelinePipeline(env, new KlineMetrics());
+        AtomicInteger failures = new AtomicInteger(1);
+        AtomicInteger processed = new AtomicInteger();
+        pipeline.start(new TimelinePipeline.Handler() {
+            @Override
+            public List<KlineResponse> process(List<TimelineTick> ticks) {
+                processed.addAndGet(ticks.size());
+                return Collections.singletonList(new KlineResponse());
+            }
+
+            @Override
+            public long append(List<KlineResponse> responses) {
+                if (failures.getAndDecrement() > 0) {
+                    throw new UncheckedIOException(new IOException("disk full"));
+                }
+                return 1L;
+            }
+
+            @Override
+            public void commit(long ticket) {
+            }
+        });
+
+        TopicPartition tp = new TopicPartition("timeline", 0);
+        Consumer<?, ?> kafka = Mockito.mock(Consumer.class);
+        Mockito.when(kafka.assignment()).thenReturn(Collections.singleton(tp));
+
+        pipeline.dispatch(kafka, "timeline", 0, 5L, new TimelineTick("300033", "33", 0L, BigDecimal.ONE, 1L));
+        Thread.sleep(200L);
+        // 追加失败: 记录未完成, 不提交位点
+        pipeline.commit(kafka);
+        Mockito.verify(kafka, Mockito.never()).commitAsync(Mockito.anyMap(), Mockito.any());
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (failures.get() >= 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10L);
+        }
+        Thread.sleep(50L);
+        pipeline.commit(kafka);
+        Mockito.verify(kafka).commitAsync(
+            Mockito.eq(Collections.singletonMap(tp, new OffsetAndMetadata(6L))), Mockito.any());
+        // 只重试追加, 不重复处理
+        assertEquals(1, processed.get());
+        @SuppressWarnings("unchecked")
+        Map<String, Object> lane = ((List<Map<String, Object>>) pipeline.stats().get("lanes")).get(0);
+        assertEquals(1L, lane.get("journalRetries"));
+    }
+
+    private static TimelineConsumer consumer(KlineJournal journal, TimelinePipeline pipeline) {
+        return consumer(journal, pipeline, new TimelineRedisWriter());
+    }
+
+    private static TimelineConsumer consumer(KlineJournal journal, TimelinePipeline pipeline,
+                                             TimelineRedisWriter writer) {
+        return new TimelineConsumer(Mockito.mock(KlineRepository.class), writer,
+            new KlineBarEngine(), journal, new KlineMetrics(), pipeline, new LatestQuoteTable(),
+            new KlineStreamHub());
+    }
+}
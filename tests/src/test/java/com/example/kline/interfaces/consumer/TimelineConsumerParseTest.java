@@ -0,0 +1,44 @@
+package com.example.kline.interfaces.consumer;
+
+import com.example.kline.modules.kline.domain.entity.TimelineTick;
+import com.example.kline.modules.kline.domain.repository.KlineRepository;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.math.BigDecimal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * 消息解析: 无法按定点数无损存储的价格在入口拒绝
+ *
+ * @author xubohan@myhexin.com
+ * @date 2026-10-17 15:40:00
+ */
+public class TimelineConsumerParseTest {
+
+    private final TimelineConsumer consumer = new TimelineConsumer(Mockito.mock(KlineRepository.class));
+
+    @Test
+    void rejectsPricesThatDoNotFitFixedPoint() throws Exception {
+        assertNull(consumer.parseTick(message("88.94005")));
+        assertNull(consumer.parseTick(message("1e20")));
+        assertNull(consumer.parseTick(message("1234567890123456.5")));
+    }
+
+    @Test
+    void acceptsPricesWithTrailingZerosBeyondFourDecimals() throws Exception {
+        TimelineTick tick = consumer.parseTick(message("88.940000"));
+        assertNotNull(tick);
+        assertEquals(0, new BigDecimal("88.94").compareTo(tick.getPrice()));
+        assertEquals(889400L, tick.getFixedPrice());
+        assertNotNull(consumer.parseTick(message("88.9401")));
+    }
+
+    private static String message(String price) {
+        return "{\"topic\":\"t\",\"stock_minute_data\":{\"stockCode\":\"300033\",\"marketId\":\"33\",\"price\":" + price
+            + ",\"date\":\"20251017\",\"time\":\"0930\",\"vol\":10}}";
+    }
+}
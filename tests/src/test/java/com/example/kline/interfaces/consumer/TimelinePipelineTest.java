@@ -0,0 +1,139 @@
+package com.example.kline.interfaces.consumer;
+
+import com.example.kline.common.metrics.KlineMetrics;
+import com.example.kline.modules.kline.domain.entity.KlineResponse;
+import com.example.kline.modules.kline.domain.entity.TimelineTick;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 分区回收超时后隔离 lane; lane 满时 pause 分区而不是阻塞 poll 线程
+ *
+ * @author xubohan@myhexin.com
+ * @date 2026-10-17 21:10:00
+ */
+public class TimelinePipelineTest {
+
+    private TimelinePipeline pipeline;
+
+    @AfterEach
+    void tearDown() {
+        if (pipeline != null) {
+            pipeline.shutdown();
+        }
+    }
+
+    private final CountDownLatch entered = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final List<Long> processed = Collections.synchronizedList(new ArrayList<>());
+
+    @Test
+    void revokeFencesLanesAfterDrainTimeout() throws Exception {
+        start(new MockEnvironment()
+            .withProperty("app.kafka.consumer.timeline.pipeline.drain-timeout-ms", "50"));
+        TopicPartition tp = new TopicPartition("timeline", 0);
+        Consumer<?, ?> kafka = Mockito.mock(Consumer.class);
+        pipeline.dispatch(kafka, "timeline", 0, 1L, tick(1L));
+        pipeline.dispatch(kafka, "timeline", 0, 2L, tick(2L));
+        assertTrue(entered.await(5, TimeUnit.SECONDS));
+
+        Thread revoker = new Thread(() -> pipeline.onPartitionsRevokedBeforeCommit(kafka, Collections.singleton(tp)));
+        revoker.start();
+        revoker.join(300L);
+        // 第一条仍在 process 中: 回调必须等它返回
+        assertTrue(revoker.isAlive());
+
+        release.countDown();
+        revoker.join(5000L);
+        assertFalse(revoker.isAlive());
+
+        Thread.sleep(200L);
+        // 第二条属于已回收分区, lane 丢弃而不是处理
+        assertEquals(Collections.singletonList(1L), processed);
+        assertEquals(1L, pipeline.stats().get("fenced"));
+    }
+
+    @Test
+    void fullLanePausesPartitionInsteadOfBlockingPoll() throws Exception {
+        start(new MockEnvironment()
+            .withProperty("app.kafka.consumer.timeline.pipeline.lane-capacity", "1"));
+        TopicPartition tp = new TopicPartition("timeline", 0);
+        Consumer<?, ?> kafka = Mockito.mock(Consumer.class);
+        Mockito.when(kafka.assignment()).thenReturn(Collections.singleton(tp));
+        pipeline.dispatch(kafka, "timeline", 0, 1L, tick(1L));
+        assertTrue(entered.await(5, TimeUnit.SECONDS));
+
+        // lane 正在处理第一条, 队列容量 1: 第二条入队, 之后的记录进入积压, 分发立即返回
+        for (long i = 2; i <= 5; i++) {
+            pipeline.dispatch(kafka, "timeline", 0, i, tick(i));
+        }
+        Mockito.verify(kafka, Mockito.times(1)).pause(Collections.singleton(tp));
+        assertEquals(3L, pipeline.stats().get("backlog"));
+        pipeline.resume(kafka);
+        Mockito.verify(kafka, Mockito.never()).resume(Mockito.anyCollection());
+
+        release.countDown();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (((Number) pipeline.stats().get("pausedPartitions")).intValue() > 0 && System.nanoTime() < deadline) {
+            pipeline.resume(kafka);
+            Thread.sleep(5L);
+        }
+        Mockito.verify(kafka).resume(Collections.singletonList(tp));
+        while (processed.size() < 5 && System.nanoTime() < deadline) {
+            Thread.sleep(5L);
+        }
+        // 积压按分发顺序放入 lane
+        assertEquals(Arrays.asList(1L, 2L, 3L, 4L, 5L), processed);
+    }
+
+    private void start(MockEnvironment env) {
+        env.withProperty("app.kafka.consumer.timeline.pipeline.enabled", "true")
+            .withProperty("app.kafka.consumer.timeline.pipeline.lanes", "1")
+            .withProperty("app.kafka.consumer.timeline.pipeline.lane-batch", "1");
+        pipeline = new TimelinePipeline(env, new KlineMetrics());
+        pipeline.start(new TimelinePipeline.Handler() {
+            @Override
+            public List<KlineResponse> process(List<TimelineTick> ticks) {
+                for (TimelineTick t : ticks) {
+                    processed.add(t.getVol());
+                }
+                entered.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return Collections.emptyList();
+            }
+
+            @Override
+            public long append(List<KlineResponse> responses) {
+                return 0L;
+            }
+
+            @Override
+            public void commit(long ticket) {
+            }
+        });
+    }
+
+    private static TimelineTick tick(long vol) {
+        return new TimelineTick("300033", "33", 0L, BigDecimal.ONE, vol);
+    }
+}
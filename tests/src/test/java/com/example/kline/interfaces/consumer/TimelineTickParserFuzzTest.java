@@ -0,0 +1,169 @@
+package com.example.kline.interfaces.consumer;
+
+import com.example.kline.modules.kline.domain.entity.TimelineTick;
+import com.example.kline.modules.kline.domain.repository.KlineRepository;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 快速解析器与 Jackson 绑定的差分测试: 固定种子变异合法消息, 快速路径接受的每条消息
+ * Jackson 路径必须同样接受并得到完全相同的 tick (快速路径拒绝则总是允许, 由调用方回退)
+ *
+ * @author xubohan@myhexin.com
+ * @date 2026-10-18 09:20:00
+ */
+public class TimelineTickParserFuzzTest {
+
+    private static final long SEED = 20261017L;
+    private static final int ROUNDS = 24_000;
+
+    private static final String[] BASES = {
+        "{\"topic\":\"t\",\"stock_minute_data\":{\"stockCode\":\"300033\",\"marketId\":\"33\",\"price\":88.94,"
+            + "\"date\":\"20251017\",\"time\":\"0930\",\"vol\":10}}",
+        "{ \"stock_minute_data\" : { \"marketId\" : \"1\", \"time\" : \"1459\", \"price\" : -0.5,"
+            + " \"stockCode\" : \"600000\", \"date\" : \"20240229\" } , \"topic\" : \"timeline\" }",
+        "{\"stock_minute_data\":{\"stockCode\":\"AAPL\",\"marketId\":\"US\",\"price\":\"1724.5000\","
+            + "\"date\":\"19991231\",\"time\":\"2359\",\"volume\":123456789012}}",
+        "\n{\"topic\":\"\",\"stock_minute_data\":{\"stockCode\":\" 1\",\"marketId\":\"33\",\"price\":0,"
+            + "\"date\":\"20000101\",\"time\":\"0000\",\"vol\":0}}\t",
+    };
+
+    /** 替换标量值用的 token: 边界数字、错误类型、非法日期/时间 */
+    private static final String[] VALUES = {
+        "0", "-0", "01", "-1", "1.", ".5", "1.5", "88.940000", "88.94005", "1e3", "1E-2", "-",
+        "99999999999999.9999", "999999999999999", "123456789012345678", "1234567890123456789",
+        "true", "null", "[]", "{}", "\"\"", "\" \"", "\"x\"", "\"88.94\"", "\"-0.0001\"", "\"10\"",
+        "\"20240229\"", "\"20230229\"", "\"20241301\"", "\"00000101\"", "\"2024010\"", "\"2024-01-01\"",
+        "\"0930\"", "\"2400\"", "\"0960\"", "\"09 30\"", "\"930\"", "\"\\u0033\"", "\"a\\\"b\"",
+    };
+
+    private static final String[] KEYS = {
+        "topic", "stock_minute_data", "stockCode", "marketId", "price", "date", "time", "vol", "volume",
+        "Price", "extra", "",
+    };
+
+    private static final String ALPHABET = "{}[]\":,.-+0123456789eE\\ \t\nx";
+
+    private final TimelineConsumer consumer = new TimelineConsumer(Mockito.mock(KlineRepository.class));
+    private final TimelineTickParser parser = new TimelineTickParser(64);
+
+    @Test
+    void fastPathNeverAcceptsWhatJacksonRejectsOrDisagrees() {
+        Random rnd = new Random(SEED);
+        int accepted = 0;
+        int fallback = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            StringBuilder sb = new StringBuilder(BASES[rnd.nextInt(BASES.length)]);
+            // 约 1/8 保持原样, 其余叠加 1~4 次变异
+            int mutations = rnd.nextInt(8) == 0 ? 0 : 1 + rnd.nextInt(4);
+            for (int m = 0; m < mutations; m++) {
+                mutate(sb, rnd);
+            }
+            String payload = sb.toString();
+
+            TimelineTick fast = parser.parse(payload);
+            TimelineTick slow;
+            try {
+                slow = consumer.bindTick(payload);
+            } catch (Exception e) {
+                slow = null;
+            }
+            if (fast == null) {
+                if (slow != null) fallback++;
+                continue;
+            }
+            accepted++;
+            assertNotNull(slow, "fast path accepted a payload Jackson rejects: " + payload);
+            assertSameTick(slow, fast, payload);
+        }
+        // 变异既要覆盖快速路径接受的输入, 也要覆盖只有回退路径接受的输入
+        assertTrue(accepted > ROUNDS / 20, "accepted=" + accepted);
+        assertTrue(fallback > ROUNDS / 100, "fallback=" + fallback);
+    }
+
+    private static void mutate(StringBuilder sb, Random rnd) {
+        if (sb.length() == 0) {
+            sb.append(ALPHABET.charAt(rnd.nextInt(ALPHABET.length())));
+            return;
+        }
+        int pos = rnd.nextInt(sb.length());
+        switch (rnd.nextInt(6)) {
+            case 0:
+                sb.setCharAt(pos, ALPHABET.charAt(rnd.nextInt(ALPHABET.length())));
+                break;
+            case 1:
+                sb.deleteCharAt(pos);
+                break;
+            case 2:
+                sb.insert(pos, ALPHABET.charAt(rnd.nextInt(ALPHABET.length())));
+                break;
+            case 3:
+                replaceValue(sb, rnd, VALUES[rnd.nextInt(VALUES.length)]);
+                break;
+            case 4:
+                replaceKey(sb, rnd, KEYS[rnd.nextInt(KEYS.length)]);
+                break;
+            default:
+                // 删除或复制一个 "key":value 片段 (缺字段 / 重复字段)
+                int comma = sb.indexOf(",", pos);
+                if (comma < 0) break;
+                int next = nextSeparator(sb, comma + 1);
+                if (rnd.nextBoolean()) {
+                    sb.delete(comma, next);
+                } else {
+                    sb.insert(next, sb.substring(comma, next));
+                }
+                break;
+        }
+    }
+
+    /** 把某个 ':' 之后的标量值替换为 token */
+    private static void replaceValue(StringBuilder sb, Random rnd, String token) {
+        int colon = sb.indexOf(":", rnd.nextInt(sb.length()));
+        if (colon < 0) colon = sb.indexOf(":");
+        if (colon < 0) return;
+        int from = colon + 1;
+        while (from < sb.length() && sb.charAt(from) == ' ') from++;
+        if (from >= sb.length() || sb.charAt(from) == '{') return;
+        int to;
+        if (sb.charAt(from) == '"') {
+            to = sb.indexOf("\"", from + 1);
+            if (to < 0) return;
+            to++;
+        } else {
+            to = nextSeparator(sb, from);
+        }
+        sb.replace(from, to, token);
+    }
+
+    /** 把某个 "key": 的 key 替换为另一个名字 */
+    private static void replaceKey(StringBuilder sb, Random rnd, String key) {
+        int colon = sb.indexOf("\":", rnd.nextInt(sb.length()));
+        if (colon < 0) return;
+        int open = sb.lastIndexOf("\"", colon - 1);
+        if (open < 0) return;
+        sb.replace(open + 1, colon, key);
+    }
+
+    private static int nextSeparator(StringBuilder sb, int from) {
+        int i = from;
+        while (i < sb.length() && sb.charAt(i) != ',' && sb.charAt(i) != '}') i++;
+        return i;
+    }
+
+    private static void assertSameTick(TimelineTick expected, TimelineTick actual, String payload) {
+        assertEquals(expected.getStockCode(), actual.getStockCode(), payload);
+        assertEquals(expected.getMarketId(), actual.getMarketId(), payload);
+        assertEquals(expected.getTs(), actual.getTs(), payload);
+        assertEquals(expected.getFixedPrice(), actual.getFixedPrice(), payload);
+        assertEquals(expected.getPriceScale(), actual.getPriceScale(), payload);
+        assertEquals(expected.getPrice(), actual.getPrice(), payload);
+        assertEquals(expected.getVol(), actual.getVol(), payload);
+    }
+}
@@ -0,0 +1,158 @@
+package com.example.kline.interfaces.ingest;
+
+import com.example.kline.modules.kline.domain.entity.PricePoint;
+import com.example.kline.modules.kline.infrastructure.cache.KlineMemberCodec;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.Invocation;
+import org.springframework.data.redis.connection.DataType;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.ZSetOperations.TypedTuple;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+
+/**
+ * 成员编码迁移: 按分数分页读取, 页尾分钟整分钟处理, 在监听容器之前执行
+ *
+ * @author xubohan@myhexin.com
+ * @date 2026-10-17 13:50:00
+ */
+public class KlineZSetMigratorTest {
+    private static final String KEY = "kline:1m:1:600000";
+
+    /** 模拟的 ZSET: (score, member), 按 score 再按 member 排序 */
+    private final TreeMap<String, Double> zset = new TreeMap<>();
+    private final List<Integer> pageSizes = new ArrayList<>();
+    private KlineZSetMigrator migrator;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        StringRedisTemplate template = Mockito.mock(StringRedisTemplate.class);
+        ZSetOperations<String, String> z = Mockito.mock(ZSetOperations.class);
+        Mockito.when(template.type(KEY)).thenReturn(DataType.ZSET);
+        Mockito.when(template.opsForZSet()).thenReturn(z);
+        Mockito.when(z.rangeByScoreWithScores(eq(KEY), anyDouble(), anyDouble(), anyLong(), anyLong()))
+            .thenAnswer(inv -> {
+                Set<TypedTuple<String>> page = range(inv.getArgument(1), inv.getArgument(2), inv.getArgument(4));
+                pageSizes.add(page.size());
+                return page;
+            });
+        Mockito.when(z.rangeByScoreWithScores(eq(KEY), anyDouble(), anyDouble()))
+            .thenAnswer(inv -> range(inv.getArgument(1), inv.getArgument(2), Long.MAX_VALUE));
+        Mockito.when(template.executePipelined(any(RedisCallback.class))).thenAnswer(inv -> {
+            RedisConnection conn = Mockito.mock(RedisConnection.class, call -> {
+                Object[] raw = ((Invocation) call).getRawArguments();
+                if ("zRem".equals(call.getMethod().getName())) {
+                    for (byte[] m : (byte[][]) raw[1]) {
+                        zset.remove(new String(m, StandardCharsets.UTF_8));
+                    }
+                } else if ("eval".equals(call.getMethod().getName())) {
+                    byte[][] args = (byte[][]) raw[3];
+                    for (int i = 1; i + 1 < args.length; i += 2) {
+                        double score = Double.parseDouble(new String(args[i], StandardCharsets.UTF_8));
+                        zset.values().removeIf(s -> s == score);
+                        zset.put(new String(args[i + 1], StandardCharsets.UTF_8), score);
+                    }
+                }
+                return null;
+            });
+            ((RedisCallback<Object>) inv.getArgument(0)).doInRedis(conn);
+            return null;
+        });
+        migrator = new KlineZSetMigrator();
+        ReflectionTestUtils.setField(migrator, "env", new MockEnvironment());
+        ReflectionTestUtils.setField(migrator, "redisTemplate", template);
+    }
+
+    @Test
+    void pagesThroughKeyWithoutSplittingMinutes() {
+        // 30 个分钟, 每分钟 3 个旧价格成员; 页大小 4 不是 3 的倍数, 页尾分钟总被截断
+        for (int m = 0; m < 30; m++) {
+            zset.put("1" + m + ".10", (double) m);
+            zset.put("1" + m + ".30", (double) m);
+            zset.put("1" + m + ".20", (double) m);
+        }
+        int rewritten = migrator.migrateKey(KEY, false, 4);
+
+        assertEquals(30, rewritten);
+        assertEquals(30, zset.size());
+        for (Map.Entry<String, Double> e : zset.entrySet()) {
+            assertTrue(KlineMemberCodec.isCurrent(e.getKey()), e.getKey());
+            PricePoint bar = KlineMemberCodec.decode(e.getKey(), e.getValue());
+            int m = e.getValue().intValue();
+            assertEquals(m * 60L, bar.getTs());
+            assertEquals(new BigDecimal("1" + m + ".30"), bar.getHigh());
+            assertEquals(new BigDecimal("1" + m + ".10"), bar.getLow());
+        }
+        assertTrue(pageSizes.stream().allMatch(n -> n <= 4));
+    }
+
+    @Test
+    void keepsCurrentMembersAndDropsStaleLegacyOnes() {
+        PricePoint bar = new PricePoint();
+        bar.setTs(60L);
+        bar.setClose(new BigDecimal("9"));
+        bar.setOpen(new BigDecimal("8"));
+        bar.setHigh(new BigDecimal("9"));
+        bar.setLow(new BigDecimal("8"));
+        bar.setVol(10L);
+        String current = KlineMemberCodec.encode(bar);
+        zset.put(current, 1.0);
+        zset.put("7.5", 1.0);
+        zset.put("6.5", 2.0);
+
+        assertEquals(1, migrator.migrateKey(KEY, false, 1000));
+        assertEquals(2, zset.size());
+        assertEquals(1.0, zset.get(current));
+        assertEquals(0, migrator.migrateKey(KEY, false, 1000));
+    }
+
+    @Test
+    void dryRunLeavesKeyUntouched() {
+        zset.put("1.5", 0.0);
+        zset.put("2.5", 1.0);
+        assertEquals(2, migrator.migrateKey(KEY, true, 1));
+        assertTrue(zset.containsKey("1.5") && zset.containsKey("2.5"));
+    }
+
+    @Test
+    void runsBeforeListenerContainers() {
+        assertTrue(migrator.getPhase() < Integer.MAX_VALUE - 100);
+        assertTrue(migrator.isAutoStartup());
+    }
+
+    private Set<TypedTuple<String>> range(double min, double max, long count) {
+        List<Map.Entry<String, Double>> sorted = new ArrayList<>(zset.entrySet());
+        sorted.sort(Map.Entry.<String, Double>comparingByValue().thenComparing(Map.Entry.comparingByKey()));
+        Set<TypedTuple<String>> out = new LinkedHashSet<>();
+        for (Map.Entry<String, Double> e : sorted) {
+            if (e.getValue() >= min && e.getValue() <= max && out.size() < count) {
+                out.add(new DefaultTypedTuple<>(e.getKey(), e.getValue()));
+            }
+        }
+        return out;
+    }
+}
@@ -0,0 +1,190 @@
+package com.example.kline.interfaces.rest;
+
+import com.example.kline.interfaces.consumer.KlineStreamHub;
+import com.example.kline.modules.kline.domain.entity.KlineInterval;
+import com.example.kline.modules.kline.domain.entity.KlineQuery;
+import com.example.kline.modules.kline.domain.entity.KlineResponse;
+import com.example.kline.modules.kline.domain.entity.PricePoint;
+import com.example.kline.modules.kline.domain.repository.KlineRepository;
+import com.example.kline.modules.kline.domain.service.NameResolver;
+import com.example.kline.modules.kline.infrastructure.cache.LatestQuoteTable;
+import com.example.kline.modules.kline.infrastructure.cache.RedisKlineCache;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+
+/**
+ * 单只与批量查询的有效 limit (截断到 MAX_LIMIT, 负数拒绝)、批量条目顺序与校验、按 startTs + limit 翻页
+ *
+ * @author xubohan@myhexin.com
+ * @date 2026-10-18 12:00:00
+ */
+public class ApiControllerBatchTest {
+
+    private static final ObjectMapper M = new ObjectMapper();
+
+    private final KlineRepository repository = Mockito.mock(KlineRepository.class);
+    private final NameResolver names = Mockito.mock(NameResolver.class);
+    private final ApiController controller = new ApiController(repository, names, new KlineResponseWriter(M),
+        new LatestQuoteTable(), Mockito.mock(KlineStreamHub.class));
+
+    @Test
+    void singleQueryLimitIsClampedAndValidated() throws Exception {
+        controller.getKline("600000", "1", null, null, 5000, null, new MockHttpServletResponse());
+        controller.getKline("600000", "1", 10L, 20L, null, null, new MockHttpServletResponse());
+        controller.getKline("600000", "1", null, null, 7, "5m", new MockHttpServletResponse());
+        Mockito.verify(repository).findRange("600000", "1", null, null, 1000);
+        Mockito.verify(repository).findRange("600000", "1", 10L, 20L, null);
+        Mockito.verify(repository).findBars("600000", "1", KlineInterval.M5, null, null, 7);
+
+        assertThrows(IllegalArgumentException.class,
+            () -> controller.getKline("600000", "1", null, null, -1, null, new MockHttpServletResponse()));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void batchClampsEveryItemAndKeepsRequestOrder() throws Exception {
+        Mockito.when(repository.findRanges(anyList())).thenAnswer(inv -> {
+            List<KlineResponse> out = new ArrayList<>();
+            for (KlineQuery q : (List<KlineQuery>) inv.getArgument(0)) {
+                out.add(response(q.getStockcode(), 60L));
+            }
+            return out;
+        });
+        Mockito.when(repository.findBars(anyString(), anyString(), any(KlineInterval.class), any(), any(), any()))
+            .thenAnswer(inv -> response(inv.getArgument(0), 86400L));
+        Mockito.when(names.resolveAll(anyList(), anyList())).thenReturn(Arrays.asList("A", null, "C"));
+
+        MockHttpServletResponse out = new MockHttpServletResponse();
+        controller.getKlineBatch(Arrays.asList(
+            item("600000", "1", null, 5000, null),
+            item("000001", "0", 100L, 3, "1d"),
+            item("300033", "33", null, null, "1m")), out);
+
+        ArgumentCaptor<List<KlineQuery>> queries = ArgumentCaptor.forClass(List.class);
+        Mockito.verify(repository).findRanges(queries.capture());
+        assertEquals(2, queries.getValue().size());
+        assertEquals(Integer.valueOf(1000), queries.getValue().get(0).getLimit());
+        assertNull(queries.getValue().get(1).getLimit());
+        Mockito.verify(repository).findBars(eq("000001"), eq("0"), eq(KlineInterval.D1), eq(100L), eq(null), eq(3));
+
+        JsonNode data = M.readTree(out.getContentAsByteArray()).path("data");
+        assertEquals(3, data.size());
+        String[] codes = {"600000", "000001", "300033"};
+        for (int i = 0; i < codes.length; i++) {
+            assertEquals(codes[i], data.get(i).path("list").get(0).path("stockCode").asText());
+        }
+        assertEquals("A", data.get(0).path("stockName").asText());
+        assertTrue(data.get(1).path("stockName").isNull());
+    }
+
+    @Test
+    void batchItemsAreValidatedWithTheirIndex() {
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> controller.getKlineBatch(
+            Arrays.asList(item("600000", "1", null, 1, null), item("600000", "1", null, -5, null)),
+            new MockHttpServletResponse()));
+        assertEquals("items[1]: limit must be >= 0", e.getMessage());
+        e = assertThrows(IllegalArgumentException.class, () -> controller.getKlineBatch(
+            Collections.singletonList(item("600000", "1", null, 1, "2m")), new MockHttpServletResponse()));
+        assertTrue(e.getMessage().startsWith("items[0]: interval"));
+        assertThrows(IllegalArgumentException.class,
+            () -> controller.getKlineBatch(Collections.emptyList(), new MockHttpServletResponse()));
+        List<ApiController.BatchItem> tooMany = new ArrayList<>();
+        for (int i = 0; i < 201; i++) {
+            tooMany.add(item("600000", "1", null, null, null));
+        }
+        assertThrows(IllegalArgumentException.class,
+            () -> controller.getKlineBatch(tooMany, new MockHttpServletResponse()));
+        Mockito.verify(repository, Mockito.never()).findRanges(anyList());
+        Mockito.verify(repository, Mockito.never()).findBars(any(), any(), any(), any(), any(), any());
+    }
+
+    @Test
+    void batchPagesThroughSeriesWithStartTsAndLimit() {
+        RedisKlineCache cache = new RedisKlineCache(new MockEnvironment(), null);
+        for (String code : Arrays.asList("600000", "000001")) {
+            KlineResponse r = new KlineResponse();
+            r.setStockcode(code);
+            r.setMarketId("1");
+            for (int m = 0; m < 25; m++) {
+                r.addPricePoint(point(60L * m));
+            }
+            cache.putBatch(r, 0L);
+        }
+
+        // 每页 10 条, 下一页从上一页最后一条之后开始; 两只股票在同一批量请求中翻页
+        Long[] next = {0L, 600L};
+        List<List<Long>> seen = Arrays.asList(new ArrayList<>(), new ArrayList<>());
+        for (int page = 0; page < 4; page++) {
+            List<KlineResponse> rs = cache.getRanges(Arrays.asList(
+                new KlineQuery("600000", "1", next[0], null, 10),
+                new KlineQuery("000001", "1", next[1], 1200L, 10)));
+            for (int i = 0; i < 2; i++) {
+                List<PricePoint> data = rs.get(i).getData();
+                assertTrue(data.size() <= 10);
+                for (PricePoint p : data) {
+                    seen.get(i).add(p.getTs());
+                }
+                if (!data.isEmpty()) {
+                    next[i] = data.get(data.size() - 1).getTs() + 60L;
+                }
+            }
+        }
+        assertEquals(25, seen.get(0).size());
+        assertEquals(0L, (long) seen.get(0).get(0));
+        assertEquals(60L * 24, (long) seen.get(0).get(24));
+        // 区间 [600, 1200]: 11 条, 第二页只有 1 条
+        assertEquals(11, seen.get(1).size());
+        for (int i = 1; i < seen.get(0).size(); i++) {
+            assertEquals(seen.get(0).get(i - 1) + 60L, (long) seen.get(0).get(i));
+        }
+    }
+
+    private static ApiController.BatchItem item(String stockcode, String marketId, Long startTs, Integer limit,
+                                                String interval) {
+        ApiController.BatchItem item = new ApiController.BatchItem();
+        item.stockcode = stockcode;
+        item.marketId = marketId;
+        item.startTs = startTs;
+        item.limit = limit;
+        item.interval = interval;
+        return item;
+    }
+
+    private static KlineResponse response(String stockcode, long ts) {
+        KlineResponse r = new KlineResponse();
+        r.setStockcode(stockcode);
+        r.addPricePoint(point(ts));
+        return r;
+    }
+
+    private static PricePoint point(long ts) {
+        PricePoint p = new PricePoint();
+        p.setTs(ts);
+        p.setOpen(BigDecimal.ONE);
+        p.setHigh(BigDecimal.ONE);
+        p.setLow(BigDecimal.ONE);
+        p.setClose(BigDecimal.ONE);
+        p.setVol(0L);
+        return p;
+    }
+}
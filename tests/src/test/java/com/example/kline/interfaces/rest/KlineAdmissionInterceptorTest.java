@@ -0,0 +1,63 @@
+package com.example.kline.interfaces.rest;
+
+import com.example.kline.common.metrics.KlineMetrics;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * /kline 准入: 默认关闭; 后一项检查拒绝时归还前面取得的令牌
+ *
+ * @author xubohan@myhexin.com
+ * @date 2026-10-17 11:50:00
+ */
+public class KlineAdmissionInterceptorTest {
+
+    @Test
+    void disabledByDefault() throws Exception {
+        KlineAdmissionInterceptor interceptor =
+            new KlineAdmissionInterceptor(new MockEnvironment().withProperty("app.rate.kline.qps", "1"), new KlineMetrics());
+        for (int i = 0; i < 10; i++) {
+            assertTrue(interceptor.preHandle(request(), new MockHttpServletResponse(), null));
+        }
+        assertEquals(false, interceptor.stats().get("enabled"));
+    }
+
+    @Test
+    void inFlightRejectionRefundsRateTokens() throws Exception {
+        MockEnvironment env = new MockEnvironment()
+            .withProperty("app.rate.kline.enabled", "true")
+            .withProperty("app.rate.kline.qps", "1")
+            .withProperty("app.rate.kline.burst", "2")
+            .withProperty("app.rate.kline.per-client-qps", "1")
+            .withProperty("app.rate.kline.per-client-burst", "2")
+            .withProperty("app.rate.kline.max-in-flight", "1");
+        KlineAdmissionInterceptor interceptor = new KlineAdmissionInterceptor(env, new KlineMetrics());
+
+        MockHttpServletRequest first = request();
+        assertTrue(interceptor.preHandle(first, new MockHttpServletResponse(), null));
+        // 并发已满: 拒绝, 已取得的单客户端/全局令牌归还
+        MockHttpServletResponse busy = new MockHttpServletResponse();
+        assertFalse(interceptor.preHandle(request(), busy, null));
+        assertEquals(429, busy.getStatus());
+        interceptor.afterCompletion(first, new MockHttpServletResponse(), null, null);
+
+        // 突发量 2 只被第一个请求用掉 1 个, 第二个请求仍可放行
+        assertTrue(interceptor.preHandle(request(), new MockHttpServletResponse(), null));
+        MockHttpServletResponse limited = new MockHttpServletResponse();
+        assertFalse(interceptor.preHandle(request(), limited, null));
+        assertEquals(429, limited.getStatus());
+        assertEquals(1L, interceptor.stats().get("shedInFlight"));
+    }
+
+    private static MockHttpServletRequest request() {
+        MockHttpServletRequest r = new MockHttpServletRequest("GET", "/kline");
+        r.setRemoteAddr("10.0.0.1");
+        return r;
+    }
+}
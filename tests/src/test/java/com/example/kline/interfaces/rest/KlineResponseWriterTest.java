@@ -0,0 +1,157 @@
+package com.example.kline.interfaces.rest;
+
+import com.example.kline.modules.kline.domain.entity.KlineResponse;
+import com.example.kline.modules.kline.domain.entity.PricePoint;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 流式输出与原先 Map + Jackson 序列化逐字节一致 (空名称/空价格、科学计数法、乱序、1970 年前与四位数以外的年份)
+ *
+ * @author xubohan@myhexin.com
+ * @date 2026-10-18 11:30:00
+ */
+public class KlineResponseWriterTest {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final KlineResponseWriter writer = new KlineResponseWriter(mapper);
+
+    @Test
+    void edgeCasesMatchFormerMapSerialization() throws Exception {
+        KlineResponse resp = response(
+            point(1_760_000_000L, new BigDecimal("88.94")),
+            // 乱序, 空价格, 空时间戳
+            point(1_759_999_940L, null),
+            point(null, new BigDecimal("1")),
+            // 科学计数法与多余的零
+            point(1_760_000_060L, new BigDecimal("1E+3")),
+            point(1_760_000_120L, new BigDecimal("0.000001")),
+            point(1_760_000_180L, new BigDecimal("-12.3400")),
+            // 1970 年之前、跨日、四位数以外的年份
+            point(-86_401L, new BigDecimal("2")),
+            point(86_399L, new BigDecimal("3")),
+            point(-62_135_596_800L - 86_400L, new BigDecimal("4")),
+            point(253_402_300_800L, new BigDecimal("5")));
+
+        for (String name : Arrays.asList(null, "", "平安银行", "quote\"back\\slash\u0001")) {
+            assertSame(legacy("000001", "0", name, resp), written("000001", "0", name, resp));
+        }
+        assertSame(legacy("600000", "1", "x", new KlineResponse()), written("600000", "1", "x", new KlineResponse()));
+    }
+
+    @Test
+    void randomSeriesMatchFormerMapSerialization() throws Exception {
+        Random rnd = new Random(7L);
+        for (int round = 0; round < 50; round++) {
+            List<PricePoint> points = new ArrayList<>();
+            long ts = 1_600_000_000L + rnd.nextInt(1_000_000) * 60L;
+            int n = rnd.nextInt(500);
+            for (int i = 0; i < n; i++) {
+                ts += 60L * (1 + rnd.nextInt(rnd.nextInt(10) == 0 ? 2000 : 3));
+                points.add(point(ts, BigDecimal.valueOf(rnd.nextInt(2_000_000), rnd.nextInt(5))));
+            }
+            if (round % 5 == 0) {
+                Collections.shuffle(points, rnd);
+            }
+            KlineResponse resp = response(points.toArray(new PricePoint[0]));
+            assertSame(legacy("300033", "33", "同花顺", resp), written("300033", "33", "同花顺", resp));
+        }
+    }
+
+    @Test
+    void batchEntriesMatchSingleSymbolData() throws Exception {
+        KlineResponse a = response(point(60L, new BigDecimal("1.5")), point(0L, new BigDecimal("1.4")));
+        KlineResponse b = new KlineResponse();
+        MockHttpServletResponse out = new MockHttpServletResponse();
+        writer.writeBatch(out, Arrays.asList("600000", "000001"), Arrays.asList("1", "0"),
+            Arrays.asList("浦发银行", null), Arrays.asList(a, b));
+
+        Map<String, Object> envelope = new LinkedHashMap<>();
+        envelope.put("code", "0");
+        envelope.put("message", "success");
+        envelope.put("data", Arrays.asList(data("600000", "1", "浦发银行", a), data("000001", "0", null, b)));
+        assertEquals("application/json", out.getContentType());
+        assertSame(mapper.writeValueAsBytes(envelope), out.getContentAsByteArray());
+    }
+
+    private byte[] written(String stockcode, String marketId, String name, KlineResponse resp) throws Exception {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        writer.write(os, stockcode, marketId, name, resp);
+        return os.toByteArray();
+    }
+
+    /** 原 ApiController#getKline 的 Map 构造, 用同一个 ObjectMapper 序列化 */
+    private byte[] legacy(String stockcode, String marketId, String stockName, KlineResponse response)
+        throws Exception {
+        Map<String, Object> resp = new LinkedHashMap<>();
+        resp.put("code", "0");
+        resp.put("message", "success");
+        resp.put("data", data(stockcode, marketId, stockName, response));
+        return mapper.writeValueAsBytes(resp);
+    }
+
+    private static Map<String, Object> data(String stockcode, String marketId, String stockName,
+                                            KlineResponse response) {
+        List<Map<String, Object>> list = response.getData().stream()
+            .sorted(Comparator.comparingLong(p -> p.getTs() == null ? 0L : p.getTs()))
+            .map(p -> toTimelineItem(p, stockcode, marketId))
+            .collect(Collectors.toList());
+        Map<String, Object> data = new LinkedHashMap<>();
+        data.put("stockName", stockName);
+        data.put("list", list);
+        return data;
+    }
+
+    private static Map<String, Object> toTimelineItem(PricePoint p, String stockcode, String marketId) {
+        Map<String, Object> m = new LinkedHashMap<>();
+        Instant instant = Instant.ofEpochSecond(p.getTs() == null ? 0L : p.getTs());
+        m.put("stockCode", stockcode);
+        m.put("marketId", marketId);
+        m.put("price", p.getClose());
+        m.put("date", DateTimeFormatter.ofPattern("yyyyMMdd").withZone(ZoneOffset.UTC).format(instant));
+        m.put("time", DateTimeFormatter.ofPattern("HHmm").withZone(ZoneOffset.UTC).format(instant));
+        return m;
+    }
+
+    private static void assertSame(byte[] expected, byte[] actual) {
+        assertArrayEquals(expected, actual, () -> new String(expected) + "\n!=\n" + new String(actual));
+    }
+
+    private static KlineResponse response(PricePoint... points) {
+        KlineResponse r = new KlineResponse();
+        for (PricePoint p : points) {
+            r.addPricePoint(p);
+        }
+        return r;
+    }
+
+    private static PricePoint point(Long ts, BigDecimal close) {
+        PricePoint p = new PricePoint();
+        p.setTs(ts);
+        p.setOpen(close);
+        p.setHigh(close);
+        p.setLow(close);
+        p.setClose(close);
+        p.setVol(0L);
+        return p;
+    }
+}
@@ -0,0 +1,93 @@
+package com.example.kline.modules.kline.infrastructure.cache;
+
+import com.example.kline.modules.kline.domain.entity.PricePoint;
+import com.example.kline.modules.kline.domain.entity.TimelineTick;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 列式序列: 裁剪旧点 (含已封存的压缩块), 定点数价格精度
+ *
+ * @author xubohan@myhexin.com
+ * @date 2026-10-17 12:40:00
+ */
+public class ColumnarSeriesTest {
+
+    @Test
+    void removeBeforeDropsColumnsAndBlocks() {
+        ColumnarSeries s = new ColumnarSeries();
+        s.setBlockSize(8);
+        for (int i = 0; i < 100; i++) {
+            s.upsert(point(60L * i, i));
+        }
+        assertTrue(s.blockCount() > 0);
+
+        // 落在某个块中间
+        assertEquals(37, s.removeBefore(60L * 37));
+        assertEquals(63, s.size());
+        List<PricePoint> all = s.range(null, null, null);
+        assertEquals(63, all.size());
+        assertEquals(60L * 37, all.get(0).getTs());
+        assertFalse(s.contains(60L * 36));
+        assertTrue(s.contains(60L * 37));
+        assertTrue(s.contains(60L * 99));
+
+        assertEquals(63, s.removeBefore(Long.MAX_VALUE));
+        assertEquals(0, s.size());
+        assertEquals(0, s.removeBefore(Long.MAX_VALUE));
+    }
+
+    @Test
+    void removeBeforeWithoutBlocks() {
+        ColumnarSeries s = new ColumnarSeries();
+        for (int i = 0; i < 10; i++) {
+            s.upsert(point(60L * i, i));
+        }
+        assertEquals(0, s.removeBefore(0L));
+        assertEquals(4, s.removeBefore(60L * 4));
+        assertEquals(60L * 4, s.range(null, null, 1).get(0).getTs());
+        s.upsert(point(0L, 1));
+        assertEquals(0L, s.range(null, null, 1).get(0).getTs());
+    }
+
+    @Test
+    void pricesRoundTripOnlyWithinFixedPointPrecision() {
+        assertTrue(TimelineTick.fitsFixed(new BigDecimal("88.9400")));
+        assertTrue(TimelineTick.fitsFixed(new BigDecimal("88.940000")));
+        assertTrue(TimelineTick.fitsFixed(new BigDecimal("-0.0001")));
+        assertFalse(TimelineTick.fitsFixed(new BigDecimal("88.94005")));
+        assertFalse(TimelineTick.fitsFixed(new BigDecimal("1e20")));
+        assertFalse(TimelineTick.fitsFixed(null));
+
+        ColumnarSeries s = new ColumnarSeries();
+        PricePoint p = point(60L, 0);
+        p.setClose(new BigDecimal("12.3400"));
+        p.setHigh(new BigDecimal("12.34"));
+        s.upsert(p);
+        PricePoint back = s.range(null, null, null).get(0);
+        assertEquals("12.3400", back.getClose().toPlainString());
+        assertEquals(new BigDecimal("12.34").compareTo(back.getHigh()), 0);
+
+        // 入口之外的写入: 多余小数位舍入, 溢出存为空值
+        assertEquals(123457L, ColumnarSeries.toFixed(new BigDecimal("12.34565")));
+        assertEquals(ColumnarSeries.NULL, ColumnarSeries.toFixed(new BigDecimal("1e20")));
+    }
+
+    private static PricePoint point(long ts, long v) {
+        PricePoint p = new PricePoint();
+        BigDecimal price = BigDecimal.valueOf(1000 + v, 2);
+        p.setTs(ts);
+        p.setOpen(price);
+        p.setHigh(price);
+        p.setLow(price);
+        p.setClose(price);
+        p.setVol(v);
+        return p;
+    }
+}
@@ -0,0 +1,127 @@
+package com.example.kline.modules.kline.infrastructure.cache;
+
+import com.example.kline.modules.kline.domain.entity.KlineInterval;
+import com.example.kline.modules.kline.domain.entity.PricePoint;
+import com.example.kline.modules.kline.domain.entity.TimelineTick;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * bar 引擎: 从存储播种、按位点去重、裁剪与空闲释放
+ *
+ * @author xubohan@myhexin.com
+ * @date 2026-10-17 12:40:00
+ */
+public class KlineBarEngineTest {
+
+    private static final long T0 = 1_600_000_200L - Math.floorMod(1_600_000_200L, 86400L) + 36000L; // 某日 10:00 UTC
+
+    private final List<PricePoint> stored = new ArrayList<>();
+    private final AtomicInteger loads = new AtomicInteger();
+
+    private KlineBarEngine engine(int minuteKeep, long idleEvictSec) {
+        return new KlineBarEngine(new SymbolRegistry(), (sc, mk, from, to) -> {
+            loads.incrementAndGet();
+            List<PricePoint> out = new ArrayList<>();
+            for (PricePoint p : stored) {
+                if (p.getTs() >= from && p.getTs() <= to) out.add(p);
+            }
+            return out;
+        }, minuteKeep, 15 * 86400L, idleEvictSec, 0L);
+    }
+
+    @Test
+    void firstTickAfterRestartMergesIntoStoredBars() {
+        stored.add(bar(T0, "10", "12", "9", "11", 100));
+        stored.add(bar(T0 + 60, "11", "13", "10", "12", 100));
+        stored.add(bar(T0 + 120, "12", "12", "8", "10", 100));
+        KlineBarEngine engine = engine(240, 0L);
+
+        PricePoint m1 = engine.onTick(tick(T0 + 150, "14", 5));
+        // 写回的 1m bar 保留已存储的 open/low 与成交量
+        assertEquals(0, new BigDecimal("12").compareTo(m1.getOpen()));
+        assertEquals(0, new BigDecimal("14").compareTo(m1.getHigh()));
+        assertEquals(0, new BigDecimal("8").compareTo(m1.getLow()));
+        assertEquals(0, new BigDecimal("14").compareTo(m1.getClose()));
+        assertEquals(105L, m1.getVol());
+
+        PricePoint m5 = engine.range("300033", "33", KlineInterval.M5, T0, T0, 1).get(0);
+        assertEquals(0, new BigDecimal("10").compareTo(m5.getOpen()));
+        assertEquals(305L, m5.getVol());
+        PricePoint d1 = engine.range("300033", "33", KlineInterval.D1, T0 - 36000L, null, 1).get(0);
+        assertEquals(305L, d1.getVol());
+        // 各周期一次读取完成播种; 之后同一 bar 内的成交不再读存储
+        assertEquals(1, loads.get());
+        engine.onTick(tick(T0 + 170, "15", 1));
+        engine.onTick(tick(T0 + 190, "15", 1));
+        assertEquals(1, loads.get());
+        assertEquals(307L, engine.range("300033", "33", KlineInterval.M5, T0, T0, 1).get(0).getVol());
+    }
+
+    @Test
+    void redeliveredOffsetsAreNotMergedTwice() {
+        KlineBarEngine engine = new KlineBarEngine();
+        engine.onTick(tick(T0, "10", 5).withSource(0, 7L));
+        engine.onTick(tick(T0 + 10, "11", 5).withSource(0, 8L));
+        PricePoint again = engine.onTick(tick(T0, "10", 5).withSource(0, 7L));
+        // 其它分区的位点独立
+        engine.onTick(tick(T0 + 20, "12", 5).withSource(1, 3L));
+
+        assertEquals(10L, again.getVol());
+        assertEquals(15L, engine.range("300033", "33", KlineInterval.M1, T0, T0, 1).get(0).getVol());
+        assertEquals(1L, engine.stats().get("duplicates"));
+    }
+
+    @Test
+    void trimmedMinutesAreSeededAgainOnLateTicks() {
+        KlineBarEngine engine = engine(2, 0L);
+        for (int i = 0; i < 6; i++) {
+            PricePoint p = engine.onTick(tick(T0 + 60L * i, "10", 1));
+            stored.add(p); // 模拟消费者写回存储
+        }
+        assertTrue(engine.range("300033", "33", KlineInterval.M1, null, null, null).size() <= 3);
+        int before = loads.get();
+
+        PricePoint late = engine.onTick(tick(T0 + 5, "9", 2));
+        assertEquals(before + 1, loads.get());
+        assertEquals(3L, late.getVol());
+        assertEquals(0, new BigDecimal("9").compareTo(late.getLow()));
+        // 5m bar 仍在引擎内, 不重复播种
+        assertEquals(7L, engine.range("300033", "33", KlineInterval.M5, T0, T0, 1).get(0).getVol());
+    }
+
+    @Test
+    void idleSymbolsAreReleasedAndReseeded() throws Exception {
+        KlineBarEngine engine = engine(240, 1L);
+        stored.add(engine.onTick(tick(T0, "10", 4)));
+        Thread.sleep(1100L);
+        assertEquals(1, engine.evictIdle());
+        assertEquals(0, engine.stats().get("symbols"));
+
+        PricePoint m1 = engine.onTick(tick(T0 + 30, "11", 1));
+        assertEquals(5L, m1.getVol());
+        assertEquals(1, engine.stats().get("symbols"));
+    }
+
+    private static TimelineTick tick(long ts, String price, long vol) {
+        return new TimelineTick("300033", "33", ts, new BigDecimal(price), vol);
+    }
+
+    private static PricePoint bar(long ts, String o, String h, String l, String c, long vol) {
+        PricePoint p = new PricePoint();
+        p.setTs(ts);
+        p.setOpen(new BigDecimal(o));
+        p.setHigh(new BigDecimal(h));
+        p.setLow(new BigDecimal(l));
+        p.setClose(new BigDecimal(c));
+        p.setVol(vol);
+        return p;
+    }
+}
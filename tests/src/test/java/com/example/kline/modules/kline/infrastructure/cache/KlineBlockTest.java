@@ -0,0 +1,177 @@
+package com.example.kline.modules.kline.infrastructure.cache;
+
+import com.example.kline.modules.kline.domain.entity.PricePoint;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 压缩块编解码往返: 各档差值宽度、不等间隔时间戳、精度切换、Redis 字符串值与区间解码
+ *
+ * @author xubohan@myhexin.com
+ * @date 2026-10-17 21:40:00
+ */
+public class KlineBlockTest {
+
+    @Test
+    void columnsRoundTripAcrossEveryDeltaWidth() {
+        // 差值覆盖 0 / 6 / 13 / 20 / 32 / 64 bit 各档, 含负数、空值标记与溢出回绕
+        long[] values = {0L, 0L, 5L, -20L, 3000L, -3000L, 500_000L, -500_000L, 1L << 30, -(1L << 31),
+            Long.MAX_VALUE, Long.MIN_VALUE, ColumnarSeries.NULL, 42L, 42L, 0L};
+        int n = values.length;
+        long[] ts = new long[n];
+        long[] open = new long[n];
+        long[] high = new long[n];
+        long[] low = new long[n];
+        long[] close = new long[n];
+        long[] vol = new long[n];
+        byte[] scale = new byte[n];
+        long t = -180L;
+        for (int i = 0; i < n; i++) {
+            // 等间隔与跳空交替, 起点为负
+            t += i % 3 == 0 ? 60L : 60L * (i + 1) * 97;
+            ts[i] = t;
+            open[i] = values[i];
+            high[i] = values[(i + 1) % n];
+            low[i] = values[(i + 5) % n];
+            close[i] = -values[(i + 7) % n];
+            vol[i] = values[(i + 11) % n];
+            scale[i] = (byte) (i % 4 == 0 ? ColumnarSeries.PRICE_SCALE : i % 5);
+        }
+
+        KlineBlock block = KlineBlock.encode(ts, open, high, low, close, vol, scale, 0, n);
+        assertEquals(n, block.count());
+        assertEquals(ts[0], block.minTs());
+        assertEquals(ts[n - 1], block.maxTs());
+
+        long[] ts2 = new long[n + 2];
+        long[] open2 = new long[n + 2];
+        long[] high2 = new long[n + 2];
+        long[] low2 = new long[n + 2];
+        long[] close2 = new long[n + 2];
+        long[] vol2 = new long[n + 2];
+        byte[] scale2 = new byte[n + 2];
+        block.decodeColumns(ts2, open2, high2, low2, close2, vol2, scale2, 2);
+        assertArrayEquals(ts, Arrays.copyOfRange(ts2, 2, n + 2));
+        assertArrayEquals(open, Arrays.copyOfRange(open2, 2, n + 2));
+        assertArrayEquals(high, Arrays.copyOfRange(high2, 2, n + 2));
+        assertArrayEquals(low, Arrays.copyOfRange(low2, 2, n + 2));
+        assertArrayEquals(close, Arrays.copyOfRange(close2, 2, n + 2));
+        assertArrayEquals(vol, Arrays.copyOfRange(vol2, 2, n + 2));
+        assertArrayEquals(scale, Arrays.copyOfRange(scale2, 2, n + 2));
+    }
+
+    @Test
+    void subRangeOfColumnsRoundTrips() {
+        Random rnd = new Random(7L);
+        int n = 300;
+        long[] ts = new long[n];
+        long[] open = new long[n];
+        long[] high = new long[n];
+        long[] low = new long[n];
+        long[] close = new long[n];
+        long[] vol = new long[n];
+        byte[] scale = new byte[n];
+        long t = 1_600_000_000L;
+        long price = 86_9600L;
+        for (int i = 0; i < n; i++) {
+            t += 60L * (1 + rnd.nextInt(3));
+            price += rnd.nextInt(2001) - 1000;
+            ts[i] = t;
+            open[i] = price;
+            high[i] = price + rnd.nextInt(500);
+            low[i] = price - rnd.nextInt(500);
+            close[i] = price + rnd.nextInt(1001) - 500;
+            vol[i] = rnd.nextInt(1_000_000);
+            scale[i] = (byte) ColumnarSeries.PRICE_SCALE;
+        }
+        int from = 37;
+        int to = 250;
+
+        KlineBlock block = KlineBlock.encode(ts, open, high, low, close, vol, scale, from, to);
+        int m = to - from;
+        long[] ts2 = new long[m];
+        long[] open2 = new long[m];
+        long[] high2 = new long[m];
+        long[] low2 = new long[m];
+        long[] close2 = new long[m];
+        long[] vol2 = new long[m];
+        byte[] scale2 = new byte[m];
+        block.decodeColumns(ts2, open2, high2, low2, close2, vol2, scale2, 0);
+        assertArrayEquals(Arrays.copyOfRange(ts, from, to), ts2);
+        assertArrayEquals(Arrays.copyOfRange(open, from, to), open2);
+        assertArrayEquals(Arrays.copyOfRange(high, from, to), high2);
+        assertArrayEquals(Arrays.copyOfRange(low, from, to), low2);
+        assertArrayEquals(Arrays.copyOfRange(close, from, to), close2);
+        assertArrayEquals(Arrays.copyOfRange(vol, from, to), vol2);
+        assertArrayEquals(Arrays.copyOfRange(scale, from, to), scale2);
+        // 小幅波动的分钟线至少压缩到原始 6 列 long 的一半
+        assertTrue(block.estimatedBytes() - KlineBlock.BLOCK_OVERHEAD < m * 6 * 8 / 2);
+    }
+
+    @Test
+    void redisValueRoundTripsAndDecodesOnlyTheRange() {
+        List<PricePoint> points = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            // 乱序且含重复分钟, 编码时按 ts 去重排序
+            points.add(point(60L * (49 - i), "10." + (49 - i), 100L + i));
+        }
+        points.add(point(60L * 10, "99.5", 7L));
+
+        String value = KlineBlock.encodeValue(points, 8);
+        assertTrue(KlineBlock.isEncodedValue(value));
+
+        List<PricePoint> all = KlineBlock.decodeValue(value, null, null, null);
+        assertEquals(50, all.size());
+        for (int i = 0; i < all.size(); i++) {
+            PricePoint p = all.get(i);
+            assertEquals(60L * i, p.getTs());
+            if (i != 10) {
+                assertEquals(0, new BigDecimal("10." + i).compareTo(p.getClose()));
+                assertEquals(149L - i, p.getVol().longValue());
+            }
+        }
+        assertEquals(0, new BigDecimal("99.5").compareTo(all.get(10).getClose()));
+
+        // 跨块区间 + limit
+        List<PricePoint> slice = KlineBlock.decodeValue(value, 60L * 13, 60L * 30, 5);
+        assertEquals(5, slice.size());
+        assertEquals(60L * 13, slice.get(0).getTs());
+        assertEquals(60L * 17, slice.get(4).getTs());
+        assertEquals(18, KlineBlock.decodeValue(value, 60L * 13, 60L * 30, null).size());
+        assertTrue(KlineBlock.decodeValue(value, 60L * 100, null, null).isEmpty());
+    }
+
+    @Test
+    void malformedValueIsRejected() {
+        String value = KlineBlock.encodeValue(Arrays.asList(point(60L, "1.5", 1L), point(120L, "1.6", 2L)), 8);
+        byte[] bytes = Base64.getDecoder().decode(value.substring(KlineBlock.VALUE_PREFIX.length()));
+        String truncated = KlineBlock.VALUE_PREFIX
+            + Base64.getEncoder().encodeToString(Arrays.copyOf(bytes, bytes.length - 1));
+        assertThrows(IllegalArgumentException.class, () -> KlineBlock.decodeValue(truncated, null, null, null));
+        assertThrows(IllegalArgumentException.class,
+            () -> KlineBlock.decodeValue(KlineBlock.VALUE_PREFIX + "gA==", null, null, null));
+    }
+
+    private static PricePoint point(long ts, String price, long vol) {
+        PricePoint p = new PricePoint();
+        BigDecimal v = new BigDecimal(price);
+        p.setTs(ts);
+        p.setOpen(v);
+        p.setHigh(v);
+        p.setLow(v);
+        p.setClose(v);
+        p.setVol(vol);
+        return p;
+    }
+}
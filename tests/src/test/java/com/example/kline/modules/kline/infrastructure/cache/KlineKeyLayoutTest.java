@@ -0,0 +1,110 @@
+package com.example.kline.modules.kline.infrastructure.cache;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 日桶按 UTC 日切分: 零点前后、1970 年之前、跨年与闰日、本地时区零点; key 解析往返与过期时间
+ *
+ * @author xubohan@myhexin.com
+ * @date 2026-10-18 13:10:00
+ */
+public class KlineKeyLayoutTest {
+
+    @Test
+    void dayBoundariesFollowUtcMidnight() {
+        long midnight = utc(2026, 10, 18, 0, 0);
+        assertEquals(KlineKeyLayout.day(midnight) - 1, KlineKeyLayout.day(midnight - 1));
+        assertEquals(KlineKeyLayout.day(midnight), KlineKeyLayout.day(midnight + 86399));
+        assertEquals("20261017", KlineKeyLayout.formatDay(KlineKeyLayout.day(midnight - 60)));
+        assertEquals("20261018", KlineKeyLayout.formatDay(KlineKeyLayout.day(midnight)));
+
+        // 分钟 score 与秒级 ts 落在同一天
+        for (long ts : new long[]{midnight - 60, midnight, midnight + 86340, -60L, 0L, -86400L, -86460L}) {
+            assertEquals(KlineKeyLayout.day(ts), KlineKeyLayout.dayOfMinute(Math.floorDiv(ts, 60L)), "ts=" + ts);
+        }
+
+        // 1970 年之前向下取整, 不向零截断
+        assertEquals(-1L, KlineKeyLayout.day(-1L));
+        assertEquals(0L, KlineKeyLayout.day(0L));
+        assertEquals("19691231", KlineKeyLayout.formatDay(KlineKeyLayout.day(-1L)));
+        assertEquals(-2L, KlineKeyLayout.dayOfMinute(-1441L));
+
+        // 跨年与闰日
+        assertEquals("20241231", KlineKeyLayout.formatDay(KlineKeyLayout.day(utc(2025, 1, 1, 0, 0) - 1)));
+        assertEquals("20240229", KlineKeyLayout.formatDay(KlineKeyLayout.day(utc(2024, 2, 29, 23, 59))));
+        assertEquals("20240301", KlineKeyLayout.formatDay(KlineKeyLayout.day(utc(2024, 3, 1, 0, 0))));
+    }
+
+    @Test
+    void localMidnightStillBucketsByUtcDay() {
+        // 上海 10-18 00:00 与 07:59 = UTC 10-17 16:00 与 23:59, 08:00 起才进入 10-18 的桶
+        ZoneId shanghai = ZoneId.of("Asia/Shanghai");
+        long open = LocalDateTime.of(2026, 10, 18, 0, 0).atZone(shanghai).toEpochSecond();
+        assertEquals("kline:1m:{1:600000}:20261017", KlineKeyLayout.dayKey("600000", "1", KlineKeyLayout.day(open)));
+        assertEquals("20261017", KlineKeyLayout.formatDay(KlineKeyLayout.day(open + 8 * 3600 - 60)));
+        assertEquals("20261018", KlineKeyLayout.formatDay(KlineKeyLayout.day(open + 8 * 3600)));
+        // 纽约 16:00 收盘在夏令时与冬令时分别落在 UTC 20:00 / 21:00, 均为同一 UTC 日
+        ZoneId ny = ZoneId.of("America/New_York");
+        for (int month : new int[]{7, 12}) {
+            long close = LocalDateTime.of(2026, month, 15, 16, 0).atZone(ny).toEpochSecond();
+            assertEquals(KlineKeyLayout.day(utc(2026, month, 15, 0, 0)), KlineKeyLayout.day(close));
+        }
+    }
+
+    @Test
+    void dayKeysParseBackToTheirDay() {
+        for (long day : new long[]{-1L, 0L, KlineKeyLayout.day(utc(2024, 2, 29, 12, 0)), 20_000L}) {
+            String key = KlineKeyLayout.dayKey("AAPL", "US", day);
+            KlineKeyLayout.MinuteKey parsed = KlineKeyLayout.parse(key);
+            assertEquals("US", parsed.getMarketId());
+            assertEquals("AAPL", parsed.getStockCode());
+            assertEquals(Long.valueOf(day), parsed.getDay(), key);
+        }
+        assertEquals("kline:days:{US:AAPL}", KlineKeyLayout.indexKey("AAPL", "US"));
+
+        KlineKeyLayout.MinuteKey single = KlineKeyLayout.parse("kline:1m:1:600000");
+        assertEquals("1", single.getMarketId());
+        assertEquals("600000", single.getStockCode());
+        assertNull(single.getDay());
+        assertNull(KlineKeyLayout.parse("kline:1m:{1:600000}:2026101"));
+        assertNull(KlineKeyLayout.parse("kline:1m:{1:600000}:20261332"));
+        assertNull(KlineKeyLayout.parse("kline:days:{1:600000}"));
+    }
+
+    @Test
+    void bucketsExpireWholeDaysAfterTtl() {
+        assertSame(KlineKeyLayout.single(), KlineKeyLayout.from(new MockEnvironment()));
+        assertFalse(KlineKeyLayout.single().isDayBuckets());
+
+        KlineKeyLayout layout = KlineKeyLayout.from(new MockEnvironment()
+            .withProperty("app.redis.key-layout", "day")
+            .withProperty("app.retention.days", "3"));
+        assertTrue(layout.isDayBuckets());
+        long day = KlineKeyLayout.day(utc(2026, 10, 18, 12, 0));
+        // 默认 ttl = retention + 1 天, 从当日结束算起
+        assertEquals(utc(2026, 10, 23, 0, 0), layout.expireAt(day));
+        assertEquals(day - 5, layout.expiredBefore(utc(2026, 10, 18, 23, 59)));
+        assertEquals(day - 4, layout.expiredBefore(utc(2026, 10, 19, 0, 0)));
+
+        KlineKeyLayout forever = KlineKeyLayout.from(new MockEnvironment()
+            .withProperty("app.redis.key-layout", "DAY")
+            .withProperty("app.redis.day-buckets.ttl-days", "0"));
+        assertEquals(-1L, forever.expireAt(day));
+        assertEquals(Long.MIN_VALUE, forever.expiredBefore(utc(2026, 10, 18, 0, 0)));
+    }
+
+    private static long utc(int year, int month, int day, int hour, int minute) {
+        return LocalDateTime.of(year, month, day, hour, minute).toEpochSecond(ZoneOffset.UTC);
+    }
+}
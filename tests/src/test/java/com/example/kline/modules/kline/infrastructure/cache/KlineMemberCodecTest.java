@@ -0,0 +1,155 @@
+package com.example.kline.modules.kline.infrastructure.cache;
+
+import com.example.kline.modules.kline.domain.entity.PricePoint;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.Invocation;
+import org.springframework.data.redis.connection.RedisConnection;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * ZSET 成员编码: v2 往返与体积、v1/旧格式识别、分钟覆盖写入脚本分批
+ *
+ * @author xubohan@myhexin.com
+ * @date 2026-10-17 13:50:00
+ */
+public class KlineMemberCodecTest {
+
+    @Test
+    void fullBarRoundTrips() {
+        PricePoint bar = bar(1_600_000_020L, "88.94", "88.9", "89.10", "88.8", 1200L);
+        String member = KlineMemberCodec.encode(bar);
+        assertEquals("C6v2,-4,g,-e,xc", member);
+        assertTrue(KlineMemberCodec.isCurrent(member));
+
+        // 分钟取自 score
+        PricePoint back = KlineMemberCodec.decode(member, (double) (1_600_000_020L / 60L));
+        assertEquals(1_600_000_020L / 60L * 60L, back.getTs());
+        assertDecimal("88.9", back.getOpen());
+        assertDecimal("89.10", back.getHigh());
+        assertDecimal("88.8", back.getLow());
+        assertDecimal("88.94", back.getClose());
+        assertEquals(1200L, back.getVol());
+        assertNull(KlineMemberCodec.decode(member, null));
+    }
+
+    @Test
+    void flatBarOmitsTrailingFields() {
+        String member = KlineMemberCodec.encode(bar(600L, "88.94", "88.94", "88.94", "88.94", 0L));
+        assertEquals("C6v2", member);
+        PricePoint back = KlineMemberCodec.decode(member, 10.0);
+        assertEquals(600L, back.getTs());
+        assertDecimal("88.94", back.getOpen());
+        assertDecimal("88.94", back.getLow());
+        assertEquals(0L, back.getVol());
+        // 只有 high 不同, 没有成交量; 负价与不同精度
+        PricePoint wick = KlineMemberCodec.decode(
+            KlineMemberCodec.encode(bar(600L, "1", "1", "2.5", "-1", 0L)), 10.0);
+        assertDecimal("2.5", wick.getHigh());
+        assertDecimal("1", wick.getOpen());
+        assertDecimal("-1", wick.getLow());
+        // 成员相同的分钟追加的唯一后缀不影响解码
+        assertDecimal("88.94", KlineMemberCodec.decode(member + "~11", 11.0).getClose());
+    }
+
+    @Test
+    void encodedMemberIsNoLargerThanLegacyPrice() {
+        String[][] bars = {
+            {"88.94", "88.94", "88.94", "88.94", "0"},
+            {"8.31", "8.31", "8.31", "8.31", "0"},
+            {"1724.50", "1724.50", "1724.50", "1724.50", "0"},
+            {"0.001", "0.001", "0.001", "0.001", "0"},
+            {"3021.9876", "3021.9876", "3021.9876", "3021.9876", "0"},
+            {"100", "100", "100", "100", "0"},
+        };
+        for (String[] b : bars) {
+            PricePoint p = bar(600L, b[0], b[1], b[2], b[3], Long.parseLong(b[4]));
+            String member = KlineMemberCodec.encode(p);
+            assertTrue(member.length() <= new BigDecimal(b[0]).toPlainString().length(), member + " vs " + b[0]);
+        }
+        // 完整 bar 比 v1 (带分钟与十进制价格) 小一半以上
+        PricePoint full = bar(1_600_000_020L, "88.94", "88.9", "89.10", "88.8", 1200L);
+        String v1 = "!" + Long.toString(1_600_000_020L / 60L, 36) + ",88.94,88.9,89.10,88.8,1200";
+        assertTrue(KlineMemberCodec.encode(full).length() * 2 <= v1.length());
+    }
+
+    @Test
+    void outOfRangeValuesFallBackToV1() {
+        PricePoint big = bar(600L, "123456789012345678901234567890", "1", "1", "1", 0L);
+        String member = KlineMemberCodec.encode(big);
+        assertEquals(KlineMemberCodec.V1, member.charAt(0));
+        assertFalse(KlineMemberCodec.isCurrent(member));
+        assertDecimal("123456789012345678901234567890", KlineMemberCodec.decode(member, null).getClose());
+    }
+
+    @Test
+    void legacyMembersAreStillDecoded() {
+        assertFalse(KlineMemberCodec.isCurrent("88.94"));
+        PricePoint p = KlineMemberCodec.decode("88.94", 26_666_667.0);
+        assertEquals(26_666_667L * 60L, p.getTs());
+        assertEquals(new BigDecimal("88.94"), p.getOpen());
+        assertEquals(new BigDecimal("88.94"), p.getClose());
+        // v1: 分钟在成员中
+        assertFalse(KlineMemberCodec.isCurrent("!a,88.94,88.9,89.10,88.8,1200"));
+        PricePoint v1 = KlineMemberCodec.decode("!a,88.94,88.9,89.10,88.8,1200", null);
+        assertEquals(600L, v1.getTs());
+        assertEquals(new BigDecimal("89.10"), v1.getHigh());
+        assertEquals(1200L, v1.getVol());
+        assertNull(KlineMemberCodec.decode("!zz", null));
+        assertNull(KlineMemberCodec.decode("abc", 1.0));
+        assertNull(KlineMemberCodec.decode("C#", 1.0));
+        assertNull(KlineMemberCodec.encode(new PricePoint()));
+    }
+
+    @Test
+    void replaceMinutesSplitsLargeBatches() {
+        List<byte[][]> calls = new ArrayList<>();
+        RedisConnection conn = Mockito.mock(RedisConnection.class, call -> {
+            if ("eval".equals(call.getMethod().getName())) {
+                calls.add((byte[][]) ((Invocation) call).getRawArguments()[3]);
+            }
+            return null;
+        });
+        Map<Long, String> members = new LinkedHashMap<>();
+        for (long m = 0; m < 600; m++) {
+            members.put(m, KlineMemberCodec.encode(bar(m * 60L, "1", "1", "1", "1", m)));
+        }
+        byte[] key = "kline:1m:1:600000".getBytes(StandardCharsets.UTF_8);
+        TimelineRedisWriter.replaceMinutes(Mockito.mock(RedisConnection.class), key, new LinkedHashMap<>());
+        TimelineRedisWriter.replaceMinutes(conn, key, members);
+
+        assertEquals(2, calls.size());
+        assertEquals(1 + 512 * 2, calls.get(0).length);
+        assertEquals(1 + 88 * 2, calls.get(1).length);
+        byte[][] last = calls.get(1);
+        assertEquals("kline:1m:1:600000", new String(last[0], StandardCharsets.UTF_8));
+        assertEquals("599", new String(last[last.length - 2], StandardCharsets.UTF_8));
+        assertEquals(members.get(599L), new String(last[last.length - 1], StandardCharsets.UTF_8));
+    }
+
+    private static PricePoint bar(long ts, String c, String o, String h, String l, long vol) {
+        PricePoint p = new PricePoint();
+        p.setTs(ts);
+        p.setClose(new BigDecimal(c));
+        p.setOpen(new BigDecimal(o));
+        p.setHigh(new BigDecimal(h));
+        p.setLow(new BigDecimal(l));
+        p.setVol(vol);
+        return p;
+    }
+
+    private static void assertDecimal(String expected, BigDecimal actual) {
+        assertEquals(0, new BigDecimal(expected).compareTo(actual), expected + " != " + actual);
+    }
+}
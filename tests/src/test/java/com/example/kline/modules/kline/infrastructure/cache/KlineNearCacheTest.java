@@ -0,0 +1,108 @@
+package com.example.kline.modules.kline.infrastructure.cache;
+
+import com.example.kline.modules.kline.domain.entity.PricePoint;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * 近端缓存: 按访问时间淘汰、补丁/失效后的字节记账、加载期间被修改的结果不入缓存、过期
+ *
+ * @author xubohan@myhexin.com
+ * @date 2026-10-18 10:10:00
+ */
+public class KlineNearCacheTest {
+
+    private static final long ENTRY_OVERHEAD = 128L;
+
+    @Test
+    void evictsLeastRecentlyAccessedEntryWhenOverBudget() throws Exception {
+        long per = series(10).estimatedBytes() + ENTRY_OVERHEAD;
+        KlineNearCache cache = cache(2 * per + per / 2, 60000L);
+        cache.put("a", series(10), cache.beginLoad("a"));
+        cache.put("b", series(10), cache.beginLoad("b"));
+        Thread.sleep(5L);
+        assertNotNull(cache.get("a"));
+
+        cache.put("c", series(10), cache.beginLoad("c"));
+        assertEquals(2, cache.entries());
+        assertEquals(2 * per, cache.usedBytes());
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("a"));
+        assertNotNull(cache.get("c"));
+        assertEquals(1L, cache.stats().get("evictions"));
+    }
+
+    @Test
+    void patchesAndInvalidationKeepByteAccounting() {
+        KlineNearCache cache = cache(1L << 20, 60000L);
+        long version = cache.beginLoad("a");
+        cache.put("a", series(10), version);
+        List<PricePoint> bars = new ArrayList<>();
+        for (int i = 10; i < 200; i++) {
+            bars.add(bar(i));
+        }
+        cache.patch("a", bars);
+        ColumnarSeries patched = cache.get("a");
+        assertEquals(200, patched.size());
+        assertEquals(patched.estimatedBytes() + ENTRY_OVERHEAD, cache.usedBytes());
+
+        // 加载开始后被打过补丁: 结果丢弃
+        long stale = cache.beginLoad("b");
+        cache.patch("b", Collections.singletonList(bar(0)));
+        cache.put("b", series(10), stale);
+        assertNull(cache.get("b"));
+        assertEquals(1L, cache.stats().get("staleLoads"));
+
+        cache.invalidate("a");
+        assertNull(cache.get("a"));
+        assertEquals(0L, cache.usedBytes());
+        assertEquals(0, cache.entries());
+    }
+
+    @Test
+    void expiredEntriesAreDropped() throws Exception {
+        KlineNearCache cache = cache(1L << 20, 1L);
+        cache.put("a", series(10), cache.beginLoad("a"));
+        Thread.sleep(5L);
+        assertNull(cache.get("a"));
+        assertEquals(0L, cache.usedBytes());
+        assertEquals(1L, cache.stats().get("expirations"));
+    }
+
+    private static KlineNearCache cache(long maxBytes, long ttlMs) {
+        return new KlineNearCache(new MockEnvironment()
+            .withProperty("app.redis.external", "true")
+            .withProperty("app.redis.near-cache.enabled", "true")
+            .withProperty("app.redis.near-cache.max-bytes", String.valueOf(maxBytes))
+            .withProperty("app.redis.near-cache.ttl-ms", String.valueOf(ttlMs)));
+    }
+
+    private static ColumnarSeries series(int n) {
+        List<PricePoint> points = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            points.add(bar(i));
+        }
+        return ColumnarSeries.of(points);
+    }
+
+    private static PricePoint bar(int minute) {
+        BigDecimal v = BigDecimal.valueOf(1000 + minute, 2);
+        PricePoint p = new PricePoint();
+        p.setTs(60L * minute);
+        p.setOpen(v);
+        p.setHigh(v);
+        p.setLow(v);
+        p.setClose(v);
+        p.setVol(1L);
+        return p;
+    }
+}
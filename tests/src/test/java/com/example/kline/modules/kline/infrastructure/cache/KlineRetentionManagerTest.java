@@ -0,0 +1,176 @@
+package com.example.kline.modules.kline.infrastructure.cache;
+
+import com.example.kline.common.metrics.KlineMetrics;
+import com.example.kline.modules.kline.domain.entity.PricePoint;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.ZSetOperations.TypedTuple;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+
+/**
+ * 保留期清理: 提交脚本受锁与摘要保护, 锁丢失即停止, 冲突时重读
+ *
+ * @author xubohan@myhexin.com
+ * @date 2026-10-17 14:50:00
+ */
+public class KlineRetentionManagerTest {
+    private static final String KEY = "kline:1m:1:600000";
+    private static final long NOW = 40L * 86400L;
+
+    private StringRedisTemplate template;
+    private final AtomicInteger renewals = new AtomicInteger();
+    private final AtomicInteger renewOk = new AtomicInteger(Integer.MAX_VALUE);
+    private final List<Long> commitResults = new ArrayList<>();
+    private final List<Object[]> commits = new ArrayList<>();
+    private final Set<TypedTuple<String>> minutes = new LinkedHashSet<>();
+    private KlineRetentionManager manager;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() throws Exception {
+        template = Mockito.mock(StringRedisTemplate.class);
+        ValueOperations<String, String> values = Mockito.mock(ValueOperations.class);
+        Mockito.when(template.opsForValue()).thenReturn(values);
+        Mockito.when(values.setIfAbsent(eq(KlineRetentionManager.LOCK_KEY), anyString(), anyLong(), any(TimeUnit.class)))
+            .thenReturn(true);
+        Mockito.when(template.executeWithStickyConnection(any(RedisCallback.class))).thenAnswer(inv -> cursor(KEY));
+        ZSetOperations<String, String> z = Mockito.mock(ZSetOperations.class);
+        Mockito.when(template.opsForZSet()).thenReturn(z);
+        Mockito.when(z.rangeByScoreWithScores(eq(KEY), anyDouble(), anyDouble(), anyLong(), anyLong()))
+            .thenAnswer(inv -> new LinkedHashSet<>(minutes));
+        Mockito.when(z.rangeByScoreWithScores(anyString(), anyDouble(), anyDouble()))
+            .thenReturn(Collections.emptySet());
+        Mockito.when(template.execute(any(RedisScript.class), any(List.class), any())).thenAnswer(inv -> {
+            RedisScript<?> script = inv.getArgument(0);
+            Object[] args = Arrays.copyOfRange(inv.getArguments(), 2, inv.getArguments().length);
+            if (script == KlineRetentionManager.COMMIT) {
+                commits.add(args);
+                long r = commitResults.isEmpty() ? minutes.size() : commitResults.remove(0);
+                if (r >= 0) minutes.clear();
+                return r;
+            }
+            if (script.getScriptAsString().contains("EXPIRE")) {
+                return renewals.incrementAndGet() <= renewOk.get() ? 1L : 0L;
+            }
+            return 1L;
+        });
+
+        MockEnvironment env = new MockEnvironment()
+            .withProperty("app.retention.enabled", "true")
+            .withProperty("app.retention.keys-per-sec", "100000");
+        RedisKlineCache cache = Mockito.mock(RedisKlineCache.class);
+        Mockito.when(cache.isExternalEnabled()).thenReturn(true);
+        manager = new KlineRetentionManager(env, template, cache, new KlineMetrics());
+
+        // 早于 15 天窗口的两天, 每天两分钟
+        for (long day = 0; day < 2; day++) {
+            for (long m = 0; m < 2; m++) {
+                long minute = day * 1440L + m;
+                minutes.add(new DefaultTypedTuple<>(KlineMemberCodec.encode(bar(minute, 10 + m)), (double) minute));
+            }
+        }
+    }
+
+    @Test
+    void commitCarriesOwnerDigestAndTierBars() {
+        List<String> members = new ArrayList<>();
+        for (TypedTuple<String> t : minutes) members.add(t.getValue());
+
+        assertEquals(4L, manager.runOnce(NOW));
+        assertEquals(1, commits.size());
+        Object[] args = commits.get(0);
+        assertEquals(KlineRetentionManager.sha1(members), args[2]);
+        // 1d 层级: first, last, 已有摘要 (空), 两个 bar
+        assertEquals(KlineRetentionManager.sha1(Collections.emptyList()), args[5]);
+        assertEquals("2", args[6]);
+        assertEquals("0", args[7]);
+        PricePoint day0 = KlineMemberCodec.decode((String) args[8], 0.0);
+        assertEquals(21L, day0.getVol());
+        assertEquals(1L, manager.stats().get("runs"));
+        assertEquals(2L, manager.stats().get("tierBars"));
+    }
+
+    @Test
+    void conflictingCommitIsRetriedFromAFreshRead() {
+        commitResults.add(-1L);
+        assertEquals(4L, manager.runOnce(NOW));
+        assertEquals(2, commits.size());
+        assertEquals(1L, manager.stats().get("conflicts"));
+
+        minutes.add(new DefaultTypedTuple<>(KlineMemberCodec.encode(bar(5, 1)), 5.0));
+        for (int i = 0; i < KlineRetentionManager.MAX_CONFLICTS; i++) commitResults.add(-1L);
+        assertEquals(0L, manager.runOnce(NOW));
+        assertEquals(1L, manager.stats().get("failedKeys"));
+        assertEquals(1, minutes.size());
+    }
+
+    @Test
+    void runStopsWhenLockIsLost() {
+        renewOk.set(0);
+        assertEquals(0L, manager.runOnce(NOW));
+        assertTrue(commits.isEmpty());
+        assertEquals(1L, manager.stats().get("lostLocks"));
+
+        // 提交时发现锁已被其他实例取得: 不写入, 结束本轮
+        renewOk.set(Integer.MAX_VALUE);
+        commitResults.add(-2L);
+        assertEquals(0L, manager.runOnce(NOW));
+        assertEquals(2L, manager.stats().get("lostLocks"));
+        assertEquals(4, minutes.size());
+    }
+
+    @Test
+    void digestMatchesRedisSha1hexOfJoinedMembers() {
+        assertEquals("da39a3ee5e6b4b0d3255bfef95601890afd80709", KlineRetentionManager.sha1(Collections.emptyList()));
+        // printf 'a\nb' | sha1sum
+        assertEquals("fcd127ffa1016069006ad91f3f361248f9bdf272", KlineRetentionManager.sha1(Arrays.asList("a", "b")));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Cursor<byte[]> cursor(String... keys) {
+        Iterator<String> it = Arrays.asList(keys).iterator();
+        Cursor<byte[]> c = Mockito.mock(Cursor.class);
+        Mockito.when(c.hasNext()).thenAnswer(inv -> it.hasNext());
+        Mockito.when(c.next()).thenAnswer(inv -> it.next().getBytes(StandardCharsets.UTF_8));
+        return c;
+    }
+
+    private static PricePoint bar(long minute, long vol) {
+        PricePoint p = new PricePoint();
+        p.setTs(minute * 60L);
+        p.setOpen(BigDecimal.TEN);
+        p.setHigh(BigDecimal.TEN);
+        p.setLow(BigDecimal.TEN);
+        p.setClose(BigDecimal.TEN);
+        p.setVol(vol);
+        return p;
+    }
+}
@@ -0,0 +1,164 @@
+package com.example.kline.modules.kline.infrastructure.cache;
+
+import com.example.kline.modules.kline.domain.entity.KlineResponse;
+import com.example.kline.modules.kline.domain.entity.PricePoint;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 列式快照: 写出后映射恢复、映射序列再次写出、恢复后继续写入、截断或损坏的文件被整体忽略
+ *
+ * @author xubohan@myhexin.com
+ * @date 2026-10-18 12:40:00
+ */
+public class KlineSnapshotStoreTest {
+
+    private static final String[][] SYMBOLS = {{"600000", "1"}, {"000001", "0"}, {"AAPL", "US"}};
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void writtenSnapshotRestoresEverySeries() throws Exception {
+        RedisKlineCache source = filledCache();
+        assertEquals(SYMBOLS.length, store(source).write());
+        assertFalse(Files.exists(dir.resolve("kline-1m.snap.tmp")));
+
+        RedisKlineCache restored = new RedisKlineCache(new MockEnvironment(), null);
+        KlineSnapshotStore store = store(restored);
+        assertEquals(SYMBOLS.length, store.load());
+        assertEquals((long) SYMBOLS.length, store.stats().get("loadedSeries"));
+        for (String[] s : SYMBOLS) {
+            assertSameData(source, restored, s[0], s[1], null, null, null);
+            assertSameData(source, restored, s[0], s[1], 600L, 1800L, 7);
+        }
+
+        // 映射序列原样再写出一次, 第三个实例读到的仍是同样的数据
+        assertEquals(SYMBOLS.length, store.write());
+        RedisKlineCache again = new RedisKlineCache(new MockEnvironment(), null);
+        assertEquals(SYMBOLS.length, store(again).load());
+        assertSameData(source, again, "AAPL", "US", null, null, null);
+
+        // 恢复后的写入: 映射序列先物化再合并
+        restored.putBatch(response("600000", "1", bar(60L * 40, "99.5"), bar(60L * 3, "1.25")), 0L);
+        List<PricePoint> merged = restored.getRange("600000", "1", null, null, null).getData();
+        assertEquals(41, merged.size());
+        assertEquals(0, new BigDecimal("1.25").compareTo(merged.get(3).getClose()));
+        assertEquals(60L * 40, merged.get(40).getTs());
+    }
+
+    @Test
+    void truncatedOrCorruptSnapshotIsIgnored() throws Exception {
+        store(filledCache()).write();
+        Path file = dir.resolve("kline-1m.snap");
+        byte[] bytes = Files.readAllBytes(file);
+
+        for (int cut : new int[]{1, 8, 16, 17, bytes.length / 2, bytes.length - 9, bytes.length - 1}) {
+            Files.write(file, Arrays.copyOf(bytes, bytes.length - cut));
+            assertNothingLoaded("truncated by " + cut);
+        }
+        Files.write(file, new byte[0]);
+        assertNothingLoaded("empty");
+
+        // 索引偏移越过文件尾
+        byte[] badIndex = bytes.clone();
+        ByteBuffer.wrap(badIndex).putLong(bytes.length - 16, bytes.length);
+        Files.write(file, badIndex);
+        assertNothingLoaded("bad index offset");
+
+        // 第一个索引项的点数越界: 整个文件都不挂载, 不会只挂上一半
+        ByteBuffer buf = ByteBuffer.wrap(bytes.clone());
+        int pos = (int) buf.getLong(bytes.length - 16) + 4;
+        pos += 2 + buf.getShort(pos);
+        pos += 2 + buf.getShort(pos);
+        buf.putInt(pos, Integer.MAX_VALUE);
+        Files.write(file, buf.array());
+        assertNothingLoaded("bad entry count");
+
+        // 原文件恢复后照常加载
+        Files.write(file, bytes);
+        assertEquals(SYMBOLS.length, store(new RedisKlineCache(new MockEnvironment(), null)).load());
+    }
+
+    private void assertNothingLoaded(String what) {
+        RedisKlineCache cache = new RedisKlineCache(new MockEnvironment(), null);
+        assertEquals(0, store(cache).load(), what);
+        for (String[] s : SYMBOLS) {
+            assertTrue(cache.getRange(s[0], s[1], null, null, null).getData().isEmpty(), what);
+        }
+        assertNull(cache.getRange("600000", "1", null, null, null).getStockcode(), what);
+    }
+
+    private KlineSnapshotStore store(RedisKlineCache cache) {
+        return new KlineSnapshotStore(new MockEnvironment()
+            .withProperty("app.snapshot.enabled", "true")
+            .withProperty("app.snapshot.dir", dir.toString())
+            .withProperty("app.snapshot.interval-sec", "0"), cache);
+    }
+
+    private static RedisKlineCache filledCache() {
+        RedisKlineCache cache = new RedisKlineCache(new MockEnvironment(), null);
+        for (int k = 0; k < SYMBOLS.length; k++) {
+            KlineResponse r = response(SYMBOLS[k][0], SYMBOLS[k][1]);
+            for (int m = 0; m < 40; m++) {
+                // 不同精度与空成交量
+                PricePoint p = bar(60L * m, BigDecimal.valueOf(100_000 + m * 37 + k, m % 5).toPlainString());
+                if (m == 5) p.setVol(null);
+                r.addPricePoint(p);
+            }
+            cache.putBatch(r, 0L);
+        }
+        return cache;
+    }
+
+    private static void assertSameData(RedisKlineCache expected, RedisKlineCache actual, String stockcode,
+                                       String marketId, Long startTs, Long endTs, Integer limit) {
+        List<PricePoint> a = expected.getRange(stockcode, marketId, startTs, endTs, limit).getData();
+        List<PricePoint> b = actual.getRange(stockcode, marketId, startTs, endTs, limit).getData();
+        assertEquals(a.size(), b.size());
+        for (int i = 0; i < a.size(); i++) {
+            PricePoint x = a.get(i), y = b.get(i);
+            assertEquals(x.getTs(), y.getTs());
+            assertEquals(x.getOpen(), y.getOpen());
+            assertEquals(x.getHigh(), y.getHigh());
+            assertEquals(x.getLow(), y.getLow());
+            assertEquals(x.getClose(), y.getClose());
+            assertEquals(x.getVol(), y.getVol());
+        }
+    }
+
+    private static KlineResponse response(String stockcode, String marketId, PricePoint... bars) {
+        KlineResponse r = new KlineResponse();
+        r.setStockcode(stockcode);
+        r.setMarketId(marketId);
+        for (PricePoint p : bars) {
+            r.addPricePoint(p);
+        }
+        return r;
+    }
+
+    private static PricePoint bar(long ts, String price) {
+        BigDecimal v = new BigDecimal(price);
+        PricePoint p = new PricePoint();
+        p.setTs(ts);
+        p.setOpen(v);
+        p.setHigh(v.add(BigDecimal.ONE));
+        p.setLow(v.subtract(BigDecimal.ONE));
+        p.setClose(v);
+        p.setVol(ts + 1);
+        return p;
+    }
+}
@@ -0,0 +1,150 @@
+package com.example.kline.modules.kline.infrastructure.cache;
+
+import com.example.kline.modules.kline.domain.entity.TimelineTick;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+
+/**
+ * 最新行情: 当日累计、迟到成交、重投去重与 Redis hash 镜像往返
+ *
+ * @author xubohan@myhexin.com
+ * @date 2026-10-17 22:30:00
+ */
+public class LatestQuoteTableTest {
+
+    private static final long DAY = 86400L;
+    private static final long D = 20000L * DAY;
+
+    @Test
+    void accumulatesDayAndTakesOpenFromEarliestTick() {
+        LatestQuoteTable table = new LatestQuoteTable();
+        table.onTick(tick(D + 600, "10.2", 5L, 0, 1L));
+        // 迟到但更早的成交: 改写开盘, 不改最新价
+        table.onTick(tick(D + 60, "10.0", 3L, 0, 2L));
+        table.onTick(tick(D + 900, "10.5", 2L, 0, 3L));
+        table.onTick(tick(D + 300, "9.8", 1L, 0, 4L));
+
+        Map<String, Object> q = table.get("600000", "1");
+        assertDecimal("10.5", q.get("price"));
+        assertDecimal("10.0", q.get("open"));
+        assertDecimal("10.5", q.get("high"));
+        assertDecimal("9.8", q.get("low"));
+        assertEquals(11L, q.get("vol"));
+        assertNull(q.get("prevClose"));
+
+        // 次日: 昨收为上一交易日最后价, 成交量重新累计; 上一交易日的迟到成交丢弃
+        table.onTick(tick(D + DAY + 60, "11", 4L, 0, 5L));
+        table.onTick(tick(D + 1000, "12", 9L, 0, 6L));
+        q = table.get("600000", "1");
+        assertDecimal("10.5", q.get("prevClose"));
+        assertDecimal("11", q.get("open"));
+        assertEquals(4L, q.get("vol"));
+        assertEquals(1L, table.stats().get("staleTicks"));
+    }
+
+    @Test
+    void redeliveredOffsetsAreNotCountedTwice() {
+        LatestQuoteTable table = new LatestQuoteTable();
+        table.onTick(tick(D + 60, "10", 5L, 0, 10L));
+        table.onTick(tick(D + 120, "10.1", 5L, 1, 3L));
+        // 重平衡 / SeekToCurrent 重投
+        table.onTick(tick(D + 60, "10", 5L, 0, 10L));
+        table.onTick(tick(D + 120, "10.1", 5L, 1, 3L));
+        table.onTick(tick(D + 180, "10.2", 5L, 0, 11L));
+
+        assertEquals(15L, table.get("600000", "1").get("vol"));
+        assertEquals(2L, table.stats().get("duplicateTicks"));
+
+        // 没有来源位点的成交 (文件导入等) 不去重
+        table.onTick(new TimelineTick("600000", "1", D + 240, new BigDecimal("10.3"), 1L));
+        table.onTick(new TimelineTick("600000", "1", D + 240, new BigDecimal("10.3"), 1L));
+        assertEquals(17L, table.get("600000", "1").get("vol"));
+    }
+
+    @Test
+    void encodedQuoteRoundTripsWithOffsets() {
+        LatestQuoteTable.Quote q = new LatestQuoteTable.Quote("600000", "1");
+        q.apply(D + 600, 102000L, 1, 5L, 0, 7L);
+        q.apply(D + 60, 100000L, 1, 3L, 2, 4L);
+
+        LatestQuoteTable.Quote back = LatestQuoteTable.Quote.decode("600000", "1", q.encode());
+        assertNotNull(back);
+        assertEquals(q.toMap(), back.toMap());
+        assertEquals(q.encode(), back.encode());
+        assertEquals(LatestQuoteTable.Quote.DUPLICATE, back.apply(D + 600, 102000L, 1, 5L, 0, 7L));
+        assertEquals(LatestQuoteTable.Quote.DUPLICATE, back.apply(D + 60, 100000L, 1, 3L, 2, 4L));
+        assertEquals(LatestQuoteTable.Quote.APPLIED, back.apply(D + 660, 103000L, 1, 1L, 1, 0L));
+
+        // 旧的 8 字段格式仍可读取
+        LatestQuoteTable.Quote legacy = LatestQuoteTable.Quote.decode("600000", "1",
+            (D + 600) + ",102000,100000,102000,100000,,8,1");
+        assertNotNull(legacy);
+        assertEquals(8L, legacy.toMap().get("vol"));
+        assertNull(LatestQuoteTable.Quote.decode("600000", "1", (D + 600) + ",1,1,1,1,,8,1,,x"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void restartWarmedFromHashSkipsRedeliveredTicks() {
+        Map<Object, Object> hash = new HashMap<>();
+        StringRedisTemplate template = Mockito.mock(StringRedisTemplate.class);
+        Mockito.when(template.execute(any(RedisScript.class), anyList(), any())).thenAnswer(inv -> {
+            Object[] args = inv.getArguments();
+            for (int i = 2; i + 1 < args.length; i += 2) {
+                hash.put(args[i], args[i + 1]);
+            }
+            return (long) (args.length - 2) / 2;
+        });
+        HashOperations<String, Object, Object> ops = Mockito.mock(HashOperations.class);
+        Mockito.when(ops.entries(LatestQuoteTable.HASH_KEY)).thenAnswer(inv -> new HashMap<>(hash));
+        Mockito.doReturn(ops).when(template).opsForHash();
+
+        LatestQuoteTable first = table(template);
+        first.onTick(tick(D + 60, "10", 5L, 0, 10L));
+        first.onTick(tick(D + 120, "10.1", 6L, 0, 11L));
+        assertEquals(1, first.flush());
+        assertEquals(1, hash.size());
+
+        // 重启: 预热后从已提交位点之前重放
+        LatestQuoteTable second = table(template);
+        second.start();
+        second.shutdown();
+        second.onTick(tick(D + 60, "10", 5L, 0, 10L));
+        second.onTick(tick(D + 120, "10.1", 6L, 0, 11L));
+        second.onTick(tick(D + 180, "10.2", 1L, 0, 12L));
+
+        Map<String, Object> q = second.get("600000", "1");
+        assertEquals(12L, q.get("vol"));
+        assertDecimal("10.2", q.get("price"));
+        assertEquals(2L, second.stats().get("duplicateTicks"));
+    }
+
+    private static LatestQuoteTable table(StringRedisTemplate template) {
+        RedisKlineCache cache = Mockito.mock(RedisKlineCache.class);
+        Mockito.when(cache.isExternalEnabled()).thenReturn(true);
+        return new LatestQuoteTable(new MockEnvironment().withProperty("app.latest.flush-interval-ms", "60000"),
+            new SymbolRegistry(), cache, template);
+    }
+
+    private static TimelineTick tick(long ts, String price, long vol, int partition, long offset) {
+        return new TimelineTick("600000", "1", ts, new BigDecimal(price), vol).withSource(partition, offset);
+    }
+
+    private static void assertDecimal(String expected, Object actual) {
+        assertEquals(0, new BigDecimal(expected).compareTo((BigDecimal) actual), expected + " != " + actual);
+    }
+}
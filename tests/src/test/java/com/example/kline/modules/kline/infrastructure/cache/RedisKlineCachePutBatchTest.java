@@ -0,0 +1,113 @@
+package com.example.kline.modules.kline.infrastructure.cache;
+
+import com.example.kline.modules.kline.domain.entity.KlineResponse;
+import com.example.kline.modules.kline.domain.entity.PricePoint;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+
+/**
+ * putBatch 增量合并: 内存序列逐点 upsert (追加、乱序、同分钟覆盖)、注册表满时的兜底序列、字符串副本读-合并-写
+ *
+ * @author xubohan@myhexin.com
+ * @date 2026-10-18 11:00:00
+ */
+public class RedisKlineCachePutBatchTest {
+
+    @Test
+    void singleBarBatchesAccumulateInsteadOfReplacingTheSeries() {
+        RedisKlineCache cache = new RedisKlineCache(new MockEnvironment(), null);
+        cache.putBatch(response("600000", "1", bar(60, "10"), bar(120, "10.1")), 0L);
+        cache.putBatch(response("600000", "1", bar(180, "10.2")), 0L);
+        // 乱序分钟插入中间, 同一分钟覆盖
+        cache.putBatch(response("600000", "1", bar(0, "9.9")), 0L);
+        cache.putBatch(response("600000", "1", bar(120, "10.15")), 0L);
+
+        List<PricePoint> data = cache.getRange("600000", "1", null, null, null).getData();
+        assertEquals(4, data.size());
+        long[] ts = {0, 60, 120, 180};
+        String[] close = {"9.9", "10", "10.15", "10.2"};
+        for (int i = 0; i < ts.length; i++) {
+            assertEquals(ts[i], data.get(i).getTs());
+            assertEquals(0, new BigDecimal(close[i]).compareTo(data.get(i).getClose()), close[i]);
+        }
+        assertEquals(2, cache.getRange("600000", "1", 60L, 120L, null).getData().size());
+    }
+
+    @Test
+    void liveSeriesIsStableAndFallsBackWhenRegistryIsFull() {
+        SymbolRegistry symbols = new SymbolRegistry(new MockEnvironment().withProperty("app.symbols.max-size", "1"));
+        RedisKlineCache cache = new RedisKlineCache(new MockEnvironment(), null, new KlineNearCache(), symbols);
+        ColumnarSeries first = cache.liveSeries("600000", "1");
+        assertSame(first, cache.liveSeries("600000", "1"));
+
+        // 注册表已满: 落到按字符串 key 的兜底存储, 写入与查询不受影响
+        ColumnarSeries overflow = cache.liveSeries("000001", "0");
+        assertSame(overflow, cache.liveSeries("000001", "0"));
+        assertEquals(1, symbols.size());
+        cache.putBatch(response("000001", "0", bar(60, "5")), 0L);
+        cache.putBatch(response("000001", "0", bar(120, "5.1")), 0L);
+        assertEquals(2, cache.getRange("000001", "0", null, null, null).getData().size());
+        assertEquals(2, overflow.size());
+    }
+
+    @Test
+    void stringCopyMergesWithTheStoredValue() {
+        Map<String, String> values = new HashMap<>();
+        StringRedisTemplate template = Mockito.mock(StringRedisTemplate.class);
+        @SuppressWarnings("unchecked")
+        ValueOperations<String, String> ops = Mockito.mock(ValueOperations.class);
+        Mockito.when(ops.get(anyString())).thenAnswer(inv -> values.get(inv.<String>getArgument(0)));
+        Mockito.doAnswer(inv -> values.put(inv.getArgument(0), inv.getArgument(1))).when(ops).set(anyString(), anyString());
+        Mockito.when(template.opsForValue()).thenReturn(ops);
+        RedisKlineCache cache = new RedisKlineCache(new MockEnvironment()
+            .withProperty("app.redis.external", "true")
+            .withProperty("app.redis.string-copy.enabled", "true"), template);
+
+        cache.putBatch(response("600000", "1", bar(60, "10"), bar(120, "10.1")), 0L);
+        cache.putBatch(response("600000", "1", bar(120, "10.15"), bar(180, "10.2")), 0L);
+
+        assertEquals(1, values.size());
+        // 读回合并结果 (首批 60 分钟未被第二批覆盖掉)
+        List<PricePoint> stored = cache.getRange("600000", "1", null, null, null).getData();
+        assertEquals(3, stored.size());
+        assertEquals(60L, stored.get(0).getTs());
+        assertEquals(120L, stored.get(1).getTs());
+        assertEquals(0, new BigDecimal("10.15").compareTo(stored.get(1).getClose()));
+        assertTrue(cache.liveSeries("600000", "1").size() == 0, "external mode must not fill the memory series");
+    }
+
+    private static KlineResponse response(String stockcode, String marketId, PricePoint... bars) {
+        KlineResponse r = new KlineResponse();
+        r.setStockcode(stockcode);
+        r.setMarketId(marketId);
+        for (PricePoint p : bars) {
+            r.addPricePoint(p);
+        }
+        return r;
+    }
+
+    private static PricePoint bar(long ts, String price) {
+        BigDecimal v = new BigDecimal(price);
+        PricePoint p = new PricePoint();
+        p.setTs(ts);
+        p.setOpen(v);
+        p.setHigh(v);
+        p.setLow(v);
+        p.setClose(v);
+        p.setVol(1L);
+        return p;
+    }
+}
@@ -0,0 +1,111 @@
+package com.example.kline.modules.kline.infrastructure.cache;
+
+import com.example.kline.common.metrics.KlineMetrics;
+import com.example.kline.modules.kline.domain.entity.KlineResponse;
+import com.example.kline.modules.kline.domain.entity.PricePoint;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+
+/**
+ * 近端缓存补丁在 ZSET 写入成功之后进行
+ *
+ * @author xubohan@myhexin.com
+ * @date 2026-10-17 15:20:00
+ */
+public class TimelineRedisWriterNearCacheTest {
+
+    private final List<String> calls = new CopyOnWriteArrayList<>();
+    private final AtomicInteger failuresLeft = new AtomicInteger();
+    private TimelineRedisWriter writer;
+    private KlineNearCache nearCache;
+
+    @AfterEach
+    void tearDown() {
+        writer.shutdown();
+    }
+
+    @Test
+    void synchronousWritePatchesAfterZSetWrite() {
+        start(false);
+        writer.write("600000", "1", 60L, new BigDecimal("10.5"));
+
+        assertEquals("zset,publish", String.join(",", calls));
+        assertEquals(1L, nearCache.stats().get("localPatches"));
+    }
+
+    @Test
+    void writeBehindPatchesOnlyAfterSuccessfulFlush() throws Exception {
+        failuresLeft.set(2);
+        start(true);
+        writer.write("600000", "1", 60L, new BigDecimal("10.5"));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!calls.contains("publish") && System.nanoTime() < deadline) {
+            Thread.sleep(2);
+        }
+
+        // 两次失败的 flush 都没有打补丁, 成功写入后才广播
+        assertEquals("failed,failed,zset,publish", String.join(",", calls));
+        assertEquals(1L, nearCache.stats().get("localPatches"));
+    }
+
+    @Test
+    void writeBatchReportsPipelineFailure() {
+        failuresLeft.set(1);
+        start(false);
+        PricePoint p = new PricePoint();
+        p.setTs(60L);
+        p.setOpen(BigDecimal.ONE); p.setHigh(BigDecimal.ONE); p.setLow(BigDecimal.ONE); p.setClose(BigDecimal.ONE);
+        KlineResponse r = new KlineResponse();
+        r.setStockcode("600000");
+        r.setMarketId("1");
+        r.addPricePoint(p);
+
+        // 失败的 pipeline 不打补丁, 调用方 (文件导入) 据此计为失败分块
+        assertFalse(writer.writeBatch(Collections.singletonList(r)));
+        assertTrue(writer.writeBatch(Collections.singletonList(r)));
+        assertEquals("failed,zset,publish", String.join(",", calls));
+    }
+
+    @SuppressWarnings("unchecked")
+    private void start(boolean writeBehind) {
+        MockEnvironment env = new MockEnvironment()
+            .withProperty("app.redis.external", "true")
+            .withProperty("app.redis.near-cache.enabled", "true")
+            .withProperty("app.redis.write-behind.enabled", Boolean.toString(writeBehind))
+            .withProperty("app.redis.write-behind.flush-interval-ms", "5")
+            .withProperty("app.redis.write-behind.retry-backoff-ms", "5");
+        StringRedisTemplate template = Mockito.mock(StringRedisTemplate.class);
+        Mockito.when(template.executePipelined(any(RedisCallback.class))).thenAnswer(inv -> {
+            if (failuresLeft.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+                calls.add("failed");
+                throw new RedisConnectionFailureException("redis down");
+            }
+            ((RedisCallback<Object>) inv.getArgument(0)).doInRedis(Mockito.mock(RedisConnection.class));
+            calls.add("zset");
+            return null;
+        });
+        Mockito.doAnswer(inv -> calls.add("publish")).when(template)
+            .convertAndSend(Mockito.eq(KlineNearCache.CHANNEL), anyString());
+        nearCache = new KlineNearCache(env);
+        writer = new TimelineRedisWriter(env, template, new SymbolRegistry(), nearCache, new KlineMetrics());
+    }
+}
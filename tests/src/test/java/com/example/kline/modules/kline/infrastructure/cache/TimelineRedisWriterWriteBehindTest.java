@@ -0,0 +1,186 @@
+package com.example.kline.modules.kline.infrastructure.cache;
+
+import com.example.kline.modules.kline.domain.entity.PricePoint;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.Invocation;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+
+/**
+ * 写后缓冲: flush 失败时批次保留重试, 容量回退与关闭后的写入经合并批次提交且失败时保留
+ *
+ * @author xubohan@myhexin.com
+ * @date 2026-10-17 10:40:00
+ */
+public class TimelineRedisWriterWriteBehindTest {
+
+    private StringRedisTemplate template;
+    private final AtomicInteger failuresLeft = new AtomicInteger();
+    private final AtomicInteger pipelines = new AtomicInteger();
+    /** member -> score 已成功写入的成员 */
+    private final Map<String, Double> written = new ConcurrentHashMap<>();
+    /** score -> 最后写入的成员 */
+    private final Map<Double, String> byMinute = new ConcurrentHashMap<>();
+    private TimelineRedisWriter writer;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        template = Mockito.mock(StringRedisTemplate.class);
+        Mockito.when(template.executePipelined(any(RedisCallback.class))).thenAnswer(inv -> {
+            pipelines.incrementAndGet();
+            if (failuresLeft.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+                throw new RedisConnectionFailureException("redis down");
+            }
+            // 成员经 Lua 脚本写入: KEYS[1] 之后为 (分钟, 成员) 对
+            RedisConnection conn = Mockito.mock(RedisConnection.class, call -> {
+                if ("eval".equals(call.getMethod().getName())) {
+                    byte[][] keysAndArgs = (byte[][]) ((Invocation) call).getRawArguments()[3];
+                    for (int i = 1; i + 1 < keysAndArgs.length; i += 2) {
+                        String member = new String(keysAndArgs[i + 1], StandardCharsets.UTF_8);
+                        Double score = Double.valueOf(new String(keysAndArgs[i], StandardCharsets.UTF_8));
+                        written.put(member, score);
+                        byMinute.put(score, member);
+                    }
+                }
+                return null;
+            });
+            ((RedisCallback<Object>) inv.getArgument(0)).doInRedis(conn);
+            return null;
+        });
+        writer = new TimelineRedisWriter(env(100000), template);
+    }
+
+    private static MockEnvironment env(int capacity) {
+        return new MockEnvironment()
+            .withProperty("app.redis.external", "true")
+            .withProperty("app.redis.write-behind.capacity", Integer.toString(capacity))
+            .withProperty("app.redis.write-behind.offer-timeout-ms", "5")
+            .withProperty("app.redis.write-behind.enabled", "true")
+            .withProperty("app.redis.write-behind.flush-interval-ms", "5")
+            .withProperty("app.redis.write-behind.retry-backoff-ms", "5")
+            .withProperty("app.redis.write-behind.retry-backoff-max-ms", "20");
+    }
+
+    @AfterEach
+    void tearDown() {
+        writer.shutdown();
+    }
+
+    @Test
+    void failedFlushIsRetriedUntilWritten() throws Exception {
+        failuresLeft.set(3);
+        for (int i = 0; i < 10; i++) {
+            writer.write("600000", "1", 60L * i, new BigDecimal("10." + i));
+        }
+        awaitWritten(10);
+
+        assertEquals(10, written.size());
+        assertEquals(0, writer.queueDepth());
+        Map<String, Object> stats = writer.stats();
+        assertTrue(((Long) stats.get("failedFlushes")) >= 3L);
+        assertEquals(0, stats.get("retryPending"));
+        for (double score = 0; score < 10; score++) {
+            assertTrue(written.containsValue(score), "minute " + score + " missing");
+        }
+    }
+
+    @Test
+    void newerWriteWinsOverRetriedBatch() throws Exception {
+        failuresLeft.set(2);
+        writer.write("600000", "1", 0L, new BigDecimal("1"));
+        // 等第一批失败后进入重试
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (((Long) writer.stats().get("failedFlushes")) == 0L && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        writer.write("600000", "1", 30L, new BigDecimal("2"));
+        awaitWritten(1);
+        Thread.sleep(50);
+
+        String member = KlineMemberCodec.encode(bar(30L, "2"));
+        assertEquals(0, writer.queueDepth());
+        assertTrue(written.containsKey(member), "latest member for the minute must be written: " + written);
+    }
+
+    @Test
+    void writesAfterShutdownAreSynchronous() {
+        writer.shutdown();
+        int before = pipelines.get();
+        writer.write("600000", "1", 120L, new BigDecimal("3"));
+        // 没有 flusher, 调用返回前已写入
+        assertEquals(before + 1, pipelines.get());
+        assertEquals(0, writer.queueDepth());
+        assertTrue(written.containsValue(2.0));
+    }
+
+    @Test
+    void failedWriteAfterShutdownIsKeptAndNotOverwrittenByIt() {
+        writer.shutdown();
+        failuresLeft.set(1);
+        assertFalse(writer.write("600000", "1", 120L, new BigDecimal("3")));
+        // 失败的写入保留在待重试批次中, 而不是丢弃
+        assertEquals(1, writer.queueDepth());
+
+        assertTrue(writer.write("600000", "1", 150L, new BigDecimal("4")));
+        assertEquals(0, writer.queueDepth());
+        assertEquals(KlineMemberCodec.encode(bar(150L, "4")), byMinute.get(2.0));
+    }
+
+    @Test
+    void overflowFallbackIsOrderedAfterRetriedBatch() throws Exception {
+        writer.shutdown();
+        writer = new TimelineRedisWriter(env(1), template);
+        failuresLeft.set(Integer.MAX_VALUE);
+        assertTrue(writer.write("600000", "1", 0L, new BigDecimal("1")));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (((Long) writer.stats().get("failedFlushes")) == 0L && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        // 队列已满且 Redis 不可用: 越过容量入队, 协助 flush 失败时告知调用方
+        assertFalse(writer.write("600000", "1", 30L, new BigDecimal("2")));
+        assertEquals(1L, writer.stats().get("backpressure"));
+
+        failuresLeft.set(0);
+        awaitWritten(1);
+        assertEquals(KlineMemberCodec.encode(bar(30L, "2")), byMinute.get(0.0));
+        assertEquals(0, writer.queueDepth());
+    }
+
+    private void awaitWritten(int n) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while ((written.size() < n || writer.queueDepth() > 0) && System.nanoTime() < deadline) {
+            Thread.sleep(2);
+        }
+    }
+
+    private static PricePoint bar(long ts, String price) {
+        PricePoint p = new PricePoint();
+        BigDecimal v = new BigDecimal(price);
+        p.setTs(ts);
+        p.setOpen(v);
+        p.setHigh(v);
+        p.setLow(v);
+        p.setClose(v);
+        p.setVol(0L);
+        return p;
+    }
+}
@@ -0,0 +1,136 @@
+package com.example.kline.modules.kline.infrastructure.external;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 未配置批量接口时的批量查询: 并发批量请求不能占满 async 线程池后等待自己排队的子任务
+ *
+ * @author xubohan@myhexin.com
+ * @date 2026-10-17 10:05:00
+ */
+public class NameServiceHttpBatchTest {
+
+    private HttpServer server;
+    private volatile long delayMs = 20L;
+    private String baseUrl;
+
+    @BeforeEach
+    void startStub() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newFixedThreadPool(64));
+        server.createContext("/name", exchange -> {
+            try {
+                Thread.sleep(delayMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            String q = exchange.getRequestURI().getQuery();
+            String sc = q.replaceAll(".*stockcode=([^&]*).*", "$1");
+            byte[] body = ("{\"code\":\"0\",\"message\":\"success\",\"data\":{\"stockName\":\"N" + sc + "\"}}")
+                .getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort() + "/name";
+    }
+
+    @AfterEach
+    void stopStub() {
+        server.stop(0);
+    }
+
+    @Test
+    void concurrentNonBulkBatchesComplete() throws Exception {
+        NameServiceHttp svc = new NameServiceHttp(baseUrl, "", 5000);
+        try {
+            // 远多于 async.threads(8) 的并发批量请求, 每批扇出 20 个单个查询
+            List<CompletableFuture<List<String>>> batches = new ArrayList<>();
+            for (int b = 0; b < 24; b++) {
+                List<String> sc = new ArrayList<>();
+                List<String> mk = new ArrayList<>();
+                for (int i = 0; i < 20; i++) {
+                    sc.add(String.valueOf(b * 100 + i));
+                    mk.add("33");
+                }
+                batches.add(svc.fetchNamesAsync(sc, mk));
+            }
+            for (int b = 0; b < batches.size(); b++) {
+                List<String> names = batches.get(b).get(30, TimeUnit.SECONDS);
+                assertEquals(20, names.size());
+                for (int i = 0; i < 20; i++) {
+                    assertEquals("N" + (b * 100 + i), names.get(i));
+                }
+            }
+        } finally {
+            svc.shutdown();
+        }
+    }
+
+    @Test
+    void syncBatchOnAsyncThreadsCompletes() throws Exception {
+        NameServiceHttp svc = new NameServiceHttp(baseUrl, "", 2000);
+        try {
+            // 同步批量查询本身也在 async 线程池内执行 (调用方嵌套使用) 时不能死锁
+            List<CompletableFuture<List<String>>> nested = new ArrayList<>();
+            for (int b = 0; b < 16; b++) {
+                List<String> sc = new ArrayList<>();
+                List<String> mk = new ArrayList<>();
+                for (int i = 0; i < 10; i++) {
+                    sc.add(String.valueOf(i));
+                    mk.add("33");
+                }
+                nested.add(svc.fetchNameAsync("x", "33").thenApply(ignore -> svc.fetchNames(sc, mk)));
+            }
+            for (CompletableFuture<List<String>> f : nested) {
+                List<String> names = f.get(30, TimeUnit.SECONDS);
+                assertEquals(10, names.size());
+            }
+        } finally {
+            svc.shutdown();
+        }
+    }
+
+    @Test
+    void slowServiceYieldsNullWithinDeadline() throws Exception {
+        delayMs = 1500L;
+        NameServiceHttp svc = new NameServiceHttp(baseUrl, "", 300);
+        try {
+            List<String> sc = new ArrayList<>();
+            List<String> mk = new ArrayList<>();
+            for (int i = 0; i < 40; i++) {
+                sc.add(String.valueOf(i));
+                mk.add("33");
+            }
+            long start = System.nanoTime();
+            List<String> names = svc.fetchNames(sc, mk);
+            long tookMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            assertEquals(40, names.size());
+            for (String name : names) {
+                assertNull(name);
+            }
+            // batch.timeout = 2 * timeout, 再加一层兜底等待
+            assertTrue(tookMs < 2000L, "took " + tookMs + "ms");
+        } finally {
+            svc.shutdown();
+        }
+    }
+}